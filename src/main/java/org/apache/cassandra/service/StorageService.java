@@ -150,6 +150,7 @@ import org.apache.cassandra.utils.progress.ProgressEvent;
 import org.apache.cassandra.utils.progress.ProgressEventType;
 import org.apache.cassandra.utils.progress.jmx.JMXProgressSupport;
 import org.apache.commons.lang3.StringUtils;
+import org.elasticsearch.cassandra.SegmentStreaming;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -1103,6 +1104,7 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
 
         logger.info("rebuild from dc: {}", sourceDc == null ? "(any dc)" : sourceDc);
 
+        SegmentStreaming segmentStreaming = null;
         try
         {
             RangeStreamer streamer = new RangeStreamer(tokenMetadata,
@@ -1116,12 +1118,20 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
             if (sourceDc != null)
                 streamer.addSourceFilter(new RangeStreamer.SingleDatacenterFilter(DatabaseDescriptor.getEndpointSnitch(), sourceDc));
 
+            Map<String, Collection<Range<Token>>> streamedRanges = new HashMap<>();
             for (String keyspaceName : Schema.instance.getNonSystemKeyspaces())
+            {
                 streamer.addRanges(keyspaceName, getLocalRanges(keyspaceName));
+                streamedRanges.put(keyspaceName, getLocalRanges(keyspaceName));
+            }
+            // ship the Elasticsearch documents rather than reindexing the streamed rows
+            segmentStreaming = SegmentStreaming.prepare("Rebuild", streamedRanges, sourceDc);
 
             StreamResultFuture resultFuture = streamer.fetchAsync();
             // wait for result
             resultFuture.get();
+            if (segmentStreaming != null)
+                segmentStreaming.fetch();
         }
         catch (InterruptedException e)
         {
@@ -1135,6 +1145,8 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
         }
         finally
         {
+            if (segmentStreaming != null)
+                segmentStreaming.close();
             // rebuild is done (successfully or not)
             isRebuilding.set(false);
         }
@@ -1225,6 +1237,12 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
         }
 
         setMode(Mode.JOINING, "Starting to bootstrap...", true);
+        // ship the Elasticsearch documents rather than reindexing the streamed rows
+        Map<String, Collection<Range<Token>>> streamedRanges = new HashMap<>();
+        for (String keyspaceName : Schema.instance.getNonSystemKeyspaces())
+            streamedRanges.put(keyspaceName, Keyspace.open(keyspaceName).getReplicationStrategy().getPendingAddressRanges(tokenMetadata, tokens, FBUtilities.getBroadcastAddress()));
+        SegmentStreaming segmentStreaming = SegmentStreaming.prepare("Bootstrap", streamedRanges, null);
+
         BootStrapper bootstrapper = new BootStrapper(FBUtilities.getBroadcastAddress(), tokens, tokenMetadata);
         bootstrapper.addProgressListener(progressSupport);
         ListenableFuture<StreamState> bootstrapStream = bootstrapper.bootstrap(streamStateStore, !replacing && useStrictConsistency); // handles token update
@@ -1246,6 +1264,8 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
         try
         {
             bootstrapStream.get();
+            if (segmentStreaming != null)
+                segmentStreaming.fetch();
             return true;
         }
         catch (Throwable e)
@@ -1253,6 +1273,11 @@ public class StorageService extends NotificationBroadcasterSupport implements IE
             logger.error("Error while waiting on bootstrap to complete. Bootstrap will have to be restarted.", e);
             return false;
         }
+        finally
+        {
+            if (segmentStreaming != null)
+                segmentStreaming.close();
+        }
     }
 
     public boolean resumeBootstrap()
@@ -67,6 +67,11 @@ public class NodesStatsRequestBuilder extends NodesOperationRequestBuilder<Nodes
         return this;
     }
 
+    public NodesStatsRequestBuilder setIndexingMemory(boolean indexingMemory) {
+        request.indexingMemory(indexingMemory);
+        return this;
+    }
+
     /**
      * Should the node indices stats be returned.
      */
@@ -33,6 +33,7 @@ import org.elasticsearch.index.fielddata.FieldDataStats;
 import org.elasticsearch.index.flush.FlushStats;
 import org.elasticsearch.index.get.GetStats;
 import org.elasticsearch.index.indexing.IndexingStats;
+import org.elasticsearch.index.indexing.SecondaryIndexStats;
 import org.elasticsearch.index.merge.MergeStats;
 import org.elasticsearch.index.percolator.stats.PercolateStats;
 import org.elasticsearch.index.recovery.RecoveryStats;
@@ -115,6 +116,9 @@ public class CommonStats implements Streamable, ToXContent {
                 case Recovery:
                     recoveryStats = new RecoveryStats();
                     break;
+                case SecondaryIndex:
+                    secondaryIndex = new SecondaryIndexStats();
+                    break;
                 default:
                     throw new IllegalStateException("Unknown Flag: " + flag);
             }
@@ -181,6 +185,9 @@ public class CommonStats implements Streamable, ToXContent {
                 case Recovery:
                     recoveryStats = indexShard.recoveryStats();
                     break;
+                case SecondaryIndex:
+                    secondaryIndex = indexShard.secondaryIndexStats(flags.types());
+                    break;
                 default:
                     throw new IllegalStateException("Unknown Flag: " + flag);
             }
@@ -241,6 +248,9 @@ public class CommonStats implements Streamable, ToXContent {
     @Nullable
     public RecoveryStats recoveryStats;
 
+    @Nullable
+    public SecondaryIndexStats secondaryIndex;
+
     public void add(CommonStats stats) {
         if (docs == null) {
             if (stats.getDocs() != null) {
@@ -387,6 +397,14 @@ public class CommonStats implements Streamable, ToXContent {
         } else {
             recoveryStats.add(stats.getRecoveryStats());
         }
+        if (secondaryIndex == null) {
+            if (stats.getSecondaryIndex() != null) {
+                secondaryIndex = new SecondaryIndexStats();
+                secondaryIndex.add(stats.getSecondaryIndex());
+            }
+        } else {
+            secondaryIndex.add(stats.getSecondaryIndex());
+        }
     }
 
     @Nullable
@@ -479,6 +497,11 @@ public class CommonStats implements Streamable, ToXContent {
         return recoveryStats;
     }
 
+    @Nullable
+    public SecondaryIndexStats getSecondaryIndex() {
+        return secondaryIndex;
+    }
+
     public static CommonStats readCommonStats(StreamInput in) throws IOException {
         CommonStats stats = new CommonStats();
         stats.readFrom(in);
@@ -557,6 +580,7 @@ public class CommonStats implements Streamable, ToXContent {
         suggest = in.readOptionalStreamable(new SuggestStats());
         requestCache = in.readOptionalStreamable(new RequestCacheStats());
         recoveryStats = in.readOptionalStreamable(new RecoveryStats());
+        secondaryIndex = in.readOptionalStreamable(new SecondaryIndexStats());
     }
 
     @Override
@@ -649,6 +673,7 @@ public class CommonStats implements Streamable, ToXContent {
         out.writeOptionalStreamable(suggest);
         out.writeOptionalStreamable(requestCache);
         out.writeOptionalStreamable(recoveryStats);
+        out.writeOptionalStreamable(secondaryIndex);
     }
 
     // note, requires a wrapping object
@@ -708,6 +733,9 @@ public class CommonStats implements Streamable, ToXContent {
         if (recoveryStats != null) {
             recoveryStats.toXContent(builder, params);
         }
+        if (secondaryIndex != null) {
+            secondaryIndex.toXContent(builder, params);
+        }
         return builder;
     }
 }
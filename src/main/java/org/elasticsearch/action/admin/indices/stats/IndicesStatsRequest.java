@@ -265,6 +265,15 @@ public class IndicesStatsRequest extends BroadcastRequest<IndicesStatsRequest> {
         return flags.isSet(Flag.Recovery);
     }
 
+    public IndicesStatsRequest secondaryIndex(boolean secondaryIndex) {
+        flags.set(Flag.SecondaryIndex, secondaryIndex);
+        return this;
+    }
+
+    public boolean secondaryIndex() {
+        return flags.isSet(Flag.SecondaryIndex);
+    }
+
     @Override
     public void writeTo(StreamOutput out) throws IOException {
         super.writeTo(out);
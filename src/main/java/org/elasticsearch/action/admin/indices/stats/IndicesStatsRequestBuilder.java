@@ -166,4 +166,9 @@ public class IndicesStatsRequestBuilder extends BroadcastOperationRequestBuilder
         request.recovery(recovery);
         return this;
     }
+
+    public IndicesStatsRequestBuilder setSecondaryIndex(boolean secondaryIndex) {
+        request.secondaryIndex(secondaryIndex);
+        return this;
+    }
 }
@@ -161,6 +161,10 @@ public class TransportIndicesStatsAction extends TransportBroadcastByNodeAction<
         if (request.recovery()) {
             flags.set(CommonStatsFlags.Flag.Recovery);
         }
+        if (request.secondaryIndex()) {
+            flags.set(CommonStatsFlags.Flag.SecondaryIndex);
+            flags.types(request.types());
+        }
 
         return new ShardStats(indexShard.routingEntry(), indexShard.shardPath(), new CommonStats(indexShard, flags), indexShard.commitStats());
     }
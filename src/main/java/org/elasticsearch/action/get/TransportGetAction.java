@@ -19,6 +19,7 @@
 
 package org.elasticsearch.action.get;
 
+import org.apache.cassandra.dht.Token;
 import org.elasticsearch.action.RoutingMissingException;
 import org.elasticsearch.action.support.ActionFilters;
 import org.elasticsearch.action.support.single.shard.TransportSingleShardAction;
@@ -26,9 +27,11 @@ import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.cluster.ClusterState;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.metadata.MetaData;
 import org.elasticsearch.cluster.routing.Preference;
 import org.elasticsearch.cluster.routing.ShardIterator;
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.index.IndexService;
 import org.elasticsearch.index.get.GetResult;
@@ -65,7 +68,24 @@ public class TransportGetAction extends TransportSingleShardAction<GetRequest, G
     @Override
     protected ShardIterator shards(ClusterState state, InternalRequest request) {
         return clusterService.operationRouting()
-                .getShards(clusterService.state(), request.concreteIndex(), request.request().type(), request.request().id(), request.request().routing(), request.request().preference());
+                .getShards(clusterService.state(), request.concreteIndex(), request.request().type(), request.request().id(), 
+                        token(clusterService, logger, request.concreteIndex(), request.request().type(), request.request().id()),
+                        request.request().routing(), request.request().preference());
+    }
+
+    /**
+     * @return the partition token of the document, or null when the type is unknown or the id cannot be parsed.
+     */
+    static Token token(ClusterService clusterService, ESLogger logger, String index, String type, String id) {
+        if (type == null || MetaData.ALL.equals(type)) {
+            return null;
+        }
+        try {
+            return clusterService.getToken(index, type, id);
+        } catch (Exception e) {
+            logger.debug("cannot compute the token of [{}][{}][{}], routing without token", e, index, type, id);
+            return null;
+        }
     }
 
     @Override
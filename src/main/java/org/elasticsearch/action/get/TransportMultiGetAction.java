@@ -27,6 +27,9 @@ import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.cluster.ClusterState;
 import org.elasticsearch.cluster.block.ClusterBlockLevel;
 import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.routing.ShardIterator;
+import org.elasticsearch.cluster.routing.ShardRouting;
+import org.elasticsearch.common.collect.Tuple;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.util.concurrent.AtomicArray;
@@ -35,7 +38,9 @@ import org.elasticsearch.index.shard.ShardId;
 import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.transport.TransportService;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -62,7 +67,9 @@ public class TransportMultiGetAction extends HandledTransportAction<MultiGetRequ
 
         final AtomicArray<MultiGetItemResponse> responses = new AtomicArray<>(request.items.size());
 
-        Map<ShardId, MultiGetShardRequest> shardRequests = new HashMap<>();
+        // group items by shard and by the ordered replica nodes of their token, so that all items of a request
+        // are routed like the first one, and each replica set serves one request.
+        Map<Tuple<ShardId, List<String>>, MultiGetShardRequest> shardRequests = new HashMap<>();
         for (int i = 0; i < request.items.size(); i++) {
             MultiGetRequest.Item item = request.items.get(i);
             if (!clusterState.metaData().hasConcreteIndex(item.index())) {
@@ -76,12 +83,19 @@ public class TransportMultiGetAction extends HandledTransportAction<MultiGetRequ
                         new IllegalArgumentException("routing is required for [" + concreteSingleIndex + "]/[" + item.type() + "]/[" + item.id() + "]"))));
                 continue;
             }
-            ShardId shardId = clusterService.operationRouting()
-                    .getShards(clusterState, concreteSingleIndex, item.type(), item.id(), item.routing(), null).shardId();
-            MultiGetShardRequest shardRequest = shardRequests.get(shardId);
+            ShardIterator shardIt = clusterService.operationRouting()
+                    .getShards(clusterState, concreteSingleIndex, item.type(), item.id(),
+                            TransportGetAction.token(clusterService, logger, concreteSingleIndex, item.type(), item.id()), item.routing(), request.preference());
+            ShardId shardId = shardIt.shardId();
+            List<String> nodeIds = new ArrayList<>(shardIt.size());
+            for (ShardRouting shardRouting = shardIt.nextOrNull(); shardRouting != null; shardRouting = shardIt.nextOrNull()) {
+                nodeIds.add(shardRouting.currentNodeId());
+            }
+            Tuple<ShardId, List<String>> key = new Tuple<>(shardId, nodeIds);
+            MultiGetShardRequest shardRequest = shardRequests.get(key);
             if (shardRequest == null) {
                 shardRequest = new MultiGetShardRequest(request, shardId.index().name(), shardId.id());
-                shardRequests.put(shardId, shardRequest);
+                shardRequests.put(key, shardRequest);
             }
             shardRequest.add(i, item);
         }
@@ -73,6 +73,14 @@ public class TransportShardMultiGetAction extends TransportSingleShardAction<Mul
 
     @Override
     protected ShardIterator shards(ClusterState state, InternalRequest request) {
+        if (request.request().items.size() > 0) {
+            // items are grouped by the replica nodes of their token, route on the first one.
+            MultiGetRequest.Item item = request.request().items.get(0);
+            return clusterService.operationRouting()
+                    .getShards(state, request.request().index(), item.type(), item.id(),
+                            TransportGetAction.token(clusterService, logger, request.request().index(), item.type(), item.id()),
+                            item.routing(), request.request().preference());
+        }
         return clusterService.operationRouting()
                 .getShards(state, request.request().index(), request.request().shardId(), request.request().preference());
     }
@@ -99,6 +99,9 @@ public class TransportSearchDfsQueryAndFetchAction extends TransportSearchTypeAc
                 public void onResponse(QueryFetchSearchResult result) {
                     result.shardTarget(dfsResult.shardTarget());
                     queryFetchResults.set(shardIndex, result);
+                    if (aggregationsReducer != null) {
+                        aggregationsReducer.consume(result);
+                    }
                     if (counter.decrementAndGet() == 0) {
                         finishHim();
                     }
@@ -109,6 +109,9 @@ public class TransportSearchDfsQueryThenFetchAction extends TransportSearchTypeA
                 public void onResponse(QuerySearchResult result) {
                     result.shardTarget(dfsResult.shardTarget());
                     queryResults.set(shardIndex, result);
+                    if (aggregationsReducer != null) {
+                        aggregationsReducer.consume(result);
+                    }
                     if (counter.decrementAndGet() == 0) {
                         executeFetchPhase();
                     }
@@ -103,6 +103,8 @@ public abstract class TransportSearchTypeAction extends TransportAction<SearchRe
         private final AtomicInteger totalOps = new AtomicInteger();
 
         protected final AtomicArray<FirstResult> firstResults;
+        @Nullable
+        protected final SearchPhaseController.AggregationsReducer aggregationsReducer;
         private volatile AtomicArray<ShardSearchFailure> shardFailures;
         private final Object shardFailuresMutex = new Object();
         protected volatile ScoreDoc[] sortedShardList;
@@ -133,6 +135,7 @@ public abstract class TransportSearchTypeAction extends TransportAction<SearchRe
             expectedTotalOps = shardsIts.totalSizeWith1ForEmpty();
 
             firstResults = new AtomicArray<>(shardsIts.size());
+            aggregationsReducer = searchPhaseController.newAggregationsReducer(request);
         }
 
         public void start() {
@@ -369,6 +372,9 @@ public abstract class TransportSearchTypeAction extends TransportAction<SearchRe
 
         protected final void processFirstPhaseResult(int shardIndex, FirstResult result) {
             firstResults.set(shardIndex, result);
+            if (aggregationsReducer != null && result instanceof QuerySearchResultProvider) {
+                aggregationsReducer.consume((QuerySearchResultProvider) result);
+            }
 
             if (logger.isTraceEnabled()) {
                 logger.trace("got first-phase result from {}", result != null ? result.shardTarget() : null);
@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2016 Vincent Royer (vroyer@vroyer.org).
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.cassandra;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.cassandra.cql3.QueryOptions;
+import org.apache.cassandra.cql3.QueryProcessor;
+import org.apache.cassandra.db.ConsistencyLevel;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.marshal.Int32Type;
+import org.apache.cassandra.db.marshal.UTF8Type;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.gms.FailureDetector;
+import org.apache.cassandra.locator.TokenMetadata;
+import org.apache.cassandra.service.ElassandraDaemon;
+import org.apache.cassandra.service.QueryState;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.FBUtilities;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.memory.MemoryIndex;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.mapper.DocumentMapper;
+import org.elasticsearch.index.mapper.ParseContext;
+import org.elasticsearch.index.mapper.ParsedDocument;
+import org.elasticsearch.index.mapper.internal.UidFieldMapper;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.threadpool.ThreadPool;
+
+/**
+ * Match documents indexed by the {@link ElasticSecondaryIndex} against the registered percolator queries of an index,
+ * in micro-batches of {@link MemoryIndex} wrapped in a single {@link MultiReader}. Queries registered or removed
+ * in the .percolator type apply to the next batch.
+ * <p>
+ * Matches are published in the Cassandra table "keyspace"."_percolator_matches", partitioned by (index, query_id) and
+ * clustered by a timeuuid, so a client can follow the matches of a query with
+ * <code>SELECT * FROM "keyspace"."_percolator_matches" WHERE index=? AND query_id=? AND ts > ?</code>.
+ * <p>
+ * Enabled with the dynamic index setting index.percolator.continuous.enable, the matches table is then created by the master.
+ * Only the root document is percolated, nested documents are ignored. Replicas index the same rows, so a document is
+ * only percolated by the first live natural endpoint of its token, and matches are published once. Natural endpoints
+ * are cached per token range until the ring changes.
+ * @author vroyer
+ *
+ */
+public class ContinuousPercolator {
+    private static final ESLogger logger = Loggers.getLogger(ContinuousPercolator.class);
+
+    public static final String INDEX_PERCOLATOR_CONTINUOUS_ENABLE = "index.percolator.continuous.enable";
+    public static final String INDEX_PERCOLATOR_CONTINUOUS_BATCH_SIZE = "index.percolator.continuous.batch_size";
+    public static final String INDEX_PERCOLATOR_CONTINUOUS_FLUSH_INTERVAL = "index.percolator.continuous.flush_interval";
+    public static final String INDEX_PERCOLATOR_CONTINUOUS_TTL = "index.percolator.continuous.ttl";
+
+    public static final String MATCHES_TABLE = "_percolator_matches";
+
+    private static final ConcurrentMap<String, ContinuousPercolator> percolators = new ConcurrentHashMap<String, ContinuousPercolator>();
+
+    private final String ksName;
+    private final String index;
+    private final ThreadPool threadPool;
+
+    private volatile IndexService indexService;
+    private volatile int batchSize;
+    private volatile TimeValue flushInterval;
+    private volatile int ttl;
+
+    private List<PendingDocument> pending = new ArrayList<PendingDocument>();
+
+    private volatile Keyspace keyspace;
+    private volatile Replicas replicas = new Replicas(-1);
+
+    /**
+     * Natural endpoints by range token, for a ring version.
+     */
+    static class Replicas {
+        final long ringVersion;
+        final ConcurrentMap<Token, List<InetAddress>> endpoints = new ConcurrentHashMap<Token, List<InetAddress>>();
+
+        Replicas(long ringVersion) {
+            this.ringVersion = ringVersion;
+        }
+    }
+
+    static class PendingDocument {
+        final String type;
+        final String id;
+        final ParsedDocument parsedDocument;
+
+        PendingDocument(String type, String id, ParsedDocument parsedDocument) {
+            this.type = type;
+            this.id = id;
+            this.parsedDocument = parsedDocument;
+        }
+    }
+
+    private ContinuousPercolator(String ksName, String index, ThreadPool threadPool) {
+        this.ksName = ksName;
+        this.index = index;
+        this.threadPool = threadPool;
+    }
+
+    /**
+     * @return the continuous percolator of the index if enabled in the index settings, null otherwise.
+     */
+    public static ContinuousPercolator get(String ksName, IndexMetaData indexMetaData, IndexService indexService) {
+        Settings settings = indexMetaData.getSettings();
+        String index = indexMetaData.getIndex();
+        if (!settings.getAsBoolean(INDEX_PERCOLATOR_CONTINUOUS_ENABLE, false)) {
+            remove(index);
+            return null;
+        }
+        ContinuousPercolator percolator = percolators.get(index);
+        if (percolator == null) {
+            percolator = new ContinuousPercolator(ksName, index, ElassandraDaemon.injector().getInstance(ThreadPool.class));
+            ContinuousPercolator previous = percolators.putIfAbsent(index, percolator);
+            if (previous != null) {
+                percolator = previous;
+            }
+        }
+        percolator.indexService = indexService;
+        percolator.batchSize = settings.getAsInt(INDEX_PERCOLATOR_CONTINUOUS_BATCH_SIZE, 64);
+        percolator.flushInterval = settings.getAsTime(INDEX_PERCOLATOR_CONTINUOUS_FLUSH_INTERVAL, TimeValue.timeValueSeconds(1));
+        percolator.ttl = (int) settings.getAsTime(INDEX_PERCOLATOR_CONTINUOUS_TTL, TimeValue.timeValueHours(24)).seconds();
+        return percolator;
+    }
+
+    public static String createTableQuery(String ksName) {
+        return String.format("CREATE TABLE IF NOT EXISTS \"%s\".\"%s\" ( index text, query_id text, ts timeuuid, type text, id text, PRIMARY KEY ((index, query_id), ts) ) WITH CLUSTERING ORDER BY (ts DESC) AND COMMENT='Auto-created by Elassandra'",
+                ksName, MATCHES_TABLE);
+    }
+
+    /**
+     * Release the continuous percolator of a deleted index or when disabled, pending documents are dropped.
+     */
+    public static void remove(String index) {
+        if (percolators.remove(index) != null) {
+            logger.debug("[{}] continuous percolator removed", index);
+        }
+    }
+
+    /**
+     * Add an indexed document to the current batch, the batch is percolated when full or after the flush interval.
+     * Ignored when the local node is not the first live natural endpoint of the document token.
+     */
+    public void add(String type, String id, Token token, ParsedDocument parsedDocument) {
+        if (!isFirstLiveEndpoint(token)) {
+            return;
+        }
+        List<PendingDocument> batch = null;
+        boolean first;
+        synchronized (this) {
+            first = pending.isEmpty();
+            pending.add(new PendingDocument(type, id, parsedDocument));
+            if (pending.size() >= batchSize) {
+                batch = pending;
+                pending = new ArrayList<PendingDocument>(batchSize);
+            }
+        }
+        if (batch != null) {
+            submit(batch);
+        } else if (first) {
+            try {
+                threadPool.schedule(flushInterval, ThreadPool.Names.PERCOLATE, new Runnable() {
+                    @Override
+                    public void run() {
+                        flush();
+                    }
+                });
+            } catch (EsRejectedExecutionException e) {
+                logger.debug("[{}] cannot schedule continuous percolation - execution rejected", index);
+            }
+        }
+    }
+
+    private boolean isFirstLiveEndpoint(Token token) {
+        TokenMetadata tokenMetadata = StorageService.instance.getTokenMetadata();
+        Replicas replicas = this.replicas;
+        if (replicas.ringVersion != tokenMetadata.getRingVersion()) {
+            replicas = new Replicas(tokenMetadata.getRingVersion());
+            this.replicas = replicas;
+        }
+        Token rangeToken = TokenMetadata.firstToken(tokenMetadata.sortedTokens(), token);
+        List<InetAddress> endpoints = replicas.endpoints.get(rangeToken);
+        if (endpoints == null) {
+            Keyspace keyspace = this.keyspace;
+            if (keyspace == null) {
+                keyspace = Keyspace.open(ksName);
+                this.keyspace = keyspace;
+            }
+            endpoints = keyspace.getReplicationStrategy().getNaturalEndpoints(token);
+            replicas.endpoints.put(rangeToken, endpoints);
+        }
+        for (InetAddress endpoint : endpoints) {
+            if (FailureDetector.instance.isAlive(endpoint)) {
+                return endpoint.equals(FBUtilities.getBroadcastAddress());
+            }
+        }
+        return false;
+    }
+
+    public void flush() {
+        List<PendingDocument> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new ArrayList<PendingDocument>(batchSize);
+        }
+        percolate(batch);
+    }
+
+    private void submit(final List<PendingDocument> batch) {
+        try {
+            threadPool.executor(ThreadPool.Names.PERCOLATE).execute(new Runnable() {
+                @Override
+                public void run() {
+                    percolate(batch);
+                }
+            });
+        } catch (EsRejectedExecutionException e) {
+            logger.warn("[{}] continuous percolation of {} documents rejected", index, batch.size());
+        }
+    }
+
+    void percolate(List<PendingDocument> batch) {
+        IndexShard indexShard = indexService.shard(0);
+        if (indexShard == null) {
+            return;
+        }
+        Map<BytesRef, Query> queries = indexShard.percolateRegistry().percolateQueries();
+        if (queries.isEmpty()) {
+            return;
+        }
+        IndexReader[] memoryIndices = new IndexReader[batch.size()];
+        for (int i = 0; i < memoryIndices.length; i++) {
+            PendingDocument doc = batch.get(i);
+            DocumentMapper documentMapper = indexService.mapperService().documentMapper(doc.type);
+            memoryIndices[i] = indexDoc(doc.parsedDocument.rootDoc(), documentMapper.mappers().indexAnalyzer()).createSearcher().getIndexReader();
+        }
+        try (MultiReader reader = new MultiReader(memoryIndices, true)) {
+            IndexSearcher searcher = new IndexSearcher(reader);
+            searcher.setQueryCache(null);
+            final FixedBitSet matches = new FixedBitSet(memoryIndices.length);
+            for (Map.Entry<BytesRef, Query> entry : queries.entrySet()) {
+                matches.clear(0, memoryIndices.length);
+                try {
+                    searcher.search(entry.getValue(), new SimpleCollector() {
+                        int docBase;
+
+                        @Override
+                        protected void doSetNextReader(LeafReaderContext context) throws IOException {
+                            docBase = context.docBase;
+                        }
+
+                        @Override
+                        public void collect(int doc) throws IOException {
+                            matches.set(docBase + doc);
+                        }
+
+                        @Override
+                        public boolean needsScores() {
+                            return false;
+                        }
+                    });
+                } catch (Throwable t) {
+                    logger.debug("[{}] failed to execute percolator query [{}]", t, index, entry.getKey().utf8ToString());
+                    continue;
+                }
+                for (int i = 0; i < memoryIndices.length; i++) {
+                    if (matches.get(i)) {
+                        try {
+                            publish(entry.getKey().utf8ToString(), batch.get(i));
+                        } catch (Throwable t) {
+                            logger.warn("[{}] failed to publish match of document type={} id={} for percolator query [{}]", t, index, batch.get(i).type, batch.get(i).id, entry.getKey().utf8ToString());
+                        }
+                    }
+                }
+            }
+        } catch (Throwable t) {
+            logger.error("[{}] continuous percolation of {} documents failed", t, index, batch.size());
+        }
+    }
+
+    private MemoryIndex indexDoc(ParseContext.Document d, Analyzer analyzer) {
+        MemoryIndex memoryIndex = new MemoryIndex(true);
+        for (IndexableField field : d.getFields()) {
+            if (field.fieldType().indexOptions() == IndexOptions.NONE && field.name().equals(UidFieldMapper.NAME)) {
+                continue;
+            }
+            try (TokenStream tokenStream = field.tokenStream(analyzer, null)) {
+                if (tokenStream != null) {
+                    memoryIndex.addField(field.name(), tokenStream, field.boost());
+                }
+            } catch (IOException e) {
+                throw new ElasticsearchException("Failed to create token stream", e);
+            }
+        }
+        return memoryIndex;
+    }
+
+    private void publish(String queryId, PendingDocument doc) throws Exception {
+        String query = String.format("INSERT INTO \"%s\".\"%s\" (index, query_id, ts, type, id) VALUES (?, ?, now(), ?, ?) USING TTL ?", ksName, MATCHES_TABLE);
+        List<ByteBuffer> values = new ArrayList<ByteBuffer>(5);
+        values.add(UTF8Type.instance.decompose(index));
+        values.add(UTF8Type.instance.decompose(queryId));
+        values.add(UTF8Type.instance.decompose(doc.type));
+        values.add(UTF8Type.instance.decompose(doc.id));
+        values.add(Int32Type.instance.decompose(ttl));
+        QueryProcessor.instance.process(query, QueryState.forInternalCalls(), QueryOptions.forInternalCalls(ConsistencyLevel.LOCAL_ONE, values));
+        if (logger.isTraceEnabled()) {
+            logger.trace("[{}] document type={} id={} matches percolator query [{}]", index, doc.type, doc.id, queryId);
+        }
+    }
+}
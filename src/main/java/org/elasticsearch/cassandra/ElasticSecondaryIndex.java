@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -28,17 +29,22 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.cassandra.config.CFMetaData;
 import org.apache.cassandra.config.ColumnDefinition;
 import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.config.Schema;
 import org.apache.cassandra.cql3.ColumnIdentifier;
 import org.apache.cassandra.cql3.UntypedResultSet.Row;
 import org.apache.cassandra.db.Cell;
 import org.apache.cassandra.db.ColumnFamily;
 import org.apache.cassandra.db.ColumnFamilyStore;
 import org.apache.cassandra.db.DecoratedKey;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.compaction.CompactionManager;
 import org.apache.cassandra.db.composites.CType;
 import org.apache.cassandra.db.composites.CellName;
 import org.apache.cassandra.db.composites.Composite;
@@ -55,20 +61,25 @@ import org.apache.cassandra.db.marshal.TimestampType;
 import org.apache.cassandra.db.marshal.UTF8Type;
 import org.apache.cassandra.db.marshal.UserType;
 import org.apache.cassandra.dht.IPartitioner;
+import org.apache.cassandra.dht.Murmur3Partitioner.LongToken;
+import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.exceptions.ConfigurationException;
 import org.apache.cassandra.exceptions.RequestValidationException;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
 import org.apache.cassandra.serializers.CollectionSerializer;
 import org.apache.cassandra.serializers.MarshalException;
 import org.apache.cassandra.service.ElassandraDaemon;
 import org.apache.cassandra.transport.Server;
 import org.apache.cassandra.utils.ByteBufferUtil;
+import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.utils.concurrent.OpOrder.Group;
 import org.codehaus.jackson.JsonGenerationException;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.node.ArrayNode;
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.action.admin.indices.flush.FlushRequest;
+import org.elasticsearch.cassandra.rollup.Rollup;
 import org.elasticsearch.cluster.ClusterChangedEvent;
 import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.cluster.ClusterState;
@@ -86,8 +97,10 @@ import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.index.IndexService;
 import org.elasticsearch.index.VersionType;
 import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.indexing.SecondaryIndexStats.Stage;
+import org.elasticsearch.index.indexing.SecondaryIndexStatsHolder;
 import org.elasticsearch.index.mapper.DocumentMapper;
-import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.index.mapper.Mapper;
 import org.elasticsearch.index.mapper.Mapping;
 import org.elasticsearch.index.mapper.SourceToParse;
 import org.elasticsearch.index.shard.IndexShard;
@@ -107,59 +120,255 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
 
     public static Set<ElasticSecondaryIndex> elasticSecondayIndices = new HashSet<ElasticSecondaryIndex>();
     
-    class MappingInfo {
-        class IndexInfo {
-            String     name;
-            boolean    refresh;
-            IndexService indexService;
-            Map<String,Object> mapping;
-            
-            public IndexInfo(String name, IndexService indexService, MappingMetaData mappingMetaData) throws IOException {
-                this.name = name;
-                this.indexService = indexService;
-                this.mapping = mappingMetaData.sourceAsMap();
-                this.refresh = false;
-            }
-        }
-       
-        List<IndexInfo> indices = new ArrayList<IndexInfo>();
-        Set<String> fields = new HashSet<String>();
+    /**
+     * Immutable mapping snapshot of a keyspace, computed once per cluster state version and shared by
+     * the {@link ElasticSecondaryIndex} of all tables of the keyspace.
+     */
+    static class KeyspaceMappingInfo {
+        final String ksName;
+        final long version;
+        final Map<String, MappingInfo> tables;
         
-        MappingInfo(ClusterState state) {
+        KeyspaceMappingInfo(String ksName, ClusterState state) {
+            this.ksName = ksName;
+            this.version = state.version();
+            Map<String, MappingInfo> tables = new HashMap<String, MappingInfo>();
             if (state.blocks().hasGlobalBlock(ClusterBlockLevel.WRITE)) {
                 logger.debug("global write blocked");
+                this.tables = Collections.emptyMap();
                 return;
             }
             
+            IndicesService indicesService = null;
             for(Iterator<IndexMetaData> indexMetaDataIterator = state.metaData().iterator(); indexMetaDataIterator.hasNext(); ) {
                 IndexMetaData indexMetaData = indexMetaDataIterator.next();
                 String index = indexMetaData.getIndex();
-                MappingMetaData mappingMetaData; 
                 ClusterBlockException clusterBlockException = state.blocks().indexBlockedException(ClusterBlockLevel.WRITE, index);
                 if (clusterBlockException == null && 
                     state.routingTable().isLocalShardsStarted(index) &&
-                    ( ElasticSecondaryIndex.this.baseCfs.metadata.ksName.equals(index) || 
-                      ElasticSecondaryIndex.this.baseCfs.metadata.ksName.equals(indexMetaData.getSettings().get(IndexMetaData.SETTING_KEYSPACE_NAME))) &&
-                    ((mappingMetaData = indexMetaData.mapping(ElasticSecondaryIndex.this.baseCfs.metadata.cfName)) != null)
-                   ) {
-                    try {
-                        IndicesService indicesService = ElassandraDaemon.injector().getInstance(IndicesService.class);
-                        IndexService indexService = indicesService.indexServiceSafe(index);
-                        IndexInfo indexInfo = new IndexInfo(index, indexService, mappingMetaData);
-                        this.indices.add(indexInfo);
-                        if (mappingMetaData.getSourceAsMap().get("properties") != null) {
-                           this.fields.addAll(((Map<String,Object>)mappingMetaData.getSourceAsMap().get("properties")).keySet());
+                    ( ksName.equals(index) || ksName.equals(indexMetaData.getSettings().get(IndexMetaData.SETTING_KEYSPACE_NAME)))) {
+                    if (indicesService == null) {
+                        indicesService = ElassandraDaemon.injector().getInstance(IndicesService.class);
+                    }
+                    IndexService indexService = indicesService.indexServiceSafe(index);
+                    for(ObjectCursor<MappingMetaData> cursor : indexMetaData.getMappings().values()) {
+                        MappingMetaData mappingMetaData = cursor.value;
+                        if (Schema.instance.getCFMetaData(ksName, mappingMetaData.type()) == null) {
+                            // _default_ or a type without table.
+                            continue;
                         }
-                        if (mappingMetaData.hasParentField()) {
-                            this.fields.add("_parent");
+                        MappingInfo mappingInfo = tables.get(mappingMetaData.type());
+                        if (mappingInfo == null) {
+                            mappingInfo = new MappingInfo(ksName, mappingMetaData.type());
+                            tables.put(mappingMetaData.type(), mappingInfo);
+                        }
+                        try {
+                            mappingInfo.add(new IndexInfo(ksName, index, indexService, indexMetaData, mappingMetaData), mappingMetaData);
+                        } catch (IOException e) {
+                            logger.error("Unexpected error", e);
                         }
-                    } catch (IOException e) {
-                        logger.error("Unexpected error", e);
                     }
                 } else {
                     logger.debug("index blocked or not mapped ");
                 }
             }
+            for(MappingInfo mappingInfo : tables.values()) {
+                mappingInfo.compile();
+            }
+            this.tables = Collections.unmodifiableMap(tables);
+        }
+        
+        MappingInfo mappingInfo(String cfName) {
+            MappingInfo mappingInfo = tables.get(cfName);
+            return (mappingInfo == null) ? MappingInfo.EMPTY : mappingInfo;
+        }
+    }
+    
+    private static final ConcurrentMap<String, KeyspaceMappingInfo> keyspaceMappings = new ConcurrentHashMap<String, KeyspaceMappingInfo>();
+    
+    private static final ConcurrentMap<String, SegmentStreamedRanges> segmentStreamedRanges = new ConcurrentHashMap<String, SegmentStreamedRanges>();
+    
+    /**
+     * Token ranges of a keyspace whose documents are shipped as Lucene segments by {@link SegmentStreaming}, and the
+     * last sstable generation of each table when the stream session started.
+     */
+    static class SegmentStreamedRanges {
+        final Collection<Range<Token>> ranges;
+        final Map<String, Integer> lastGenerations = new HashMap<String, Integer>();
+        
+        SegmentStreamedRanges(String ksName, Collection<Range<Token>> ranges) {
+            this.ranges = ranges;
+            for (ColumnFamilyStore cfs : Keyspace.open(ksName).getColumnFamilyStores()) {
+                int lastGeneration = 0;
+                for (SSTableReader sstable : cfs.getSSTables()) {
+                    lastGeneration = Math.max(sstable.descriptor.generation, lastGeneration);
+                }
+                lastGenerations.put(cfs.name, lastGeneration);
+            }
+        }
+    }
+    
+    /**
+     * Documents of these token ranges are shipped as Lucene segments by {@link SegmentStreaming}, so the index build 
+     * of the sstables streamed for these ranges must not index them again.
+     */
+    static void addSegmentStreamedRanges(String ksName, Collection<Range<Token>> ranges) {
+        segmentStreamedRanges.put(ksName, new SegmentStreamedRanges(ksName, ranges));
+    }
+    
+    static void removeSegmentStreamedRanges(String ksName) {
+        segmentStreamedRanges.remove(ksName);
+    }
+    
+    /**
+     * @return true when indexing, from an index build, a row of a segment streamed range that is only in sstables
+     * created since the stream session started. Rows also in older sstables, typically rebuilt by a concurrent 
+     * rebuild_index, are indexed.
+     */
+    boolean isSegmentStreamed(String ksName, ByteBuffer rowKey) {
+        if (segmentStreamedRanges.isEmpty() || !CompactionManager.isCompactionManager.get()) 
+            return false;
+        SegmentStreamedRanges streamed = segmentStreamedRanges.get(ksName);
+        if (streamed == null)
+            return false;
+        Token token = partitioner.getToken(rowKey);
+        boolean inRanges = false;
+        for (Range<Token> range : streamed.ranges) {
+            if (range.contains(token)) {
+                inRanges = true;
+                break;
+            }
+        }
+        if (!inRanges)
+            return false;
+        Integer lastGeneration = streamed.lastGenerations.get(baseCfs.name);
+        for (SSTableReader sstable : baseCfs.getSSTables()) {
+            if ((lastGeneration == null || sstable.descriptor.generation <= lastGeneration) && sstable.getBloomFilter().isPresent(rowKey)) {
+                // may be a false positive, indexing again is harmless.
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * @return the mapping snapshot of the keyspace for this cluster state, computed by the first table of the keyspace asking for it.
+     */
+    static KeyspaceMappingInfo keyspaceMappingInfo(String ksName, ClusterState state) {
+        KeyspaceMappingInfo snapshot = keyspaceMappings.get(ksName);
+        if (snapshot == null || snapshot.version != state.version()) {
+            synchronized (keyspaceMappings) {
+                snapshot = keyspaceMappings.get(ksName);
+                if (snapshot == null || snapshot.version != state.version()) {
+                    snapshot = new KeyspaceMappingInfo(ksName, state);
+                    keyspaceMappings.put(ksName, snapshot);
+                }
+            }
+        }
+        return snapshot;
+    }
+    
+    static class IndexInfo {
+        final String     name;
+        final IndexService indexService;
+        final DocumentMapper documentMapper;
+        final SecondaryIndexStatsHolder stats;
+        final ContinuousPercolator percolator;
+        final boolean binaryId;
+        boolean    refresh;
+        
+        IndexInfo(String ksName, String name, IndexService indexService, IndexMetaData indexMetaData, MappingMetaData mappingMetaData) throws IOException {
+            String cfName = mappingMetaData.type();
+            this.name = name;
+            this.indexService = indexService;
+            this.documentMapper = indexService.mapperService().documentMapper(cfName);
+            this.refresh = false;
+            this.stats = indexService.shardSafe(0).indexingService().secondaryIndexTypeStats(cfName);
+            ElasticSecondaryIndexMetrics.register(ksName, cfName, name, this.stats);
+            this.percolator = ContinuousPercolator.get(ksName, indexMetaData, indexService);
+            this.binaryId = indexMetaData.getSettings().getAsBoolean(IndexMetaData.SETTING_BINARY_ID, false);
+        }
+    }
+    
+    /**
+     * Mapping of one table in all indices of its keyspace.
+     */
+    static class MappingInfo {
+        static final MappingInfo EMPTY = new MappingInfo(null, null);
+        
+        final String ksName;
+        final String cfName;
+        final List<IndexInfo> indices = new ArrayList<IndexInfo>();
+        final Set<String> fields = new HashSet<String>();
+        // CQL3 columns of the indexed table mapped in at least one index.
+        final Set<ColumnIdentifier> mappedColumns = new HashSet<ColumnIdentifier>();
+        // true when a partition key or clustering column is mapped, so any live cell makes a document.
+        boolean primaryKeyMapped = false;
+        // mapped columns resolved against the table metadata, iterated when completing documents.
+        String[] fieldNames = new String[0];
+        // rollups of the table declared in any index, by index and rollup name, updated once per new row.
+        final Map<String, Rollup> rollups = new HashMap<String, Rollup>();
+        
+        MappingInfo(String ksName, String cfName) {
+            this.ksName = ksName;
+            this.cfName = cfName;
+        }
+        
+        void add(IndexInfo indexInfo, MappingMetaData mappingMetaData) throws IOException {
+            this.indices.add(indexInfo);
+            if (indexInfo.documentMapper != null) {
+                for(Iterator<Mapper> it = indexInfo.documentMapper.root().iterator(); it.hasNext(); ) {
+                    this.fields.add(it.next().simpleName());
+                }
+            } else if (mappingMetaData.getSourceAsMap().get("properties") != null) {
+                // document mapper not yet merged, fallback to the JSON mapping.
+                this.fields.addAll(((Map<String,Object>)mappingMetaData.getSourceAsMap().get("properties")).keySet());
+            }
+            if (mappingMetaData.hasParentField()) {
+                this.fields.add("_parent");
+            }
+            if (indexInfo.documentMapper != null) {
+                try {
+                    for(Rollup rollup : Rollup.parse(ksName, cfName, indexInfo.name, indexInfo.documentMapper.meta())) {
+                        this.rollups.put(indexInfo.name + "." + rollup.name, rollup);
+                    }
+                } catch (IllegalArgumentException e) {
+                    logger.error("Invalid rollup definition in index [{}]", e, indexInfo.name);
+                }
+            }
+        }
+        
+        void compile() {
+            CFMetaData metadata = Schema.instance.getCFMetaData(ksName, cfName);
+            if (metadata != null) {
+                for(ColumnDefinition cd : metadata.allColumns()) {
+                    if (this.fields.contains(cd.name.toString())) {
+                        this.mappedColumns.add(cd.name);
+                        if (cd.isPartitionKey() || cd.isClusteringColumn()) {
+                            this.primaryKeyMapped = true;
+                        }
+                    }
+                }
+            }
+            this.fieldNames = this.fields.toArray(new String[this.fields.size()]);
+        }
+        
+        /**
+         * @return false when the mutation only updates unmapped columns, so indexing can be skipped.
+         * Row markers (CQL insert), deletions and live cells of a table with a mapped primary key column are always indexed.
+         */
+        boolean isIndexed(ColumnFamily cf) {
+            if (!cf.deletionInfo().isLive()) {
+                return true;
+            }
+            CFMetaData metadata = cf.metadata();
+            for(Cell cell : cf) {
+                ColumnIdentifier name = cell.name().cql3ColumnName(metadata);
+                if (!name.bytes.hasRemaining() || mappedColumns.contains(name) || (primaryKeyMapped && cell.isLive())) {
+                    return true;
+                }
+            }
+            return false;
         }
         
         @Override
@@ -167,7 +376,7 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
             StringBuilder sb = new StringBuilder();
             for(IndexInfo i : indices) {
                 if (sb.length() > 0) sb.append(',');
-                sb.append(i.name).append('=').append(i.mapping.toString());
+                sb.append(i.name).append('=').append(fields);
             }
             return sb.toString();
         }
@@ -195,7 +404,15 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
         }
         return this.clusterService;
     }
-    
+
+    MappingInfo mappingInfo() {
+        return this.mappingAtomicReference.get();
+    }
+
+    ColumnFamilyStore baseCfs() {
+        return this.baseCfs;
+    }
+
     public static Object deserialize(AbstractType<?> type, ByteBuffer bb) {
         if (type instanceof UserType) {
             UserType utype = (UserType) type;
@@ -254,19 +471,22 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
         final CFMetaData metadata;
         final MappingInfo mappingInfo;
         
-        final ArrayNode an;
         final Object[] pkColumns;
+        final ByteBuffer[] pkBuffers;     // serialized primary key columns
+        final AbstractType<?>[] pkTypes;
         int pkLength;
         
         boolean docLive = false;
-        int     docTtl = Integer.MAX_VALUE;
+        int     docTtl = Integer.MIN_VALUE;  // latest local deletion time of live cells, Integer.MAX_VALUE if one never expires.
         final Map<String, Object> docMap = new Hashtable<String, Object>();
         
         String id = null;
+        String binaryId = null;
         String partitionKey = null;
         Long token = null;
         Collection<String> tombstoneColumns = null;
         
+        long deserializeTime = 0;   // nanoseconds spent decoding the cells of the document.
         
         // init document with partition keys;
         private Document(final MappingInfo mappingInfo, final ByteBuffer rowKey, final ColumnFamily cf) throws IOException {
@@ -275,8 +495,10 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
             
             this.token = (Long) partitioner.getToken(rowKey).getTokenValue();   // Cassandra Token value (Murmur3 partitionner only)
              
-            this.an = ClusterService.Utils.jsonMapper.createArrayNode();
-            this.pkColumns = new Object[metadata.partitionKeyColumns().size()+metadata.clusteringColumns().size()];
+            int pkSize = metadata.partitionKeyColumns().size()+metadata.clusteringColumns().size();
+            this.pkColumns = new Object[pkSize];
+            this.pkBuffers = new ByteBuffer[pkSize];
+            this.pkTypes = new AbstractType<?>[pkSize];
             this.pkLength = 0;
             
             CType ctype = metadata.getKeyValidatorAsCType();
@@ -286,14 +508,13 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
                 AbstractType<?> type = ctype.subtype(i);
                 String name = metadata.partitionKeyColumns().get(i).name.toString();
                 Object value = type.compose(bb);
+                pkBuffers[pkLength] = bb;
+                pkTypes[pkLength] = type;
                 pkColumns[pkLength++] = value;
-                ClusterService.Utils.addToJsonArray(type, value, an);
                 if (mappingInfo.fields.contains(name)) {
                     docMap.put(name, value);
                 }
             }
-            
-            partitionKey = ClusterService.Utils.writeValueAsString(an);  // JSON string  of the partition key.
         }
         
         // init document with clustering keys
@@ -307,24 +528,38 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
                 for(int i=0; i < clusteringColumns.size(); i++) {
                     ColumnDefinition ccd = clusteringColumns.get(i);
                     String name = ccd.name.toString();
+                    long decodeStartTime = System.nanoTime();
                     Object value = deserialize(ccd.type, cellName.get(i));
+                    deserializeTime += System.nanoTime() - decodeStartTime;
                     if (logger.isTraceEnabled()) 
                         logger.trace("cell clustering column={} value={}",  name, value);
+                    pkBuffers[pkLength] = cellName.get(i);
+                    pkTypes[pkLength] = ccd.type;
                     pkColumns[pkLength++] = value;
-                    ClusterService.Utils.addToJsonArray(ccd.type, value, an);
                     if (cell.isLive() && mappingInfo.fields.contains(name)) {
                         docLive = true; 
-                        docTtl = Math.min(cell.getLocalDeletionTime(), docTtl);
+                        docTtl = Math.max(cell.getLocalDeletionTime(), docTtl);
                         docMap.put(name, value);
                     }
                 }
             }
         }
         
+        // a live row marker keeps the row alive until it expires, even when all regular cells have expired.
+        public void addRowMarker(int localDeletionTime) {
+            docTtl = Math.max(localDeletionTime, docTtl);
+        }
+        
+        // with a mapped primary key column, any live cell makes the document live.
+        public void addLiveCell(int localDeletionTime) {
+            docLive = true;
+            docTtl = Math.max(localDeletionTime, docTtl);
+        }
+        
         public void addRegularColumn(final String name, final Object value, int localDeletionTime) throws IOException {
             if (mappingInfo.fields.contains(name)) {
                 docLive = true;
-                docTtl = Math.min(localDeletionTime, docTtl);
+                docTtl = Math.max(localDeletionTime, docTtl);
                 docMap.put(name, value);
             }
         }
@@ -332,7 +567,7 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
         public void addListColumn(final String name, final Object value, int localDeletionTime) throws IOException {
             if (mappingInfo.fields.contains(name)) {
                 docLive = true; 
-                docTtl = Math.min(localDeletionTime, docTtl);
+                docTtl = Math.max(localDeletionTime, docTtl);
                 List v = (List) docMap.get(name);
                 if (v == null) {
                     v = new ArrayList();
@@ -345,7 +580,7 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
         public void addSetColumn(final String name, final Object value, int localDeletionTime) throws IOException {
             if (mappingInfo.fields.contains(name)) {
                 docLive = true; 
-                docTtl = Math.min(localDeletionTime, docTtl);
+                docTtl = Math.max(localDeletionTime, docTtl);
                 Set v = (Set) docMap.get(name);
                 if (v == null) {
                     v = new HashSet();
@@ -358,7 +593,7 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
         public void addMapColumn(final String name, final Object key, final Object value, int localDeletionTime) throws IOException {
             if (mappingInfo.fields.contains(name)) {
                 docLive = true; 
-                docTtl = Math.min(localDeletionTime, docTtl);
+                docTtl = Math.max(localDeletionTime, docTtl);
                 Map v = (Map) docMap.get(name);
                 if (v == null) {
                     v = new HashMap();
@@ -385,7 +620,7 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
         public void complete() {
             // add missing or collection columns that should be read before indexing the document.
             Collection<String> mustReadColumns = null;
-            for(String fieldName: mappingInfo.fields) {
+            for(String fieldName: mappingInfo.fieldNames) {
                 Object value = docMap.get(fieldName);
                 if (value == null) {
                     if (!isTombstone(fieldName)) {
@@ -405,9 +640,24 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
                     if (logger.isTraceEnabled()) {
                         logger.trace(" {}.{} id={} read fields={} docMap={}",metadata.ksName, metadata.cfName, id(), mustReadColumns, docMap);
                     }
-                    Row row = getClusterService().fetchRowInternal(metadata.ksName, metadata.cfName, mustReadColumns, pkColumns).one();
+                    long readStartTime = System.nanoTime();
+                    List<String> fetchColumns = new ArrayList<String>(mustReadColumns);
+                    for(String columnName : mustReadColumns) {
+                        if (hasTtl(columnName)) {
+                            fetchColumns.add(ClusterService.TTL_COLUMN_PREFIX + columnName);
+                        }
+                    }
+                    Row row = getClusterService().fetchRowInternal(metadata.ksName, metadata.cfName, fetchColumns, pkBuffers).one();
                     int putCount = getClusterService().rowAsMap(metadata.ksName, metadata.cfName, row, docMap);
-                    if (putCount > 0) docLive = true;
+                    if (putCount > 0) {
+                        docLive = true;
+                        addFetchedTtl(row, mustReadColumns);
+                    }
+                    long readTime = System.nanoTime() - readStartTime;
+                    for (IndexInfo indexInfo : this.mappingInfo.indices) {
+                        indexInfo.stats.readBeforeWriteCount.inc();
+                        indexInfo.stats.record(Stage.READ_BEFORE_WRITE, readTime);
+                    }
                     if (logger.isTraceEnabled()) {
                         logger.trace("{}.{} id={} indexing docMap={}", metadata.ksName, metadata.cfName, id(), docMap);
                     }
@@ -417,11 +667,36 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
             }
         }
         
+        // CQL only returns the TTL of non-collection regular or static columns.
+        private boolean hasTtl(String columnName) {
+            ColumnDefinition cd = metadata.getColumnDefinition(new ColumnIdentifier(columnName, true));
+            return cd != null && (cd.isRegular() || cd.isStatic()) && !cd.type.isCollection();
+        }
         
+        // columns read before write keep the document alive as long as they live, a column without TTL never expires.
+        private void addFetchedTtl(Row row, Collection<String> fetchedColumns) {
+            int now = FBUtilities.nowInSeconds();
+            for(String columnName : fetchedColumns) {
+                if (!row.has(columnName)) 
+                    continue;
+                String ttlColumn = ClusterService.TTL_COLUMN_PREFIX + columnName;
+                if (hasTtl(columnName) && row.has(ttlColumn)) {
+                    docTtl = Math.max(now + row.getInt(ttlColumn), docTtl);
+                } else {
+                    // no TTL, or unknown for collection elements.
+                    docTtl = Integer.MAX_VALUE;
+                    return;
+                }
+            }
+        }
+        
+        /**
+         * JSON array of the primary key columns, or the column value for a single column primary key.
+         */
         public String id()  {
             if (id == null) {
                try {
-                   id = ClusterService.Utils.writeValueAsString(an);
+                   id = jsonId(pkLength);
                } catch (IOException e) {
                    logger.error("Unxepected error",e);
                }
@@ -429,43 +704,97 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
             return id;
         }
         
-        public XContentBuilder build(MappingInfo.IndexInfo indexInfo) throws IOException {
-            MapperService mapperService = indexInfo.indexService.mapperService();
-            DocumentMapper documentMapper = mapperService.documentMapper(metadata.cfName);
+        /**
+         * _id of the document in the index, binary for a compound primary key when the index has binary _id.
+         */
+        public String id(IndexInfo indexInfo) throws IOException {
+            if (indexInfo.binaryId && pkLength > 1) {
+                if (binaryId == null) {
+                    binaryId = ClusterService.Utils.binaryId(pkBuffers, pkLength);
+                }
+                return binaryId;
+            }
+            return id();
+        }
+        
+        /**
+         * JSON string of the partition key, or binary when the index has binary _id.
+         */
+        public String partitionKey(IndexInfo indexInfo) throws IOException {
+            int nrPartitionColumns = metadata.partitionKeyColumns().size();
+            if (indexInfo.binaryId && nrPartitionColumns > 1) {
+                return ClusterService.Utils.binaryId(pkBuffers, nrPartitionColumns);
+            }
+            if (partitionKey == null) {
+                partitionKey = jsonId(nrPartitionColumns);
+            }
+            return partitionKey;
+        }
+        
+        private String jsonId(int length) throws IOException {
+            ArrayNode an = ClusterService.Utils.jsonMapper.createArrayNode();
+            for (int i = 0; i < length; i++) {
+                ClusterService.Utils.addToJsonArray(pkTypes[i], pkColumns[i], an);
+            }
+            return ClusterService.Utils.writeValueAsString(an);
+        }
+        
+        public XContentBuilder build(IndexInfo indexInfo) throws IOException {
+            DocumentMapper documentMapper = indexInfo.documentMapper;
+            if (documentMapper == null) {
+                documentMapper = indexInfo.indexService.mapperService().documentMapper(metadata.cfName);
+            }
             return ClusterService.Utils.buildDocument(documentMapper, docMap);
         }
 
         public void index() throws JsonGenerationException, JsonMappingException, IOException {
-            for (MappingInfo.IndexInfo indexInfo : this.mappingInfo.indices) {
+            boolean newRow = false;
+            for (IndexInfo indexInfo : this.mappingInfo.indices) {
                 try {
+                    long stageStartTime = System.nanoTime();
                     XContentBuilder builder = build(indexInfo);
+                    indexInfo.stats.recordSince(Stage.BUILD, stageStartTime);
                     if (logger.isTraceEnabled()) {
                         logger.trace("indexing  CF={} target={} id={} token={} source={}",metadata.cfName, indexInfo.name, id(), this.token, builder.string());
                     }
                     BytesReference source = builder.bytes();
+                    long now = System.currentTimeMillis();
                     SourceToParse sourceToParse = SourceToParse.source(SourceToParse.Origin.PRIMARY, source)
                             .type(metadata.cfName)
-                            .id(id())
+                            .id(id(indexInfo))
                             .token(this.token)
-                            .routing(partitionKey)
-                            .timestamp(Long.toString(System.currentTimeMillis()));
+                            .routing(partitionKey(indexInfo))
+                            .timestamp(Long.toString(now));
                     if (docMap.get("_parent") != null) {
                         sourceToParse.parent((String)docMap.get("_parent"));
                     }
-                    if (this.docTtl < Integer.MAX_VALUE) {
-                        sourceToParse.ttl(this.docTtl);
+                    if (this.docTtl > Integer.MIN_VALUE && this.docTtl < Integer.MAX_VALUE) {
+                        // docTtl is the latest cell local deletion time in seconds, _ttl expires with the last expiring cell.
+                        sourceToParse.ttl(Math.max(1L, this.docTtl * 1000L - now));
                     }
                     IndexShard indexShard = indexInfo.indexService.shardSafe(0);
+                    stageStartTime = System.nanoTime();
                     Engine.IndexingOperation operation = indexShard.prepareIndex(sourceToParse, Versions.MATCH_ANY, VersionType.INTERNAL, Engine.Operation.Origin.PRIMARY, false);
+                    indexInfo.stats.recordSince(Stage.PARSE, stageStartTime);
                     Mapping update = operation.parsedDoc().dynamicMappingsUpdate();
                     if (update != null) { 
                         // could be necessay when cqlStruct=map or if mapping update id not yet propagated.
+                        indexInfo.stats.mappingUpdateCount.inc();
+                        stageStartTime = System.nanoTime();
                         getClusterService().blockingMappingUpdate(indexInfo.indexService, metadata.cfName, new CompressedXContent(update.toString()) );
+                        indexInfo.stats.recordSince(Stage.MAPPING_UPDATE, stageStartTime);
                     }
                    
-                    
+                    stageStartTime = System.nanoTime();
                     boolean created = operation.execute(indexShard);
+                    newRow |= created;
                     long version = operation.version();
+                    indexInfo.stats.recordSince(Stage.INDEX, stageStartTime);
+                    indexInfo.stats.indexCount.inc();
+
+                    if (indexInfo.percolator != null) {
+                        indexInfo.percolator.add(metadata.cfName, id(indexInfo), new LongToken(this.token), operation.parsedDoc());
+                    }
 
                     if (indexInfo.refresh) {
                         try {
@@ -482,22 +811,39 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
                             id(), version, created, sourceToParse.ttl(), indexInfo.refresh, sourceToParse.parent(), builder.string());
                     }
                 } catch (Throwable e1) {
+                    indexInfo.stats.failedCount.inc();
                     logger.error("Failed to index document id=" + id() + " in index.type=" + indexInfo.name + "." + ElasticSecondaryIndex.this.baseCfs.metadata.cfName, e1);
                 }
             }
+            if (newRow) {
+                // rows already indexed are not rolled up again, deletions are not reflected in rollups.
+                for (Rollup rollup : this.mappingInfo.rollups.values()) {
+                    try {
+                        rollup.update(this.token, docMap);
+                    } catch (Throwable e) {
+                        logger.error("Failed to update rollup {}.{} id={}", e, metadata.ksName, rollup.tableName, id());
+                    }
+                }
+            }
         }
         
-        public void delete() {
+        public void delete() throws IOException {
             logger.debug("deleting document from index " + getIndexName() + " id=" + id());
-            for (MappingInfo.IndexInfo indexInfo : this.mappingInfo.indices) {
+            for (IndexInfo indexInfo : this.mappingInfo.indices) {
                 logger.debug("xdeleting document from index.type={}.{} id={}", indexInfo.name, metadata.cfName, id());
+                long stageStartTime = System.nanoTime();
                 IndexShard indexShard = indexInfo.indexService.shardSafe(0);
-                Engine.Delete delete = indexShard.prepareDelete(metadata.cfName, id(), Versions.MATCH_ANY, VersionType.EXTERNAL, Engine.Operation.Origin.PRIMARY);
+                Engine.Delete delete = indexShard.prepareDelete(metadata.cfName, id(indexInfo), Versions.MATCH_ANY, VersionType.EXTERNAL, Engine.Operation.Origin.PRIMARY);
                 indexShard.delete(delete);
+                indexInfo.stats.recordSince(Stage.DELETE, stageStartTime);
+                indexInfo.stats.deleteCount.inc();
             }
         }
         
         public void flush() throws JsonGenerationException, JsonMappingException, IOException {
+            for (IndexInfo indexInfo : this.mappingInfo.indices) {
+                indexInfo.stats.record(Stage.DESERIALIZE, deserializeTime);
+            }
             complete();
             if (docLive) {
                 index();
@@ -516,6 +862,7 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
         final MappingInfo mappingInfo;
         
         Document doc = null;
+        int rowMarkerDeletionTime = Integer.MIN_VALUE;
         
         public DocumentFactory(final MappingInfo mappingInfo, final ByteBuffer rowKey, final ColumnFamily cf) {
             this.rowKey = rowKey;
@@ -528,7 +875,7 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
         
         public Document nextDocument(final Cell cell) throws IOException {
             if (this.doc == null) {
-                this.doc = new Document(mappingInfo, rowKey, cf, cell);
+                this.doc = newDocument(cell);
                 return this.doc;
             }
             
@@ -545,11 +892,27 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
                 }
                 if (!sameRow) {
                     doc.flush();
-                    return new Document(mappingInfo, rowKey, cf, cell);
+                    return newDocument(cell);
                 }
             }
             return doc;
         }
+        
+        // row markers come before the cells of their row, so apply the pending one to the next document.
+        public void rowMarker(final Cell cell) {
+            if (cell.isLive()) {
+                rowMarkerDeletionTime = cell.getLocalDeletionTime();
+            }
+        }
+        
+        private Document newDocument(final Cell cell) throws IOException {
+            Document document = new Document(mappingInfo, rowKey, cf, cell);
+            if (rowMarkerDeletionTime > Integer.MIN_VALUE) {
+                document.addRowMarker(rowMarkerDeletionTime);
+                rowMarkerDeletionTime = Integer.MIN_VALUE;
+            }
+            return document;
+        }
     }
 
     
@@ -563,9 +926,23 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
             logger.warn("No Elasticsearch index ready");
             return;
         }
+        
+        if (!mappingInfo.isIndexed(cf)) {
+            if (logger.isTraceEnabled()) {
+                logger.trace("skip indexing of unmapped columns cf={}.{}", cf.metadata().ksName, cf.metadata().cfName);
+            }
+            return;
+        }
 
         CFMetaData metadata = cf.metadata();
         
+        if (isSegmentStreamed(metadata.ksName, rowKey)) {
+            if (logger.isTraceEnabled()) {
+                logger.trace("skip indexing of a segment streamed row cf={}.{}", metadata.ksName, metadata.cfName);
+            }
+            return;
+        }
+        
         if (logger.isTraceEnabled()) {       
             CType ctype = metadata.getKeyValidatorAsCType();
             Composite composite = ctype.fromByteBuffer(rowKey);
@@ -584,10 +961,14 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
                 assert cellName instanceof CompoundSparseCellName;
                 
                 if (cellName.cql3ColumnName(metadata).toString().length()==0) {
-                    // ignore fake cell with no CQL3 name.
+                    // fake cell with no CQL3 name is the row marker, only its expiration matters.
+                    docFactory.rowMarker(cell);
                     continue;
                 }
                 doc = docFactory.nextDocument(cell);
+                if (mappingInfo.primaryKeyMapped && cell.isLive()) {
+                    doc.addLiveCell(cell.getLocalDeletionTime());
+                }
                 ColumnDefinition cd = metadata.getColumnDefinition(cell.name());
                 if (cd != null) {
                     if (cell.isLive()) {
@@ -595,15 +976,18 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
                             CollectionType ctype = (CollectionType) cd.type;
                             Object value = null;
                   
+                            long decodeStartTime = System.nanoTime();
                             switch (ctype.kind) {
                             case LIST: 
                                 value = deserialize(((ListType)cd.type).getElementsType(), cell.value() );
+                                doc.deserializeTime += System.nanoTime() - decodeStartTime;
                                 if (logger.isTraceEnabled()) 
                                     logger.trace("list name={} type={} value={}", cellName.cql3ColumnName(metadata), cd.type.asCQL3Type().toString(), value);
                                 doc.addListColumn(cd.name.toString(), value, cell.getLocalDeletionTime());
                                 break;
                             case SET:
                                 value = deserialize(((SetType)cd.type).getElementsType(), cell.value() );
+                                doc.deserializeTime += System.nanoTime() - decodeStartTime;
                                 if (logger.isTraceEnabled()) 
                                     logger.trace("set name={} type={} value={}", cellName.cql3ColumnName(metadata), cd.type.asCQL3Type().toString(), value);
                                 doc.addSetColumn(cd.name.toString(), value, cell.getLocalDeletionTime());
@@ -611,6 +995,7 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
                             case MAP:
                                 value = deserialize(((MapType)cd.type).getValuesType(), cell.value() );
                                 String key = (String) deserialize(((MapType)cd.type).getKeysType(), cellName.get(cellName.size()-1));
+                                doc.deserializeTime += System.nanoTime() - decodeStartTime;
                                 if (logger.isTraceEnabled()) 
                                     logger.trace("map name={} type={} key={} value={}", 
                                             cellName.cql3ColumnName(metadata),
@@ -622,7 +1007,9 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
                             }
 
                         } else {
+                            long decodeStartTime = System.nanoTime();
                             Object value = deserialize(cd.type, cell.value() );
+                            doc.deserializeTime += System.nanoTime() - decodeStartTime;
                             if (logger.isTraceEnabled()) 
                                 logger.trace("name={} type={} value={}", cellName.cql3ColumnName(metadata), cd.type.asCQL3Type().toString(), value);
                             doc.addRegularColumn(cd.name.toString(), value, cell.getLocalDeletionTime());
@@ -692,7 +1079,7 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
     public synchronized void initMapping() {
         if (ElassandraDaemon.injector() != null) {
            getClusterService().addLast(this);
-            this.mappingAtomicReference.set(new MappingInfo(getClusterService().state()));
+            this.mappingAtomicReference.set(keyspaceMappingInfo(this.baseCfs.metadata.ksName, getClusterService().state()).mappingInfo(this.baseCfs.metadata.cfName));
             logger.debug("index=[{}.{}] initialized mappingAtomicReference = {}", this.baseCfs.metadata.ksName, index_name, mappingAtomicReference.get());
         } else {
             logger.error("Failed to initialize index=[{}.{}] mappingAtomicReference", this.baseCfs.metadata.ksName, index_name);
@@ -743,7 +1130,7 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
             logger.warn("Elasticsearch not ready, cannot flush Elasticsearch index");
             return;
         }
-        for(MappingInfo.IndexInfo indexInfo : mappingInfo.indices) {
+        for(IndexInfo indexInfo : mappingInfo.indices) {
             try {
                 IndexShard indexShard = indexInfo.indexService.shardSafe(0);
                 logger.debug("Flushing Elasticsearch index=[{}] state=[{}]",indexInfo.name, indexShard.state());
@@ -759,7 +1146,24 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
         }
     }
 
-    
+    /**
+     * Started shards of the indices mapping this table, flushed by {@link #forceBlockingFlush()} along with the memtable.
+     */
+    public List<IndexShard> mappedShards() {
+        MappingInfo mappingInfo = this.mappingAtomicReference.get();
+        if (mappingInfo == null) {
+            return Collections.emptyList();
+        }
+        List<IndexShard> shards = new ArrayList<IndexShard>(mappingInfo.indices.size());
+        for(IndexInfo indexInfo : mappingInfo.indices) {
+            IndexShard indexShard = indexInfo.indexService.shard(0);
+            if (indexShard != null && indexShard.state() == IndexShardState.STARTED) {
+                shards.add(indexShard);
+            }
+        }
+        return shards;
+    }
+
     @Override
     public ColumnFamilyStore getIndexCfs() {
         // TODO Auto-generated method stub
@@ -811,6 +1215,9 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
     
     @Override
     public void clusterChanged(ClusterChangedEvent event) {
+        for (String index : event.indicesDeleted()) {
+            ContinuousPercolator.remove(index);
+        }
         boolean updateMapping = false;
         if (event.blocksChanged()) {
             updateMapping = true;
@@ -829,7 +1236,7 @@ public class ElasticSecondaryIndex extends PerRowSecondaryIndex implements Clust
         }
         if (updateMapping) {
             if (logger.isTraceEnabled()) logger.trace("state = {}", event.state());
-            this.mappingAtomicReference.set(new MappingInfo(event.state()));
+            this.mappingAtomicReference.set(keyspaceMappingInfo(this.baseCfs.metadata.ksName, event.state()).mappingInfo(this.baseCfs.metadata.cfName));
             logger.debug("index=[{}.{}] new mappingInfo = {}",this.baseCfs.metadata.ksName, this.index_name, this.mappingAtomicReference.get() );
         }
     }
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2016 Vincent Royer (vroyer@vroyer.org).
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.cassandra;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.cassandra.metrics.CassandraMetricsRegistry;
+import org.apache.cassandra.metrics.DefaultNameFactory;
+import org.apache.cassandra.metrics.MetricNameFactory;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.index.indexing.SecondaryIndexStats.Stage;
+import org.elasticsearch.index.indexing.SecondaryIndexStatsHolder;
+
+import com.codahale.metrics.Gauge;
+
+/**
+ * Cassandra JMX metrics of the {@link ElasticSecondaryIndex} write path, registered once per keyspace.table.index
+ * under org.apache.cassandra.metrics:type=ElasticSecondaryIndex. Latencies are in microseconds.
+ * Gauges read the {@link SecondaryIndexStatsHolder} of the local shard, the holder is swapped when the shard is re-created.
+ * @author vroyer
+ *
+ */
+public class ElasticSecondaryIndexMetrics {
+    public static final String TYPE_NAME = "ElasticSecondaryIndex";
+
+    private static final ConcurrentMap<String, ElasticSecondaryIndexMetrics> registered = new ConcurrentHashMap<String, ElasticSecondaryIndexMetrics>();
+
+    private final MetricNameFactory factory;
+    private volatile SecondaryIndexStatsHolder holder;
+
+    private ElasticSecondaryIndexMetrics(String scope, SecondaryIndexStatsHolder holder) {
+        this.factory = new DefaultNameFactory(TYPE_NAME, scope);
+        this.holder = holder;
+    }
+
+    /**
+     * Register (or rebind) the JMX metrics of an index for the table ksName.cfName.
+     */
+    public static void register(String ksName, String cfName, String index, SecondaryIndexStatsHolder holder) {
+        String scope = ksName + "." + cfName + "." + index;
+        ElasticSecondaryIndexMetrics metrics = registered.get(scope);
+        if (metrics == null) {
+            metrics = new ElasticSecondaryIndexMetrics(scope, holder);
+            ElasticSecondaryIndexMetrics previous = registered.putIfAbsent(scope, metrics);
+            if (previous == null) {
+                metrics.registerGauges();
+                return;
+            }
+            metrics = previous;
+        }
+        metrics.holder = holder;
+    }
+
+    private void registerGauges() {
+        for(final Stage stage : Stage.values()) {
+            String name = Strings.capitalize(Strings.toCamelCase(stage.name().toLowerCase()));
+            CassandraMetricsRegistry.Metrics.register(factory.createMetricName(name + "Count"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return holder.histogram(stage).getTotalCount();
+                }
+            });
+            CassandraMetricsRegistry.Metrics.register(factory.createMetricName(name + "MeanLatency"), new Gauge<Double>() {
+                @Override
+                public Double getValue() {
+                    return holder.histogram(stage).getMean();
+                }
+            });
+            CassandraMetricsRegistry.Metrics.register(factory.createMetricName(name + "99thPercentileLatency"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return holder.histogram(stage).getValueAtPercentile(99.0);
+                }
+            });
+            CassandraMetricsRegistry.Metrics.register(factory.createMetricName(name + "MaxLatency"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return holder.histogram(stage).getMaxValue();
+                }
+            });
+        }
+        registerCounter("IndexCount", new CounterAccessor() {
+            @Override
+            public CounterMetric counter(SecondaryIndexStatsHolder holder) {
+                return holder.indexCount;
+            }
+        });
+        registerCounter("DeleteCount", new CounterAccessor() {
+            @Override
+            public CounterMetric counter(SecondaryIndexStatsHolder holder) {
+                return holder.deleteCount;
+            }
+        });
+        registerCounter("ReadBeforeWriteCount", new CounterAccessor() {
+            @Override
+            public CounterMetric counter(SecondaryIndexStatsHolder holder) {
+                return holder.readBeforeWriteCount;
+            }
+        });
+        registerCounter("MappingUpdateCount", new CounterAccessor() {
+            @Override
+            public CounterMetric counter(SecondaryIndexStatsHolder holder) {
+                return holder.mappingUpdateCount;
+            }
+        });
+        registerCounter("FailedCount", new CounterAccessor() {
+            @Override
+            public CounterMetric counter(SecondaryIndexStatsHolder holder) {
+                return holder.failedCount;
+            }
+        });
+    }
+
+    private interface CounterAccessor {
+        CounterMetric counter(SecondaryIndexStatsHolder holder);
+    }
+
+    private void registerCounter(String name, final CounterAccessor accessor) {
+        CassandraMetricsRegistry.Metrics.register(factory.createMetricName(name), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return accessor.counter(holder).count();
+            }
+        });
+    }
+}
@@ -17,12 +17,18 @@ package org.elasticsearch.cassandra;
 import static org.elasticsearch.common.util.concurrent.EsExecutors.daemonThreadFactory;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.util.Iterator;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.TimeUnit;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
 import org.apache.cassandra.exceptions.RequestExecutionException;
+import org.apache.cassandra.service.ElassandraDaemon;
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.cluster.ClusterChangedEvent;
 import org.elasticsearch.cluster.ClusterService;
@@ -32,13 +38,16 @@ import org.elasticsearch.common.Priority;
 import org.elasticsearch.common.component.AbstractLifecycleComponent;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 import org.elasticsearch.common.util.concurrent.PrioritizedEsThreadPoolExecutor;
 import org.elasticsearch.common.util.concurrent.PrioritizedRunnable;
+import org.elasticsearch.env.NodeEnvironment;
 import org.elasticsearch.index.IndexService;
 import org.elasticsearch.indices.IndicesLifecycle;
 import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.threadpool.ThreadPool;
 
 
 /**
@@ -58,14 +67,32 @@ public class ElasticSecondaryIndicesService extends AbstractLifecycleComponent<S
     private final IndicesService indicesService;
     private final IndicesLifecycle indicesLifecycle;
     private final ClusterService clusterService;
+    private final ThreadPool threadPool;
+    
+    private final IndexConsistencyChecker consistencyChecker;
+    private final TimeValue consistencyCheckInterval;
+    private final boolean consistencyCheckRepair;
+    
+    private final NodeEnvironment nodeEnv;
+    // keyspaces left pending by a segment streaming interrupted by a node stop
+    private final CopyOnWriteArraySet<String> pendingSegmentStreaming = new CopyOnWriteArraySet<>();
     
     @Inject
     public ElasticSecondaryIndicesService(Settings settings,  ClusterService clusterService,
-            IndicesService indicesService, IndicesLifecycle indicesLifecycle) {
+            IndicesService indicesService, IndicesLifecycle indicesLifecycle, ThreadPool threadPool, NodeEnvironment nodeEnv) {
         super(settings);
+        this.nodeEnv = nodeEnv;
         this.clusterService = clusterService;
         this.indicesService = indicesService;
         this.indicesLifecycle = indicesLifecycle;
+        this.threadPool = threadPool;
+        this.consistencyChecker = new IndexConsistencyChecker(settings.getAsInt(IndexConsistencyChecker.SETTING_SPLITS, IndexConsistencyChecker.DEFAULT_SPLITS));
+        this.consistencyCheckInterval = settings.getAsTime(IndexConsistencyChecker.SETTING_INTERVAL, TimeValue.timeValueMillis(-1));
+        this.consistencyCheckRepair = settings.getAsBoolean(IndexConsistencyChecker.SETTING_REPAIR, true);
+    }
+    
+    public IndexConsistencyChecker consistencyChecker() {
+        return this.consistencyChecker;
     }
     
     public void addDeleteListener(DeleteListener listener) {
@@ -145,6 +172,46 @@ public class ElasticSecondaryIndicesService extends AbstractLifecycleComponent<S
         }
     }
     
+    /**
+     * Periodic consistency check of the local indexed tables, rescheduled when done so that checks never overlap.
+     */
+    class ConsistencyCheck implements Runnable {
+        @Override
+        public void run() {
+            if (!lifecycle.started()) {
+                return;
+            }
+            try {
+                consistencyChecker.check(null, null, 0, consistencyCheckRepair);
+            } catch (Throwable t) {
+                logger.error("Failed to check index consistency", t);
+            } finally {
+                if (lifecycle.started()) {
+                    threadPool.schedule(consistencyCheckInterval, ThreadPool.Names.GENERIC, this);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Repair a keyspace whose segment streaming was interrupted by a node stop, see {@link SegmentStreaming#reconcile}.
+     */
+    class ReconcileSegmentStreamingTask extends Task {
+        public ReconcileSegmentStreamingTask(final String ksName) {
+            super(null, ksName);
+        }
+        @Override
+        public void execute() {
+            try {
+                if (!SegmentStreaming.reconcile(ElassandraDaemon.injector(), ksName)) {
+                    pendingSegmentStreaming.add(ksName);
+                }
+            } catch (Throwable t) {
+                logger.error("Failed to repair the segment streamed ranges of keyspace [{}]", t, ksName);
+            }
+        }
+    }
+    
     public void submitTask(Task task) {
         if (!lifecycle.started()) {
             return;
@@ -166,6 +233,19 @@ public class ElasticSecondaryIndicesService extends AbstractLifecycleComponent<S
         // TODO Auto-generated method stub
         this.tasksExecutor = EsExecutors.newSinglePrioritizing("SecondaryIndicesService",daemonThreadFactory(settings, TASK_THREAD_NAME));
         logger.debug("{} started.",TASK_THREAD_NAME);
+        try {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            mbs.registerMBean(new StandardMBean(consistencyChecker, IndexConsistencyCheckerMBean.class), new ObjectName(IndexConsistencyChecker.MBEAN_NAME));
+        } catch (Exception e) {
+            logger.error("error registering MBean {}", e, IndexConsistencyChecker.MBEAN_NAME);
+        }
+        if (consistencyCheckInterval.millis() > 0) {
+            threadPool.schedule(consistencyCheckInterval, ThreadPool.Names.GENERIC, new ConsistencyCheck());
+        }
+        pendingSegmentStreaming.addAll(SegmentStreaming.pendingKeyspaces(nodeEnv));
+        if (!pendingSegmentStreaming.isEmpty()) {
+            logger.warn("segment streaming of keyspaces {} was interrupted, their indices will be repaired once started", pendingSegmentStreaming);
+        }
     }
 
     @Override
@@ -177,6 +257,11 @@ public class ElasticSecondaryIndicesService extends AbstractLifecycleComponent<S
         } catch (InterruptedException e) {
             // ignore
         }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(IndexConsistencyChecker.MBEAN_NAME));
+        } catch (Exception e) {
+            logger.debug("error unregistering MBean {}", e, IndexConsistencyChecker.MBEAN_NAME);
+        }
     }
 
     @Override
@@ -222,6 +307,13 @@ public class ElasticSecondaryIndicesService extends AbstractLifecycleComponent<S
             }
         }
         
+        if (event.routingTableChanged() && !pendingSegmentStreaming.isEmpty()) {
+            for (String ksName : pendingSegmentStreaming) {
+                pendingSegmentStreaming.remove(ksName);
+                submitTask(new ReconcileSegmentStreamingTask(ksName));
+            }
+        }
+        
         // notify listeners that all shards are deleted.
         for(DeleteListener deleteListener : this.deleteListeners) {
             if (!event.state().routingTable().hasIndex(deleteListener.index())) {
@@ -0,0 +1,626 @@
+/*
+ * Copyright (c) 2016 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.cassandra;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.cassandra.config.CFMetaData;
+import org.apache.cassandra.config.ColumnDefinition;
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.cql3.QueryProcessor;
+import org.apache.cassandra.cql3.UntypedResultSet;
+import org.apache.cassandra.cql3.UntypedResultSet.Row;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.marshal.CompositeType;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.service.StorageService;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+import org.codehaus.jackson.node.ArrayNode;
+import org.elasticsearch.cassandra.ElasticSecondaryIndex.IndexInfo;
+import org.elasticsearch.cassandra.ElasticSecondaryIndex.MappingInfo;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.hash.MurmurHash3;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.lucene.uid.Versions;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.index.VersionType;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.mapper.DocumentMapper;
+import org.elasticsearch.index.mapper.Uid;
+import org.elasticsearch.index.mapper.internal.SourceFieldMapper;
+import org.elasticsearch.index.mapper.internal.TokenFieldMapper;
+import org.elasticsearch.index.mapper.internal.UidFieldMapper;
+import org.elasticsearch.index.shard.IndexShard;
+
+/**
+ * Detect and repair the drift between the local rows of a table and the documents of its Elasticsearch indices,
+ * left by failed {@link ElasticSecondaryIndex} writes or unindexed partition deletions.
+ * <p>
+ * The local token ranges are split in sub-ranges, and both sides compute a count and an order independent hash
+ * (sum of the murmur3 hash of the _uid mixed with the hash of the mapped regular column values) per sub-range.
+ * Cassandra rows are read with a paged token range scan, and their values rendered as {@link ElasticSecondaryIndex} builds
+ * the _source, Lucene documents with one pass on the _uid terms, the _token doc values and the _source. Only the divergent
+ * sub-ranges are repaired: partitions having rows without document or with stale values are reindexed, and documents
+ * without row are deleted. Collection and static column values are not hashed.
+ * @author vroyer
+ *
+ */
+public class IndexConsistencyChecker implements IndexConsistencyCheckerMBean {
+    private static final ESLogger logger = Loggers.getLogger(IndexConsistencyChecker.class);
+
+    public static final String MBEAN_NAME = "org.elasticsearch.cassandra:type=IndexConsistencyChecker";
+
+    public static final String SETTING_INTERVAL = "indices.consistency_check.interval";
+    public static final String SETTING_SPLITS = "indices.consistency_check.splits";
+    public static final String SETTING_REPAIR = "indices.consistency_check.repair";
+
+    public static final int DEFAULT_SPLITS = 1024;
+
+    static final int PAGE_SIZE = 1000;
+    static final String SOURCE = "consistency_check";
+    static final Set<String> UID_SOURCE_FIELDS = new HashSet<String>(Arrays.asList(UidFieldMapper.NAME, SourceFieldMapper.NAME));
+    static final Set<String> SOURCE_FIELD = Collections.singleton(SourceFieldMapper.NAME);
+
+    private final int defaultSplits;
+
+    public IndexConsistencyChecker(int defaultSplits) {
+        this.defaultSplits = defaultSplits;
+    }
+
+    @Override
+    public String checkConsistency(String keyspace, String table, int splits, boolean repair) {
+        StringBuilder sb = new StringBuilder();
+        for (Report report : check(keyspace, table, splits, repair)) {
+            sb.append(report).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Check (and repair) the indexed tables of a keyspace, or of all keyspaces. Checks run one at a time.
+     */
+    public synchronized List<Report> check(@Nullable String keyspace, @Nullable String table, int splits, boolean repair) {
+        List<Report> reports = new ArrayList<Report>();
+        for (ElasticSecondaryIndex esi : new ArrayList<ElasticSecondaryIndex>(ElasticSecondaryIndex.elasticSecondayIndices)) {
+            CFMetaData metadata = esi.baseCfs().metadata;
+            if ((keyspace != null && keyspace.length() > 0 && !keyspace.equals(metadata.ksName)) ||
+                (table != null && table.length() > 0 && !table.equals(metadata.cfName))) {
+                continue;
+            }
+            try {
+                reports.addAll(check(esi, (splits > 0) ? splits : defaultSplits, repair));
+            } catch (Throwable t) {
+                logger.error("Failed to check index consistency of table {}.{}", t, metadata.ksName, metadata.cfName);
+            }
+        }
+        return reports;
+    }
+
+    List<Report> check(ElasticSecondaryIndex esi, int splits, boolean repair) throws IOException {
+        MappingInfo mappingInfo = esi.mappingInfo();
+        if (mappingInfo == null || mappingInfo.indices.size() == 0) {
+            return Collections.emptyList();
+        }
+        TableScan scan = new TableScan(esi.baseCfs(), mappingInfo);
+        if (!scan.isIndexed()) {
+            logger.debug("skip consistency check of {}.{}, no mapped column", scan.ksName, scan.cfName);
+            return Collections.emptyList();
+        }
+        SubRanges subRanges = SubRanges.split(StorageService.instance.getLocalRanges(scan.ksName), splits);
+        List<IndexInfo> indices = mappingInfo.indices;
+
+        // one cassandra scan for all indices of the table, _id of compound keys and _source depend on the index.
+        Digest[] rowDigests = new Digest[indices.size()];
+        DocumentMapper[] docMappers = new DocumentMapper[indices.size()];
+        for (int j = 0; j < indices.size(); j++) {
+            rowDigests[j] = new Digest(subRanges.size());
+            docMappers[j] = indices.get(j).indexService.mapperService().documentMapper(scan.cfName);
+        }
+        for (int i = 0; i < subRanges.size(); i++) {
+            for (Row row : scan.rows(subRanges.lefts[i], subRanges.rights[i])) {
+                if (scan.isLive(row)) {
+                    for (int j = 0; j < indices.size(); j++) {
+                        rowDigests[j].add(i, Uid.createUidAsBytes(scan.cfName, scan.id(row, indices.get(j).binaryId)), scan.valuesHash(row, docMappers[j]));
+                    }
+                }
+            }
+        }
+
+        List<Report> reports = new ArrayList<Report>(indices.size());
+        for (int j = 0; j < indices.size(); j++) {
+            IndexInfo indexInfo = indices.get(j);
+            Report report = new Report(scan.ksName, scan.cfName, indexInfo.name, subRanges.size());
+            IndexShard indexShard = indexInfo.indexService.shardSafe(0);
+            // documents of rows written before the scan must be visible.
+            indexShard.refresh(SOURCE);
+            Digest docDigest = docDigest(indexShard, scan, docMappers[j] != null, subRanges, report);
+            for (int i = 0; i < subRanges.size(); i++) {
+                report.rows += rowDigests[j].counts[i];
+                report.docs += docDigest.counts[i];
+                if (!rowDigests[j].equals(i, docDigest)) {
+                    report.divergent++;
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("{}.{} index={} range=({},{}] rows={} docs={}", scan.ksName, scan.cfName, indexInfo.name,
+                                subRanges.lefts[i], subRanges.rights[i], rowDigests[j].counts[i], docDigest.counts[i]);
+                    }
+                    if (repair) {
+                        repair(esi, scan, indexInfo, docMappers[j], indexShard, subRanges.lefts[i], subRanges.rights[i], report);
+                    }
+                }
+            }
+            if (report.divergent > 0) {
+                logger.warn("{}", report);
+            } else {
+                logger.debug("{}", report);
+            }
+            reports.add(report);
+        }
+        return reports;
+    }
+
+    /**
+     * Count and hash the live documents of the scanned table per sub-range, by reading the _token doc value and the _source
+     * of the documents of each _uid term.
+     */
+    Digest docDigest(IndexShard indexShard, TableScan scan, boolean hashValues, SubRanges subRanges, Report report) throws IOException {
+        Digest digest = new Digest(subRanges.size());
+        BytesRef prefix = Uid.typePrefixAsBytes(new BytesRef(scan.cfName));
+        try (Engine.Searcher searcher = indexShard.acquireSearcher(SOURCE)) {
+            PostingsEnum postings = null;
+            for (LeafReaderContext context : searcher.reader().leaves()) {
+                LeafReader reader = context.reader();
+                Terms terms = reader.terms(UidFieldMapper.NAME);
+                if (terms == null) {
+                    continue;
+                }
+                TermsEnum termsEnum = terms.iterator();
+                if (termsEnum.seekCeil(prefix) == TermsEnum.SeekStatus.END) {
+                    continue;
+                }
+                Bits liveDocs = reader.getLiveDocs();
+                SortedNumericDocValues tokens = DocValues.getSortedNumeric(reader, TokenFieldMapper.NAME);
+                for (BytesRef uid = termsEnum.term(); uid != null && StringHelper.startsWith(uid, prefix); uid = termsEnum.next()) {
+                    postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                    for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                        if (liveDocs != null && liveDocs.get(doc) == false) {
+                            continue;
+                        }
+                        tokens.setDocument(doc);
+                        if (tokens.count() == 0) {
+                            // nested documents share the _uid of their root document.
+                            continue;
+                        }
+                        int i = subRanges.find(tokens.valueAt(0));
+                        if (i < 0) {
+                            // not yet removed after a ring change.
+                            report.outOfRangeDocs++;
+                        } else {
+                            digest.add(i, uid, hashValues ? scan.valuesHash(reader.document(doc, SOURCE_FIELD)) : 0);
+                        }
+                        break;
+                    }
+                }
+            }
+        }
+        return digest;
+    }
+
+    /**
+     * Reindex the partitions having rows without document or with stale values, and delete the documents without row
+     * in the token range (left, right].
+     */
+    void repair(ElasticSecondaryIndex esi, TableScan scan, IndexInfo indexInfo, DocumentMapper docMapper, IndexShard indexShard, long left, long right, Report report) throws IOException {
+        // ids are collected before the scan, so that a document found without row is really an orphan.
+        Map<String, Long> orphanIds = docValuesHashes(indexShard, scan, docMapper != null, left, right);
+        Set<ByteBuffer> partitionKeys = new LinkedHashSet<ByteBuffer>();
+        for (Row row : scan.rows(left, right)) {
+            if (scan.isLive(row)) {
+                Long docHash = orphanIds.remove(scan.id(row, indexInfo.binaryId));
+                if (docHash == null || docHash.longValue() != scan.valuesHash(row, docMapper)) {
+                    partitionKeys.add(scan.partitionKey(row));
+                }
+            }
+        }
+        Set<String> idxNames = Collections.singleton(esi.getIndexName());
+        for (ByteBuffer partitionKey : partitionKeys) {
+            Keyspace.indexRow(DatabaseDescriptor.getPartitioner().decorateKey(partitionKey), scan.cfs, idxNames);
+            report.reindexedPartitions++;
+        }
+        for (String id : orphanIds.keySet()) {
+            Engine.Delete delete = indexShard.prepareDelete(scan.cfName, id, Versions.MATCH_ANY, VersionType.INTERNAL, Engine.Operation.Origin.PRIMARY);
+            indexShard.delete(delete);
+            report.deletedDocs++;
+        }
+    }
+
+    /**
+     * @return the values hash of the documents of the scanned table in the token range (left, right], by _id.
+     */
+    Map<String, Long> docValuesHashes(IndexShard indexShard, final TableScan scan, final boolean hashValues, long left, long right) throws IOException {
+        final Map<String, Long> ids = new HashMap<String, Long>();
+        Query query = NumericRangeQuery.newLongRange(TokenFieldMapper.NAME, TokenFieldMapper.Defaults.PRECISION_STEP_64_BIT, left, right, false, true);
+        try (Engine.Searcher searcher = indexShard.acquireSearcher(SOURCE)) {
+            searcher.searcher().search(query, new SimpleCollector() {
+                LeafReader reader;
+
+                @Override
+                protected void doSetNextReader(LeafReaderContext context) throws IOException {
+                    this.reader = context.reader();
+                }
+
+                @Override
+                public void collect(int doc) throws IOException {
+                    Document document = reader.document(doc, UID_SOURCE_FIELDS);
+                    Uid uid = Uid.createUid(document.get(UidFieldMapper.NAME));
+                    if (scan.cfName.equals(uid.type())) {
+                        ids.put(uid.id(), hashValues ? scan.valuesHash(document) : 0);
+                    }
+                }
+
+                @Override
+                public boolean needsScores() {
+                    return false;
+                }
+            });
+        }
+        return ids;
+    }
+
+    /**
+     * Paged token range scan of the primary key and mapped columns of a table.
+     * Not thread safe, checks run one at a time.
+     */
+    static class TableScan {
+        final ColumnFamilyStore cfs;
+        final String ksName;
+        final String cfName;
+        final ColumnDefinition[] primaryKeyColumns;
+        final int partitionKeySize;
+        final List<String> clusteringColumns = new ArrayList<String>();
+        final List<String> mappedColumns = new ArrayList<String>();
+        // mapped regular columns indexed with the value of a single cell.
+        final List<ColumnDefinition> valueColumns = new ArrayList<ColumnDefinition>();
+        boolean clusteringMapped = false;
+        private final MurmurHash3.Hash128 hash128 = new MurmurHash3.Hash128();
+        final String query;
+
+        TableScan(ColumnFamilyStore cfs, MappingInfo mappingInfo) {
+            CFMetaData metadata = cfs.metadata;
+            this.cfs = cfs;
+            this.ksName = metadata.ksName;
+            this.cfName = metadata.cfName;
+            List<ColumnDefinition> primaryKey = new ArrayList<ColumnDefinition>(metadata.partitionKeyColumns());
+            primaryKey.addAll(metadata.clusteringColumns());
+            this.primaryKeyColumns = primaryKey.toArray(new ColumnDefinition[primaryKey.size()]);
+            this.partitionKeySize = metadata.partitionKeyColumns().size();
+
+            StringBuilder partitionColumns = new StringBuilder();
+            StringBuilder columns = new StringBuilder();
+            for (ColumnDefinition cd : metadata.partitionKeyColumns()) {
+                if (partitionColumns.length() > 0) partitionColumns.append(',');
+                partitionColumns.append('"').append(cd.name.toString()).append('"');
+            }
+            columns.append(partitionColumns);
+            for (ColumnDefinition cd : metadata.clusteringColumns()) {
+                String name = cd.name.toString();
+                clusteringColumns.add(name);
+                clusteringMapped |= mappingInfo.fields.contains(name);
+                columns.append(",\"").append(name).append('"');
+            }
+            for (ColumnDefinition cd : metadata.regularAndStaticColumns()) {
+                String name = cd.name.toString();
+                if (mappingInfo.fields.contains(name)) {
+                    mappedColumns.add(name);
+                    columns.append(",\"").append(name).append('"');
+                    if (cd.isRegular() && !cd.type.isCollection()) {
+                        valueColumns.add(cd);
+                    }
+                }
+            }
+            this.query = String.format(Locale.ROOT, "SELECT %s FROM \"%s\".\"%s\" WHERE token(%s) > ? AND token(%s) <= ?",
+                    columns, ksName, cfName, partitionColumns, partitionColumns);
+        }
+
+        boolean isIndexed() {
+            return clusteringMapped || mappedColumns.size() > 0;
+        }
+
+        Iterable<Row> rows(long left, long right) {
+            return QueryProcessor.executeInternalWithPaging(query, PAGE_SIZE, left, right);
+        }
+
+        /**
+         * @return true when {@link ElasticSecondaryIndex} indexes the row as a document, having a live mapped column.
+         */
+        boolean isLive(Row row) {
+            for (String name : clusteringColumns) {
+                if (!row.has(name)) {
+                    // static columns of a partition without rows.
+                    return false;
+                }
+            }
+            if (clusteringMapped) {
+                return true;
+            }
+            for (String name : mappedColumns) {
+                if (row.has(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * _id of the document of the row, as built by {@link ElasticSecondaryIndex}.
+         */
+        String id(Row row, boolean binaryId) throws IOException {
+            ByteBuffer[] buffers = new ByteBuffer[primaryKeyColumns.length];
+            for (int i = 0; i < primaryKeyColumns.length; i++) {
+                buffers[i] = row.getBytes(primaryKeyColumns[i].name.toString());
+            }
+            if (binaryId && buffers.length > 1) {
+                return ClusterService.Utils.binaryId(buffers, buffers.length);
+            }
+            ArrayNode an = ClusterService.Utils.jsonMapper.createArrayNode();
+            for (int i = 0; i < primaryKeyColumns.length; i++) {
+                ClusterService.Utils.addToJsonArray(primaryKeyColumns[i].type, ElasticSecondaryIndex.deserialize(primaryKeyColumns[i].type, buffers[i]), an);
+            }
+            return ClusterService.Utils.writeValueAsString(an);
+        }
+
+        /**
+         * Hash of the value columns of the row, rendered as in the _source of its document.
+         */
+        long valuesHash(Row row, @Nullable DocumentMapper docMapper) throws IOException {
+            if (docMapper == null || valueColumns.isEmpty()) {
+                return 0;
+            }
+            Map<String, Object> values = new HashMap<String, Object>();
+            for (ColumnDefinition cd : valueColumns) {
+                String name = cd.name.toString();
+                if (row.has(name)) {
+                    values.put(name, ElasticSecondaryIndex.deserialize(cd.type, row.getBytes(name)));
+                }
+            }
+            return valuesHash(XContentHelper.convertToMap(ClusterService.Utils.buildDocument(docMapper, values).bytes(), false).v2());
+        }
+
+        /**
+         * Hash of the value columns in the _source of a document.
+         */
+        long valuesHash(Document document) {
+            BytesRef source = document.getBinaryValue(SourceFieldMapper.NAME);
+            if (source == null || valueColumns.isEmpty()) {
+                return 0;
+            }
+            return valuesHash(XContentHelper.convertToMap(new BytesArray(source), false).v2());
+        }
+
+        private long valuesHash(Map<String, Object> source) {
+            long hash = 0;
+            for (ColumnDefinition cd : valueColumns) {
+                String name = cd.name.toString();
+                Object value = source.get(name);
+                if (value != null) {
+                    hash += Digest.mix(31 * hash(name) + hash(value));
+                }
+            }
+            return hash;
+        }
+
+        // parsed json values, independent of the order of object fields.
+        private long hash(Object value) {
+            if (value instanceof Map) {
+                long hash = 0;
+                for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                    hash += Digest.mix(31 * hash(entry.getKey()) + hash(entry.getValue()));
+                }
+                return hash;
+            } else if (value instanceof List) {
+                long hash = 1;
+                for (Object element : (List<?>) value) {
+                    hash = 31 * hash + hash(element);
+                }
+                return hash;
+            }
+            byte[] bytes = String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+            return MurmurHash3.hash128(bytes, 0, bytes.length, 0, hash128).h1;
+        }
+
+        ByteBuffer partitionKey(Row row) {
+            if (partitionKeySize == 1) {
+                return row.getBytes(primaryKeyColumns[0].name.toString());
+            }
+            ByteBuffer[] components = new ByteBuffer[partitionKeySize];
+            for (int i = 0; i < partitionKeySize; i++) {
+                components[i] = row.getBytes(primaryKeyColumns[i].name.toString());
+            }
+            return CompositeType.build(components);
+        }
+    }
+
+    /**
+     * Count and sum of the _uid and values hashes per sub-range.
+     */
+    static class Digest {
+        final long[] counts;
+        final long[] hashes;
+        private final MurmurHash3.Hash128 hash128 = new MurmurHash3.Hash128();
+
+        Digest(int size) {
+            this.counts = new long[size];
+            this.hashes = new long[size];
+        }
+
+        void add(int i, BytesRef uid, long valuesHash) {
+            counts[i]++;
+            hashes[i] += mix(MurmurHash3.hash128(uid.bytes, uid.offset, uid.length, 0, hash128).h1 + 31 * valuesHash);
+        }
+
+        // murmur3 finalizer, so that the sum does not cancel values moved between rows.
+        static long mix(long k) {
+            k ^= k >>> 33;
+            k *= 0xff51afd7ed558ccdL;
+            k ^= k >>> 33;
+            k *= 0xc4ceb9fe1a85ec53L;
+            k ^= k >>> 33;
+            return k;
+        }
+
+        boolean equals(int i, Digest other) {
+            return counts[i] == other.counts[i] && hashes[i] == other.hashes[i];
+        }
+    }
+
+    /**
+     * Sorted and non overlapping (left, right] Murmur3 token sub-ranges, unwrapped from the local ranges.
+     */
+    static class SubRanges {
+        final long[] lefts;
+        final long[] rights;
+
+        private SubRanges(long[] lefts, long[] rights) {
+            this.lefts = lefts;
+            this.rights = rights;
+        }
+
+        /**
+         * Split ranges in about splits sub-ranges, in proportion to the width of each range, at least one per range.
+         */
+        static SubRanges split(Collection<Range<Token>> ranges, int splits) {
+            List<long[]> pieces = new ArrayList<long[]>();
+            for (Range<Token> range : ranges) {
+                long left = (Long) range.left.getTokenValue();
+                long right = (Long) range.right.getTokenValue();
+                if (range.isWrapAround()) {
+                    if (left != Long.MAX_VALUE) {
+                        pieces.add(new long[] { left, Long.MAX_VALUE });
+                    }
+                    if (right != Long.MIN_VALUE) {
+                        pieces.add(new long[] { Long.MIN_VALUE, right });
+                    }
+                } else if (left < right) {
+                    pieces.add(new long[] { left, right });
+                }
+            }
+            Collections.sort(pieces, new Comparator<long[]>() {
+                @Override
+                public int compare(long[] o1, long[] o2) {
+                    return Long.compare(o1[0], o2[0]);
+                }
+            });
+            double width = 0;
+            for (long[] piece : pieces) {
+                width += (double) piece[1] - (double) piece[0];
+            }
+            long[] lefts = new long[splits + pieces.size()];
+            long[] rights = new long[lefts.length];
+            int n = 0;
+            for (long[] piece : pieces) {
+                double pieceWidth = (double) piece[1] - (double) piece[0];
+                int count = Math.max(1, (int) Math.round(splits * pieceWidth / width));
+                long previous = piece[0];
+                for (int k = 1; k <= count; k++) {
+                    long bound = (k == count) ? piece[1] : (long) ((double) piece[0] + pieceWidth * k / count);
+                    if (bound <= previous) {
+                        continue;
+                    }
+                    if (n == lefts.length) {
+                        lefts = Arrays.copyOf(lefts, n * 2);
+                        rights = Arrays.copyOf(rights, n * 2);
+                    }
+                    lefts[n] = previous;
+                    rights[n++] = bound;
+                    previous = bound;
+                }
+            }
+            return new SubRanges(Arrays.copyOf(lefts, n), Arrays.copyOf(rights, n));
+        }
+
+        int size() {
+            return lefts.length;
+        }
+
+        /**
+         * @return the sub-range containing token, or -1.
+         */
+        int find(long token) {
+            int i = Arrays.binarySearch(rights, token);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            return (i < rights.length && token > lefts[i]) ? i : -1;
+        }
+    }
+
+    public static class Report {
+        public final String ksName;
+        public final String cfName;
+        public final String index;
+        public final int subRanges;
+        public int divergent = 0;
+        public long rows = 0;
+        public long docs = 0;
+        public long outOfRangeDocs = 0;
+        public long reindexedPartitions = 0;
+        public long deletedDocs = 0;
+
+        Report(String ksName, String cfName, String index, int subRanges) {
+            this.ksName = ksName;
+            this.cfName = cfName;
+            this.index = index;
+            this.subRanges = subRanges;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "consistency check of %s.%s index=%s sub_ranges=%d divergent=%d rows=%d docs=%d out_of_range_docs=%d reindexed_partitions=%d deleted_docs=%d",
+                    ksName, cfName, index, subRanges, divergent, rows, docs, outOfRangeDocs, reindexedPartitions, deletedDocs);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2016 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.cassandra;
+
+/**
+ * JMX operations of the {@link IndexConsistencyChecker}.
+ * @author vroyer
+ *
+ */
+public interface IndexConsistencyCheckerMBean {
+
+    /**
+     * Compare the local Cassandra rows and Elasticsearch documents of a table, sub-range per sub-range of the local token ranges.
+     * @param keyspace keyspace name, all keyspaces when null or empty.
+     * @param table table name, all indexed tables of the keyspace when null or empty.
+     * @param splits number of sub-ranges the local token ranges are split into, the default when <= 0.
+     * @param repair when true, reindex the missing rows and delete the orphan documents of the divergent sub-ranges.
+     * @return one report line per checked index and table.
+     */
+    public String checkConsistency(String keyspace, String table, int splits, boolean repair);
+}
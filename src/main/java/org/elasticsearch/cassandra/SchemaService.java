@@ -121,6 +121,7 @@ public interface SchemaService extends ClusterService {
     
     public UntypedResultSet fetchRowInternal(String index, String type, Collection<String> requiredColumns, String id) throws ConfigurationException, IOException;
     public UntypedResultSet fetchRowInternal(String ksName, String cfName, Collection<String> requiredColumns, Object[] pkColumns) throws ConfigurationException, IOException;
+    public Map<String, UntypedResultSet.Row> fetchRowsInternal(String index, String type, Collection<String> requiredColumns, Collection<String> ids) throws ConfigurationException, IOException;
     
     public Map<String, Object> rowAsMap(final String index, final String type, UntypedResultSet.Row row) throws IOException;
     public int rowAsMap(final String index, final String type, UntypedResultSet.Row row, Map<String, Object> map) throws IOException;
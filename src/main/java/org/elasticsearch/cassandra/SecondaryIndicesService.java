@@ -10,6 +10,8 @@ public interface SecondaryIndicesService extends LifecycleComponent<SecondaryInd
     
     public void dropSecondaryIndices(String index);
     
+    public IndexConsistencyChecker consistencyChecker();
+    
     
     public void addDeleteListener(DeleteListener listener);
     public void removeDeleteListener(DeleteListener listener);
@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2016 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.cassandra;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.dht.Murmur3Partitioner;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.gms.FailureDetector;
+import org.apache.cassandra.locator.IEndpointSnitch;
+import org.apache.cassandra.service.ElassandraDaemon;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.FBUtilities;
+import org.elasticsearch.cassandra.IndexConsistencyChecker.SubRanges;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterState;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.inject.Injector;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.env.NodeEnvironment;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.indices.recovery.RangeSegmentsTarget;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+
+/**
+ * Ship the Elasticsearch documents of the token ranges streamed by a bootstrap or a rebuild as Lucene segments 
+ * (see {@link RangeSegmentsTarget}), rather than analysing and indexing again every streamed row.
+ * <p>
+ * {@link #prepare} picks a live replica for each streamed range and marks the ranges so that {@link ElasticSecondaryIndex} 
+ * skips them when building the index of the streamed sstables, {@link #fetch()} copies the documents once the sstables
+ * are received, and {@link #close()} removes the marks. When a transfer fails, or the stream itself fails, the divergent
+ * ranges of the keyspace are reindexed by the {@link IndexConsistencyChecker}.
+ * <p>
+ * Keyspaces with marked ranges are also recorded in the {@link #PENDING_FILE} of the node data path until their
+ * documents are fetched or repaired, so that a node stopped in between repairs them at startup, see {@link #reconcile}.
+ * @author vroyer
+ *
+ */
+public class SegmentStreaming implements Closeable {
+    private static final ESLogger logger = Loggers.getLogger(SegmentStreaming.class);
+
+    public static final String SETTING_ENABLED = "indices.recovery.range_segments.enabled";
+    
+    public static final String PENDING_FILE = "segment_streaming.pending";
+
+    private final String description;
+    
+    // keyspace -> source endpoint -> ranges fetched from this endpoint
+    private final Map<String, Multimap<InetAddress, Range<Token>>> sources;
+    
+    // keyspaces whose documents are fetched or repaired
+    private final Set<String> completed = new HashSet<String>();
+
+    private SegmentStreaming(String description, Map<String, Multimap<InetAddress, Range<Token>>> sources) {
+        this.description = description;
+        this.sources = sources;
+    }
+
+    /**
+     * @param ranges token ranges streamed per keyspace.
+     * @param sourceDc only fetch documents from this datacenter when not null.
+     * @return null when segment streaming is disabled or Elasticsearch is not started.
+     */
+    @Nullable
+    public static SegmentStreaming prepare(String description, Map<String, Collection<Range<Token>>> ranges, @Nullable String sourceDc) {
+        Injector injector = ElassandraDaemon.injector();
+        if (injector == null || 
+            !injector.getInstance(Settings.class).getAsBoolean(SETTING_ENABLED, false) ||
+            !(DatabaseDescriptor.getPartitioner() instanceof Murmur3Partitioner)) {
+            return null;
+        }
+        Map<String, Multimap<InetAddress, Range<Token>>> sources = new HashMap<String, Multimap<InetAddress, Range<Token>>>();
+        for (Map.Entry<String, Collection<Range<Token>>> entry : ranges.entrySet()) {
+            if (indices(injector, entry.getKey()).isEmpty()) {
+                continue;
+            }
+            Multimap<InetAddress, Range<Token>> keyspaceSources = sources(entry.getKey(), entry.getValue(), sourceDc);
+            if (keyspaceSources.isEmpty()) {
+                continue;
+            }
+            sources.put(entry.getKey(), keyspaceSources);
+            addPending(injector, entry.getKey());
+            ElasticSecondaryIndex.addSegmentStreamedRanges(entry.getKey(), new ArrayList<Range<Token>>(keyspaceSources.values()));
+            logger.info("{} will fetch the documents of keyspace [{}] from {}", description, entry.getKey(), keyspaceSources.keySet());
+        }
+        return new SegmentStreaming(description, sources);
+    }
+
+    /**
+     * @return the indices of the keyspace, or an empty list if one of them is not started locally.
+     */
+    static List<String> indices(Injector injector, String ksName) {
+        ClusterState state = injector.getInstance(ClusterService.class).state();
+        List<String> indices = new ArrayList<String>();
+        for (IndexMetaData indexMetaData : state.metaData()) {
+            if (ksName.equals(indexMetaData.keyspace())) {
+                if (!state.routingTable().isLocalShardsStarted(indexMetaData.getIndex())) {
+                    return new ArrayList<String>();
+                }
+                indices.add(indexMetaData.getIndex());
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * Pick the closest live replica, except this node, of each part of the ranges.
+     */
+    static Multimap<InetAddress, Range<Token>> sources(String ksName, Collection<Range<Token>> ranges, @Nullable String sourceDc) {
+        InetAddress localAddress = FBUtilities.getBroadcastAddress();
+        IEndpointSnitch snitch = DatabaseDescriptor.getEndpointSnitch();
+        Multimap<Range<Token>, InetAddress> rangeAddresses = Keyspace.open(ksName).getReplicationStrategy()
+                .getRangeAddresses(StorageService.instance.getTokenMetadata().cloneOnlyTokenMap());
+        Multimap<InetAddress, Range<Token>> sources = HashMultimap.create();
+        for (Range<Token> range : ranges) {
+            for (Map.Entry<Range<Token>, Collection<InetAddress>> entry : rangeAddresses.asMap().entrySet()) {
+                if (!range.intersects(entry.getKey())) {
+                    continue;
+                }
+                for (InetAddress endpoint : snitch.getSortedListByProximity(localAddress, entry.getValue())) {
+                    if (!endpoint.equals(localAddress) && 
+                        FailureDetector.instance.isAlive(endpoint) && 
+                        (sourceDc == null || sourceDc.equals(snitch.getDatacenter(endpoint)))) {
+                        sources.putAll(endpoint, range.intersectionWith(entry.getKey()));
+                        break;
+                    }
+                }
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Fetch the documents of the streamed ranges, once the sstables are received. 
+     * Keyspaces whose documents could not be fetched are checked and repaired.
+     */
+    public void fetch() {
+        Injector injector = ElassandraDaemon.injector();
+        ClusterService clusterService = injector.getInstance(ClusterService.class);
+        RangeSegmentsTarget target = injector.getInstance(RangeSegmentsTarget.class);
+        List<String> failedKeyspaces = new ArrayList<String>();
+        for (Map.Entry<String, Multimap<InetAddress, Range<Token>>> entry : sources.entrySet()) {
+            String ksName = entry.getKey();
+            List<String> indices = indices(injector, ksName);
+            boolean failed = indices.isEmpty();
+            for (String index : indices) {
+                for (Map.Entry<InetAddress, Collection<Range<Token>>> source : entry.getValue().asMap().entrySet()) {
+                    try {
+                        DiscoveryNode node = clusterService.state().nodes().findByInetAddress(source.getKey());
+                        if (node == null) {
+                            throw new IllegalStateException("no Elasticsearch node for endpoint " + source.getKey());
+                        }
+                        SubRanges bounds = SubRanges.split(source.getValue(), 0);
+                        long numDocs = target.fetch(new ShardId(index, 0), node, bounds.lefts, bounds.rights);
+                        logger.info("{} fetched {} documents of index [{}] from {}", description, numDocs, index, node);
+                    } catch (Throwable t) {
+                        logger.error("{} failed to fetch the documents of index [{}] from {}", t, description, index, source.getKey());
+                        failed = true;
+                    }
+                }
+            }
+            if (failed) {
+                failedKeyspaces.add(ksName);
+            } else {
+                complete(injector, ksName);
+            }
+        }
+        for (String ksName : failedKeyspaces) {
+            repair(injector, description, ksName);
+            complete(injector, ksName);
+        }
+    }
+
+    /**
+     * Repair the keyspaces whose documents were not fetched, because the stream failed, before removing the marks of
+     * their ranges. A keyspace that can't be repaired now stays pending and is repaired at the next startup.
+     */
+    @Override
+    public void close() {
+        Injector injector = ElassandraDaemon.injector();
+        for (String ksName : sources.keySet()) {
+            if (completed.contains(ksName)) {
+                continue;
+            }
+            logger.warn("{} did not fetch the documents of keyspace [{}]", description, ksName);
+            try {
+                repair(injector, description, ksName);
+                complete(injector, ksName);
+            } catch (Throwable t) {
+                logger.error("{} failed to repair keyspace [{}], will be repaired at startup", t, description, ksName);
+            } finally {
+                ElasticSecondaryIndex.removeSegmentStreamedRanges(ksName);
+            }
+        }
+    }
+    
+    private void complete(Injector injector, String ksName) {
+        ElasticSecondaryIndex.removeSegmentStreamedRanges(ksName);
+        removePending(injector, ksName);
+        completed.add(ksName);
+    }
+    
+    /**
+     * Reindex the divergent ranges of the keyspace. Its streamed ranges are no longer skipped, so that the reindexed
+     * rows are not skipped either.
+     */
+    static void repair(Injector injector, String description, String ksName) {
+        ElasticSecondaryIndex.removeSegmentStreamedRanges(ksName);
+        logger.warn("{} reindexing the divergent ranges of keyspace [{}]", description, ksName);
+        IndexConsistencyChecker checker = injector.getInstance(SecondaryIndicesService.class).consistencyChecker();
+        for (IndexConsistencyChecker.Report report : checker.check(ksName, null, 0, true)) {
+            logger.info("{} {}", description, report);
+        }
+    }
+    
+    /**
+     * @return the keyspaces left pending by a previous run of this node.
+     */
+    public static Set<String> pendingKeyspaces(NodeEnvironment nodeEnv) {
+        synchronized (SegmentStreaming.class) {
+            Set<String> keyspaces = new HashSet<String>();
+            if (!nodeEnv.hasNodeFile()) {
+                return keyspaces;
+            }
+            Path file = nodeEnv.nodeDataPaths()[0].resolve(PENDING_FILE);
+            if (Files.exists(file)) {
+                try {
+                    for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                        if (line.length() > 0) {
+                            keyspaces.add(line);
+                        }
+                    }
+                } catch (IOException e) {
+                    logger.error("failed to read {}", e, file);
+                }
+            }
+            return keyspaces;
+        }
+    }
+    
+    /**
+     * Repair a keyspace left pending by a previous run of this node, once its indices are started.
+     * @return false when its indices are not started yet.
+     */
+    public static boolean reconcile(Injector injector, String ksName) {
+        if (Schema.instance.getKSMetaData(ksName) != null) {
+            if (indices(injector, ksName).isEmpty()) {
+                return false;
+            }
+            repair(injector, "Startup", ksName);
+        }
+        removePending(injector, ksName);
+        return true;
+    }
+    
+    private static void addPending(Injector injector, String ksName) {
+        updatePending(injector, ksName, true);
+    }
+    
+    private static void removePending(Injector injector, String ksName) {
+        updatePending(injector, ksName, false);
+    }
+    
+    private static void updatePending(Injector injector, String ksName, boolean add) {
+        NodeEnvironment nodeEnv = injector.getInstance(NodeEnvironment.class);
+        synchronized (SegmentStreaming.class) {
+            Set<String> keyspaces = pendingKeyspaces(nodeEnv);
+            if (!(add ? keyspaces.add(ksName) : keyspaces.remove(ksName)) || !nodeEnv.hasNodeFile()) {
+                return;
+            }
+            Path file = nodeEnv.nodeDataPaths()[0].resolve(PENDING_FILE);
+            try {
+                if (keyspaces.isEmpty()) {
+                    Files.deleteIfExists(file);
+                } else {
+                    Files.write(file, keyspaces, StandardCharsets.UTF_8);
+                }
+            } catch (IOException e) {
+                logger.error("failed to write {}", e, file);
+            }
+        }
+    }
+}
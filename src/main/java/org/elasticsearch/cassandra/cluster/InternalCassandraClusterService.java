@@ -16,6 +16,7 @@
 package org.elasticsearch.cassandra.cluster;
 
 import static org.elasticsearch.cluster.metadata.IndexMetaData.SETTING_NUMBER_OF_REPLICAS;
+import static org.elasticsearch.cluster.metadata.IndexMetaData.SETTING_NUMBER_OF_SHARDS;
 
 import java.io.IOException;
 import java.net.InetAddress;
@@ -74,11 +75,13 @@ import org.apache.cassandra.exceptions.RequestExecutionException;
 import org.apache.cassandra.exceptions.RequestValidationException;
 import org.apache.cassandra.exceptions.SyntaxException;
 import org.apache.cassandra.serializers.MapSerializer;
+import org.apache.cassandra.serializers.MarshalException;
 import org.apache.cassandra.service.ClientState;
 import org.apache.cassandra.service.ElassandraDaemon;
 import org.apache.cassandra.service.MigrationManager;
 import org.apache.cassandra.service.QueryState;
 import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.FBUtilities;
 import org.apache.cassandra.transport.messages.ResultMessage;
 import org.apache.cassandra.utils.Pair;
 import org.codehaus.jackson.JsonGenerationException;
@@ -93,12 +96,15 @@ import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexRequest.OpType;
 import org.elasticsearch.action.support.replication.TransportReplicationAction.RetryOnPrimaryException;
 import org.elasticsearch.cassandra.ConcurrentMetaDataUpdateException;
+import org.elasticsearch.cassandra.ContinuousPercolator;
 import org.elasticsearch.cassandra.ElasticSecondaryIndex;
 import org.elasticsearch.cassandra.NoPersistedMetaDataException;
 import org.elasticsearch.cassandra.SchemaService;
 import org.elasticsearch.cassandra.SecondaryIndicesService;
+import org.elasticsearch.cassandra.rollup.Rollup;
 import org.elasticsearch.cluster.ClusterChangedEvent;
 import org.elasticsearch.cluster.ClusterName;
+import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.cluster.ClusterState;
 import org.elasticsearch.cluster.ClusterStateObserver;
 import org.elasticsearch.cluster.ClusterStateObserver.ChangePredicate;
@@ -162,6 +168,7 @@ import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.transport.TransportService;
 
 import com.carrotsearch.hppc.cursors.ObjectCursor;
+import com.carrotsearch.hppc.cursors.ObjectObjectCursor;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -294,6 +301,21 @@ public class InternalCassandraClusterService extends InternalClusterService {
         }
     }
     
+    /**
+     * Create the table of the continuous percolator matches, from the master only.
+     * @see org.elasticsearch.cassandra.ContinuousPercolator
+     */
+    @Override
+    public void createPercolatorMatchesTable(final String ksName) throws IOException {
+        try {
+            String query = ContinuousPercolator.createTableQuery(ksName);
+            logger.debug(query);
+            QueryProcessor.process(query, ConsistencyLevel.LOCAL_ONE);
+        } catch (Throwable e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
     /**
      * Don't use QueryProcessor.executeInternal, we need to propagate this on
      * all nodes.
@@ -778,6 +800,14 @@ public class InternalCassandraClusterService extends InternalClusterService {
                 QueryProcessor.process(query, ConsistencyLevel.LOCAL_ONE);
             }
 
+            // companion tables of the rollups declared in the mapping _meta.
+            for (Rollup rollup : Rollup.parse(ksName, type, index, docMapper.meta())) {
+                rollup.validate(docMapper);
+                String query = rollup.createTableQuery();
+                logger.debug(query);
+                QueryProcessor.process(query, ConsistencyLevel.LOCAL_ONE);
+            }
+
         } catch (Throwable e) {
             throw new IOException(e.getMessage(), e);
         }
@@ -1019,13 +1049,27 @@ public class InternalCassandraClusterService extends InternalClusterService {
     }
 
     /**
-     * Fetch from the coordinator node.
+     * Fetch from the coordinator node, or from the local node when it is a replica and cl is ONE or LOCAL_ONE.
      */
     @Override
     public UntypedResultSet fetchRow(final String index, final String cfName, final Collection<String> requiredColumns, final String id, final ConsistencyLevel cl) throws InvalidRequestException,
             RequestExecutionException, RequestValidationException, IOException {
+        if ((cl == ConsistencyLevel.ONE || cl == ConsistencyLevel.LOCAL_ONE) && isLocalReplica(index, cfName, id)) {
+            return fetchRowInternal(index, cfName, requiredColumns, id);
+        }
         return process(cl, buildFetchQuery(index,cfName,requiredColumns), parseElasticId(index, cfName, id));
     }
+    
+    private boolean isLocalReplica(final String index, final String cfName, final String id) {
+        try {
+            Token token = getToken(index, cfName, id);
+            String ksName = this.indicesService.indexServiceSafe(index).indexSettings().get(IndexMetaData.SETTING_KEYSPACE_NAME,index);
+            return StorageService.instance.getNaturalEndpoints(ksName, token).contains(FBUtilities.getBroadcastAddress());
+        } catch (Exception e) {
+            logger.debug("Cannot compute the token of [{}].[{}] id=[{}]", e, index, cfName, id);
+            return false;
+        }
+    }
 
     /**
      * Fetch row from local node.
@@ -1050,6 +1094,58 @@ public class InternalCassandraClusterService extends InternalClusterService {
         return QueryProcessor.instance.executeInternal(buildFetchQuery(index,cfName,requiredColumns), pkColumns);
     }
     
+    /**
+     * Fetch the rows of several documents with a single multi-partition read when the primary key is a single partition key column,
+     * or with one read per document otherwise. Rows of the multi-partition read also hold the partition key column.
+     * @return rows by document id, missing rows are absent.
+     */
+    @Override
+    public Map<String, UntypedResultSet.Row> fetchRowsInternal(final String index, final String cfName, final Collection<String> requiredColumns, final Collection<String> ids) throws ConfigurationException, IOException {
+        Map<String, UntypedResultSet.Row> rows = new HashMap<String, UntypedResultSet.Row>(ids.size());
+        IndexService indexService = this.indicesService.indexService(index);
+        String ksName = indexService.indexSettings().get(IndexMetaData.SETTING_KEYSPACE_NAME,index);
+        CFMetaData metadata = getCFMetaData(ksName, cfName);
+        if (ids.size() == 1 || metadata.partitionKeyColumns().size() > 1 || metadata.clusteringColumns().size() > 0) {
+            for (String id : ids) {
+                UntypedResultSet result = fetchRowInternal(index, cfName, requiredColumns, id);
+                if (!result.isEmpty()) {
+                    rows.put(id, result.one());
+                }
+            }
+            return rows;
+        }
+        
+        ColumnDefinition pkDef = metadata.partitionKeyColumns().get(0);
+        String pkName = pkDef.name.toString();
+        StringBuilder query = new StringBuilder();
+        query.append("SELECT \"").append(pkName).append('\"');
+        for (String c : requiredColumns) {
+            if (c.equals("_token")) {
+                query.append(",token(\"").append(pkName).append("\") as \"_token\"");
+            } else if (!c.equals(pkName)) {
+                query.append(",\"").append(c).append('\"');
+            }
+        }
+        query.append(" FROM \"").append(ksName).append("\".\"").append(cfName).append("\" WHERE \"").append(pkName).append("\" IN (");
+        Map<ByteBuffer, String> idsByKey = new HashMap<ByteBuffer, String>(ids.size());
+        Object[] values = new Object[ids.size()];
+        int i = 0;
+        for (String id : ids) {
+            ByteBuffer key = pkDef.type.fromString(id);
+            idsByKey.put(key, id);
+            query.append((i == 0) ? "?" : ",?");
+            values[i++] = key;
+        }
+        query.append(')');
+        for (UntypedResultSet.Row row : QueryProcessor.instance.executeInternal(query.toString(), values)) {
+            String id = idsByKey.get(row.getBytes(pkName));
+            if (id != null) {
+                rows.put(id, row);
+            }
+        }
+        return rows;
+    }
+    
     public String buildFetchQuery(final String index, final String cfName, final Collection<String> requiredColumns) throws ConfigurationException {
         IndexService indexService = this.indicesService.indexService(index);
         String ksName = indexService.indexSettings().get(IndexMetaData.SETTING_KEYSPACE_NAME,index);
@@ -1065,6 +1161,8 @@ public class InternalCassandraClusterService extends InternalClusterService {
                 query.append(',');
             if (c.equals("_token")) {
                 query.append("token(").append(ptColums).append(") as \"_token\"");
+            } else if (c.startsWith(TTL_COLUMN_PREFIX)) {
+                query.append("TTL(\"").append(c.substring(TTL_COLUMN_PREFIX.length())).append("\") as \"").append(c).append("\"");
             } else {
                 query.append("\"").append(c).append("\"");
             }
@@ -1102,6 +1200,10 @@ public class InternalCassandraClusterService extends InternalClusterService {
             ColumnSpecification colSpec = columnSpecs.get(columnIndex);
             String columnName = colSpec.name.toString();
             CQL3Type cql3Type = colSpec.type.asCQL3Type();
+            if (columnName.startsWith(TTL_COLUMN_PREFIX)) {
+                // not part of the document
+                continue;
+            }
             
             FieldMapper fieldMapper = documentMapper.mappers().smartNameFieldMapper(columnName);
             if (fieldMapper == null && columnName.equals("_token")) {
@@ -1376,8 +1478,23 @@ public class InternalCassandraClusterService extends InternalClusterService {
         }
 
         String keyspaceName = indexService.indexSettings().get(IndexMetaData.SETTING_KEYSPACE_NAME, request.index());
-        return insertRow(keyspaceName, request.type(), map, request.id(),
+        String id = insertRow(keyspaceName, request.type(), map, request.id(),
                 (request.opType() == OpType.CREATE), request.ttl(), request.consistencyLevel().toCassandraConsistencyLevel(), timestamp, applied);
+        if (indexService.indexSettings().getAsBoolean(IndexMetaData.SETTING_BINARY_ID, false)) {
+            // map now contains all primary key columns.
+            CFMetaData metadata = getCFMetaData(keyspaceName, request.type());
+            int pkSize = metadata.partitionKeyColumns().size() + metadata.clusteringColumns().size();
+            if (pkSize > 1) {
+                ByteBuffer[] components = new ByteBuffer[pkSize];
+                int i = 0;
+                for(ColumnDefinition cd: Iterables.concat(metadata.partitionKeyColumns(), metadata.clusteringColumns())) {
+                    Object value = map.get(cd.name.toString());
+                    components[i++] = (value instanceof ByteBuffer) ? (ByteBuffer) value : ((AbstractType<Object>) cd.type).decompose(value);
+                }
+                id = ClusterService.Utils.binaryId(components, pkSize);
+            }
+        }
+        return id;
     }
 
     /*
@@ -1512,6 +1629,7 @@ public class InternalCassandraClusterService extends InternalClusterService {
     
     /**
      * Parse _id (something like (xa,b,c)) to build a primary key array or populate map.
+     * A binary _id is split in serialized columns, returned as ByteBuffers bound without deserialization.
      * @param ksName
      * @param cfName
      * @param map
@@ -1525,6 +1643,27 @@ public class InternalCassandraClusterService extends InternalClusterService {
         List<ColumnDefinition> clusteringColumns = metadata.clusteringColumns();
         int pkSize = partitionColumns.size()+clusteringColumns.size();
         if (pkSize > 1) {
+            if (ClusterService.Utils.isBinaryId(id)) {
+                ByteBuffer[] keys = null;
+                try {
+                    keys = ClusterService.Utils.parseBinaryId(id, pkSize);
+                } catch (IOException e) {
+                    // may be the last primary key column below.
+                    if (map == null) {
+                        throw e;
+                    }
+                }
+                if (keys != null) {
+                    if (map == null) {
+                        return keys;
+                    }
+                    int i=0;
+                    for(ColumnDefinition cd : Iterables.concat(partitionColumns, clusteringColumns)) {
+                        map.put(cd.name.toString(), cd.type.compose(keys[i++]));
+                    }
+                    return null;
+                }
+            }
             if (id.startsWith("[") && id.endsWith("]")) {
                 // _id is JSON array
                 Object[] keys = SchemaService.Utils.jsonMapper.readValue(id, Object[].class);
@@ -1575,6 +1714,41 @@ public class InternalCassandraClusterService extends InternalClusterService {
     
     
     
+    /**
+     * Compute the partition token of a document _id, parsed by {@link #parseElasticId(String, String, String)}.
+     */
+    @Override
+    public Token getToken(final String index, final String cfName, final String id) throws IOException {
+        IndexService indexService = this.indicesService.indexServiceSafe(index);
+        String ksName = indexService.indexSettings().get(IndexMetaData.SETTING_KEYSPACE_NAME,index);
+        List<ColumnDefinition> partitionColumns = getCFMetaData(ksName, cfName).partitionKeyColumns();
+        DocumentMapper docMapper = indexService.mapperService().documentMapper(cfName);
+        Object[] keys = parseElasticId(index, cfName, id);
+        ByteBuffer[] bb = new ByteBuffer[partitionColumns.size()];
+        for (int i = 0; i < bb.length; i++) {
+            ColumnDefinition cd = partitionColumns.get(i);
+            AbstractType<Object> type = (AbstractType<Object>) cd.type;
+            if (keys[i] instanceof ByteBuffer) {
+                // binary _id
+                bb[i] = (ByteBuffer) keys[i];
+            } else if (keys.length == 1) {
+                // single column primary key, the _id is the column value as a string
+                bb[i] = type.fromString(id);
+            } else {
+                // JSON values (Integer for a bigint, Long for a timestamp...) are converted by the field mapper of the column.
+                FieldMapper mapper = (docMapper == null) ? null : docMapper.mappers().smartNameFieldMapper(cd.name.toString());
+                try {
+                    bb[i] = type.decompose((mapper == null) ? keys[i] : value(mapper, keys[i]));
+                } catch (ClassCastException | MarshalException e) {
+                    logger.debug("cannot serialize value [{}] of column [{}] in _id [{}] of [{}].[{}], parsing it as a string", keys[i], cd.name, id, index, cfName);
+                    bb[i] = type.fromString(keys[i].toString());
+                }
+            }
+        }
+        IPartitioner partitioner = StorageService.instance.getPartitioner();
+        return partitioner.getToken( (bb.length == 1) ? bb[0] : CompositeType.build(bb) );
+    }
+    
     /*
      * (non-Javadoc)
      * 
@@ -1718,8 +1892,75 @@ public class InternalCassandraClusterService extends InternalClusterService {
             return defaultValue;
         }
     };
-    
-    
+
+    /**
+     * Returns true if both metadata have the same persisted form, as {@link #persistedParams} would serialize them,
+     * without serializing anything. Index metadata are usually shared between cluster states, so unchanged metadata
+     * only costs a reference check per index, otherwise mappings are compared through their checksums.
+     */
+    public static boolean isPersistedMetaDataEquals(MetaData previous, MetaData current) {
+        if (previous == current) {
+            return true;
+        }
+        if (previous.version() != current.version() || !previous.clusterUUID().equals(current.clusterUUID())) {
+            return false;
+        }
+        if (!previous.persistentSettings().equals(current.persistentSettings()) || !previous.transientSettings().equals(current.transientSettings())) {
+            return false;
+        }
+        if (!previous.templates().equals(current.templates())) {
+            return false;
+        }
+        if (!persistedCustoms(previous).equals(persistedCustoms(current))) {
+            return false;
+        }
+        if (previous.indices().size() != current.indices().size()) {
+            return false;
+        }
+        for (ObjectCursor<IndexMetaData> cursor : current.indices().values()) {
+            IndexMetaData currentIndex = cursor.value;
+            IndexMetaData previousIndex = previous.index(currentIndex.getIndex());
+            if (previousIndex != currentIndex && !isPersistedIndexMetaDataEquals(previousIndex, currentIndex)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Map<String, MetaData.Custom> persistedCustoms(MetaData metaData) {
+        Map<String, MetaData.Custom> customs = new HashMap<>();
+        for (ObjectObjectCursor<String, MetaData.Custom> cursor : metaData.customs()) {
+            if (MetaData.lookupPrototypeSafe(cursor.key).context().contains(MetaData.XContentContext.API)) {
+                customs.put(cursor.key, cursor.value);
+            }
+        }
+        return customs;
+    }
+
+    private static boolean isPersistedIndexMetaDataEquals(IndexMetaData previous, IndexMetaData current) {
+        if (previous == null || previous.getVersion() != current.getVersion()) {
+            return false;
+        }
+        // IndexMetaData.equals compares aliases, mappings (through their checksum first), settings, state and customs.
+        if (previous.equals(current)) {
+            return true;
+        }
+        // number_of_shards and number_of_replicas are not persisted.
+        return !previous.getSettings().equals(current.getSettings())
+                && persistedSettings(previous.getSettings()).equals(persistedSettings(current.getSettings()))
+                && previous.getState() == current.getState()
+                && previous.getAliases().equals(current.getAliases())
+                && previous.getMappings().equals(current.getMappings())
+                && previous.getCustoms().equals(current.getCustoms());
+    }
+
+    private static Settings persistedSettings(Settings settings) {
+        Settings.Builder builder = Settings.builder().put(settings);
+        builder.remove(SETTING_NUMBER_OF_SHARDS);
+        builder.remove(SETTING_NUMBER_OF_REPLICAS);
+        return builder.build();
+    }
+
     @Override
     public void initializeMetaDataAsComment() {
         MetaData metadata = state().metaData();
@@ -0,0 +1,217 @@
+/*
+ * Copyright (c) 2016 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.elasticsearch.cassandra.cluster.routing;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Locale;
+
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.hash.MurmurHash3;
+import org.elasticsearch.common.io.stream.StreamOutput;
+
+/**
+ * Normalized (sorted, unwrapped and merged) set of Murmur3 token ranges with a 128 bits fingerprint.
+ * Two collections covering the same part of the ring have the same fingerprint whatever their order or splitting,
+ * so the fingerprint can be used in cache keys that must survive a node flap (same topology before and after).
+ *
+ * Only support Murmur3 Long Token.
+ * @author vroyer
+ *
+ */
+public final class TokenRangesFingerprint {
+
+    public static final TokenRangesFingerprint EMPTY = new TokenRangesFingerprint(new long[0]);
+
+    // (left, right] bounds, sorted and non overlapping
+    private final long[] bounds;
+    private final long h1;
+    private final long h2;
+
+    private TokenRangesFingerprint(long[] bounds) {
+        this.bounds = bounds;
+        byte[] bytes = new byte[bounds.length * 8];
+        for (int i = 0; i < bounds.length; i++) {
+            long v = bounds[i];
+            for (int j = 0; j < 8; j++) {
+                bytes[i * 8 + j] = (byte) (v >>> (56 - 8 * j));
+            }
+        }
+        MurmurHash3.Hash128 hash = MurmurHash3.hash128(bytes, 0, bytes.length, 0, new MurmurHash3.Hash128());
+        this.h1 = hash.h1;
+        this.h2 = hash.h2;
+    }
+
+    public static TokenRangesFingerprint of(Collection<Range<Token>> ranges) {
+        if (ranges == null || ranges.isEmpty()) {
+            return EMPTY;
+        }
+        long[] unwrapped = new long[ranges.size() * 4];
+        int n = 0;
+        for (Range<Token> range : ranges) {
+            long left = (Long) range.left.getTokenValue();
+            long right = (Long) range.right.getTokenValue();
+            if (range.isWrapAround()) {
+                n = add(unwrapped, n, left, Long.MAX_VALUE);
+                if (right != Long.MIN_VALUE) {
+                    n = add(unwrapped, n, Long.MIN_VALUE, right);
+                }
+            } else {
+                n = add(unwrapped, n, left, right);
+            }
+        }
+        return new TokenRangesFingerprint(sortAndMerge(unwrapped, n));
+    }
+
+    private static int add(long[] bounds, int n, long left, long right) {
+        if (left < right) {
+            bounds[n++] = left;
+            bounds[n++] = right;
+        }
+        return n;
+    }
+
+    private static long[] sortAndMerge(long[] bounds, int n) {
+        int count = n / 2;
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        final long[] b = bounds;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer o1, Integer o2) {
+                return Long.compare(b[o1 * 2], b[o2 * 2]);
+            }
+        });
+        long[] merged = new long[n];
+        int m = 0;
+        for (int i = 0; i < count; i++) {
+            long left = bounds[order[i] * 2];
+            long right = bounds[order[i] * 2 + 1];
+            if (m > 0 && left <= merged[m - 1]) {
+                merged[m - 1] = Math.max(merged[m - 1], right);
+            } else {
+                merged[m++] = left;
+                merged[m++] = right;
+            }
+        }
+        return m == n ? merged : Arrays.copyOf(merged, m);
+    }
+
+    public boolean isEmpty() {
+        return bounds.length == 0;
+    }
+
+    /**
+     * @return the number of normalized ranges.
+     */
+    public int size() {
+        return bounds.length / 2;
+    }
+
+    /**
+     * @return the exclusive left bound of the i-th normalized range.
+     */
+    public long left(int i) {
+        return bounds[i * 2];
+    }
+
+    /**
+     * @return the inclusive right bound of the i-th normalized range.
+     */
+    public long right(int i) {
+        return bounds[i * 2 + 1];
+    }
+
+    /**
+     * @return true if some token belongs to both range sets.
+     */
+    public boolean intersects(TokenRangesFingerprint other) {
+        int i = 0, j = 0;
+        while (i < bounds.length && j < other.bounds.length) {
+            if (bounds[i] < other.bounds[j + 1] && other.bounds[j] < bounds[i + 1]) {
+                return true;
+            }
+            if (bounds[i + 1] <= other.bounds[j + 1]) {
+                i += 2;
+            } else {
+                j += 2;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the token ranges of this set not covered by the other one.
+     */
+    public TokenRangesFingerprint minus(TokenRangesFingerprint other) {
+        long[] rest = new long[bounds.length + other.bounds.length];
+        int n = 0;
+        int j = 0;
+        for (int i = 0; i < bounds.length; i += 2) {
+            long cur = bounds[i];
+            long right = bounds[i + 1];
+            while (j < other.bounds.length && other.bounds[j + 1] <= cur) {
+                j += 2;
+            }
+            for (int k = j; k < other.bounds.length && other.bounds[k] < right && cur < right; k += 2) {
+                if (other.bounds[k] > cur) {
+                    n = add(rest, n, cur, other.bounds[k]);
+                }
+                cur = Math.max(cur, other.bounds[k + 1]);
+            }
+            n = add(rest, n, cur, right);
+        }
+        if (n == 0) {
+            return EMPTY;
+        }
+        return new TokenRangesFingerprint(Arrays.copyOf(rest, n));
+    }
+
+    /**
+     * Write the 128 bits fingerprint (not the ranges).
+     */
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeLong(h1);
+        out.writeLong(h2);
+    }
+
+    public long ramBytesUsed() {
+        return RamUsageEstimator.NUM_BYTES_OBJECT_HEADER + 2 * RamUsageEstimator.NUM_BYTES_LONG + RamUsageEstimator.sizeOf(bounds);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        TokenRangesFingerprint that = (TokenRangesFingerprint) o;
+        return h1 == that.h1 && h2 == that.h2 && Arrays.equals(bounds, that.bounds);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (h1 ^ (h1 >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT, "%016x%016x", h1, h2);
+    }
+}
@@ -84,6 +84,9 @@ public class CassandraDiscovery extends AbstractLifecycleComponent<Discovery> im
 
     private static final DiscoveryNode[] NO_MEMBERS = new DiscoveryNode[0];
 
+    // gossip driven cluster state updates are executed as a single batch on the cluster update thread
+    private static final String UPDATE_CLUSTER_STATE_BATCH_KEY = "cassandra-discovery";
+
     private final TransportService transportService;
     private final ClusterService clusterService;
     private final DiscoveryNodeService discoveryNodeService;
@@ -152,6 +155,15 @@ public class CassandraDiscovery extends AbstractLifecycleComponent<Discovery> im
                 (int) (addr.getAddress()[2] & 0xFF), (int) (addr.getAddress()[3] & 0xFF));
     }
 
+    /**
+     * Transport address of a peer, assuming all nodes publish the same transport port as the local node
+     * (transport.tcp.port, or the cassandra storage port with the cassandra transport).
+     */
+    private InetSocketTransportAddress transportAddress(InetAddress endpoint) {
+        InetSocketTransportAddress publishAddress = (InetSocketTransportAddress) transportService.boundAddress().publishAddress();
+        return new InetSocketTransportAddress(endpoint, publishAddress.address().getPort());
+    }
+
     @Override
     protected void doStart()  {
 
@@ -190,8 +202,7 @@ public class CassandraDiscovery extends AbstractLifecycleComponent<Discovery> im
                     attrs.put("data", "true");
                     attrs.put("master", "true");
                     attrs.putAll(endpointInfo.get(entry.getKey()));
-                    DiscoveryNode dn = new DiscoveryNode(buildNodeName(entry.getKey()), entry.getValue().toString(), new InetSocketTransportAddress(entry.getKey(), settings.getAsInt(
-                            "transport.tcp.port", 9300)), attrs, version);
+                    DiscoveryNode dn = new DiscoveryNode(buildNodeName(entry.getKey()), entry.getValue().toString(), transportAddress(entry.getKey()), attrs, version);
                     EndpointState endpointState = Gossiper.instance.getEndpointStateForEndpoint(entry.getKey());
                     if (endpointState == null) {
                         dn.status( DiscoveryNodeStatus.UNKNOWN );
@@ -241,6 +252,11 @@ public class CassandraDiscovery extends AbstractLifecycleComponent<Discovery> im
                 return false;
             }
 
+            @Override
+            public Object batchKey() {
+                return UPDATE_CLUSTER_STATE_BATCH_KEY;
+            }
+
             @Override
             public void onFailure(String source, Throwable t) {
                 logger.error("unexpected failure during [{}]", t, source);
@@ -273,7 +289,7 @@ public class CassandraDiscovery extends AbstractLifecycleComponent<Discovery> im
                         attrs.put("data_center", localDc);
                         attrs.put("rack", DatabaseDescriptor.getEndpointSnitch().getRack(entry.getKey()));
 
-                        dn = new DiscoveryNode(buildNodeName(entry.getKey()), hostId.toString(), new InetSocketTransportAddress(entry.getKey(), settings.getAsInt("transport.tcp.port", 9300)), attrs, version);
+                        dn = new DiscoveryNode(buildNodeName(entry.getKey()), hostId.toString(), transportAddress(entry.getKey()), attrs, version);
                         dn.status(status);
 
                         if (localAddress.equals(entry.getKey())) {
@@ -325,7 +341,7 @@ public class CassandraDiscovery extends AbstractLifecycleComponent<Discovery> im
                 attrs.put("data_center", localDc);
                 attrs.put("rack", DatabaseDescriptor.getEndpointSnitch().getRack(addr));
 
-                dn = new DiscoveryNode(buildNodeName(addr), hostId.toString(), new InetSocketTransportAddress(addr, settings.getAsInt("transport.tcp.port", 9300)), attrs, version);
+                dn = new DiscoveryNode(buildNodeName(addr), hostId.toString(), transportAddress(addr), attrs, version);
                 dn.status(status);
                 logger.debug("New node soure=updateNode addr_ip={} node_name={} host_id={} status={} timestamp={}", addr.getHostAddress(), dn.getId(), dn.getName(), status, state.getUpdateTimestamp());
                 clusterGroup.members.put(dn.getId(), dn);
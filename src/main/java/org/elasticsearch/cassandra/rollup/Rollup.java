@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2016 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.elasticsearch.cassandra.rollup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.cql3.QueryProcessor;
+import org.apache.cassandra.cql3.UntypedResultSet;
+import org.apache.cassandra.dht.Murmur3Partitioner.LongToken;
+import org.apache.cassandra.dht.Range;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.locator.TokenMetadata;
+import org.apache.cassandra.service.StorageService;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.mapper.DocumentMapper;
+import org.elasticsearch.index.mapper.FieldMapper;
+import org.elasticsearch.index.mapper.Mapper.CqlCollection;
+import org.elasticsearch.index.mapper.core.DateFieldMapper;
+import org.elasticsearch.index.mapper.core.NumberFieldMapper;
+import org.elasticsearch.index.mapper.core.StringFieldMapper;
+
+import com.google.common.base.Function;
+import com.google.common.base.Predicate;
+import com.google.common.collect.Iterables;
+
+/**
+ * Write-time rollup of a table, declared in the <code>_meta.rollups</code> of its mapping:
+ * <pre>
+ * "_meta" : { "rollups" : { "hourly" : { "timestamp" : "ts", "interval" : "1h", "dimensions" : ["host"], "metrics" : ["bytes"] } } }
+ * </pre>
+ * Each row newly indexed by the {@link org.elasticsearch.cassandra.ElasticSecondaryIndex} adds its metric values to the
+ * partial aggregates (document count, and count, sum, min and max of each metric) of its time bucket and dimension values
+ * in the companion table <code>&lt;table&gt;_&lt;index&gt;_&lt;rollup&gt;_rollup</code>, partitioned by vnode range and
+ * clustered by time bucket and dimension values. Only rows the index sees as new are rolled up, so a row indexed twice is
+ * counted once, and a search reads one rollup row per time bucket and dimension values of each searched vnode range.
+ * Rollup rows are local: each replica maintains the rollup of the rows it stores, so that replicas of the same vnode range
+ * hold the same values and the rollup partitions of a search can be selected with the token ranges of the shard.
+ * <p>
+ * Deletions of existing rows are not reflected, and rows are keyed by the vnode ranges at indexing time, so
+ * the rollup must be rebuilt into a new index after a topology change. Searches are answered from the rollup only when
+ * {@link #INDEX_ROLLUP_SEARCH_ENABLED} is set on the index, see {@link org.elasticsearch.search.aggregations.RollupAggregations}.
+ * @author vroyer
+ *
+ */
+public class Rollup {
+
+    public static final String INDEX_ROLLUP_SEARCH_ENABLED = "index.rollup.search.enable";
+
+    public static final String ROLLUPS_META = "rollups";
+    public static final String TIMESTAMP = "timestamp";
+    public static final String INTERVAL = "interval";
+    public static final String DIMENSIONS = "dimensions";
+    public static final String METRICS = "metrics";
+
+    // bucket of the rows without timestamp, they are counted by terms and metrics but not by date histograms.
+    public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+    // clustering columns cannot be null, missing dimensions are not counted by terms.
+    public static final String NO_VALUE = "\u0000";
+
+    private static final String RANGE_TOKEN_COLUMN = "range_token";
+    private static final String BUCKET_COLUMN = "bucket";
+    private static final String DOC_COUNT_COLUMN = "_doc_count";
+    private static final String COUNT_SUFFIX = "_count";
+    private static final String SUM_SUFFIX = "_sum";
+    private static final String MIN_SUFFIX = "_min";
+    private static final String MAX_SUFFIX = "_max";
+
+    private static final int PAGE_SIZE = 1000;
+
+    // read-modify-write of the partial aggregates of a rollup row, rollup rows are only written by the local node.
+    private static final Object[] ROW_LOCKS = new Object[256];
+    static {
+        for (int i = 0; i < ROW_LOCKS.length; i++) {
+            ROW_LOCKS[i] = new Object();
+        }
+    }
+
+    public final String index;
+    public final String name;
+    public final String ksName;
+    public final String cfName;
+    public final String tableName;
+    public final String timestampField;
+    public final long interval;
+    public final String[] dimensions;
+    public final String[] metrics;
+
+    private final String selectQuery;
+    private final String selectRowQuery;
+    private final String insertQuery;
+
+    public Rollup(String ksName, String cfName, String index, String name, String timestampField, long interval, String[] dimensions, String[] metrics) {
+        if (interval <= 0) {
+            throw new IllegalArgumentException("rollup [" + name + "] interval must be positive");
+        }
+        this.index = index;
+        this.name = name;
+        this.ksName = ksName;
+        this.cfName = cfName;
+        // table names only allow word characters, index names may contain '-' or '.'
+        this.tableName = cfName + "_" + index.replaceAll("\\W", "_") + "_" + name + "_rollup";
+        this.timestampField = timestampField;
+        this.interval = interval;
+        this.dimensions = dimensions;
+        this.metrics = metrics;
+
+        StringBuilder columns = new StringBuilder();
+        StringBuilder rowWhere = new StringBuilder();
+        columns.append('"').append(RANGE_TOKEN_COLUMN).append("\", \"").append(BUCKET_COLUMN).append('"');
+        rowWhere.append('"').append(RANGE_TOKEN_COLUMN).append("\" = ? AND \"").append(BUCKET_COLUMN).append("\" = ?");
+        int nrColumns = 2;
+        for (String dimension : dimensions) {
+            columns.append(", \"").append(dimension).append('"');
+            rowWhere.append(" AND \"").append(dimension).append("\" = ?");
+            nrColumns++;
+        }
+        columns.append(", \"").append(DOC_COUNT_COLUMN).append('"');
+        nrColumns++;
+        for (String metric : metrics) {
+            for (String suffix : new String[] { COUNT_SUFFIX, SUM_SUFFIX, MIN_SUFFIX, MAX_SUFFIX }) {
+                columns.append(", \"").append(metric).append(suffix).append('"');
+                nrColumns++;
+            }
+        }
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < nrColumns; i++) {
+            values.append(i == 0 ? "?" : ",?");
+        }
+        this.selectQuery = String.format("SELECT * FROM \"%s\".\"%s\" WHERE \"%s\" = ? AND \"%s\" >= ? AND \"%s\" < ?",
+                ksName, tableName, RANGE_TOKEN_COLUMN, BUCKET_COLUMN, BUCKET_COLUMN);
+        this.selectRowQuery = String.format("SELECT * FROM \"%s\".\"%s\" WHERE %s", ksName, tableName, rowWhere);
+        this.insertQuery = String.format("INSERT INTO \"%s\".\"%s\" (%s) VALUES (%s)", ksName, tableName, columns, values);
+    }
+
+    /**
+     * @return the rollups declared in the <code>_meta</code> of a mapping of an index.
+     */
+    public static List<Rollup> parse(String ksName, String cfName, String index, Map<String, Object> meta) {
+        if (meta == null || !(meta.get(ROLLUPS_META) instanceof Map)) {
+            return Collections.emptyList();
+        }
+        List<Rollup> rollups = new ArrayList<Rollup>();
+        for (Map.Entry<String, Object> entry : ((Map<String, Object>) meta.get(ROLLUPS_META)).entrySet()) {
+            if (!(entry.getValue() instanceof Map)) {
+                throw new IllegalArgumentException("rollup [" + entry.getKey() + "] must be an object");
+            }
+            Map<String, Object> definition = (Map<String, Object>) entry.getValue();
+            Object timestamp = definition.get(TIMESTAMP);
+            Object interval = definition.get(INTERVAL);
+            if (timestamp == null || interval == null) {
+                throw new IllegalArgumentException("rollup [" + entry.getKey() + "] requires a [" + TIMESTAMP + "] and an [" + INTERVAL + "]");
+            }
+            rollups.add(new Rollup(ksName, cfName, index, entry.getKey(), timestamp.toString(),
+                    TimeValue.parseTimeValue(interval.toString(), null, INTERVAL).millis(),
+                    XContentMapValues.nodeStringArrayValue(definition.containsKey(DIMENSIONS) ? definition.get(DIMENSIONS) : Collections.emptyList()),
+                    XContentMapValues.nodeStringArrayValue(definition.containsKey(METRICS) ? definition.get(METRICS) : Collections.emptyList())));
+        }
+        return rollups;
+    }
+
+    /**
+     * Checks the rollup fields against the document mapper: a single-valued date timestamp, single-valued not analyzed
+     * string dimensions and single-valued numeric metrics.
+     */
+    public void validate(DocumentMapper docMapper) {
+        checkField(docMapper, timestampField, DateFieldMapper.class, "a date");
+        for (String dimension : dimensions) {
+            checkField(docMapper, dimension, StringFieldMapper.class, "a string");
+            if (docMapper.mappers().smartNameFieldMapper(dimension).fieldType().tokenized()) {
+                throw new IllegalArgumentException("rollup [" + name + "] dimension [" + dimension + "] must not be analyzed");
+            }
+        }
+        for (String metric : metrics) {
+            checkField(docMapper, metric, NumberFieldMapper.class, "a numeric");
+        }
+    }
+
+    private void checkField(DocumentMapper docMapper, String field, Class<? extends FieldMapper> mapperClass, String description) {
+        FieldMapper fieldMapper = docMapper.mappers().smartNameFieldMapper(field);
+        if (fieldMapper == null || !mapperClass.isInstance(fieldMapper)) {
+            throw new IllegalArgumentException("rollup [" + name + "] field [" + field + "] must be " + description + " field");
+        }
+        if (!CqlCollection.SINGLETON.equals(fieldMapper.cqlCollection())) {
+            throw new IllegalArgumentException("rollup [" + name + "] field [" + field + "] must be a singleton column");
+        }
+    }
+
+    public String createTableQuery() {
+        StringBuilder columns = new StringBuilder();
+        StringBuilder clustering = new StringBuilder();
+        columns.append('"').append(RANGE_TOKEN_COLUMN).append("\" bigint, \"").append(BUCKET_COLUMN).append("\" bigint");
+        clustering.append('"').append(BUCKET_COLUMN).append('"');
+        for (String dimension : dimensions) {
+            columns.append(", \"").append(dimension).append("\" text");
+            clustering.append(", \"").append(dimension).append('"');
+        }
+        columns.append(", \"").append(DOC_COUNT_COLUMN).append("\" bigint");
+        for (String metric : metrics) {
+            columns.append(", \"").append(metric).append(COUNT_SUFFIX).append("\" bigint");
+            columns.append(", \"").append(metric).append(SUM_SUFFIX).append("\" double");
+            columns.append(", \"").append(metric).append(MIN_SUFFIX).append("\" double");
+            columns.append(", \"").append(metric).append(MAX_SUFFIX).append("\" double");
+        }
+        return String.format("CREATE TABLE IF NOT EXISTS \"%s\".\"%s\" ( %s, PRIMARY KEY ((\"%s\"), %s) ) WITH COMMENT='Rollup %s of %s in index %s, auto-created by Elassandra'",
+                ksName, tableName, columns, RANGE_TOKEN_COLUMN, clustering, name, cfName, index);
+    }
+
+    public long bucket(long timestamp) {
+        long remainder = timestamp % interval;
+        return timestamp - (remainder < 0 ? remainder + interval : remainder);
+    }
+
+    /**
+     * Adds the metric values of a newly indexed row to the partial aggregates of its rollup row, in the local replica only.
+     */
+    public void update(long token, Map<String, Object> docMap) {
+        Object timestampValue = docMap.get(timestampField);
+        long bucket = NO_TIMESTAMP;
+        if (timestampValue instanceof Date) {
+            bucket = bucket(((Date) timestampValue).getTime());
+        } else if (timestampValue instanceof Number) {
+            bucket = bucket(((Number) timestampValue).longValue());
+        }
+        // the rollup partition of a row is the one of the vnode range (left, right] including its token
+        Token rangeToken = TokenMetadata.firstToken(StorageService.instance.getTokenMetadata().sortedTokens(), new LongToken(token));
+
+        Object[] key = new Object[2 + dimensions.length];
+        int i = 0;
+        key[i++] = rangeToken.getTokenValue();
+        key[i++] = bucket;
+        for (String dimension : dimensions) {
+            Object value = docMap.get(dimension);
+            key[i++] = (value == null) ? NO_VALUE : value.toString();
+        }
+        synchronized (ROW_LOCKS[((31 * tableName.hashCode() + Arrays.hashCode(key)) & 0x7fffffff) % ROW_LOCKS.length]) {
+            UntypedResultSet current = QueryProcessor.executeInternal(selectRowQuery, key);
+            Row row = current.isEmpty() ? new Row(bucket, null, metrics.length) : row(current.one());
+            row.docCount++;
+            for (int m = 0; m < metrics.length; m++) {
+                Object value = docMap.get(metrics[m]);
+                if (value instanceof Number) {
+                    double v = ((Number) value).doubleValue();
+                    row.counts[m]++;
+                    row.sums[m] += v;
+                    row.mins[m] = Math.min(row.mins[m], v);
+                    row.maxs[m] = Math.max(row.maxs[m], v);
+                }
+            }
+            Object[] values = Arrays.copyOf(key, key.length + 1 + 4 * metrics.length);
+            i = key.length;
+            values[i++] = row.docCount;
+            for (int m = 0; m < metrics.length; m++) {
+                values[i++] = row.counts[m];
+                values[i++] = row.sums[m];
+                values[i++] = row.mins[m];
+                values[i++] = row.maxs[m];
+            }
+            QueryProcessor.executeInternal(insertQuery, values);
+        }
+    }
+
+    /**
+     * @return the local rollup rows of the given token ranges, all of them when null, whose bucket is in [from, to),
+     * read page by page while iterating. Rows without timestamp are only returned when the time range is unbounded.
+     */
+    public Iterable<Row> rows(final Collection<Range<Token>> tokenRanges, long from, final long to) {
+        if (from == Long.MIN_VALUE && to != Long.MAX_VALUE) {
+            // skip the NO_TIMESTAMP bucket.
+            from++;
+        }
+        final long fromBucket = from;
+        Iterable<Token> rangeTokens = Iterables.filter(StorageService.instance.getTokenMetadata().sortedTokens(), new Predicate<Token>() {
+            @Override
+            public boolean apply(Token rangeToken) {
+                if (tokenRanges == null) {
+                    return true;
+                }
+                for (Range<Token> range : tokenRanges) {
+                    if (range.contains(rangeToken)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        });
+        return Iterables.concat(Iterables.transform(rangeTokens, new Function<Token, Iterable<Row>>() {
+            @Override
+            public Iterable<Row> apply(Token rangeToken) {
+                return Iterables.transform(QueryProcessor.executeInternalWithPaging(selectQuery, PAGE_SIZE, rangeToken.getTokenValue(), fromBucket, to),
+                        new Function<UntypedResultSet.Row, Row>() {
+                            @Override
+                            public Row apply(UntypedResultSet.Row row) {
+                                return row(row);
+                            }
+                        });
+            }
+        }));
+    }
+
+    private Row row(UntypedResultSet.Row row) {
+        String[] dimensionValues = new String[dimensions.length];
+        for (int i = 0; i < dimensions.length; i++) {
+            dimensionValues[i] = row.getString(dimensions[i]);
+        }
+        Row rollupRow = new Row(row.getLong(BUCKET_COLUMN), dimensionValues, metrics.length);
+        rollupRow.docCount = row.getLong(DOC_COUNT_COLUMN);
+        for (int i = 0; i < metrics.length; i++) {
+            if (row.has(metrics[i] + COUNT_SUFFIX)) {
+                rollupRow.counts[i] = row.getLong(metrics[i] + COUNT_SUFFIX);
+                rollupRow.sums[i] = row.getDouble(metrics[i] + SUM_SUFFIX);
+                rollupRow.mins[i] = row.getDouble(metrics[i] + MIN_SUFFIX);
+                rollupRow.maxs[i] = row.getDouble(metrics[i] + MAX_SUFFIX);
+            }
+        }
+        return rollupRow;
+    }
+
+    public int dimension(String field) {
+        for (int i = 0; i < dimensions.length; i++) {
+            if (dimensions[i].equals(field)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public int metric(String field) {
+        for (int i = 0; i < metrics.length; i++) {
+            if (metrics[i].equals(field)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Partial aggregates of the documents of a time bucket and dimension values.
+     */
+    public static class Row {
+        public final long bucket;
+        public final String[] dimensions;
+        public long docCount;
+        public final long[] counts;
+        public final double[] sums;
+        public final double[] mins;
+        public final double[] maxs;
+
+        Row(long bucket, String[] dimensions, int nrMetrics) {
+            this.bucket = bucket;
+            this.dimensions = dimensions;
+            this.counts = new long[nrMetrics];
+            this.sums = new double[nrMetrics];
+            this.mins = new double[nrMetrics];
+            this.maxs = new double[nrMetrics];
+            Arrays.fill(this.mins, Double.POSITIVE_INFINITY);
+            Arrays.fill(this.maxs, Double.NEGATIVE_INFINITY);
+        }
+    }
+}
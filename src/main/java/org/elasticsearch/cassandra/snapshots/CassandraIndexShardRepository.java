@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2016 Vincent Royer (vroyer@vroyer.org).
+ * Contains some code from Elasticsearch (http://www.elastic.co)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.elasticsearch.cassandra.snapshots;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.io.sstable.Component;
+import org.apache.cassandra.io.sstable.Descriptor;
+import org.apache.cassandra.io.sstable.format.SSTableReader;
+import org.apache.cassandra.utils.Pair;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.RateLimiter;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.metadata.SnapshotId;
+import org.elasticsearch.common.blobstore.BlobPath;
+import org.elasticsearch.common.blobstore.BlobStore;
+import org.elasticsearch.common.blobstore.fs.FsBlobStore;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.index.IndexService;
+import org.elasticsearch.index.deletionpolicy.SnapshotIndexCommit;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.index.snapshots.IndexShardRestoreFailedException;
+import org.elasticsearch.index.snapshots.IndexShardSnapshotFailedException;
+import org.elasticsearch.index.snapshots.IndexShardSnapshotStatus;
+import org.elasticsearch.index.snapshots.blobstore.BlobStoreIndexShardRepository;
+import org.elasticsearch.index.store.Store;
+import org.elasticsearch.index.store.StoreFileMetaData;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.indices.recovery.RecoveryState;
+import org.elasticsearch.repositories.RepositoryException;
+import org.elasticsearch.repositories.RepositoryName;
+
+/**
+ * Shard repository hardlinking the keyspace SSTables and the Lucene files of the local shard
+ * in {@code <location>/cassandra/<snapshot>/<index>/<node id>}, so that no data is copied and unchanged immutable files
+ * are shared between snapshots and live data.
+ * <p/>
+ * Mapped tables are flushed and linked by {@link #snapshotTables} before the Lucene commit is taken: because documents
+ * are indexed synchronously with the memtable writes, the Lucene commit contains at least all rows of the SSTables.
+ * On restore, the local replica of the restored tables is first truncated, then SSTables are linked with a new generation
+ * and added to the tables without rebuilding the secondary index, and the shard directory is reduced to the linked Lucene
+ * files of the snapshot. Rows written after the snapshot are thus lost on the restoring node, and other indices mapping
+ * the same tables must be restored or rebuilt as well.
+ * <p/>
+ * The repository location must be on the same file system as the data directories. Snapshot files are local to each node,
+ * deleting a snapshot only removes the files of the node handling the deletion.
+ * @author vroyer
+ *
+ */
+public class CassandraIndexShardRepository extends BlobStoreIndexShardRepository {
+
+    public static final String LUCENE_DIR = "lucene";
+    public static final String SSTABLES_DIR = "sstables";
+
+    private final String repositoryName;
+    private final IndicesService indicesService;
+    private final ClusterService clusterService;
+    private Path root;
+
+    @Inject
+    public CassandraIndexShardRepository(Settings settings, RepositoryName repositoryName, IndicesService indicesService, ClusterService clusterService) {
+        super(settings, repositoryName, indicesService, clusterService);
+        this.repositoryName = repositoryName.name();
+        this.indicesService = indicesService;
+        this.clusterService = clusterService;
+    }
+
+    @Override
+    public void initialize(BlobStore blobStore, BlobPath basePath, ByteSizeValue chunkSize, RateLimiter snapshotRateLimiter, RateLimiter restoreRateLimiter,
+            RateLimiterListener rateLimiterListener, boolean compress) {
+        super.initialize(blobStore, basePath, chunkSize, snapshotRateLimiter, restoreRateLimiter, rateLimiterListener, compress);
+        if (!(blobStore instanceof FsBlobStore)) {
+            throw new RepositoryException(repositoryName, "hardlink snapshots require a file system location");
+        }
+        this.root = ((FsBlobStore) blobStore).path().resolve("cassandra");
+    }
+
+    private Path shardDir(SnapshotId snapshotId, String index) {
+        return root.resolve(snapshotId.getSnapshot()).resolve(index).resolve(clusterService.localNode().id());
+    }
+
+    /**
+     * Flush and link the sstables of the tables mapped in the index of the shard. Called before the Lucene commit
+     * of the snapshot is taken, so that the commit contains at least all rows of the linked sstables.
+     */
+    public void snapshotTables(SnapshotId snapshotId, IndexShard indexShard, IndexShardSnapshotStatus snapshotStatus) {
+        ShardId shardId = indexShard.shardId();
+        snapshotStatus.startTime(System.currentTimeMillis());
+        try {
+            IndexService indexService = indicesService.indexServiceSafe(shardId.getIndex());
+            String ksName = indexService.indexSettings().get(IndexMetaData.SETTING_KEYSPACE_NAME, shardId.getIndex());
+            Path shardDir = shardDir(snapshotId, shardId.getIndex());
+            Files.createDirectories(shardDir);
+
+            Keyspace keyspace = Keyspace.open(ksName);
+            for (String type : indexService.mapperService().types()) {
+                if (Schema.instance.getCFMetaData(ksName, type) == null) {
+                    continue;
+                }
+                checkAborted(shardId, snapshotStatus);
+                ColumnFamilyStore cfs = keyspace.getColumnFamilyStore(type);
+                cfs.forceBlockingFlush();
+                Path cfDir = Files.createDirectories(shardDir.resolve(SSTABLES_DIR).resolve(type));
+                try (ColumnFamilyStore.RefViewFragment view = cfs.selectAndReference(ColumnFamilyStore.CANONICAL_SSTABLES)) {
+                    for (SSTableReader sstable : view.sstables) {
+                        sstable.createLinks(cfDir.toString());
+                        snapshotStatus.addProcessedFile(sstable.bytesOnDisk());
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            failed(shardId, snapshotStatus, e);
+        }
+    }
+
+    /**
+     * Link the files of the Lucene commit, taken after {@link #snapshotTables}.
+     */
+    @Override
+    public void snapshot(SnapshotId snapshotId, ShardId shardId, SnapshotIndexCommit snapshotIndexCommit, IndexShardSnapshotStatus snapshotStatus) {
+        if (snapshotStatus.startTime() == 0) {
+            snapshotStatus.startTime(System.currentTimeMillis());
+        }
+        try {
+            IndexService indexService = indicesService.indexServiceSafe(shardId.getIndex());
+            IndexShard indexShard = indexService.shardSafe(shardId.id());
+            Path luceneDir = Files.createDirectories(shardDir(snapshotId, shardId.getIndex()).resolve(LUCENE_DIR));
+            Path indexDir = indexShard.shardPath().resolveIndex();
+            snapshotStatus.indexVersion(snapshotIndexCommit.getGeneration());
+            for (String fileName : snapshotIndexCommit.getFiles()) {
+                checkAborted(shardId, snapshotStatus);
+                Path target = luceneDir.resolve(fileName);
+                if (!Files.exists(target)) {
+                    Files.createLink(target, indexDir.resolve(fileName));
+                }
+                snapshotStatus.addProcessedFile(Files.size(target));
+            }
+            snapshotStatus.files(snapshotStatus.processedFiles(), snapshotStatus.processedSize());
+            snapshotStatus.time(System.currentTimeMillis() - snapshotStatus.startTime());
+            snapshotStatus.updateStage(IndexShardSnapshotStatus.Stage.DONE);
+        } catch (Throwable e) {
+            failed(shardId, snapshotStatus, e);
+        }
+    }
+
+    private void failed(ShardId shardId, IndexShardSnapshotStatus snapshotStatus, Throwable e) {
+        snapshotStatus.time(System.currentTimeMillis() - snapshotStatus.startTime());
+        snapshotStatus.updateStage(IndexShardSnapshotStatus.Stage.FAILURE);
+        snapshotStatus.failure(ExceptionsHelper.detailedMessage(e));
+        if (e instanceof IndexShardSnapshotFailedException) {
+            throw (IndexShardSnapshotFailedException) e;
+        } else {
+            throw new IndexShardSnapshotFailedException(shardId, e.getMessage(), e);
+        }
+    }
+
+    private void checkAborted(ShardId shardId, IndexShardSnapshotStatus snapshotStatus) {
+        if (snapshotStatus.aborted()) {
+            throw new IndexShardSnapshotFailedException(shardId, "Aborted");
+        }
+    }
+
+    @Override
+    public void restore(SnapshotId snapshotId, Version version, ShardId shardId, ShardId snapshotShardId, RecoveryState recoveryState) {
+        try {
+            Path shardDir = shardDir(snapshotId, snapshotShardId.getIndex());
+            if (!Files.isDirectory(shardDir)) {
+                throw new IndexShardRestoreFailedException(shardId, "no snapshot [" + snapshotId.getSnapshot() + "] on this node");
+            }
+            IndexService indexService = indicesService.indexServiceSafe(shardId.getIndex());
+            IndexShard indexShard = indexService.shardSafe(shardId.id());
+            String ksName = indexService.indexSettings().get(IndexMetaData.SETTING_KEYSPACE_NAME, shardId.getIndex());
+
+            // truncate the local replica of restored tables, so that rows written after the snapshot do not come back unindexed.
+            Map<ColumnFamilyStore, File> tables = new HashMap<>();
+            Path sstablesDir = shardDir.resolve(SSTABLES_DIR);
+            if (Files.isDirectory(sstablesDir)) {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(sstablesDir)) {
+                    for (Path cfDir : stream) {
+                        String cfName = cfDir.getFileName().toString();
+                        if (Schema.instance.getCFMetaData(ksName, cfName) == null) {
+                            logger.warn("[{}] table [{}].[{}] does not exist, skipping its sstables", snapshotId, ksName, cfName);
+                            continue;
+                        }
+                        tables.put(Keyspace.open(ksName).getColumnFamilyStore(cfName), cfDir.toFile());
+                    }
+                }
+            }
+            for (ColumnFamilyStore cfs : tables.keySet()) {
+                logger.info("[{}] truncating [{}].[{}] before restore", snapshotId, ksName, cfs.name);
+                cfs.truncateBlocking();
+            }
+
+            // link Lucene files in the shard directory, then remove any file not in the snapshot commit.
+            Path luceneDir = shardDir.resolve(LUCENE_DIR);
+            Path indexDir = indexShard.shardPath().resolveIndex();
+            Files.createDirectories(indexDir);
+            Store.MetadataSnapshot sourceMetaData = Store.readMetadataSnapshot(luceneDir, logger);
+            Store store = indexShard.store();
+            store.incRef();
+            try {
+                for (StoreFileMetaData md : sourceMetaData) {
+                    Path file = luceneDir.resolve(md.name());
+                    Path target = indexDir.resolve(md.name());
+                    Files.deleteIfExists(target);
+                    Files.createLink(target, file);
+                    recoveryState.getIndex().addFileDetail(md.name(), md.length(), true);
+                }
+                store.cleanupAndVerify("restore snapshot [" + snapshotId.getSnapshot() + "]", sourceMetaData);
+            } finally {
+                store.decRef();
+            }
+
+            // link sstables with a new generation, and add them without building the secondary index.
+            for (Map.Entry<ColumnFamilyStore, File> table : tables.entrySet()) {
+                restoreSSTables(table.getKey(), table.getValue());
+            }
+        } catch (IndexShardRestoreFailedException e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IndexShardRestoreFailedException(shardId, "failed to restore snapshot [" + snapshotId.getSnapshot() + "]", e);
+        }
+    }
+
+    private void restoreSSTables(ColumnFamilyStore cfs, File cfDir) throws IOException {
+        Map<Descriptor, List<Component>> sstables = new HashMap<>();
+        for (File file : cfDir.listFiles()) {
+            Pair<Descriptor, Component> pair = Component.fromFilename(cfDir, file.getName());
+            if (pair == null) {
+                continue;
+            }
+            List<Component> components = sstables.get(pair.left);
+            if (components == null) {
+                components = new ArrayList<>();
+                sstables.put(pair.left, components);
+            }
+            components.add(pair.right);
+        }
+
+        File dataDir = cfs.directories.getDirectoryForNewSSTables();
+        List<SSTableReader> readers = new ArrayList<>(sstables.size());
+        for (Map.Entry<Descriptor, List<Component>> entry : sstables.entrySet()) {
+            Descriptor descriptor = Descriptor.fromFilename(cfs.getTempSSTablePath(dataDir)).asType(Descriptor.Type.FINAL);
+            for (Component component : entry.getValue()) {
+                Files.createLink(new File(descriptor.filenameFor(component)).toPath(), new File(entry.getKey().filenameFor(component)).toPath());
+            }
+            readers.add(SSTableReader.open(descriptor));
+        }
+        cfs.addSSTables(readers);
+        logger.info("restored {} sstables in [{}].[{}]", readers.size(), cfs.keyspace.getName(), cfs.name);
+    }
+
+    @Override
+    public IndexShardSnapshotStatus snapshotStatus(SnapshotId snapshotId, Version version, ShardId shardId) {
+        IndexShardSnapshotStatus status = new IndexShardSnapshotStatus();
+        Path shardDir = shardDir(snapshotId, shardId.getIndex());
+        int numberOfFiles = 0;
+        long totalSize = 0;
+        try {
+            for (Path dir : new Path[] { shardDir.resolve(LUCENE_DIR), shardDir.resolve(SSTABLES_DIR) }) {
+                if (Files.isDirectory(dir)) {
+                    List<Path> files = new ArrayList<>();
+                    listFiles(dir, files);
+                    for (Path file : files) {
+                        numberOfFiles++;
+                        totalSize += Files.size(file);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new IndexShardSnapshotFailedException(shardId, "failed to read snapshot [" + snapshotId.getSnapshot() + "]", e);
+        }
+        status.updateStage(IndexShardSnapshotStatus.Stage.DONE);
+        status.files(numberOfFiles, totalSize);
+        status.processedFiles(numberOfFiles, totalSize);
+        return status;
+    }
+
+    private static void listFiles(Path dir, List<Path> files) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                if (Files.isDirectory(path)) {
+                    listFiles(path, files);
+                } else {
+                    files.add(path);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void delete(SnapshotId snapshotId, Version version, ShardId shardId) {
+        try {
+            IOUtils.rm(shardDir(snapshotId, shardId.getIndex()));
+        } catch (IOException e) {
+            logger.warn("[{}] failed to delete snapshot of [{}]", e, snapshotId, shardId);
+        }
+    }
+}
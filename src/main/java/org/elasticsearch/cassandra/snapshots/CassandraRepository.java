@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2016 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.elasticsearch.cassandra.snapshots;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.index.snapshots.IndexShardRepository;
+import org.elasticsearch.repositories.RepositoryName;
+import org.elasticsearch.repositories.RepositorySettings;
+import org.elasticsearch.repositories.fs.FsRepository;
+
+/**
+ * File system repository where shards are snapshotted with hardlinks, see {@link CassandraIndexShardRepository}.
+ * Snapshot and index metadata are stored as in the fs repository, the location must be on the same file system
+ * as the cassandra data directories of each node.
+ * @author vroyer
+ *
+ */
+public class CassandraRepository extends FsRepository {
+
+    public final static String TYPE = "cassandra";
+
+    @Inject
+    public CassandraRepository(RepositoryName name, RepositorySettings repositorySettings, IndexShardRepository indexShardRepository, Environment environment) throws IOException {
+        super(name, repositorySettings, indexShardRepository, environment);
+    }
+}
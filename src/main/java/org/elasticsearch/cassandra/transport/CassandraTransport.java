@@ -0,0 +1,501 @@
+/*
+ * Copyright (c) 2016 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.elasticsearch.cassandra.transport;
+
+import static org.elasticsearch.common.util.concurrent.ConcurrentCollections.newConcurrentMap;
+
+import java.io.DataInput;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.gms.ApplicationState;
+import org.apache.cassandra.gms.EndpointState;
+import org.apache.cassandra.gms.FailureDetector;
+import org.apache.cassandra.gms.Gossiper;
+import org.apache.cassandra.gms.IEndpointStateChangeSubscriber;
+import org.apache.cassandra.gms.VersionedValue;
+import org.apache.cassandra.io.IVersionedSerializer;
+import org.apache.cassandra.io.util.DataOutputPlus;
+import org.apache.cassandra.net.IVerbHandler;
+import org.apache.cassandra.net.MessageIn;
+import org.apache.cassandra.net.MessageOut;
+import org.apache.cassandra.net.MessagingService;
+import org.apache.cassandra.utils.FBUtilities;
+import org.elasticsearch.Version;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.component.Lifecycle;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.NamedWriteableAwareStreamInput;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.transport.BoundTransportAddress;
+import org.elasticsearch.common.transport.InetSocketTransportAddress;
+import org.elasticsearch.common.transport.TransportAddress;
+import org.elasticsearch.common.util.concurrent.AbstractRunnable;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.ActionNotFoundTransportException;
+import org.elasticsearch.transport.ConnectTransportException;
+import org.elasticsearch.transport.NodeNotConnectedException;
+import org.elasticsearch.transport.RemoteTransportException;
+import org.elasticsearch.transport.RequestHandlerRegistry;
+import org.elasticsearch.transport.ResponseHandlerFailureTransportException;
+import org.elasticsearch.transport.Transport;
+import org.elasticsearch.transport.TransportException;
+import org.elasticsearch.transport.TransportRequest;
+import org.elasticsearch.transport.TransportRequestOptions;
+import org.elasticsearch.transport.TransportResponse;
+import org.elasticsearch.transport.TransportResponseHandler;
+import org.elasticsearch.transport.TransportSerializationException;
+import org.elasticsearch.transport.TransportServiceAdapter;
+import org.elasticsearch.transport.Transports;
+import org.elasticsearch.transport.support.TransportStatus;
+
+/**
+ * Elasticsearch transport carried by the cassandra {@link MessagingService} on the existing internode connections,
+ * so that a node does not open a second set of sockets, buffers and threads on transport.tcp.port.
+ * Enabled with transport.type: cassandra.
+ * <p>
+ * Requests and responses are sent one way with the {@link #VERB} verb, and are correlated with the elasticsearch request id
+ * written in the payload as the netty and local transports do. Cassandra internode compression and encryption apply,
+ * the elasticsearch transport.tcp.compress option is ignored.
+ * A node is connected as long as the cassandra failure detector sees its endpoint alive, and is disconnected
+ * when gossip marks it dead or removes it, which fails its pending requests.
+ * @author vroyer
+ *
+ */
+public class CassandraTransport extends AbstractLifecycleComponent<Transport> implements Transport, IEndpointStateChangeSubscriber {
+
+    public static final String CASSANDRA_TRANSPORT_THREAD_NAME_PREFIX = "cassandra_transport";
+
+    public static final String TRANSPORT_CASSANDRA_WORKERS = "transport.cassandra.workers";
+    public static final String TRANSPORT_CASSANDRA_QUEUE = "transport.cassandra.queue";
+
+    /**
+     * Verb reserved by cassandra and never sent by cassandra nodes.
+     */
+    public static final MessagingService.Verb VERB = MessagingService.Verb.UNUSED_1;
+
+    public static final IVersionedSerializer<byte[]> serializer = new IVersionedSerializer<byte[]>() {
+        @Override
+        public void serialize(byte[] data, DataOutputPlus out, int version) throws IOException {
+            out.writeInt(data.length);
+            out.write(data);
+        }
+
+        @Override
+        public byte[] deserialize(DataInput in, int version) throws IOException {
+            byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return data;
+        }
+
+        @Override
+        public long serializedSize(byte[] data, int version) {
+            return 4 + data.length;
+        }
+    };
+
+    private static boolean verbHandlerRegistered = false;
+    private static volatile CassandraTransport startedTransport;
+
+    private static final IVerbHandler<byte[]> verbHandler = new IVerbHandler<byte[]>() {
+        @Override
+        public void doVerb(final MessageIn<byte[]> message, int id) {
+            final CassandraTransport transport = startedTransport;
+            if (transport == null) {
+                // transport not started or stopped, the sender will time out.
+                return;
+            }
+            transport.workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    transport.messageReceived(message.payload, message.from, null, null);
+                }
+            });
+        }
+    };
+
+    private final ThreadPool threadPool;
+    private final ThreadPoolExecutor workers;
+    private final Version version;
+    private final NamedWriteableRegistry namedWriteableRegistry;
+    private volatile TransportServiceAdapter transportServiceAdapter;
+    private volatile BoundTransportAddress boundAddress;
+    private volatile InetAddress localAddress;
+    private final ConcurrentMap<DiscoveryNode, InetAddress> connectedNodes = newConcurrentMap();
+
+    @Inject
+    public CassandraTransport(Settings settings, ThreadPool threadPool, Version version, NamedWriteableRegistry namedWriteableRegistry) {
+        super(settings);
+        this.threadPool = threadPool;
+        this.version = version;
+        int workerCount = this.settings.getAsInt(TRANSPORT_CASSANDRA_WORKERS, EsExecutors.boundedNumberOfProcessors(settings));
+        int queueSize = this.settings.getAsInt(TRANSPORT_CASSANDRA_QUEUE, -1);
+        logger.debug("creating [{}] workers, queue_size [{}]", workerCount, queueSize);
+        final ThreadFactory threadFactory = EsExecutors.daemonThreadFactory(this.settings, CASSANDRA_TRANSPORT_THREAD_NAME_PREFIX);
+        this.workers = EsExecutors.newFixed(CASSANDRA_TRANSPORT_THREAD_NAME_PREFIX, workerCount, queueSize, threadFactory);
+        this.namedWriteableRegistry = namedWriteableRegistry;
+    }
+
+    @Override
+    public TransportAddress[] addressesFromString(String address, int perAddressLimit) throws Exception {
+        int index = address.lastIndexOf(':');
+        if (index > 0 && address.indexOf(':') == index) {
+            // host:port, the port is always the cassandra storage port.
+            address = address.substring(0, index);
+        }
+        InetAddress[] addresses = InetAddress.getAllByName(address);
+        int limit = Math.min(addresses.length, perAddressLimit);
+        TransportAddress[] transportAddresses = new TransportAddress[limit];
+        for (int i = 0; i < limit; i++) {
+            transportAddresses[i] = new InetSocketTransportAddress(addresses[i], DatabaseDescriptor.getStoragePort());
+        }
+        return transportAddresses;
+    }
+
+    @Override
+    public boolean addressSupported(Class<? extends TransportAddress> address) {
+        return InetSocketTransportAddress.class.equals(address);
+    }
+
+    @Override
+    protected void doStart() {
+        localAddress = FBUtilities.getBroadcastAddress();
+        boundAddress = new BoundTransportAddress(
+                new TransportAddress[] { new InetSocketTransportAddress(FBUtilities.getLocalAddress(), DatabaseDescriptor.getStoragePort()) },
+                new InetSocketTransportAddress(localAddress, DatabaseDescriptor.getStoragePort()));
+        synchronized (CassandraTransport.class) {
+            if (!verbHandlerRegistered) {
+                // verb handlers cannot be unregistered, register once a handler dispatching to the started transport.
+                MessagingService.verbSerializers.put(VERB, serializer);
+                MessagingService.instance().registerVerbHandlers(VERB, verbHandler);
+                verbHandlerRegistered = true;
+            }
+            startedTransport = this;
+        }
+        Gossiper.instance.register(this);
+    }
+
+    @Override
+    protected void doStop() {
+        synchronized (CassandraTransport.class) {
+            if (startedTransport == this) {
+                startedTransport = null;
+            }
+        }
+        Gossiper.instance.unregister(this);
+        for (DiscoveryNode node : connectedNodes.keySet()) {
+            disconnectFromNode(node);
+        }
+    }
+
+    @Override
+    protected void doClose() {
+        ThreadPool.terminate(workers, 10, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void transportServiceAdapter(TransportServiceAdapter transportServiceAdapter) {
+        this.transportServiceAdapter = transportServiceAdapter;
+    }
+
+    @Override
+    public BoundTransportAddress boundAddress() {
+        return boundAddress;
+    }
+
+    @Override
+    public Map<String, BoundTransportAddress> profileBoundAddresses() {
+        return Collections.EMPTY_MAP;
+    }
+
+    @Override
+    public boolean nodeConnected(DiscoveryNode node) {
+        return connectedNodes.containsKey(node);
+    }
+
+    @Override
+    public void connectToNodeLight(DiscoveryNode node) throws ConnectTransportException {
+        connectToNode(node);
+    }
+
+    @Override
+    public void connectToNode(DiscoveryNode node) throws ConnectTransportException {
+        synchronized (this) {
+            if (connectedNodes.containsKey(node)) {
+                return;
+            }
+            if (!(node.address() instanceof InetSocketTransportAddress)) {
+                throw new ConnectTransportException(node, "Unsupported address type");
+            }
+            InetAddress endpoint = ((InetSocketTransportAddress) node.address()).address().getAddress();
+            if (!endpoint.equals(localAddress) && !FailureDetector.instance.isAlive(endpoint)) {
+                throw new ConnectTransportException(node, "Cassandra endpoint " + endpoint + " is not alive");
+            }
+            connectedNodes.put(node, endpoint);
+            transportServiceAdapter.raiseNodeConnected(node);
+        }
+    }
+
+    @Override
+    public void disconnectFromNode(DiscoveryNode node) {
+        synchronized (this) {
+            InetAddress removed = connectedNodes.remove(node);
+            if (removed != null) {
+                transportServiceAdapter.raiseNodeDisconnected(node);
+            }
+        }
+    }
+
+    private void disconnectFromEndpoint(InetAddress endpoint) {
+        for (Map.Entry<DiscoveryNode, InetAddress> entry : connectedNodes.entrySet()) {
+            if (entry.getValue().equals(endpoint)) {
+                disconnectFromNode(entry.getKey());
+            }
+        }
+    }
+
+    @Override
+    public long serverOpen() {
+        return 0;
+    }
+
+    @Override
+    public void sendRequest(final DiscoveryNode node, final long requestId, final String action, final TransportRequest request, TransportRequestOptions options) throws IOException, TransportException {
+        final Version version = Version.smallest(node.version(), this.version);
+
+        try (BytesStreamOutput stream = new BytesStreamOutput()) {
+            stream.setVersion(version);
+
+            stream.writeLong(requestId);
+            byte status = 0;
+            status = TransportStatus.setRequest(status);
+            stream.writeByte(status); // 0 for request, 1 for response.
+            stream.writeInt(version.id);
+
+            stream.writeString(action);
+            request.writeTo(stream);
+
+            stream.close();
+
+            final InetAddress endpoint = connectedNodes.get(node);
+            if (endpoint == null) {
+                throw new NodeNotConnectedException(node, "Node not connected");
+            }
+
+            final byte[] data = stream.bytes().toBytes();
+            transportServiceAdapter.sent(data.length);
+            transportServiceAdapter.onRequestSent(node, requestId, action, request, options);
+            send(endpoint, data, action, requestId);
+        }
+    }
+
+    /**
+     * Send a message to the endpoint, messages to the local node do not go through the {@link MessagingService}.
+     */
+    void send(final InetAddress endpoint, final byte[] data, final String action, @Nullable final Long sendRequestId) {
+        if (endpoint.equals(localAddress)) {
+            workers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    messageReceived(data, endpoint, action, sendRequestId);
+                }
+            });
+        } else {
+            MessagingService.instance().sendOneWay(new MessageOut<byte[]>(VERB, data, serializer), endpoint);
+        }
+    }
+
+    protected void messageReceived(byte[] data, InetAddress from, @Nullable String action, @Nullable final Long sendRequestId) {
+        Transports.assertTransportThread();
+        try {
+            transportServiceAdapter.received(data.length);
+            StreamInput stream = StreamInput.wrap(data);
+
+            long requestId = stream.readLong();
+            byte status = stream.readByte();
+            Version version = Version.fromId(stream.readInt());
+            stream.setVersion(version);
+            boolean isRequest = TransportStatus.isRequest(status);
+
+            if (isRequest) {
+                handleRequest(stream, requestId, from, version);
+            } else {
+                final TransportResponseHandler handler = transportServiceAdapter.onResponseReceived(requestId);
+                // ignore if its null, the adapter logs it
+                if (handler != null) {
+                    if (TransportStatus.isError(status)) {
+                        handlerResponseError(stream, handler);
+                    } else {
+                        handleResponse(stream, from, handler);
+                    }
+                }
+            }
+        } catch (Throwable e) {
+            if (sendRequestId != null) {
+                TransportResponseHandler handler = transportServiceAdapter.onResponseReceived(sendRequestId);
+                if (handler != null) {
+                    handleException(handler, new RemoteTransportException(nodeName(), boundAddress.publishAddress(), action, e));
+                }
+            } else {
+                logger.warn("Failed to receive message from [{}]", e, from);
+            }
+        }
+    }
+
+    private void handleRequest(StreamInput stream, long requestId, InetAddress from, Version version) throws Exception {
+        stream = new NamedWriteableAwareStreamInput(stream, namedWriteableRegistry);
+        final String action = stream.readString();
+        transportServiceAdapter.onRequestReceived(requestId, action);
+        final CassandraTransportChannel transportChannel = new CassandraTransportChannel(this, transportServiceAdapter, from, action, requestId, version);
+        try {
+            final RequestHandlerRegistry reg = transportServiceAdapter.getRequestHandler(action);
+            if (reg == null) {
+                throw new ActionNotFoundTransportException("Action [" + action + "] not found");
+            }
+            final TransportRequest request = reg.newRequest();
+            request.remoteAddress(new InetSocketTransportAddress(from, DatabaseDescriptor.getStoragePort()));
+            request.readFrom(stream);
+            if (ThreadPool.Names.SAME.equals(reg.getExecutor())) {
+                //noinspection unchecked
+                reg.getHandler().messageReceived(request, transportChannel);
+            } else {
+                threadPool.executor(reg.getExecutor()).execute(new AbstractRunnable() {
+                    @Override
+                    protected void doRun() throws Exception {
+                        //noinspection unchecked
+                        reg.getHandler().messageReceived(request, transportChannel);
+                    }
+
+                    @Override
+                    public boolean isForceExecution() {
+                        return reg.isForceExecution();
+                    }
+
+                    @Override
+                    public void onFailure(Throwable e) {
+                        if (lifecycleState() == Lifecycle.State.STARTED) {
+                            // we can only send a response transport is started....
+                            try {
+                                transportChannel.sendResponse(e);
+                            } catch (Throwable e1) {
+                                logger.warn("Failed to send error message back to client for action [" + action + "]", e1);
+                                logger.warn("Actual Exception", e);
+                            }
+                        }
+                    }
+                });
+            }
+        } catch (Throwable e) {
+            try {
+                transportChannel.sendResponse(e);
+            } catch (Throwable e1) {
+                logger.warn("Failed to send error message back to client for action [" + action + "]", e);
+                logger.warn("Actual Exception", e1);
+            }
+        }
+    }
+
+    protected void handleResponse(StreamInput buffer, InetAddress from, final TransportResponseHandler handler) {
+        final TransportResponse response = handler.newInstance();
+        response.remoteAddress(new InetSocketTransportAddress(from, DatabaseDescriptor.getStoragePort()));
+        try {
+            response.readFrom(buffer);
+        } catch (Throwable e) {
+            handleException(handler, new TransportSerializationException("Failed to deserialize response of type [" + response.getClass().getName() + "]", e));
+            return;
+        }
+        threadPool.executor(handler.executor()).execute(new Runnable() {
+            @SuppressWarnings({"unchecked"})
+            @Override
+            public void run() {
+                try {
+                    handler.handleResponse(response);
+                } catch (Throwable e) {
+                    handleException(handler, new ResponseHandlerFailureTransportException(e));
+                }
+            }
+        });
+    }
+
+    private void handlerResponseError(StreamInput buffer, final TransportResponseHandler handler) {
+        Throwable error;
+        try {
+            error = buffer.readThrowable();
+        } catch (Throwable e) {
+            error = new TransportSerializationException("Failed to deserialize exception response from stream", e);
+        }
+        handleException(handler, error);
+    }
+
+    private void handleException(final TransportResponseHandler handler, Throwable error) {
+        if (!(error instanceof RemoteTransportException)) {
+            error = new RemoteTransportException("None remote transport exception", null, null, error);
+        }
+        final RemoteTransportException rtx = (RemoteTransportException) error;
+        try {
+            handler.handleException(rtx);
+        } catch (Throwable t) {
+            logger.error("failed to handle exception response [{}]", t, handler);
+        }
+    }
+
+    @Override
+    public List<String> getLocalAddresses() {
+        return Collections.singletonList(FBUtilities.getLocalAddress().getHostAddress());
+    }
+
+    @Override
+    public void beforeChange(InetAddress endpoint, EndpointState currentState, ApplicationState newStateKey, VersionedValue newValue) {
+    }
+
+    @Override
+    public void onChange(InetAddress endpoint, ApplicationState state, VersionedValue value) {
+    }
+
+    @Override
+    public void onJoin(InetAddress endpoint, EndpointState epState) {
+    }
+
+    @Override
+    public void onAlive(InetAddress endpoint, EndpointState state) {
+    }
+
+    @Override
+    public void onDead(InetAddress endpoint, EndpointState state) {
+        disconnectFromEndpoint(endpoint);
+    }
+
+    @Override
+    public void onRestart(InetAddress endpoint, EndpointState state) {
+        disconnectFromEndpoint(endpoint);
+    }
+
+    @Override
+    public void onRemove(InetAddress endpoint) {
+        disconnectFromEndpoint(endpoint);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2016 Vincent Royer (vroyer@vroyer.org).
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in compliance with
+ * the License. You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations under the License.
+ */
+package org.elasticsearch.cassandra.transport;
+
+import java.io.IOException;
+import java.net.InetAddress;
+
+import org.elasticsearch.Version;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.transport.RemoteTransportException;
+import org.elasticsearch.transport.TransportChannel;
+import org.elasticsearch.transport.TransportResponse;
+import org.elasticsearch.transport.TransportResponseOptions;
+import org.elasticsearch.transport.TransportServiceAdapter;
+import org.elasticsearch.transport.support.TransportStatus;
+
+/**
+ * Channel sending the response of a request received by the {@link CassandraTransport} back to the requesting endpoint.
+ * @author vroyer
+ *
+ */
+public class CassandraTransportChannel implements TransportChannel {
+
+    private static final String CASSANDRA_TRANSPORT_PROFILE = "default";
+
+    private final CassandraTransport transport;
+    private final TransportServiceAdapter transportServiceAdapter;
+    // the endpoint we will *send to*
+    private final InetAddress endpoint;
+    private final String action;
+    private final long requestId;
+    private final Version version;
+
+    public CassandraTransportChannel(CassandraTransport transport, TransportServiceAdapter transportServiceAdapter, InetAddress endpoint, String action, long requestId, Version version) {
+        this.transport = transport;
+        this.transportServiceAdapter = transportServiceAdapter;
+        this.endpoint = endpoint;
+        this.action = action;
+        this.requestId = requestId;
+        this.version = version;
+    }
+
+    @Override
+    public String action() {
+        return action;
+    }
+
+    @Override
+    public String getProfileName() {
+        return CASSANDRA_TRANSPORT_PROFILE;
+    }
+
+    @Override
+    public void sendResponse(TransportResponse response) throws IOException {
+        sendResponse(response, TransportResponseOptions.EMPTY);
+    }
+
+    @Override
+    public void sendResponse(TransportResponse response, TransportResponseOptions options) throws IOException {
+        try (BytesStreamOutput stream = new BytesStreamOutput()) {
+            stream.setVersion(version);
+            byte status = 0;
+            status = TransportStatus.setResponse(status);
+            writeResponseHeader(stream, status);
+            response.writeTo(stream);
+            final byte[] data = stream.bytes().toBytes();
+            transportServiceAdapter.sent(data.length);
+            transport.send(endpoint, data, action, null);
+            transportServiceAdapter.onResponseSent(requestId, action, response, options);
+        }
+    }
+
+    @Override
+    public void sendResponse(Throwable error) throws IOException {
+        try (BytesStreamOutput stream = new BytesStreamOutput()) {
+            stream.setVersion(version);
+            byte status = 0;
+            status = TransportStatus.setResponse(status);
+            status = TransportStatus.setError(status);
+            writeResponseHeader(stream, status);
+            RemoteTransportException tx = new RemoteTransportException(transport.nodeName(), transport.boundAddress().publishAddress(), action, error);
+            stream.writeThrowable(tx);
+            final byte[] data = stream.bytes().toBytes();
+            transportServiceAdapter.sent(data.length);
+            transport.send(endpoint, data, action, null);
+            transportServiceAdapter.onResponseSent(requestId, action, error);
+        }
+    }
+
+    private void writeResponseHeader(BytesStreamOutput stream, byte status) throws IOException {
+        stream.writeLong(requestId);
+        stream.writeByte(status);
+        stream.writeInt(version.id);
+    }
+}
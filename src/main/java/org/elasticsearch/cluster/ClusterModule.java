@@ -24,9 +24,11 @@ import java.util.Collections;
 import java.util.List;
 
 import org.elasticsearch.action.support.DestructiveOperations;
+import org.elasticsearch.cassandra.ContinuousPercolator;
 import org.elasticsearch.cassandra.ElasticSecondaryIndicesService;
 import org.elasticsearch.cassandra.SecondaryIndicesService;
 import org.elasticsearch.cassandra.cluster.InternalCassandraClusterService;
+import org.elasticsearch.cassandra.rollup.Rollup;
 import org.elasticsearch.cluster.action.index.MappingUpdatedAction;
 import org.elasticsearch.cluster.action.index.NodeIndexDeletedAction;
 import org.elasticsearch.cluster.action.index.NodeMappingRefreshAction;
@@ -273,6 +275,12 @@ public class ClusterModule extends AbstractModule {
         registerIndexDynamicSetting(IndicesWarmer.INDEX_WARMER_ENABLED, Validator.EMPTY);
         registerIndexDynamicSetting(IndicesRequestCache.INDEX_CACHE_REQUEST_ENABLED, Validator.BOOLEAN);
         registerIndexDynamicSetting(IndicesRequestCache.DEPRECATED_INDEX_CACHE_REQUEST_ENABLED, Validator.BOOLEAN);
+        registerIndexDynamicSetting(IndicesRequestCache.INDEX_CACHE_REQUEST_HITS_ENABLED, Validator.BOOLEAN);
+        registerIndexDynamicSetting(ContinuousPercolator.INDEX_PERCOLATOR_CONTINUOUS_ENABLE, Validator.BOOLEAN);
+        registerIndexDynamicSetting(ContinuousPercolator.INDEX_PERCOLATOR_CONTINUOUS_BATCH_SIZE, Validator.POSITIVE_INTEGER);
+        registerIndexDynamicSetting(ContinuousPercolator.INDEX_PERCOLATOR_CONTINUOUS_FLUSH_INTERVAL, Validator.TIME_NON_NEGATIVE);
+        registerIndexDynamicSetting(ContinuousPercolator.INDEX_PERCOLATOR_CONTINUOUS_TTL, Validator.TIME_NON_NEGATIVE);
+        registerIndexDynamicSetting(Rollup.INDEX_ROLLUP_SEARCH_ENABLED, Validator.BOOLEAN);
         registerIndexDynamicSetting(UnassignedInfo.INDEX_DELAYED_NODE_LEFT_TIMEOUT_SETTING, Validator.TIME);
         registerIndexDynamicSetting(DefaultSearchContext.MAX_RESULT_WINDOW, Validator.POSITIVE_INTEGER);
     }
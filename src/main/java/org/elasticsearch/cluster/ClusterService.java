@@ -24,6 +24,7 @@ import java.math.BigDecimal;
 import java.math.BigInteger;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Iterator;
@@ -37,6 +38,7 @@ import org.apache.cassandra.cql3.UntypedResultSet;
 import org.apache.cassandra.db.ColumnFamily;
 import org.apache.cassandra.db.ConsistencyLevel;
 import org.apache.cassandra.db.marshal.AbstractType;
+import org.apache.cassandra.db.marshal.CompositeType;
 import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.dht.Token;
 import org.apache.cassandra.exceptions.ConfigurationException;
@@ -62,6 +64,7 @@ import org.apache.cassandra.serializers.TimestampSerializer;
 import org.apache.cassandra.serializers.TypeSerializer;
 import org.apache.cassandra.serializers.UTF8Serializer;
 import org.apache.cassandra.serializers.UUIDSerializer;
+import org.apache.cassandra.utils.ByteBufferUtil;
 import org.codehaus.jackson.JsonGenerationException;
 import org.codehaus.jackson.JsonParseException;
 import org.codehaus.jackson.map.JsonMappingException;
@@ -77,6 +80,7 @@ import org.elasticsearch.cluster.node.DiscoveryNode;
 import org.elasticsearch.cluster.routing.OperationRouting;
 import org.elasticsearch.cluster.routing.ShardRoutingState;
 import org.elasticsearch.cluster.service.PendingClusterTask;
+import org.elasticsearch.common.Base64;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.Priority;
 import org.elasticsearch.common.component.LifecycleComponent;
@@ -199,6 +203,11 @@ public interface ClusterService extends LifecycleComponent<ClusterService> {
     
     public static final String ELASTIC_ADMIN_KEYSPACE = "elastic_admin";
     public static final String ELASTIC_ADMIN_METADATA_TABLE_PREFIX = "metadata_";
+    /**
+     * Prefix of the pseudo columns selecting the remaining TTL of a column in {@link #fetchRowInternal}, null when the
+     * column never expires. Not a valid field name, so it never collides with a mapped column.
+     */
+    public static final String TTL_COLUMN_PREFIX = "_ttl.";
 
     
     static class Utils {
@@ -223,6 +232,49 @@ public interface ClusterService extends LifecycleComponent<ClusterService> {
             return jsonMapper.writeValueAsString(an);
         }
         
+        /**
+         * Prefix of binary _id, a base64url CompositeType serialization of the primary key columns. 
+         * Not part of the base64url alphabet, and not a JSON array.
+         */
+        public static final char BINARY_ID_PREFIX = '~';
+        
+        public static boolean isBinaryId(String id) {
+            return id.length() > 1 && id.charAt(0) == BINARY_ID_PREFIX;
+        }
+        
+        /**
+         * Build a binary _id from the length first serialized primary key columns.
+         */
+        public static String binaryId(ByteBuffer[] components, int length) throws IOException {
+            ByteBuffer bb = CompositeType.build((length == components.length) ? components : Arrays.copyOf(components, length));
+            return BINARY_ID_PREFIX + Base64.encodeBytes(ByteBufferUtil.getArray(bb), Base64.URL_SAFE);
+        }
+        
+        /**
+         * Split a binary _id in size serialized primary key columns, slices of the decoded bytes.
+         */
+        public static ByteBuffer[] parseBinaryId(String id, int size) throws IOException {
+            ByteBuffer bb = ByteBuffer.wrap(Base64.decode(id.substring(1), Base64.URL_SAFE));
+            ByteBuffer[] components = new ByteBuffer[size];
+            for (int i = 0; i < size; i++) {
+                if (bb.remaining() < 3) {
+                    throw new IOException("Unexpected binary _id="+id+", expecting "+size+" columns");
+                }
+                int length = bb.getShort() & 0xFFFF;
+                if (bb.remaining() < length + 1) {
+                    throw new IOException("Unexpected binary _id="+id+", truncated column "+i);
+                }
+                ByteBuffer component = bb.slice();
+                component.limit(length);
+                components[i] = component;
+                bb.position(bb.position() + length + 1); // skip the end-of-component byte
+            }
+            if (bb.hasRemaining()) {
+                throw new IOException("Unexpected binary _id="+id+", expecting "+size+" columns");
+            }
+            return components;
+        }
+        
         public static String stringify(AbstractType<?> type, ByteBuffer buf) {
             return stringify(type, type.compose(buf));
         }
@@ -336,6 +388,7 @@ public interface ClusterService extends LifecycleComponent<ClusterService> {
 
     public void createElasticAdminKeyspace() throws Exception;
     public void createIndexKeyspace(String index, int replicationFactor) throws IOException;
+    public void createPercolatorMatchesTable(String ksName) throws IOException;
     
     public void createSecondaryIndices(String index) throws IOException;
     public void createSecondaryIndex(String ksName, MappingMetaData mapping) throws IOException;
@@ -364,6 +417,7 @@ public interface ClusterService extends LifecycleComponent<ClusterService> {
     
     public UntypedResultSet fetchRowInternal(String index, String type, Collection<String> requiredColumns, String id) throws ConfigurationException, IOException;
     public UntypedResultSet fetchRowInternal(String ksName, String cfName, Collection<String> requiredColumns, Object[] pkColumns) throws ConfigurationException, IOException;
+    public Map<String, UntypedResultSet.Row> fetchRowsInternal(String index, String type, Collection<String> requiredColumns, Collection<String> ids) throws ConfigurationException, IOException;
     
     public Map<String, Object> rowAsMap(final String index, final String type, UntypedResultSet.Row row) throws IOException;
     public int rowAsMap(final String index, final String type, UntypedResultSet.Row row, Map<String, Object> map) throws IOException;
@@ -383,6 +437,8 @@ public interface ClusterService extends LifecycleComponent<ClusterService> {
     
     
     public Token getToken(ByteBuffer rowKey, ColumnFamily cf);
+    
+    public Token getToken(String index, String type, String id) throws IOException;
 
     public void writeMetaDataAsComment(String metaDataString) throws ConfigurationException, IOException;
 
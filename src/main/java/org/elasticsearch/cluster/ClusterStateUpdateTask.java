@@ -56,4 +56,13 @@ abstract public class ClusterStateUpdateTask {
     public boolean doPresistMetaData() {
         return false;
     }
+
+    /**
+     * Tasks returning the same non null key are drained and executed together on the update thread, in submission
+     * order, producing a single new cluster state, one metadata persist and one round of listener notifications.
+     * Each task of the batch still gets its own failure, ack and processed callbacks.
+     */
+    public Object batchKey() {
+        return null;
+    }
 }
@@ -185,6 +185,8 @@ public class IndexMetaData implements Diffable<IndexMetaData>, FromXContentBuild
     public static final String SETTING_SHARED_FS_ALLOW_RECOVERY_ON_ANY_NODE = "index.shared_filesystem.recover_on_any_node";
     public static final String INDEX_UUID_NA_VALUE = "_na_";
     public static final String SETTING_KEYSPACE_NAME = "index.keyspace_name"; 
+    // _id of compound primary keys is a base64url CompositeType instead of a JSON array, set at index creation.
+    public static final String SETTING_BINARY_ID = "index.binary_id";
     
 
     // hard-coded hash function as of 2.0
@@ -50,6 +50,7 @@ import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.ActionRunnable;
 import org.elasticsearch.action.admin.indices.alias.Alias;
 import org.elasticsearch.action.admin.indices.create.CreateIndexClusterStateUpdateRequest;
+import org.elasticsearch.cassandra.ContinuousPercolator;
 import org.elasticsearch.cassandra.gateway.CassandraGatewayService;
 import org.elasticsearch.cluster.AckedClusterStateUpdateTask;
 import org.elasticsearch.cluster.ClusterService;
@@ -460,6 +461,9 @@ public class MetaDataCreateIndexService extends AbstractComponent {
                                             indicesService.indexService(indexMetaData.getIndex()).mapperService().documentMapper(mappingMd.type()));
                                 }
                             }
+                            if (indexMetaData.getSettings().getAsBoolean(ContinuousPercolator.INDEX_PERCOLATOR_CONTINUOUS_ENABLE, false)) {
+                                clusterService.createPercolatorMatchesTable(keyspaceName);
+                            }
                            
                         }
                     } catch (Exception e) {
@@ -328,6 +328,11 @@ public class MetaDataMappingService extends AbstractComponent {
             public boolean doPresistMetaData() {
                 return true;
             }
+
+            @Override
+            public Object batchKey() {
+                return refreshOrUpdateMutex;
+            }
             
             public void onFailure(String source, Throwable t) {
                 listener.onFailure(t);
@@ -381,6 +386,11 @@ public class MetaDataMappingService extends AbstractComponent {
         clusterService.submitStateUpdateTask("refresh-mapping [" + index + "][" + Arrays.toString(types) + "]", Priority.URGENT, new ProcessedClusterStateUpdateTask() {
             private volatile List<MappingTask> allTasks;
 
+            @Override
+            public Object batchKey() {
+                return refreshOrUpdateMutex;
+            }
+
             @Override
             public void onFailure(String source, Throwable t) {
                 logger.warn("failure during [{}]", t, source);
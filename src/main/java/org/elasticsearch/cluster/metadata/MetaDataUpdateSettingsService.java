@@ -26,6 +26,7 @@ import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsClusterStateUpdateRequest;
 import org.elasticsearch.action.admin.indices.upgrade.post.UpgradeSettingsClusterStateUpdateRequest;
 import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.cassandra.ContinuousPercolator;
 import org.elasticsearch.cluster.*;
 import org.elasticsearch.cluster.ack.ClusterStateUpdateResponse;
 import org.elasticsearch.cluster.block.ClusterBlocks;
@@ -224,7 +225,7 @@ public class MetaDataUpdateSettingsService extends AbstractComponent implements
             }
             
             @Override
-            public ClusterState execute(ClusterState currentState) {
+            public ClusterState execute(ClusterState currentState) throws Exception {
                 String[] actualIndices = indexNameExpressionResolver.concreteIndices(currentState, IndicesOptions.strictExpand(), request.indices());
                 RoutingTable.Builder routingTableBuilder = RoutingTable.builder(MetaDataUpdateSettingsService.this.clusterService, currentState);
                 MetaData.Builder metaDataBuilder = MetaData.builder(currentState.metaData());
@@ -306,6 +307,13 @@ public class MetaDataUpdateSettingsService extends AbstractComponent implements
                     }
                 }
 
+                // the matches table of the continuous percolator is created once, by the master.
+                if (openSettings.getAsBoolean(ContinuousPercolator.INDEX_PERCOLATOR_CONTINUOUS_ENABLE, false)) {
+                    for (String index : openIndices) {
+                        MetaDataUpdateSettingsService.this.clusterService.createPercolatorMatchesTable(currentState.metaData().index(index).keyspace());
+                    }
+                }
+
                 if (!openIndices.isEmpty()) {
                     String[] indices = openIndices.toArray(new String[openIndices.size()]);
                     metaDataBuilder.updateSettings(openSettings, indices);
@@ -19,9 +19,16 @@
 
 package org.elasticsearch.cluster.routing;
 
+import org.apache.cassandra.config.DatabaseDescriptor;
+import org.apache.cassandra.dht.Token;
+import org.apache.cassandra.gms.FailureDetector;
+import org.apache.cassandra.locator.IEndpointSnitch;
+import org.apache.cassandra.service.StorageService;
+import org.apache.cassandra.utils.FBUtilities;
 import org.elasticsearch.Version;
 import org.elasticsearch.cluster.ClusterState;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.node.DiscoveryNode;
 import org.elasticsearch.cluster.node.DiscoveryNodes;
 import org.elasticsearch.cluster.routing.allocation.decider.AwarenessAllocationDecider;
 import org.elasticsearch.common.Nullable;
@@ -35,9 +42,11 @@ import org.elasticsearch.index.IndexNotFoundException;
 import org.elasticsearch.index.shard.ShardId;
 import org.elasticsearch.index.shard.ShardNotFoundException;
 
+import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -68,6 +77,65 @@ public class OperationRouting extends AbstractComponent {
         return preferenceActiveShardIterator(shards(clusterState, index, type, id, routing), clusterState.nodes().localNodeId(), clusterState.nodes(), preference);
     }
 
+    /**
+     * Get shards for a document with a known partition token: the shards of the live replicas in the local datacenter,
+     * sorted by the snitch with the local node first, so that the row is read locally on the target node.
+     * Then the default shards as a fallback. Without token or with a preference, this is the default routing.
+     */
+    public ShardIterator getShards(ClusterState clusterState, String index, String type, String id, @Nullable Token token, @Nullable String routing, @Nullable String preference) {
+        ShardIterator defaultIterator = getShards(clusterState, index, type, id, routing, preference);
+        if (token == null || (preference != null && !preference.isEmpty())) {
+            return defaultIterator;
+        }
+        IEndpointSnitch snitch = DatabaseDescriptor.getEndpointSnitch();
+        InetAddress localAddress = FBUtilities.getBroadcastAddress();
+        String localDc = snitch.getDatacenter(localAddress);
+        List<InetAddress> replicas = new ArrayList<>();
+        for (InetAddress endpoint : StorageService.instance.getNaturalEndpoints(indexMetaData(clusterState, index).keyspace(), token)) {
+            if (localDc.equals(snitch.getDatacenter(endpoint)) && FailureDetector.instance.isAlive(endpoint)) {
+                replicas.add(endpoint);
+            }
+        }
+        if (replicas.isEmpty()) {
+            return defaultIterator;
+        }
+        snitch.sortByProximity(localAddress, replicas);
+        if (replicas.remove(localAddress)) {
+            replicas.add(0, localAddress);
+        }
+
+        IndexRoutingTable indexRoutingTable = indexRoutingTable(clusterState, index);
+        List<ShardRouting> shards = new ArrayList<>(replicas.size() + defaultIterator.size());
+        Set<String> nodeIds = new HashSet<>();
+        for (InetAddress replica : replicas) {
+            DiscoveryNode node = clusterState.nodes().findByInetAddress(replica);
+            if (node == null) {
+                continue;
+            }
+            ShardRouting shardRouting = activeShard(indexRoutingTable, node.id());
+            if (shardRouting != null && nodeIds.add(node.id())) {
+                shards.add(shardRouting);
+            }
+        }
+        for (ShardRouting shardRouting = defaultIterator.nextOrNull(); shardRouting != null; shardRouting = defaultIterator.nextOrNull()) {
+            if (nodeIds.add(shardRouting.currentNodeId())) {
+                shards.add(shardRouting);
+            }
+        }
+        return new PlainShardIterator(defaultIterator.shardId(), shards);
+    }
+
+    private static ShardRouting activeShard(IndexRoutingTable indexRoutingTable, String nodeId) {
+        for (IndexShardRoutingTable indexShardRoutingTable : indexRoutingTable) {
+            for (ShardRouting shardRouting : indexShardRoutingTable) {
+                if (shardRouting.active() && nodeId.equals(shardRouting.currentNodeId())) {
+                    return shardRouting;
+                }
+            }
+        }
+        return null;
+    }
+
     public ShardIterator getShards(ClusterState clusterState, String index, int shardId, @Nullable String preference) {
         return preferenceActiveShardIterator(shards(clusterState, index, shardId), clusterState.nodes().localNodeId(), clusterState.nodes(), preference);
     }
@@ -24,8 +24,10 @@ import static org.elasticsearch.common.util.concurrent.EsExecutors.daemonThreadF
 import java.io.IOException;
 import java.net.InetAddress;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -160,6 +162,9 @@ public class InternalClusterService extends AbstractLifecycleComponent<ClusterSe
 
     private final Queue<NotifyTimeout> onGoingTimeouts = ConcurrentCollections.newQueue();
 
+    // pending update tasks per batch key, drained by the first of them to run on the update thread
+    private final ConcurrentMap<Object, Queue<UpdateTask>> batchedUpdateTasks = ConcurrentCollections.newConcurrentMap();
+
     private volatile ClusterState clusterState;
 
     private final ClusterBlocks.Builder initialBlocks;
@@ -361,11 +366,28 @@ public class InternalClusterService extends AbstractLifecycleComponent<ClusterSe
         }
         try {
             final UpdateTask task = new UpdateTask(source, priority, updateTask);
+            if (task.batchKey != null) {
+                Queue<UpdateTask> queue = batchedUpdateTasks.get(task.batchKey);
+                if (queue == null) {
+                    Queue<UpdateTask> newQueue = new ArrayDeque<>();
+                    queue = batchedUpdateTasks.putIfAbsent(task.batchKey, newQueue);
+                    if (queue == null) {
+                        queue = newQueue;
+                    }
+                }
+                synchronized (queue) {
+                    queue.add(task);
+                }
+            }
             if (updateTask instanceof TimeoutClusterStateUpdateTask) {
                 final TimeoutClusterStateUpdateTask timeoutUpdateTask = (TimeoutClusterStateUpdateTask) updateTask;
                 updateTasksExecutor.execute(task, threadPool.scheduler(), timeoutUpdateTask.timeout(), new Runnable() {
                     @Override
                     public void run() {
+                        if (!task.removeFromBatch()) {
+                            // already executed as part of a batch
+                            return;
+                        }
                         threadPool.generic().execute(new Runnable() {
                             @Override
                             public void run() {
@@ -445,10 +467,13 @@ public class InternalClusterService extends AbstractLifecycleComponent<ClusterSe
     class UpdateTask extends SourcePrioritizedRunnable {
 
         public final ClusterStateUpdateTask updateTask;
+        @Nullable
+        public final Object batchKey;
 
         UpdateTask(String source, Priority priority, ClusterStateUpdateTask updateTask) {
             super(priority, source);
             this.updateTask = updateTask;
+            this.batchKey = updateTask.batchKey();
         }
 
         @Override
@@ -457,32 +482,62 @@ public class InternalClusterService extends AbstractLifecycleComponent<ClusterSe
                 logger.debug("processing [{}]: ignoring, cluster_service not started", source);
                 return;
             }
-            logger.debug("processing [{}]: execute", source);
+            final List<UpdateTask> batch = drainBatch();
+            if (batch.isEmpty()) {
+                logger.trace("processing [{}]: ignoring, already executed in a previous batch", source);
+                return;
+            }
+            final String batchSource = batchSource(batch);
+            logger.debug("processing [{}]: execute", batchSource);
             ClusterState previousClusterState = clusterState;
-            ClusterState newClusterState;
+            ClusterState newClusterState = previousClusterState;
             long startTimeNS = System.nanoTime();
+            final List<UpdateTask> executed = new ArrayList<>(batch.size());
+            boolean doPresistMetaData = false;
+            for (UpdateTask task : batch) {
+                try {
+                    newClusterState = task.updateTask.execute(newClusterState);
+                    doPresistMetaData |= task.updateTask.doPresistMetaData();
+                    executed.add(task);
+                } catch (Throwable e) {
+                    TimeValue executionTime = TimeValue.timeValueMillis(Math.max(0, TimeValue.nsecToMSec(System.nanoTime() - startTimeNS)));
+                    if (logger.isTraceEnabled()) {
+                        StringBuilder sb = new StringBuilder("failed to execute cluster state update in ").append(executionTime).append(", state:\nversion [").append(newClusterState.version()).append("], source [").append(task.source).append("]\n");
+                        sb.append(newClusterState.nodes().prettyPrint());
+                        sb.append(newClusterState.routingTable().prettyPrint());
+                        sb.append(newClusterState.getRoutingNodes().prettyPrint());
+                        logger.trace(sb.toString(), e);
+                    }
+                    warnAboutSlowTaskIfNeeded(executionTime, task.source);
+                    task.updateTask.onFailure(task.source, e);
+                }
+            }
+            if (executed.isEmpty()) {
+                return;
+            }
+
             try {
-                newClusterState = updateTask.execute(previousClusterState);
-                String newClusterStateMetaDataString = MetaData.builder().toXContent(newClusterState.metaData(), InternalCassandraClusterService.persistedParams);
-                String previousClusterStateMetaDataString = MetaData.builder().toXContent(previousClusterState.metaData(), InternalCassandraClusterService.persistedParams);
-                if (!newClusterStateMetaDataString.equals(previousClusterStateMetaDataString) && !newClusterState.blocks().disableStatePersistence() && updateTask.doPresistMetaData()) {
+                if (doPresistMetaData && !newClusterState.blocks().disableStatePersistence()
+                        && !InternalCassandraClusterService.isPersistedMetaDataEquals(previousClusterState.metaData(), newClusterState.metaData())) {
                     // update MeteData.version+cluster_uuid
                     newClusterState = ClusterState.builder(newClusterState)
                                         .metaData(MetaData.builder(newClusterState.metaData()).incrementVersion().build())
                                         .incrementVersion()
                                         .build();
-                    // try to persist new metadata in cassandra.
+                    // try to persist new metadata in cassandra, once for the whole batch.
                     try {
-                        persistMetaData(previousClusterState.metaData(), newClusterState.metaData(), source);
+                        persistMetaData(previousClusterState.metaData(), newClusterState.metaData(), batchSource);
                     } catch (ConcurrentMetaDataUpdateException e) {
-                        // should replay the task later when current cluster state will match the expected metadata uuid and version
+                        // should replay the tasks later when current cluster state will match the expected metadata uuid and version
                         logger.debug("Cannot overwrite persistent metadata, will resubmit after next metadata update");
                         InternalClusterService.this.addFirst(new ClusterStateListener() {
                             @Override
                             public void clusterChanged(ClusterChangedEvent event) {
                                 if (event.metaDataChanged()) {
-                                    logger.debug("resubmit task source={} after metadata update", source);
-                                    InternalClusterService.this.submitStateUpdateTask(source, Priority.URGENT, updateTask);
+                                    for (UpdateTask task : executed) {
+                                        logger.debug("resubmit task source={} after metadata update", task.source);
+                                        InternalClusterService.this.submitStateUpdateTask(task.source, Priority.URGENT, task.updateTask);
+                                    }
                                     InternalClusterService.this.remove(this); // replay only once.
                                 }
                             }
@@ -490,32 +545,28 @@ public class InternalClusterService extends AbstractLifecycleComponent<ClusterSe
                         return;
                     }
                 }
-                
             } catch (Throwable e) {
                 TimeValue executionTime = TimeValue.timeValueMillis(Math.max(0, TimeValue.nsecToMSec(System.nanoTime() - startTimeNS)));
-                if (logger.isTraceEnabled()) {
-                    StringBuilder sb = new StringBuilder("failed to execute cluster state update in ").append(executionTime).append(", state:\nversion [").append(previousClusterState.version()).append("], source [").append(source).append("]\n");
-                    sb.append(previousClusterState.nodes().prettyPrint());
-                    sb.append(previousClusterState.routingTable().prettyPrint());
-                    sb.append(previousClusterState.getRoutingNodes().prettyPrint());
-                    logger.trace(sb.toString(), e);
+                logger.warn("failed to persist metadata for [{}] in {}", e, batchSource, executionTime);
+                for (UpdateTask task : executed) {
+                    task.updateTask.onFailure(task.source, e);
                 }
-                warnAboutSlowTaskIfNeeded(executionTime, source);
-                updateTask.onFailure(source, e);
                 return;
             }
 
             if (previousClusterState == newClusterState) {
-                if (updateTask instanceof AckedClusterStateUpdateTask) {
-                    //no need to wait for ack if nothing changed, the update can be counted as acknowledged
-                    ((AckedClusterStateUpdateTask) updateTask).onAllNodesAcked(null);
-                }
-                if (updateTask instanceof ProcessedClusterStateUpdateTask) {
-                    ((ProcessedClusterStateUpdateTask) updateTask).clusterStateProcessed(source, previousClusterState, newClusterState);
+                for (UpdateTask task : executed) {
+                    if (task.updateTask instanceof AckedClusterStateUpdateTask) {
+                        //no need to wait for ack if nothing changed, the update can be counted as acknowledged
+                        ((AckedClusterStateUpdateTask) task.updateTask).onAllNodesAcked(null);
+                    }
+                    if (task.updateTask instanceof ProcessedClusterStateUpdateTask) {
+                        ((ProcessedClusterStateUpdateTask) task.updateTask).clusterStateProcessed(task.source, previousClusterState, newClusterState);
+                    }
                 }
                 TimeValue executionTime = TimeValue.timeValueMillis(Math.max(0, TimeValue.nsecToMSec(System.nanoTime() - startTimeNS)));
-                logger.debug("processing [{}]: took {} no change in cluster_state", source, executionTime);
-                warnAboutSlowTaskIfNeeded(executionTime, source);
+                logger.debug("processing [{}]: took {} no change in cluster_state", batchSource, executionTime);
+                warnAboutSlowTaskIfNeeded(executionTime, batchSource);
                 return;
             }
 
@@ -523,20 +574,20 @@ public class InternalClusterService extends AbstractLifecycleComponent<ClusterSe
                 newClusterState.status(ClusterState.ClusterStateStatus.BEING_APPLIED);
 
                 if (logger.isTraceEnabled()) {
-                    StringBuilder sb = new StringBuilder("cluster state updated, source [").append(source).append("]\n");
+                    StringBuilder sb = new StringBuilder("cluster state updated, source [").append(batchSource).append("]\n");
                     sb.append(newClusterState.prettyPrint());
                     logger.trace(sb.toString());
                 } else if (logger.isDebugEnabled()) {
-                    logger.debug("cluster state updated, version [{}], source [{}]", newClusterState.version(), source);
+                    logger.debug("cluster state updated, version [{}], source [{}]", newClusterState.version(), batchSource);
                 }
 
-                ClusterChangedEvent clusterChangedEvent = new ClusterChangedEvent(source, newClusterState, previousClusterState);
+                ClusterChangedEvent clusterChangedEvent = new ClusterChangedEvent(batchSource, newClusterState, previousClusterState);
                 // new cluster state, notify all listeners
                 final DiscoveryNodes.Delta nodesDelta = clusterChangedEvent.nodesDelta();
                 if (nodesDelta.hasChanges() && logger.isInfoEnabled()) {
                     String summary = nodesDelta.shortSummary();
                     if (summary.length() > 0) {
-                        logger.info("{}, reason: {}", summary, source);
+                        logger.info("{}, reason: {}", summary, batchSource);
                     }
                 }
 
@@ -560,24 +611,8 @@ public class InternalClusterService extends AbstractLifecycleComponent<ClusterSe
                 // publish in gossip state the applied metadata.uuid and version
                 discoveryService.publish(newClusterState);// publish in gossip state the applied metadata.uuid and version
              
-                // wait for acknowledgment
-                if (updateTask instanceof AckedClusterStateUpdateTask) {
-                    final AckedClusterStateUpdateTask ackedUpdateTask = (AckedClusterStateUpdateTask) updateTask;
-                    if (ackedUpdateTask.mustApplyMetaData() && newClusterState.nodes().size() > 1) {
-                        try {
-                            logger.info("Waiting MetaData.version = {} for all other alive nodes", newClusterState.metaData().version() );
-                            if (!discoveryService.awaitMetaDataVersion(newClusterState.metaData().version(), ackedUpdateTask.ackTimeout())) {
-                                logger.warn("Timeout waiting metadata version = {}", newClusterState.metaData().version());
-                            }
-                            ackedUpdateTask.onAllNodesAcked(null);
-                        } catch (InterruptedException e) {
-                            logger.warn("Interruped while waiting MetaData.version = {}",e, newClusterState.metaData().version() );
-                            ackedUpdateTask.onAllNodesAcked(e);
-                        }
-                    } else {
-                        ackedUpdateTask.onAllNodesAcked(null);
-                    }
-                }
+                // wait for acknowledgment, once for all acked tasks of the batch
+                waitForAcks(executed, newClusterState);
 
                 for (ClusterStateListener listener : preAppliedListeners) {
                     try {
@@ -605,17 +640,18 @@ public class InternalClusterService extends AbstractLifecycleComponent<ClusterSe
                     }
                 }
 
-
-                if (updateTask instanceof ProcessedClusterStateUpdateTask) {
-                    ((ProcessedClusterStateUpdateTask) updateTask).clusterStateProcessed(source, previousClusterState, newClusterState);
+                for (UpdateTask task : executed) {
+                    if (task.updateTask instanceof ProcessedClusterStateUpdateTask) {
+                        ((ProcessedClusterStateUpdateTask) task.updateTask).clusterStateProcessed(task.source, previousClusterState, newClusterState);
+                    }
                 }
 
                 TimeValue executionTime = TimeValue.timeValueMillis(Math.max(0, TimeValue.nsecToMSec(System.nanoTime() - startTimeNS)));
-                logger.debug("processing [{}]: took {} done applying updated cluster_state (version: {}, uuid: {})", source, executionTime, newClusterState.version(), newClusterState.stateUUID());
-                warnAboutSlowTaskIfNeeded(executionTime, source);
+                logger.debug("processing [{}]: took {} done applying updated cluster_state (version: {}, uuid: {})", batchSource, executionTime, newClusterState.version(), newClusterState.stateUUID());
+                warnAboutSlowTaskIfNeeded(executionTime, batchSource);
             } catch (Throwable t) {
                 TimeValue executionTime = TimeValue.timeValueMillis(Math.max(0, TimeValue.nsecToMSec(System.nanoTime() - startTimeNS)));
-                StringBuilder sb = new StringBuilder("failed to apply updated cluster state in ").append(executionTime).append(":\nversion [").append(newClusterState.version()).append("], uuid [").append(newClusterState.stateUUID()).append("], source [").append(source).append("]\n");
+                StringBuilder sb = new StringBuilder("failed to apply updated cluster state in ").append(executionTime).append(":\nversion [").append(newClusterState.version()).append("], uuid [").append(newClusterState.stateUUID()).append("], source [").append(batchSource).append("]\n");
                 sb.append(newClusterState.nodes().prettyPrint());
                 sb.append(newClusterState.routingTable().prettyPrint());
                 sb.append(newClusterState.getRoutingNodes().prettyPrint());
@@ -623,6 +659,88 @@ public class InternalClusterService extends AbstractLifecycleComponent<ClusterSe
                 // TODO: do we want to call updateTask.onFailure here?
             }
         }
+
+        /**
+         * Removes and returns all pending tasks sharing the batch key of this task, in submission order.
+         * Returns an empty list when this task was already executed by a previous batch.
+         */
+        private List<UpdateTask> drainBatch() {
+            if (batchKey == null) {
+                return Collections.singletonList(this);
+            }
+            final Queue<UpdateTask> queue = batchedUpdateTasks.get(batchKey);
+            final List<UpdateTask> batch = new ArrayList<>();
+            if (queue != null) {
+                synchronized (queue) {
+                    if (!queue.contains(this)) {
+                        return batch;
+                    }
+                    batch.addAll(queue);
+                    queue.clear();
+                }
+            }
+            return batch;
+        }
+
+        /**
+         * Removes this task from its pending batch, returns false if it was already drained by a batch.
+         */
+        boolean removeFromBatch() {
+            if (batchKey == null) {
+                return true;
+            }
+            final Queue<UpdateTask> queue = batchedUpdateTasks.get(batchKey);
+            if (queue == null) {
+                return false;
+            }
+            synchronized (queue) {
+                return queue.remove(this);
+            }
+        }
+
+        private void waitForAcks(List<UpdateTask> tasks, ClusterState newClusterState) {
+            TimeValue ackTimeout = null;
+            for (UpdateTask task : tasks) {
+                if (task.updateTask instanceof AckedClusterStateUpdateTask) {
+                    final AckedClusterStateUpdateTask ackedUpdateTask = (AckedClusterStateUpdateTask) task.updateTask;
+                    if (ackedUpdateTask.mustApplyMetaData() && (ackTimeout == null || ackedUpdateTask.ackTimeout().millis() > ackTimeout.millis())) {
+                        ackTimeout = ackedUpdateTask.ackTimeout();
+                    }
+                }
+            }
+            Throwable ackFailure = null;
+            if (ackTimeout != null && newClusterState.nodes().size() > 1) {
+                try {
+                    logger.info("Waiting MetaData.version = {} for all other alive nodes", newClusterState.metaData().version() );
+                    if (!discoveryService.awaitMetaDataVersion(newClusterState.metaData().version(), ackTimeout)) {
+                        logger.warn("Timeout waiting metadata version = {}", newClusterState.metaData().version());
+                    }
+                } catch (InterruptedException e) {
+                    logger.warn("Interruped while waiting MetaData.version = {}",e, newClusterState.metaData().version() );
+                    ackFailure = e;
+                }
+            }
+            for (UpdateTask task : tasks) {
+                if (task.updateTask instanceof AckedClusterStateUpdateTask) {
+                    final AckedClusterStateUpdateTask ackedUpdateTask = (AckedClusterStateUpdateTask) task.updateTask;
+                    ackedUpdateTask.onAllNodesAcked(ackedUpdateTask.mustApplyMetaData() ? ackFailure : null);
+                }
+            }
+        }
+    }
+
+    private static String batchSource(List<UpdateTask> batch) {
+        if (batch.size() == 1) {
+            return batch.get(0).source;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (UpdateTask task : batch) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(task.source);
+        }
+        return sb.toString();
     }
 
     private void warnAboutSlowTaskIfNeeded(TimeValue executionTime, String source) {
@@ -896,6 +1014,12 @@ public class InternalClusterService extends AbstractLifecycleComponent<ClusterSe
         
     }
 
+    @Override
+    public void createPercolatorMatchesTable(String ksName) throws IOException {
+        // TODO Auto-generated method stub
+        
+    }
+
     @Override
     public void createSecondaryIndices(String index) throws IOException {
         // TODO Auto-generated method stub
@@ -988,6 +1112,12 @@ public class InternalClusterService extends AbstractLifecycleComponent<ClusterSe
         return null;
     }
 
+    @Override
+    public Map<String, Row> fetchRowsInternal(String index, String type, Collection<String> requiredColumns, Collection<String> ids) throws ConfigurationException, IOException {
+        // TODO Auto-generated method stub
+        return null;
+    }
+
     @Override
     public Map<String, Object> rowAsMap(String index, String type, Row row) throws IOException {
         // TODO Auto-generated method stub
@@ -1036,6 +1166,14 @@ public class InternalClusterService extends AbstractLifecycleComponent<ClusterSe
         return null;
     }
 
+    /**
+     * The token of a document _id depends on the primary key of its table, computed by {@link org.elasticsearch.cassandra.cluster.InternalCassandraClusterService}.
+     */
+    @Override
+    public Token getToken(String index, String type, String id) throws IOException {
+        throw new UnsupportedOperationException("partition token of [" + index + "][" + type + "][" + id + "] requires the cassandra cluster service");
+    }
+
     @Override
     public void writeMetaDataAsComment(String metadataString) throws ConfigurationException, IOException {
         // TODO Auto-generated method stub
@@ -19,7 +19,9 @@
 
 package org.elasticsearch.common.io.stream;
 
+import org.apache.lucene.util.BytesRef;
 import org.elasticsearch.Version;
+import org.elasticsearch.common.bytes.BytesReference;
 
 import java.io.IOException;
 
@@ -44,6 +46,29 @@ public abstract class FilterStreamInput extends StreamInput {
         delegate.readBytes(b, offset, len);
     }
 
+    /**
+     * Delegates so that streams reading from a netty buffer keep returning slices of it instead of copies.
+     */
+    @Override
+    public BytesReference readBytesReference(int length) throws IOException {
+        return delegate.readBytesReference(length);
+    }
+
+    @Override
+    public BytesRef readBytesRef(int length) throws IOException {
+        return delegate.readBytesRef(length);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        return delegate.read(b, off, len);
+    }
+
+    @Override
+    public int available() throws IOException {
+        return delegate.available();
+    }
+
     @Override
     public void reset() throws IOException {
         delegate.reset();
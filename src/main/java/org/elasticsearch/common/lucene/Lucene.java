@@ -31,6 +31,7 @@ import org.apache.lucene.store.*;
 import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
 import org.apache.lucene.util.Counter;
+import org.apache.lucene.util.FixedBitSet;
 import org.apache.lucene.util.Version;
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.ExceptionsHelper;
@@ -818,6 +819,27 @@ public class Lucene {
         }
     }
 
+    /**
+     * Wraps the given reader into a {@link CodecReader} that only exposes the documents set in the given bits, eg.
+     * to pass a subset of a segment to {@link IndexWriter#addIndexes(CodecReader...)}.
+     */
+    public static CodecReader filterLiveDocs(LeafReader reader, final FixedBitSet liveDocs) throws IOException {
+        LeafReader unwrapped = FilterLeafReader.unwrap(reader);
+        CodecReader codecReader = unwrapped instanceof CodecReader ? (CodecReader) unwrapped : SlowCodecReaderWrapper.wrap(reader);
+        final int numDocs = liveDocs.cardinality();
+        return new FilterCodecReader(codecReader) {
+            @Override
+            public Bits getLiveDocs() {
+                return liveDocs;
+            }
+
+            @Override
+            public int numDocs() {
+                return numDocs;
+            }
+        };
+    }
+
     /**
      * Is it an empty {@link DocIdSet}?
      */
@@ -19,6 +19,7 @@
 
 package org.elasticsearch.common.lucene.search;
 
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.*;
 import org.apache.lucene.search.BooleanClause.Occur;
@@ -26,6 +27,7 @@ import org.apache.lucene.util.BytesRef;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.index.mapper.internal.TypeFieldMapper;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.regex.Pattern;
 
@@ -109,6 +111,45 @@ public class Queries {
         return false;
     }
 
+    /**
+     * Rewrites the leaves of boolean and constant score queries until they cannot be rewritten further, so that the
+     * structure of the query can be inspected. Unlike {@link IndexSearcher#rewrite(Query)}, multi-term queries such as
+     * numeric ranges are kept as is instead of being rewritten into their constant score wrapper.
+     */
+    public static Query rewriteStructure(Query query, IndexReader reader) throws IOException {
+        if (query instanceof BooleanQuery) {
+            BooleanQuery booleanQuery = (BooleanQuery) query;
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            builder.setDisableCoord(booleanQuery.isCoordDisabled());
+            builder.setMinimumNumberShouldMatch(booleanQuery.getMinimumNumberShouldMatch());
+            boolean changed = false;
+            for (BooleanClause clause : booleanQuery.clauses()) {
+                Query clauseQuery = rewriteStructure(clause.getQuery(), reader);
+                changed |= clauseQuery != clause.getQuery();
+                builder.add(clauseQuery, clause.getOccur());
+            }
+            if (!changed) {
+                return query;
+            }
+            Query rewritten = builder.build();
+            rewritten.setBoost(query.getBoost());
+            return rewritten;
+        } else if (query instanceof ConstantScoreQuery) {
+            Query innerQuery = ((ConstantScoreQuery) query).getQuery();
+            Query rewrittenInnerQuery = rewriteStructure(innerQuery, reader);
+            if (rewrittenInnerQuery == innerQuery) {
+                return query;
+            }
+            Query rewritten = new ConstantScoreQuery(rewrittenInnerQuery);
+            rewritten.setBoost(query.getBoost());
+            return rewritten;
+        } else if (query instanceof MultiTermQuery) {
+            return query;
+        }
+        Query rewritten = query.rewrite(reader);
+        return rewritten == query ? query : rewriteStructure(rewritten, reader);
+    }
+
     public static BooleanQuery applyMinimumShouldMatch(BooleanQuery query, @Nullable String minimumShouldMatch) {
         if (minimumShouldMatch == null) {
             return query;
@@ -25,6 +25,8 @@ import org.elasticsearch.common.io.stream.BytesStreamOutput;
 import org.elasticsearch.common.io.stream.ReleasableBytesStreamOutput;
 import org.elasticsearch.common.lease.Releasable;
 import org.elasticsearch.common.netty.ReleaseChannelFutureListener;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.util.concurrent.EsThreadPoolExecutor;
 import org.elasticsearch.http.HttpChannel;
 import org.elasticsearch.http.netty.pipelining.OrderedDownstreamChannelEvent;
 import org.elasticsearch.http.netty.pipelining.OrderedUpstreamMessageEvent;
@@ -32,9 +34,12 @@ import org.elasticsearch.rest.RestResponse;
 import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.rest.support.RestUtils;
 import org.jboss.netty.buffer.ChannelBuffer;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.*;
 import org.jboss.netty.handler.codec.http.*;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -76,13 +81,179 @@ public class NettyHttpChannel extends HttpChannel {
     @Override
     public void sendResponse(RestResponse response) {
         // Decide whether to close the connection or not.
-        boolean http10 = nettyRequest.getProtocolVersion().equals(HttpVersion.HTTP_1_0);
-        boolean close =
-                HttpHeaders.Values.CLOSE.equalsIgnoreCase(nettyRequest.headers().get(HttpHeaders.Names.CONNECTION)) ||
-                        (http10 && !HttpHeaders.Values.KEEP_ALIVE.equalsIgnoreCase(nettyRequest.headers().get(HttpHeaders.Names.CONNECTION)));
+        boolean close = isCloseConnection();
 
         // Build the response object.
-        HttpResponseStatus status = getStatus(response.status());
+        org.jboss.netty.handler.codec.http.HttpResponse resp = newResponse(response.status(), response.getHeaders(), close);
+
+        BytesReference content = response.content();
+        ChannelBuffer buffer;
+        boolean addedReleaseListener = false;
+        try {
+            buffer = content.toChannelBuffer();
+            resp.setContent(buffer);
+
+            // If our response doesn't specify a content-type header, set one
+            if (!resp.headers().contains(HttpHeaders.Names.CONTENT_TYPE)) {
+                resp.headers().add(HttpHeaders.Names.CONTENT_TYPE, response.contentType());
+            }
+
+            // If our response has no content-length, calculate and set one
+            if (!resp.headers().contains(HttpHeaders.Names.CONTENT_LENGTH)) {
+                resp.headers().add(HttpHeaders.Names.CONTENT_LENGTH, String.valueOf(buffer.readableBytes()));
+            }
+
+            ChannelFuture future;
+
+            if (orderedUpstreamMessageEvent != null) {
+                OrderedDownstreamChannelEvent downstreamChannelEvent = new OrderedDownstreamChannelEvent(orderedUpstreamMessageEvent, 0, true, resp);
+                future = downstreamChannelEvent.getFuture();
+                channel.getPipeline().sendDownstream(downstreamChannelEvent);
+            } else {
+                future = channel.write(resp);
+            }
+
+            if (content instanceof Releasable) {
+                future.addListener(new ReleaseChannelFutureListener((Releasable) content));
+                addedReleaseListener = true;
+            }
+
+            if (close) {
+                future.addListener(ChannelFutureListener.CLOSE);
+            }
+
+        } finally {
+            if (!addedReleaseListener && content instanceof Releasable) {
+                ((Releasable) content).close();
+            }
+        }
+    }
+
+    @Override
+    public boolean supportsChunkedResponse() {
+        return nettyRequest.getProtocolVersion().equals(HttpVersion.HTTP_1_1);
+    }
+
+    @Override
+    public OutputStream newChunkedOutput(RestStatus status, String contentType) throws IOException {
+        org.jboss.netty.handler.codec.http.HttpResponse resp = newResponse(status, null, false);
+        resp.setChunked(true);
+        resp.headers().add(HttpHeaders.Names.TRANSFER_ENCODING, HttpHeaders.Values.CHUNKED);
+        resp.headers().add(HttpHeaders.Names.CONTENT_TYPE, contentType);
+        ChunkedOutput out = new ChunkedOutput(isCloseConnection(), (int) transport.responseChunkSize.bytes());
+        out.write(resp, false);
+        return out;
+    }
+
+    @Override
+    public void abortChunkedResponse() {
+        channel.close();
+    }
+
+    @Override
+    public void executeChunked(Runnable task) {
+        EsThreadPoolExecutor executor = transport.responseStreamExecutor;
+        if (executor == null) {
+            throw new EsRejectedExecutionException("http transport is stopped");
+        }
+        executor.execute(task);
+    }
+
+    /**
+     * Writes the content in HTTP chunks of at most chunkSize bytes. The producer, running on the response stream executor
+     * of the transport, waits for the previous chunk to be written when the channel is not writable, so at most a few chunks
+     * are buffered whatever the response size and netty threads are never blocked. The wait is bounded by the response
+     * stream write timeout of the transport, the response is aborted when it expires.
+     */
+    private class ChunkedOutput extends OutputStream {
+        private final boolean close;
+        private final byte[] buffer;
+        private int count = 0;
+        private int subsequence = 0;
+        private ChannelFuture lastFuture;
+        private boolean closed = false;
+
+        ChunkedOutput(boolean close, int chunkSize) {
+            this.close = close;
+            this.buffer = new byte[chunkSize];
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            if (count > 0) {
+                write(new DefaultHttpChunk(ChannelBuffers.copiedBuffer(buffer, 0, count)), false);
+                count = 0;
+            }
+        }
+
+        private void write(Object message, boolean last) throws IOException {
+            if (!channel.isConnected()) {
+                throw new IOException("channel closed while streaming the response");
+            }
+            if (lastFuture != null && !channel.isWritable()) {
+                // back pressure, wait for the previous chunk to be written, on a response stream thread.
+                try {
+                    if (!lastFuture.await(transport.responseStreamWriteTimeout.millis())) {
+                        throw new IOException("chunk not written within [" + transport.responseStreamWriteTimeout + "], aborting the response");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while streaming the response", e);
+                }
+            }
+            if (orderedUpstreamMessageEvent != null) {
+                OrderedDownstreamChannelEvent downstreamChannelEvent = new OrderedDownstreamChannelEvent(orderedUpstreamMessageEvent, subsequence++, last, message);
+                lastFuture = downstreamChannelEvent.getFuture();
+                channel.getPipeline().sendDownstream(downstreamChannelEvent);
+            } else {
+                lastFuture = channel.write(message);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            flushChunk();
+            write(HttpChunk.LAST_CHUNK, true);
+            if (close) {
+                lastFuture.addListener(ChannelFutureListener.CLOSE);
+            }
+        }
+    }
+
+    private boolean isCloseConnection() {
+        boolean http10 = nettyRequest.getProtocolVersion().equals(HttpVersion.HTTP_1_0);
+        return HttpHeaders.Values.CLOSE.equalsIgnoreCase(nettyRequest.headers().get(HttpHeaders.Names.CONNECTION)) ||
+                (http10 && !HttpHeaders.Values.KEEP_ALIVE.equalsIgnoreCase(nettyRequest.headers().get(HttpHeaders.Names.CONNECTION)));
+    }
+
+    private org.jboss.netty.handler.codec.http.HttpResponse newResponse(RestStatus restStatus, Map<String, List<String>> customHeaders, boolean close) {
+        boolean http10 = nettyRequest.getProtocolVersion().equals(HttpVersion.HTTP_1_0);
+        HttpResponseStatus status = getStatus(restStatus);
         org.jboss.netty.handler.codec.http.HttpResponse resp;
         if (http10) {
             resp = new DefaultHttpResponse(HttpVersion.HTTP_1_0, status);
@@ -124,7 +295,6 @@ public class NettyHttpChannel extends HttpChannel {
         }
 
         // Add all custom headers
-        Map<String, List<String>> customHeaders = response.getHeaders();
         if (customHeaders != null) {
             for (Map.Entry<String, List<String>> headerEntry : customHeaders.entrySet()) {
                 for (String headerValue : headerEntry.getValue()) {
@@ -133,63 +303,22 @@ public class NettyHttpChannel extends HttpChannel {
             }
         }
 
-        BytesReference content = response.content();
-        ChannelBuffer buffer;
-        boolean addedReleaseListener = false;
-        try {
-            buffer = content.toChannelBuffer();
-            resp.setContent(buffer);
-
-            // If our response doesn't specify a content-type header, set one
-            if (!resp.headers().contains(HttpHeaders.Names.CONTENT_TYPE)) {
-                resp.headers().add(HttpHeaders.Names.CONTENT_TYPE, response.contentType());
-            }
-
-            // If our response has no content-length, calculate and set one
-            if (!resp.headers().contains(HttpHeaders.Names.CONTENT_LENGTH)) {
-                resp.headers().add(HttpHeaders.Names.CONTENT_LENGTH, String.valueOf(buffer.readableBytes()));
-            }
-
-            if (transport.resetCookies) {
-                String cookieString = nettyRequest.headers().get(HttpHeaders.Names.COOKIE);
-                if (cookieString != null) {
-                    CookieDecoder cookieDecoder = new CookieDecoder();
-                    Set<Cookie> cookies = cookieDecoder.decode(cookieString);
-                    if (!cookies.isEmpty()) {
-                        // Reset the cookies if necessary.
-                        CookieEncoder cookieEncoder = new CookieEncoder(true);
-                        for (Cookie cookie : cookies) {
-                            cookieEncoder.addCookie(cookie);
-                        }
-                        resp.headers().add(HttpHeaders.Names.SET_COOKIE, cookieEncoder.encode());
+        if (transport.resetCookies) {
+            String cookieString = nettyRequest.headers().get(HttpHeaders.Names.COOKIE);
+            if (cookieString != null) {
+                CookieDecoder cookieDecoder = new CookieDecoder();
+                Set<Cookie> cookies = cookieDecoder.decode(cookieString);
+                if (!cookies.isEmpty()) {
+                    // Reset the cookies if necessary.
+                    CookieEncoder cookieEncoder = new CookieEncoder(true);
+                    for (Cookie cookie : cookies) {
+                        cookieEncoder.addCookie(cookie);
                     }
+                    resp.headers().add(HttpHeaders.Names.SET_COOKIE, cookieEncoder.encode());
                 }
             }
-
-            ChannelFuture future;
-
-            if (orderedUpstreamMessageEvent != null) {
-                OrderedDownstreamChannelEvent downstreamChannelEvent = new OrderedDownstreamChannelEvent(orderedUpstreamMessageEvent, 0, true, resp);
-                future = downstreamChannelEvent.getFuture();
-                channel.getPipeline().sendDownstream(downstreamChannelEvent);
-            } else {
-                future = channel.write(resp);
-            }
-
-            if (content instanceof Releasable) {
-                future.addListener(new ReleaseChannelFutureListener((Releasable) content));
-                addedReleaseListener = true;
-            }
-
-            if (close) {
-                future.addListener(ChannelFutureListener.CLOSE);
-            }
-
-        } finally {
-            if (!addedReleaseListener && content instanceof Releasable) {
-                ((Releasable) content).close();
-            }
         }
+        return resp;
     }
 
     private static final HttpResponseStatus TOO_MANY_REQUESTS = new HttpResponseStatus(429, "Too Many Requests");
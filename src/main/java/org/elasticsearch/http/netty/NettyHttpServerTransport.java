@@ -31,8 +31,10 @@ import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.transport.*;
 import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.util.BigArrays;
 import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.util.concurrent.EsThreadPoolExecutor;
 import org.elasticsearch.http.*;
 import org.elasticsearch.http.netty.pipelining.HttpPipeliningHandler;
 import org.elasticsearch.monitor.jvm.JvmInfo;
@@ -88,6 +90,14 @@ public class NettyHttpServerTransport extends AbstractLifecycleComponent<HttpSer
     protected final ByteSizeValue maxInitialLineLength;
     protected final ByteSizeValue maxHeaderSize;
     protected final ByteSizeValue maxChunkSize;
+    protected final ByteSizeValue responseChunkSize;
+    protected final int responseStreamThreads;
+    protected final int responseStreamQueueSize;
+    // a chunk not written within this timeout aborts the response, so that slow clients cannot hold the stream threads.
+    protected final TimeValue responseStreamWriteTimeout;
+
+    // produces chunked responses on threads that may wait for the channel to be writable, instead of netty or search threads.
+    protected volatile EsThreadPoolExecutor responseStreamExecutor;
 
     protected final int workerCount;
 
@@ -146,6 +156,7 @@ public class NettyHttpServerTransport extends AbstractLifecycleComponent<HttpSer
 
         ByteSizeValue maxContentLength = settings.getAsBytesSize("http.netty.max_content_length", settings.getAsBytesSize("http.max_content_length", new ByteSizeValue(100, ByteSizeUnit.MB)));
         this.maxChunkSize = settings.getAsBytesSize("http.netty.max_chunk_size", settings.getAsBytesSize("http.max_chunk_size", new ByteSizeValue(8, ByteSizeUnit.KB)));
+        this.responseChunkSize = settings.getAsBytesSize("http.netty.response_chunk_size", settings.getAsBytesSize("http.response_chunk_size", new ByteSizeValue(64, ByteSizeUnit.KB)));
         this.maxHeaderSize = settings.getAsBytesSize("http.netty.max_header_size", settings.getAsBytesSize("http.max_header_size", new ByteSizeValue(8, ByteSizeUnit.KB)));
         this.maxInitialLineLength = settings.getAsBytesSize("http.netty.max_initial_line_length", settings.getAsBytesSize("http.max_initial_line_length", new ByteSizeValue(4, ByteSizeUnit.KB)));
         // don't reset cookies by default, since I don't think we really need to
@@ -154,6 +165,9 @@ public class NettyHttpServerTransport extends AbstractLifecycleComponent<HttpSer
         this.maxCumulationBufferCapacity = settings.getAsBytesSize("http.netty.max_cumulation_buffer_capacity", null);
         this.maxCompositeBufferComponents = settings.getAsInt("http.netty.max_composite_buffer_components", -1);
         this.workerCount = settings.getAsInt("http.netty.worker_count", EsExecutors.boundedNumberOfProcessors(settings) * 2);
+        this.responseStreamThreads = settings.getAsInt("http.netty.response_stream_threads", workerCount);
+        this.responseStreamQueueSize = settings.getAsInt("http.netty.response_stream_queue_size", 1000);
+        this.responseStreamWriteTimeout = settings.getAsTime("http.netty.response_stream_write_timeout", TimeValue.timeValueSeconds(30));
         this.blockingServer = settings.getAsBoolean("http.netty.http.blocking_server", settings.getAsBoolean(TCP_BLOCKING_SERVER, settings.getAsBoolean(TCP_BLOCKING, false)));
         this.port = settings.get("http.netty.port", settings.get("http.port", "9200-9300"));
         this.bindHost = settings.get("http.netty.bind_host", settings.get("http.bind_host", settings.get("http.host")));
@@ -210,6 +224,9 @@ public class NettyHttpServerTransport extends AbstractLifecycleComponent<HttpSer
     @Override
     protected void doStart() {
         this.serverOpenChannels = new OpenChannelsHandler(logger);
+        // bounded queue, responses beyond it are rejected before their headers are sent.
+        this.responseStreamExecutor = EsExecutors.newFixed("http_response_stream", responseStreamThreads, responseStreamQueueSize,
+                daemonThreadFactory(settings, "http_response_stream"));
 
         if (blockingServer) {
             serverBootstrap = new ServerBootstrap(new OioServerSocketChannelFactory(
@@ -318,6 +335,11 @@ public class NettyHttpServerTransport extends AbstractLifecycleComponent<HttpSer
             serverBootstrap.releaseExternalResources();
             serverBootstrap = null;
         }
+
+        if (responseStreamExecutor != null) {
+            responseStreamExecutor.shutdownNow();
+            responseStreamExecutor = null;
+        }
     }
 
     @Override
@@ -36,6 +36,7 @@ import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.join.BitSetProducer;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.Accountables;
 import org.elasticsearch.ExceptionsHelper;
@@ -519,6 +520,13 @@ public abstract class Engine implements Closeable {
      */
     public abstract void forceMerge(boolean flush, int maxNumSegments, boolean onlyExpungeDeletes, boolean upgrade, boolean upgradeOnlyAncientSegments) throws EngineException, IOException;
 
+    /**
+     * Adds the live documents of the index stored in the given directory, without analysing them again. Documents
+     * whose <tt>_uid</tt> is already live in this engine are skipped, the incoming index must have been written with
+     * the mappings of this shard.
+     */
+    public abstract void addIndexes(Directory directory) throws EngineException;
+
     /**
      * Snapshots the index and returns a handle to it. If needed will try and "commit" the
      * lucene index to make sure we have a "fresh" copy of the files to snapshot.
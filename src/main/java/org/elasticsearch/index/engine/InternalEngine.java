@@ -19,6 +19,7 @@
 
 package org.elasticsearch.index.engine;
 
+import org.apache.lucene.index.CodecReader;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter.IndexReaderWarmer;
@@ -29,11 +30,15 @@ import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.LiveIndexWriterConfig;
 import org.apache.lucene.index.MergePolicy;
 import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.index.PostingsEnum;
 import org.apache.lucene.index.SegmentCommitInfo;
 import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.SearcherFactory;
@@ -41,7 +46,9 @@ import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.LockObtainFailedException;
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.FixedBitSet;
 import org.apache.lucene.util.IOUtils;
 import org.apache.lucene.util.InfoStream;
 import org.elasticsearch.ElasticsearchException;
@@ -58,11 +65,13 @@ import org.elasticsearch.common.lucene.uid.Versions;
 import org.elasticsearch.common.math.MathUtils;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.util.concurrent.AbstractRunnable;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
 import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 import org.elasticsearch.common.util.concurrent.ReleasableLock;
 import org.elasticsearch.index.deletionpolicy.SnapshotIndexCommit;
 import org.elasticsearch.index.indexing.ShardIndexingService;
 import org.elasticsearch.index.mapper.Uid;
+import org.elasticsearch.index.mapper.internal.UidFieldMapper;
 import org.elasticsearch.index.merge.MergeStats;
 import org.elasticsearch.index.merge.OnGoingMerge;
 import org.elasticsearch.index.search.nested.IncludeNestedDocsQuery;
@@ -111,6 +120,9 @@ public class InternalEngine extends Engine {
 
     private final Lock flushLock = new ReentrantLock();
     private final ReentrantLock optimizeLock = new ReentrantLock();
+    private final ReentrantLock addIndexesLock = new ReentrantLock();
+    // last operation per uid while segments are added, replayed over the added documents, see #addIndexes
+    private volatile Map<BytesRef, Operation> addIndexesConcurrentOps;
 
     // A uid (in the form of BytesRef) to the version map
     // we use the hashed variant since we iterate over it and check removal and additions on existing keys
@@ -452,6 +464,7 @@ public class InternalEngine extends Engine {
 
         versionMap.putUnderLock(create.uid().bytes(), new VersionValue(updatedVersion, translogLocation));
         create.setTranslogLocation(translogLocation);
+        recordAddIndexesConcurrentOp(create.uid(), create);
         indexingService.postCreateUnderLock(create);
     }
 
@@ -554,6 +567,7 @@ public class InternalEngine extends Engine {
 
             versionMap.putUnderLock(index.uid().bytes(), new VersionValue(updatedVersion, translogLocation));
             index.setTranslogLocation(translogLocation);
+            recordAddIndexesConcurrentOp(index.uid(), index);
             indexingService.postIndexUnderLock(index);
             return created;
         }
@@ -623,6 +637,7 @@ public class InternalEngine extends Engine {
             Translog.Location translogLocation = translog.add(new Translog.Delete(delete));
             versionMap.putUnderLock(delete.uid().bytes(), new DeleteVersionValue(updatedVersion, engineConfig.getThreadPool().estimatedTimeInMillis(), translogLocation));
             delete.setTranslogLocation(translogLocation);
+            recordAddIndexesConcurrentOp(delete.uid(), delete);
             indexingService.postDeleteUnderLock(delete);
         }
     }
@@ -885,6 +900,141 @@ public class InternalEngine extends Engine {
         }
     }
 
+    @Override
+    public void addIndexes(Directory directory) throws EngineException {
+        // indexing goes on while segments are added: the incoming documents are checked against the live ones, and
+        // the operations indexed meanwhile on the incoming uids are replayed over them, so a document indexed meanwhile
+        // is never shadowed by an older copy. Only the replay blocks indexing.
+        addIndexesLock.lock();
+        try (DirectoryReader incoming = DirectoryReader.open(directory)) {
+            try (ReleasableLock lock = readLock.acquire()) {
+                ensureOpen();
+                // operations not recorded are visible to the check
+                addIndexesConcurrentOps = ConcurrentCollections.newConcurrentMap();
+                searcherManager.maybeRefreshBlocking();
+                List<CodecReader> readers = new ArrayList<>(incoming.leaves().size());
+                IndexSearcher searcher = searcherManager.acquire();
+                try {
+                    for (LeafReaderContext context : incoming.leaves()) {
+                        LeafReader reader = context.reader();
+                        Bits liveDocs = reader.getLiveDocs();
+                        FixedBitSet keep = new FixedBitSet(reader.maxDoc());
+                        for (int doc = 0; doc < reader.maxDoc(); doc++) {
+                            if (liveDocs == null || liveDocs.get(doc)) {
+                                keep.set(doc);
+                            }
+                        }
+                        clearLiveUids(reader, keep, searcher.getIndexReader().leaves());
+                        if (keep.cardinality() > 0) {
+                            readers.add(Lucene.filterLiveDocs(reader, keep));
+                        }
+                    }
+                } finally {
+                    searcherManager.release(searcher);
+                }
+                if (readers.isEmpty() == false) {
+                    indexWriter.addIndexes(readers.toArray(new CodecReader[readers.size()]));
+                }
+            }
+            try (ReleasableLock lock = writeLock.acquire()) {
+                ensureOpen();
+                replayOnIncomingUids(addIndexesConcurrentOps, incoming.leaves());
+                addIndexesConcurrentOps = null;
+            }
+            searcherManager.maybeRefreshBlocking();
+        } catch (EngineClosedException e) {
+            throw e;
+        } catch (Throwable t) {
+            maybeFailEngine("add_indexes", t);
+            throw new EngineException(shardId, "failed to add indexes", t);
+        } finally {
+            addIndexesConcurrentOps = null;
+            addIndexesLock.unlock();
+        }
+    }
+
+    private void recordAddIndexesConcurrentOp(Term uid, Operation operation) {
+        final Map<BytesRef, Operation> ops = addIndexesConcurrentOps;
+        if (ops != null) {
+            ops.put(BytesRef.deepCopyOf(uid.bytes()), operation);
+        }
+    }
+
+    /**
+     * Applies again the last operation of the uids of the incoming documents, which were added after it. Must be called
+     * under the write lock, the version map and the translog already hold these operations.
+     */
+    private void replayOnIncomingUids(Map<BytesRef, Operation> ops, List<LeafReaderContext> incomingLeaves) throws IOException {
+        if (ops.isEmpty()) {
+            return;
+        }
+        TermsEnum[] incomingTermsEnums = new TermsEnum[incomingLeaves.size()];
+        for (int i = 0; i < incomingTermsEnums.length; i++) {
+            Terms terms = incomingLeaves.get(i).reader().terms(UidFieldMapper.NAME);
+            incomingTermsEnums[i] = terms == null ? null : terms.iterator();
+        }
+        for (Map.Entry<BytesRef, Operation> entry : ops.entrySet()) {
+            boolean incoming = false;
+            for (int i = 0; i < incomingTermsEnums.length && incoming == false; i++) {
+                incoming = incomingTermsEnums[i] != null && incomingTermsEnums[i].seekExact(entry.getKey());
+            }
+            if (incoming == false) {
+                continue;
+            }
+            Operation operation = entry.getValue();
+            if (operation instanceof Delete) {
+                indexWriter.deleteDocuments(((Delete) operation).uid());
+            } else {
+                IndexingOperation indexing = (IndexingOperation) operation;
+                if (indexing.docs().size() > 1) {
+                    indexWriter.updateDocuments(indexing.uid(), indexing.docs());
+                } else {
+                    indexWriter.updateDocument(indexing.uid(), indexing.docs().get(0));
+                }
+            }
+        }
+    }
+
+    /**
+     * Clears the incoming documents whose <tt>_uid</tt> is live in one of the target leaves. Nested documents index the
+     * <tt>_uid</tt> of their root document, so they follow it.
+     */
+    private static void clearLiveUids(LeafReader incoming, FixedBitSet keep, List<LeafReaderContext> targetLeaves) throws IOException {
+        Terms terms = incoming.terms(UidFieldMapper.NAME);
+        if (terms == null) {
+            return;
+        }
+        TermsEnum[] targetTermsEnums = new TermsEnum[targetLeaves.size()];
+        for (int i = 0; i < targetTermsEnums.length; i++) {
+            Terms targetTerms = targetLeaves.get(i).reader().terms(UidFieldMapper.NAME);
+            targetTermsEnums[i] = targetTerms == null ? null : targetTerms.iterator();
+        }
+        TermsEnum termsEnum = terms.iterator();
+        PostingsEnum postings = null;
+        for (BytesRef uid = termsEnum.next(); uid != null; uid = termsEnum.next()) {
+            boolean live = false;
+            for (int i = 0; i < targetTermsEnums.length && live == false; i++) {
+                if (targetTermsEnums[i] == null || targetTermsEnums[i].seekExact(uid) == false) {
+                    continue;
+                }
+                Bits targetLiveDocs = targetLeaves.get(i).reader().getLiveDocs();
+                postings = targetTermsEnums[i].postings(postings, PostingsEnum.NONE);
+                for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                    if (targetLiveDocs == null || targetLiveDocs.get(doc)) {
+                        live = true;
+                        break;
+                    }
+                }
+            }
+            if (live) {
+                postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                    keep.clear(doc);
+                }
+            }
+        }
+    }
+
     @Override
     public SnapshotIndexCommit snapshotIndex(final boolean flushFirst) throws EngineException {
         // we have to flush outside of the readlock otherwise we might have a problem upgrading
@@ -24,6 +24,7 @@ import org.apache.lucene.index.SegmentInfos;
 import org.apache.lucene.search.SearcherFactory;
 import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.IOUtils;
 import org.elasticsearch.common.lucene.Lucene;
 import org.elasticsearch.common.lucene.index.ElasticsearchDirectoryReader;
@@ -123,6 +124,11 @@ public class ShadowEngine extends Engine {
         throw new UnsupportedOperationException(shardId + " delete-by-query operation not allowed on shadow engine");
     }
 
+    @Override
+    public void addIndexes(Directory directory) throws EngineException {
+        throw new UnsupportedOperationException(shardId + " add indexes operation not allowed on shadow engine");
+    }
+
     @Override
     public SyncedFlushResult syncFlush(String syncId, CommitId expectedCommitId) {
         throw new UnsupportedOperationException(shardId + " sync commit operation not allowed on shadow engine");
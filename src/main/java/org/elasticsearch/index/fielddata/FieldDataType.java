@@ -28,6 +28,7 @@ public class FieldDataType {
 
     public static final String FORMAT_KEY = "format";
     public static final String DOC_VALUES_FORMAT_VALUE = "doc_values";
+    public static final String GLOBAL_ORDINALS_KEY = "global_ordinals";
 
     private final String type;
     private final String typeFormat;
@@ -23,6 +23,8 @@ import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.util.Accountable;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.index.fielddata.ordinals.IncrementalGlobalOrdinalsBuilder;
 import org.elasticsearch.index.mapper.MappedFieldType;
 import org.elasticsearch.index.shard.ShardId;
 
@@ -45,6 +47,13 @@ public interface IndexFieldDataCache {
      */
     void clear(String fieldName);
 
+    /**
+     * Returns the builder of the global ordinals of the field when they are built incrementally. It lives as long as
+     * the cache, across the field data instances of the field, and is reset when the cache is cleared.
+     */
+    @Nullable
+    IncrementalGlobalOrdinalsBuilder incrementalGlobalOrdinalsBuilder();
+
     interface Listener {
 
         /**
@@ -78,5 +87,11 @@ public interface IndexFieldDataCache {
         @Override
         public void clear(String fieldName) {
         }
+
+        @Override
+        public IncrementalGlobalOrdinalsBuilder incrementalGlobalOrdinalsBuilder() {
+            // nothing is cached, there is no previous build to extend
+            return null;
+        }
     }
 }
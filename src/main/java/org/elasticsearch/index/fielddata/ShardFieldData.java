@@ -27,6 +27,8 @@ import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
 import org.elasticsearch.index.mapper.MappedFieldType;
 import org.elasticsearch.index.shard.ShardId;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
 
@@ -49,6 +51,19 @@ public class ShardFieldData implements IndexFieldDataCache.Listener {
         return new FieldDataStats(totalMetric.count(), evictionsMetric.count(), fieldTotals);
     }
 
+    /**
+     * Returns the index names of the fields having fielddata currently loaded.
+     */
+    public List<String> loadedFields() {
+        List<String> fields = new ArrayList<>();
+        for (Map.Entry<String, CounterMetric> entry : perFieldTotals.entrySet()) {
+            if (entry.getValue().count() > 0) {
+                fields.add(entry.getKey());
+            }
+        }
+        return fields;
+    }
+
     @Override
     public void onCache(ShardId shardId, MappedFieldType.Names fieldNames, FieldDataType fieldDataType, Accountable ramUsage) {
         totalMetric.inc(ramUsage.ramBytesUsed());
@@ -0,0 +1,51 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.index.fielddata.ordinals;
+
+import org.apache.lucene.index.MultiDocValues.OrdinalMap;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.LongValues;
+
+/**
+ * Maps the ordinals of the segments of a reader to global ordinals, like Lucene's {@link OrdinalMap} which it
+ * abstracts so that global ordinals can also be built incrementally, see {@link IncrementalGlobalOrdinalsBuilder}.
+ */
+interface GlobalOrdinalMap extends Accountable {
+
+    /**
+     * @return the number of global ordinals.
+     */
+    long getValueCount();
+
+    /**
+     * @return the mapping of the ordinals of the given segment to global ordinals.
+     */
+    LongValues getGlobalOrds(int segmentIndex);
+
+    /**
+     * @return the index of a segment that contains the term of the given global ordinal.
+     */
+    int getFirstSegmentNumber(long globalOrd);
+
+    /**
+     * @return the ordinal of the term of the given global ordinal in the segment returned by
+     * {@link #getFirstSegmentNumber(long)}.
+     */
+    long getFirstSegmentOrd(long globalOrd);
+}
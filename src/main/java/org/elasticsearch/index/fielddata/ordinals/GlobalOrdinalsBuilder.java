@@ -24,6 +24,7 @@ import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.MultiDocValues.OrdinalMap;
 import org.apache.lucene.index.RandomAccessOrds;
 import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.LongValues;
 import org.apache.lucene.util.packed.PackedInts;
 import org.elasticsearch.common.breaker.CircuitBreaker;
 import org.elasticsearch.common.logging.ESLogger;
@@ -71,7 +72,7 @@ public enum GlobalOrdinalsBuilder {
             );
         }
         return new InternalGlobalOrdinalsIndexFieldData(indexFieldData.index(), settings, indexFieldData.getFieldNames(),
-                indexFieldData.getFieldDataType(), atomicFD, ordinalMap, memorySizeInBytes
+                indexFieldData.getFieldDataType(), atomicFD, globalOrdinalMap(ordinalMap), memorySizeInBytes
         );
     }
 
@@ -105,8 +106,45 @@ public enum GlobalOrdinalsBuilder {
         }
         final OrdinalMap ordinalMap = OrdinalMap.build(null, subs, PackedInts.DEFAULT);
         return new InternalGlobalOrdinalsIndexFieldData(index, settings, indexFieldData.getFieldNames(),
-                indexFieldData.getFieldDataType(), atomicFD, ordinalMap, 0
+                indexFieldData.getFieldDataType(), atomicFD, globalOrdinalMap(ordinalMap), 0
         );
     }
 
+    /**
+     * Exposes a Lucene {@link OrdinalMap} as a {@link GlobalOrdinalMap}.
+     */
+    static GlobalOrdinalMap globalOrdinalMap(final OrdinalMap ordinalMap) {
+        return new GlobalOrdinalMap() {
+            @Override
+            public long getValueCount() {
+                return ordinalMap.getValueCount();
+            }
+
+            @Override
+            public LongValues getGlobalOrds(int segmentIndex) {
+                return ordinalMap.getGlobalOrds(segmentIndex);
+            }
+
+            @Override
+            public int getFirstSegmentNumber(long globalOrd) {
+                return ordinalMap.getFirstSegmentNumber(globalOrd);
+            }
+
+            @Override
+            public long getFirstSegmentOrd(long globalOrd) {
+                return ordinalMap.getFirstSegmentOrd(globalOrd);
+            }
+
+            @Override
+            public long ramBytesUsed() {
+                return ordinalMap.ramBytesUsed();
+            }
+
+            @Override
+            public Collection<Accountable> getChildResources() {
+                return ordinalMap.getChildResources();
+            }
+        };
+    }
+
 }
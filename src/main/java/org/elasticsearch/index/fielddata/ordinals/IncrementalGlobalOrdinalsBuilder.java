@@ -0,0 +1,235 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.index.fielddata.ordinals;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.MultiDocValues.OrdinalMap;
+import org.apache.lucene.index.RandomAccessOrds;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.packed.PackedInts;
+import org.apache.lucene.util.packed.PackedLongValues;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.fielddata.AtomicOrdinalsFieldData;
+import org.elasticsearch.index.fielddata.FieldDataType;
+import org.elasticsearch.index.fielddata.IndexOrdinalsFieldData;
+import org.elasticsearch.indices.breaker.CircuitBreakerService;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the global ordinals of a field incrementally across refreshes, when the field data settings of the field have
+ * <code>global_ordinals: incremental</code>.
+ * <p>
+ * The {@link OrdinalMap} of the segments of the last full build is kept and reused as long as all these segments are
+ * part of the reader, only the terms of the segments added since then are merged into it, see
+ * {@link IncrementalOrdinalMap}. Global ordinals are fully rebuilt when one of these segments is gone, typically merged
+ * away, or when the added segments have too many terms compared to them.
+ * <p>
+ * An instance holds the state of a single field of a shard.
+ */
+public class IncrementalGlobalOrdinalsBuilder {
+
+    public static final String INCREMENTAL_VALUE = "incremental";
+
+    /**
+     * Global ordinals are fully rebuilt when the added segments have more terms than this ratio of the terms of the
+     * segments of the last full build.
+     */
+    static final double MAX_ADDED_TERMS_RATIO = 0.25;
+
+    private Base base;
+    /** the breaker charged for the ordinal map of {@link #base} */
+    private CircuitBreaker baseBreaker;
+
+    /**
+     * @return whether global ordinals of fields with the given field data type are built incrementally.
+     */
+    public static boolean isIncremental(FieldDataType fieldDataType) {
+        return INCREMENTAL_VALUE.equals(fieldDataType.getSettings().get(FieldDataType.GLOBAL_ORDINALS_KEY));
+    }
+
+    /**
+     * Build global ordinals for the provided {@link IndexReader}, reusing the last full build if possible.
+     */
+    public synchronized IndexOrdinalsFieldData build(final IndexReader indexReader, IndexOrdinalsFieldData indexFieldData, Settings settings, CircuitBreakerService breakerService, ESLogger logger) throws IOException {
+        assert indexReader.leaves().size() > 1;
+        long startTimeNS = System.nanoTime();
+
+        final List<LeafReaderContext> leaves = indexReader.leaves();
+        final AtomicOrdinalsFieldData[] atomicFD = new AtomicOrdinalsFieldData[leaves.size()];
+        final RandomAccessOrds[] subs = new RandomAccessOrds[leaves.size()];
+        final Object[] coreKeys = new Object[leaves.size()];
+        for (int i = 0; i < leaves.size(); ++i) {
+            atomicFD[i] = indexFieldData.load(leaves.get(i));
+            subs[i] = atomicFD[i].getOrdinalsValues();
+            coreKeys[i] = leaves.get(i).reader().getCoreCacheKey();
+        }
+
+        GlobalOrdinalMap ordinalMap = base == null ? null : base.extend(coreKeys, subs);
+        final boolean incremental = ordinalMap != null;
+        if (ordinalMap == null) {
+            releaseBase();
+            base = new Base(coreKeys, OrdinalMap.build(null, subs, PackedInts.DEFAULT));
+            baseBreaker = breakerService.getBreaker(CircuitBreaker.FIELDDATA);
+            baseBreaker.addWithoutBreaking(base.ordinalMap.ramBytesUsed());
+            ordinalMap = base.extend(coreKeys, subs);
+        }
+        // the base is shared by all the global ordinals built on it and is charged once, when built, so each of them
+        // only accounts for what it adds to the base and releases just that when evicted from the cache
+        final long memorySizeInBytes = ordinalMap.ramBytesUsed() - base.ordinalMap.ramBytesUsed();
+        breakerService.getBreaker(CircuitBreaker.FIELDDATA).addWithoutBreaking(memorySizeInBytes);
+
+        if (logger.isDebugEnabled()) {
+            logger.debug(
+                    "Global-ordinals[{}][{}] took {} ms ({} build)",
+                    indexFieldData.getFieldNames().fullName(),
+                    ordinalMap.getValueCount(),
+                    TimeValue.nsecToMSec(System.nanoTime() - startTimeNS),
+                    incremental ? "incremental" : "full"
+            );
+        }
+        return new InternalGlobalOrdinalsIndexFieldData(indexFieldData.index(), settings, indexFieldData.getFieldNames(),
+                indexFieldData.getFieldDataType(), atomicFD, ordinalMap, memorySizeInBytes
+        );
+    }
+
+    /**
+     * Forgets the last full build, the next build is a full one.
+     */
+    public synchronized void clear() {
+        releaseBase();
+    }
+
+    private void releaseBase() {
+        if (base != null) {
+            baseBreaker.addWithoutBreaking(-base.ordinalMap.ramBytesUsed());
+            base = null;
+            baseBreaker = null;
+        }
+    }
+
+    /**
+     * The ordinal map of the segments of the last full build, by core cache key.
+     */
+    private static final class Base {
+        private final Map<Object, Integer> segments;
+        private final OrdinalMap ordinalMap;
+
+        Base(Object[] coreKeys, OrdinalMap ordinalMap) {
+            this.segments = new HashMap<>(coreKeys.length);
+            for (int i = 0; i < coreKeys.length; i++) {
+                segments.put(coreKeys[i], i);
+            }
+            this.ordinalMap = ordinalMap;
+        }
+
+        /**
+         * @return the global ordinals of the given segments, or <code>null</code> if they require a full build.
+         */
+        GlobalOrdinalMap extend(Object[] coreKeys, RandomAccessOrds[] subs) throws IOException {
+            final int[] leafToBase = new int[coreKeys.length];
+            final int[] baseToLeaf = new int[segments.size()];
+            int addedCount = 0;
+            for (int i = 0; i < coreKeys.length; i++) {
+                Integer baseIndex = segments.get(coreKeys[i]);
+                if (baseIndex == null) {
+                    leafToBase[i] = -1;
+                    addedCount++;
+                } else {
+                    leafToBase[i] = baseIndex;
+                    baseToLeaf[baseIndex] = i;
+                }
+            }
+            if (coreKeys.length - addedCount != segments.size()) {
+                // some segments are gone and their terms may be gone with them
+                return null;
+            }
+            if (addedCount == 0) {
+                return new IncrementalOrdinalMap(ordinalMap, leafToBase, baseToLeaf);
+            }
+
+            final int[] leafToAdded = new int[coreKeys.length];
+            final int[] addedToLeaf = new int[addedCount];
+            final RandomAccessOrds[] addedSubs = new RandomAccessOrds[addedCount];
+            for (int i = 0, j = 0; i < coreKeys.length; i++) {
+                if (leafToBase[i] < 0) {
+                    leafToAdded[i] = j;
+                    addedToLeaf[j] = i;
+                    addedSubs[j++] = subs[i];
+                } else {
+                    leafToAdded[i] = -1;
+                }
+            }
+            final OrdinalMap added = OrdinalMap.build(null, addedSubs, PackedInts.DEFAULT);
+            final long baseCount = ordinalMap.getValueCount();
+            if (added.getValueCount() > baseCount * MAX_ADDED_TERMS_RATIO) {
+                return null;
+            }
+
+            // merge the sorted added terms into the base terms, both are sorted so the search for an added term
+            // starts after the base term of the previous one
+            final RandomAccessOrds[] baseSubs = new RandomAccessOrds[baseToLeaf.length];
+            for (int i = 0; i < baseToLeaf.length; i++) {
+                baseSubs[i] = subs[baseToLeaf[i]];
+            }
+            final PackedLongValues.Builder addedGlobalOrds = PackedLongValues.monotonicBuilder(PackedInts.COMPACT);
+            final PackedLongValues.Builder insertedPositions = PackedLongValues.monotonicBuilder(PackedInts.COMPACT);
+            final PackedLongValues.Builder insertedAddedOrds = PackedLongValues.monotonicBuilder(PackedInts.COMPACT);
+            final BytesRefBuilder term = new BytesRefBuilder();
+            long inserted = 0;
+            long low = 0;
+            for (long addedOrd = 0; addedOrd < added.getValueCount(); addedOrd++) {
+                term.copyBytes(addedSubs[added.getFirstSegmentNumber(addedOrd)].lookupOrd(added.getFirstSegmentOrd(addedOrd)));
+                long high = baseCount - 1;
+                long baseOrd = -1;
+                while (low <= high) {
+                    final long mid = (low + high) >>> 1;
+                    final int cmp = baseSubs[ordinalMap.getFirstSegmentNumber(mid)].lookupOrd(ordinalMap.getFirstSegmentOrd(mid)).compareTo(term.get());
+                    if (cmp < 0) {
+                        low = mid + 1;
+                    } else if (cmp > 0) {
+                        high = mid - 1;
+                    } else {
+                        baseOrd = mid;
+                        break;
+                    }
+                }
+                if (baseOrd >= 0) {
+                    addedGlobalOrds.add(baseOrd + inserted);
+                    low = baseOrd + 1;
+                } else {
+                    // low is the number of base terms sorting before the term
+                    addedGlobalOrds.add(low + inserted);
+                    insertedPositions.add(low);
+                    insertedAddedOrds.add(addedOrd);
+                    inserted++;
+                }
+            }
+            return new IncrementalOrdinalMap(ordinalMap, leafToBase, baseToLeaf, added, leafToAdded, addedToLeaf,
+                    addedGlobalOrds.build(), insertedPositions.build(), insertedAddedOrds.build());
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.index.fielddata.ordinals;
+
+import org.apache.lucene.index.MultiDocValues.OrdinalMap;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.Accountables;
+import org.apache.lucene.util.LongValues;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.apache.lucene.util.packed.PackedLongValues;
+import org.elasticsearch.common.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link GlobalOrdinalMap} made of the {@link OrdinalMap} of a previous build, the base, and of the ordinal map of
+ * the segments added since then.
+ * <p>
+ * The terms of the added segments that are not in the base are inserted between base terms: a base ordinal is shifted
+ * by the number of inserted terms sorting before it, and the global ordinals of the added terms are stored, so that
+ * the mappings of base segments are reused as is.
+ */
+final class IncrementalOrdinalMap implements GlobalOrdinalMap {
+
+    private final OrdinalMap base;
+    private final int[] leafToBase;
+    private final int[] baseToLeaf;
+
+    @Nullable
+    private final OrdinalMap added;
+    private final int[] leafToAdded;
+    private final int[] addedToLeaf;
+    // global ordinal of each added ordinal
+    private final PackedLongValues addedGlobalOrds;
+    // for each inserted term, in order, the number of base terms sorting before it and its added ordinal
+    private final PackedLongValues insertedPositions;
+    private final PackedLongValues insertedAddedOrds;
+    private final long insertedCount;
+
+    IncrementalOrdinalMap(OrdinalMap base, int[] leafToBase, int[] baseToLeaf) {
+        this(base, leafToBase, baseToLeaf, null, null, null, null, null, null);
+    }
+
+    IncrementalOrdinalMap(OrdinalMap base, int[] leafToBase, int[] baseToLeaf, @Nullable OrdinalMap added, int[] leafToAdded,
+                          int[] addedToLeaf, PackedLongValues addedGlobalOrds, PackedLongValues insertedPositions,
+                          PackedLongValues insertedAddedOrds) {
+        this.base = base;
+        this.leafToBase = leafToBase;
+        this.baseToLeaf = baseToLeaf;
+        this.added = added;
+        this.leafToAdded = leafToAdded;
+        this.addedToLeaf = addedToLeaf;
+        this.addedGlobalOrds = addedGlobalOrds;
+        this.insertedPositions = insertedPositions;
+        this.insertedAddedOrds = insertedAddedOrds;
+        this.insertedCount = insertedPositions == null ? 0 : insertedPositions.size();
+    }
+
+    @Override
+    public long getValueCount() {
+        return base.getValueCount() + insertedCount;
+    }
+
+    @Override
+    public LongValues getGlobalOrds(int segmentIndex) {
+        if (leafToBase[segmentIndex] >= 0) {
+            final LongValues segmentToBase = base.getGlobalOrds(leafToBase[segmentIndex]);
+            if (insertedCount == 0) {
+                return segmentToBase;
+            }
+            return new LongValues() {
+                @Override
+                public long get(long index) {
+                    final long baseOrd = segmentToBase.get(index);
+                    return baseOrd + insertedBefore(baseOrd);
+                }
+            };
+        }
+        final LongValues segmentToAdded = added.getGlobalOrds(leafToAdded[segmentIndex]);
+        return new LongValues() {
+            @Override
+            public long get(long index) {
+                return addedGlobalOrds.get(segmentToAdded.get(index));
+            }
+        };
+    }
+
+    @Override
+    public int getFirstSegmentNumber(long globalOrd) {
+        final long inserted = inserted(globalOrd);
+        if (inserted >= 0) {
+            return addedToLeaf[added.getFirstSegmentNumber(insertedAddedOrds.get(inserted))];
+        }
+        return baseToLeaf[base.getFirstSegmentNumber(globalOrd - (-1 - inserted))];
+    }
+
+    @Override
+    public long getFirstSegmentOrd(long globalOrd) {
+        final long inserted = inserted(globalOrd);
+        if (inserted >= 0) {
+            return added.getFirstSegmentOrd(insertedAddedOrds.get(inserted));
+        }
+        return base.getFirstSegmentOrd(globalOrd - (-1 - inserted));
+    }
+
+    /**
+     * @return the number of inserted terms that sort before the term of the given base ordinal.
+     */
+    private long insertedBefore(long baseOrd) {
+        long low = 0;
+        long high = insertedCount - 1;
+        while (low <= high) {
+            final long mid = (low + high) >>> 1;
+            if (insertedPositions.get(mid) <= baseOrd) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the index of the inserted term of the given global ordinal, or <code>-1 - n</code> where n is the number
+     * of inserted terms sorting before it if it is a base term.
+     */
+    private long inserted(long globalOrd) {
+        long low = 0;
+        long high = insertedCount - 1;
+        while (low <= high) {
+            final long mid = (low + high) >>> 1;
+            final long midGlobalOrd = insertedPositions.get(mid) + mid;
+            if (midGlobalOrd < globalOrd) {
+                low = mid + 1;
+            } else if (midGlobalOrd > globalOrd) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1 - low;
+    }
+
+    @Override
+    public long ramBytesUsed() {
+        long size = base.ramBytesUsed() + RamUsageEstimator.sizeOf(leafToBase) + RamUsageEstimator.sizeOf(baseToLeaf);
+        if (added != null) {
+            size += added.ramBytesUsed() + RamUsageEstimator.sizeOf(leafToAdded) + RamUsageEstimator.sizeOf(addedToLeaf)
+                    + addedGlobalOrds.ramBytesUsed() + insertedPositions.ramBytesUsed() + insertedAddedOrds.ramBytesUsed();
+        }
+        return size;
+    }
+
+    @Override
+    public Collection<Accountable> getChildResources() {
+        List<Accountable> resources = new ArrayList<>(2);
+        resources.add(Accountables.namedAccountable("base", base));
+        if (added != null) {
+            resources.add(Accountables.namedAccountable("added", added));
+        }
+        return Collections.unmodifiableList(resources);
+    }
+}
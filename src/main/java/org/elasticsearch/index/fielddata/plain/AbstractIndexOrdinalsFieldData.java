@@ -29,6 +29,7 @@ import org.elasticsearch.index.fielddata.*;
 import org.elasticsearch.index.fielddata.IndexFieldData.XFieldComparatorSource.Nested;
 import org.elasticsearch.index.fielddata.fieldcomparator.BytesRefFieldComparatorSource;
 import org.elasticsearch.index.fielddata.ordinals.GlobalOrdinalsBuilder;
+import org.elasticsearch.index.fielddata.ordinals.IncrementalGlobalOrdinalsBuilder;
 import org.elasticsearch.index.mapper.MappedFieldType.Names;
 import org.elasticsearch.indices.breaker.CircuitBreakerService;
 import org.elasticsearch.search.MultiValueMode;
@@ -95,6 +96,10 @@ public abstract class AbstractIndexOrdinalsFieldData extends AbstractIndexFieldD
 
     @Override
     public IndexOrdinalsFieldData localGlobalDirect(DirectoryReader indexReader) throws Exception {
+        final IncrementalGlobalOrdinalsBuilder incrementalGlobalOrdinalsBuilder = cache.incrementalGlobalOrdinalsBuilder();
+        if (incrementalGlobalOrdinalsBuilder != null) {
+            return incrementalGlobalOrdinalsBuilder.build(indexReader, this, indexSettings(), breakerService, logger);
+        }
         return GlobalOrdinalsBuilder.build(indexReader, this, indexSettings(), breakerService, logger);
     }
 
@@ -66,7 +66,7 @@ public abstract class DocValuesIndexFieldData {
         return fieldDataType;
     }
 
-    public final void clear() {
+    public void clear() {
         // can't do
     }
 
@@ -29,6 +29,7 @@ import org.elasticsearch.index.fielddata.*;
 import org.elasticsearch.index.fielddata.IndexFieldData.XFieldComparatorSource.Nested;
 import org.elasticsearch.index.fielddata.fieldcomparator.BytesRefFieldComparatorSource;
 import org.elasticsearch.index.fielddata.ordinals.GlobalOrdinalsBuilder;
+import org.elasticsearch.index.fielddata.ordinals.IncrementalGlobalOrdinalsBuilder;
 import org.elasticsearch.index.mapper.MappedFieldType.Names;
 import org.elasticsearch.search.MultiValueMode;
 import org.elasticsearch.indices.breaker.CircuitBreakerService;
@@ -48,6 +49,12 @@ public class SortedSetDVOrdinalsIndexFieldData extends DocValuesIndexFieldData i
         this.breakerService = breakerService;
     }
 
+    @Override
+    public void clear() {
+        // doc values are not cached, but global ordinals built on top of them are
+        cache.clear(fieldNames.indexName());
+    }
+
     @Override
     public org.elasticsearch.index.fielddata.IndexFieldData.XFieldComparatorSource comparatorSource(Object missingValue, MultiValueMode sortMode, Nested nested) {
         return new BytesRefFieldComparatorSource((IndexFieldData<?>) this, missingValue, sortMode, nested);
@@ -100,6 +107,10 @@ public class SortedSetDVOrdinalsIndexFieldData extends DocValuesIndexFieldData i
 
     @Override
     public IndexOrdinalsFieldData localGlobalDirect(DirectoryReader indexReader) throws Exception {
+        final IncrementalGlobalOrdinalsBuilder incrementalGlobalOrdinalsBuilder = cache.incrementalGlobalOrdinalsBuilder();
+        if (incrementalGlobalOrdinalsBuilder != null) {
+            return incrementalGlobalOrdinalsBuilder.build(indexReader, this, indexSettings, breakerService, logger);
+        }
         return GlobalOrdinalsBuilder.build(indexReader, this, indexSettings, breakerService, logger);
     }
 }
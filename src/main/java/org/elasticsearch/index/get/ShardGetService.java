@@ -33,6 +33,14 @@ import java.util.concurrent.TimeUnit;
 import org.apache.cassandra.cql3.UntypedResultSet;
 import org.apache.cassandra.exceptions.RequestExecutionException;
 import org.apache.cassandra.exceptions.RequestValidationException;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
 import org.elasticsearch.ElasticsearchException;
 import org.elasticsearch.cassandra.SchemaService;
 import org.elasticsearch.cluster.ClusterService;
@@ -53,7 +61,9 @@ import org.elasticsearch.index.fieldvisitor.FieldsVisitor;
 import org.elasticsearch.index.mapper.DocumentMapper;
 import org.elasticsearch.index.mapper.FieldMapper;
 import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.index.mapper.Uid;
 import org.elasticsearch.index.mapper.internal.SourceFieldMapper;
+import org.elasticsearch.index.mapper.internal.UidFieldMapper;
 import org.elasticsearch.index.shard.AbstractIndexShardComponent;
 import org.elasticsearch.index.shard.IndexShard;
 import org.elasticsearch.search.fetch.source.FetchSourceContext;
@@ -154,23 +164,72 @@ public final class ShardGetService extends AbstractIndexShardComponent {
         return FetchSourceContext.DO_NOT_FETCH_SOURCE;
     }
 
+    /**
+     * Resolve the type of a document id with a _uid terms seek per type on the local shard.
+     * Deleted documents still hold their _uid term, so matching postings are checked against live docs.
+     * @return the type, or null if the id is not found in the local shard.
+     */
+    @Nullable
+    private String resolveType(String id) {
+        try (Engine.Searcher searcher = indexShard.acquireSearcher("get")) {
+            BytesRef idBytes = new BytesRef(id);
+            BytesRefBuilder spare = new BytesRefBuilder();
+            List<TermsEnum> termsEnums = new ArrayList<>();
+            List<Bits> liveDocs = new ArrayList<>();
+            for (LeafReaderContext context : searcher.reader().leaves()) {
+                Terms terms = context.reader().terms(UidFieldMapper.NAME);
+                if (terms != null) {
+                    termsEnums.add(terms.iterator());
+                    liveDocs.add(context.reader().getLiveDocs());
+                }
+            }
+            PostingsEnum postings = null;
+            for (String typeX : mapperService.types()) {
+                BytesRef uid = Uid.createUidAsBytes(new BytesRef(typeX), idBytes, spare);
+                for (int i = 0; i < termsEnums.size(); i++) {
+                    TermsEnum termsEnum = termsEnums.get(i);
+                    if (termsEnum.seekExact(uid)) {
+                        Bits leafLiveDocs = liveDocs.get(i);
+                        if (leafLiveDocs == null) {
+                            return typeX;
+                        }
+                        postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                        for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                            if (leafLiveDocs.get(doc)) {
+                                return typeX;
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            logger.debug("failed to resolve the type of id [{}]", e, id);
+        }
+        return null;
+    }
+
+    /**
+     * Resolve the type of a document id after a refresh of the local shard, so that pending operations are visible.
+     * Refreshing an unchanged shard is cheap, and avoids reading the row from each table mapped in the index.
+     */
+    @Nullable
+    private String refreshAndResolveType(String id) {
+        indexShard.refresh("get");
+        return resolveType(id);
+    }
+
     private GetResult innerGet(String type, String id, String[] gFields, boolean realtime, long version, VersionType versionType, FetchSourceContext fetchSourceContext, boolean ignoreErrorsOnGeneratedFields) {
         fetchSourceContext = normalizeFetchSourceContent(fetchSourceContext, gFields);
 
         //Engine.GetResult get = null;
+        boolean resolvedLocally = false;
         if (type == null || type.equals("_all")) {
-            try {
-                for (String typeX : mapperService.types() ) {
-                    // search for the matching type (table)
-                    UntypedResultSet result = clusterService.fetchRow(shardId.index().name(), typeX, id);
-                    if (!result.isEmpty()) {
-                        type = typeX;
-                        break;
-                    }
-                }
-            } catch (RequestExecutionException | RequestValidationException | IOException e1) {
-                throw new ElasticsearchException("Cannot fetch source type [" + type + "] and id [" + id + "]", e1);
+            type = resolveType(id);
+            if (type == null && realtime) {
+                // the document may not be visible yet in the local shard
+                type = refreshAndResolveType(id);
             }
+            resolvedLocally = (type != null);
         }
         if (type == null || type.equals("_all")) {
             return new GetResult(shardId.index().name(), type, id, -1, false, null, null);
@@ -288,6 +347,13 @@ public final class ShardGetService extends AbstractIndexShardComponent {
         try {
             UntypedResultSet result = clusterService.fetchRow(shardId.index().name(), type, columns, id);
             if (result.isEmpty()) {
+                if (resolvedLocally && realtime) {
+                    // the local shard may not have seen the deletion yet, while the id now belongs to another type (table).
+                    String resolvedType = refreshAndResolveType(id);
+                    if (resolvedType != null && !resolvedType.equals(type)) {
+                        return innerGet(resolvedType, id, gFields, realtime, version, versionType, fetchSourceContext, ignoreErrorsOnGeneratedFields);
+                    }
+                }
                 return new GetResult(shardId.index().name(), type, id, -1, false, null, null);
             }
             sourceAsMap = clusterService.rowAsMap(shardId.index().name(), type, result.one());
@@ -0,0 +1,336 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.indexing;
+
+import org.HdrHistogram.Histogram;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+
+/**
+ * Latency of each stage of the Cassandra secondary index write path (see ElasticSecondaryIndex),
+ * recorded as HdrHistograms in microseconds.
+ */
+public class SecondaryIndexStats implements Streamable, ToXContent {
+
+    public static final int SIGNIFICANT_VALUE_DIGITS = 3;
+
+    public static enum Stage {
+        // Do not change the order of these stages, the ordinal is used for encoding! Only append to the end!
+        DESERIALIZE("deserialize"),
+        READ_BEFORE_WRITE("read_before_write"),
+        BUILD("build"),
+        PARSE("parse"),
+        MAPPING_UPDATE("mapping_update"),
+        INDEX("index"),
+        DELETE("delete");
+
+        private final XContentBuilderString restName;
+
+        Stage(String restName) {
+            this.restName = new XContentBuilderString(restName);
+        }
+
+        public XContentBuilderString getRestName() {
+            return restName;
+        }
+    }
+
+    public static class Stats implements Streamable, ToXContent {
+
+        private Histogram[] histograms;
+
+        private long indexCount;
+        private long deleteCount;
+        private long readBeforeWriteCount;
+        private long mappingUpdateCount;
+        private long failedCount;
+
+        Stats() {
+            this.histograms = new Histogram[Stage.values().length];
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new Histogram(SIGNIFICANT_VALUE_DIGITS);
+            }
+        }
+
+        public Stats(Histogram[] histograms, long indexCount, long deleteCount, long readBeforeWriteCount, long mappingUpdateCount, long failedCount) {
+            assert histograms.length == Stage.values().length;
+            this.histograms = histograms;
+            this.indexCount = indexCount;
+            this.deleteCount = deleteCount;
+            this.readBeforeWriteCount = readBeforeWriteCount;
+            this.mappingUpdateCount = mappingUpdateCount;
+            this.failedCount = failedCount;
+        }
+
+        public void add(Stats stats) {
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i].add(stats.histograms[i]);
+            }
+            indexCount += stats.indexCount;
+            deleteCount += stats.deleteCount;
+            readBeforeWriteCount += stats.readBeforeWriteCount;
+            mappingUpdateCount += stats.mappingUpdateCount;
+            failedCount += stats.failedCount;
+        }
+
+        /**
+         * Latency histogram of the given stage, values are in microseconds.
+         */
+        public Histogram getHistogram(Stage stage) {
+            return histograms[stage.ordinal()];
+        }
+
+        public long getIndexCount() {
+            return indexCount;
+        }
+
+        public long getDeleteCount() {
+            return deleteCount;
+        }
+
+        /**
+         * Number of documents that required to read the Cassandra row before indexing.
+         */
+        public long getReadBeforeWriteCount() {
+            return readBeforeWriteCount;
+        }
+
+        /**
+         * Number of documents that stalled on a blocking dynamic mapping update.
+         */
+        public long getMappingUpdateCount() {
+            return mappingUpdateCount;
+        }
+
+        public long getFailedCount() {
+            return failedCount;
+        }
+
+        public static Stats readStats(StreamInput in) throws IOException {
+            Stats stats = new Stats();
+            stats.readFrom(in);
+            return stats;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            indexCount = in.readVLong();
+            deleteCount = in.readVLong();
+            readBeforeWriteCount = in.readVLong();
+            mappingUpdateCount = in.readVLong();
+            failedCount = in.readVLong();
+            int size = in.readVInt();
+            histograms = new Histogram[Stage.values().length];
+            for (int i = 0; i < size; i++) {
+                long minBarForHighestTrackableValue = in.readLong();
+                final int serializedLen = in.readVInt();
+                byte[] bytes = new byte[serializedLen];
+                in.readBytes(bytes, 0, serializedLen);
+                try {
+                    Histogram decoded = Histogram.decodeFromCompressedByteBuffer(ByteBuffer.wrap(bytes), minBarForHighestTrackableValue);
+                    if (i < histograms.length) {
+                        // copy into an auto-resizing histogram so that add() never overflows the decoded range.
+                        histograms[i] = new Histogram(SIGNIFICANT_VALUE_DIGITS);
+                        histograms[i].add(decoded);
+                    }
+                } catch (DataFormatException e) {
+                    throw new IOException("Failed to decode secondary index histogram", e);
+                }
+            }
+            for (int i = size; i < histograms.length; i++) {
+                histograms[i] = new Histogram(SIGNIFICANT_VALUE_DIGITS);
+            }
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            out.writeVLong(indexCount);
+            out.writeVLong(deleteCount);
+            out.writeVLong(readBeforeWriteCount);
+            out.writeVLong(mappingUpdateCount);
+            out.writeVLong(failedCount);
+            out.writeVInt(histograms.length);
+            for (Histogram histogram : histograms) {
+                out.writeLong(histogram.getHighestTrackableValue());
+                ByteBuffer buffer = ByteBuffer.allocate(histogram.getNeededByteBufferCapacity());
+                final int serializedLen = histogram.encodeIntoCompressedByteBuffer(buffer);
+                out.writeVInt(serializedLen);
+                out.writeBytes(buffer.array(), 0, serializedLen);
+            }
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.field(Fields.INDEX_TOTAL, indexCount);
+            builder.field(Fields.DELETE_TOTAL, deleteCount);
+            builder.field(Fields.READ_BEFORE_WRITE_TOTAL, readBeforeWriteCount);
+            builder.field(Fields.MAPPING_UPDATE_TOTAL, mappingUpdateCount);
+            builder.field(Fields.FAILED_TOTAL, failedCount);
+            builder.startObject(Fields.STAGES);
+            for (Stage stage : Stage.values()) {
+                Histogram histogram = histograms[stage.ordinal()];
+                builder.startObject(stage.getRestName());
+                builder.field(Fields.COUNT, histogram.getTotalCount());
+                if (histogram.getTotalCount() > 0) {
+                    builder.field(Fields.MEAN_IN_MICROS, (long) histogram.getMean());
+                    builder.field(Fields.P50_IN_MICROS, histogram.getValueAtPercentile(50.0));
+                    builder.field(Fields.P99_IN_MICROS, histogram.getValueAtPercentile(99.0));
+                    builder.field(Fields.P999_IN_MICROS, histogram.getValueAtPercentile(99.9));
+                    builder.field(Fields.MAX_IN_MICROS, histogram.getMaxValue());
+                }
+                builder.endObject();
+            }
+            builder.endObject();
+            return builder;
+        }
+    }
+
+    private Stats totalStats;
+
+    @Nullable
+    private Map<String, Stats> typeStats;
+
+    public SecondaryIndexStats() {
+        totalStats = new Stats();
+    }
+
+    public SecondaryIndexStats(Stats totalStats, @Nullable Map<String, Stats> typeStats) {
+        this.totalStats = totalStats;
+        this.typeStats = typeStats;
+    }
+
+    public void add(SecondaryIndexStats secondaryIndexStats) {
+        add(secondaryIndexStats, true);
+    }
+
+    public void add(SecondaryIndexStats secondaryIndexStats, boolean includeTypes) {
+        if (secondaryIndexStats == null) {
+            return;
+        }
+        addTotals(secondaryIndexStats);
+        if (includeTypes && secondaryIndexStats.typeStats != null && !secondaryIndexStats.typeStats.isEmpty()) {
+            if (typeStats == null) {
+                typeStats = new HashMap<>(secondaryIndexStats.typeStats.size());
+            }
+            for (Map.Entry<String, Stats> entry : secondaryIndexStats.typeStats.entrySet()) {
+                Stats stats = typeStats.get(entry.getKey());
+                if (stats == null) {
+                    typeStats.put(entry.getKey(), entry.getValue());
+                } else {
+                    stats.add(entry.getValue());
+                }
+            }
+        }
+    }
+
+    public void addTotals(SecondaryIndexStats secondaryIndexStats) {
+        if (secondaryIndexStats == null) {
+            return;
+        }
+        totalStats.add(secondaryIndexStats.totalStats);
+    }
+
+    public Stats getTotal() {
+        return this.totalStats;
+    }
+
+    @Nullable
+    public Map<String, Stats> getTypeStats() {
+        return this.typeStats;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, ToXContent.Params params) throws IOException {
+        builder.startObject(Fields.SECONDARY_INDEX);
+        totalStats.toXContent(builder, params);
+        if (typeStats != null && !typeStats.isEmpty()) {
+            builder.startObject(Fields.TYPES);
+            for (Map.Entry<String, Stats> entry : typeStats.entrySet()) {
+                builder.startObject(entry.getKey(), XContentBuilder.FieldCaseConversion.NONE);
+                entry.getValue().toXContent(builder, params);
+                builder.endObject();
+            }
+            builder.endObject();
+        }
+        builder.endObject();
+        return builder;
+    }
+
+    static final class Fields {
+        static final XContentBuilderString SECONDARY_INDEX = new XContentBuilderString("secondary_index");
+        static final XContentBuilderString TYPES = new XContentBuilderString("types");
+        static final XContentBuilderString STAGES = new XContentBuilderString("stages");
+        static final XContentBuilderString INDEX_TOTAL = new XContentBuilderString("index_total");
+        static final XContentBuilderString DELETE_TOTAL = new XContentBuilderString("delete_total");
+        static final XContentBuilderString READ_BEFORE_WRITE_TOTAL = new XContentBuilderString("read_before_write_total");
+        static final XContentBuilderString MAPPING_UPDATE_TOTAL = new XContentBuilderString("mapping_update_total");
+        static final XContentBuilderString FAILED_TOTAL = new XContentBuilderString("failed_total");
+        static final XContentBuilderString COUNT = new XContentBuilderString("count");
+        static final XContentBuilderString MEAN_IN_MICROS = new XContentBuilderString("mean_in_micros");
+        static final XContentBuilderString P50_IN_MICROS = new XContentBuilderString("p50_in_micros");
+        static final XContentBuilderString P99_IN_MICROS = new XContentBuilderString("p99_in_micros");
+        static final XContentBuilderString P999_IN_MICROS = new XContentBuilderString("p999_in_micros");
+        static final XContentBuilderString MAX_IN_MICROS = new XContentBuilderString("max_in_micros");
+    }
+
+    public static SecondaryIndexStats readSecondaryIndexStats(StreamInput in) throws IOException {
+        SecondaryIndexStats secondaryIndexStats = new SecondaryIndexStats();
+        secondaryIndexStats.readFrom(in);
+        return secondaryIndexStats;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        totalStats = Stats.readStats(in);
+        if (in.readBoolean()) {
+            int size = in.readVInt();
+            typeStats = new HashMap<>(size);
+            for (int i = 0; i < size; i++) {
+                typeStats.put(in.readString(), Stats.readStats(in));
+            }
+        }
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        totalStats.writeTo(out);
+        if (typeStats == null || typeStats.isEmpty()) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            out.writeVInt(typeStats.size());
+            for (Map.Entry<String, Stats> entry : typeStats.entrySet()) {
+                out.writeString(entry.getKey());
+                entry.getValue().writeTo(out);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.indexing;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.elasticsearch.common.metrics.CounterMetric;
+import org.elasticsearch.index.indexing.SecondaryIndexStats.Stage;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the secondary index write path latencies of one type (one Cassandra table).
+ * Writers record into lock-free {@link Recorder}s, readers drain them into cumulative histograms.
+ */
+public class SecondaryIndexStatsHolder {
+
+    private final Recorder[] recorders = new Recorder[Stage.values().length];
+    private final Histogram[] histograms = new Histogram[Stage.values().length];
+
+    public final CounterMetric indexCount = new CounterMetric();
+    public final CounterMetric deleteCount = new CounterMetric();
+    public final CounterMetric readBeforeWriteCount = new CounterMetric();
+    public final CounterMetric mappingUpdateCount = new CounterMetric();
+    public final CounterMetric failedCount = new CounterMetric();
+
+    public SecondaryIndexStatsHolder() {
+        for (int i = 0; i < recorders.length; i++) {
+            recorders[i] = new Recorder(SecondaryIndexStats.SIGNIFICANT_VALUE_DIGITS);
+            histograms[i] = new Histogram(SecondaryIndexStats.SIGNIFICANT_VALUE_DIGITS);
+        }
+    }
+
+    /**
+     * Record the elapsed time of a stage, from startTime (as returned by {@link System#nanoTime()}) to now.
+     */
+    public void recordSince(Stage stage, long startTime) {
+        record(stage, System.nanoTime() - startTime);
+    }
+
+    public void record(Stage stage, long tookInNanos) {
+        if (tookInNanos >= 0) {
+            recorders[stage.ordinal()].recordValue(TimeUnit.NANOSECONDS.toMicros(tookInNanos));
+        }
+    }
+
+    /**
+     * Returns a copy of the cumulative histogram of a stage, in microseconds.
+     */
+    public synchronized Histogram histogram(Stage stage) {
+        drain(stage.ordinal());
+        return histograms[stage.ordinal()].copy();
+    }
+
+    public synchronized SecondaryIndexStats.Stats stats() {
+        Histogram[] copies = new Histogram[histograms.length];
+        for (int i = 0; i < histograms.length; i++) {
+            drain(i);
+            copies[i] = histograms[i].copy();
+        }
+        return new SecondaryIndexStats.Stats(copies, indexCount.count(), deleteCount.count(), readBeforeWriteCount.count(), mappingUpdateCount.count(), failedCount.count());
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < histograms.length; i++) {
+            recorders[i].reset();
+            histograms[i].reset();
+        }
+    }
+
+    private void drain(int ordinal) {
+        histograms[ordinal].add(recorders[ordinal].getIntervalHistogram());
+    }
+}
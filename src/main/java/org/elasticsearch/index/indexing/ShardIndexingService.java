@@ -47,6 +47,8 @@ public class ShardIndexingService extends AbstractIndexShardComponent {
 
     private volatile Map<String, StatsHolder> typesStats = ImmutableMap.of();
 
+    private volatile Map<String, SecondaryIndexStatsHolder> secondaryIndexTypesStats = ImmutableMap.of();
+
     public ShardIndexingService(ShardId shardId, Settings indexSettings) {
         super(shardId, indexSettings);
         this.slowLog = new IndexingSlowLog(indexSettings);
@@ -77,6 +79,44 @@ public class ShardIndexingService extends AbstractIndexShardComponent {
         return new IndexingStats(total, typesSt);
     }
 
+    /**
+     * Returns the Cassandra secondary index write path stats, the total is always computed. Type specific stats
+     * are returned the same way as {@link #stats(String...)}.
+     */
+    public SecondaryIndexStats secondaryIndexStats(String... types) {
+        SecondaryIndexStats.Stats total = new SecondaryIndexStats.Stats();
+        Map<String, SecondaryIndexStats.Stats> typesSt = null;
+        boolean allTypes = types != null && types.length == 1 && types[0].equals("_all");
+        if (types != null && types.length > 0) {
+            typesSt = new HashMap<>(secondaryIndexTypesStats.size());
+        }
+        for (Map.Entry<String, SecondaryIndexStatsHolder> entry : secondaryIndexTypesStats.entrySet()) {
+            SecondaryIndexStats.Stats stats = entry.getValue().stats();
+            total.add(stats);
+            if (typesSt != null && (allTypes || Regex.simpleMatch(types, entry.getKey()))) {
+                typesSt.put(entry.getKey(), stats);
+            }
+        }
+        return new SecondaryIndexStats(total, typesSt);
+    }
+
+    /**
+     * Returns the recorders of the secondary index write path for the given type.
+     */
+    public SecondaryIndexStatsHolder secondaryIndexTypeStats(String type) {
+        SecondaryIndexStatsHolder stats = secondaryIndexTypesStats.get(type);
+        if (stats == null) {
+            synchronized (this) {
+                stats = secondaryIndexTypesStats.get(type);
+                if (stats == null) {
+                    stats = new SecondaryIndexStatsHolder();
+                    secondaryIndexTypesStats = MapBuilder.newMapBuilder(secondaryIndexTypesStats).put(type, stats).immutableMap();
+                }
+            }
+        }
+        return stats;
+    }
+
     public void addListener(IndexingOperationListener listener) {
         listeners.add(listener);
     }
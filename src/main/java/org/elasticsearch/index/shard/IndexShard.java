@@ -27,6 +27,7 @@ import org.apache.lucene.index.CheckIndex;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.search.*;
 import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.Directory;
 import org.apache.lucene.util.IOUtils;
 import org.apache.lucene.util.ThreadInterruptedException;
 import org.elasticsearch.ElasticsearchException;
@@ -42,6 +43,7 @@ import org.elasticsearch.cluster.routing.ShardRouting;
 import org.elasticsearch.cluster.routing.ShardRoutingState;
 import org.elasticsearch.common.Booleans;
 import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.io.stream.BytesStreamOutput;
 import org.elasticsearch.common.logging.ESLogger;
@@ -74,6 +76,7 @@ import org.elasticsearch.index.flush.FlushStats;
 import org.elasticsearch.index.get.GetStats;
 import org.elasticsearch.index.get.ShardGetService;
 import org.elasticsearch.index.indexing.IndexingStats;
+import org.elasticsearch.index.indexing.SecondaryIndexStats;
 import org.elasticsearch.index.indexing.ShardIndexingService;
 import org.elasticsearch.index.mapper.*;
 import org.elasticsearch.index.merge.MergeStats;
@@ -145,6 +148,7 @@ public class IndexShard extends AbstractIndexShardComponent {
     private final ShardTermVectorsService termVectorsService;
     private final IndexFieldDataService indexFieldDataService;
     private final IndexService indexService;
+    private final ClusterService clusterService;
     private final ShardSuggestMetric shardSuggestMetric = new ShardSuggestMetric();
     private final ShardBitsetFilterCache shardBitsetFilterCache;
     private final DiscoveryNode localNode;
@@ -241,6 +245,7 @@ public class IndexShard extends AbstractIndexShardComponent {
         this.shardPercolateService = shardPercolateService;
         this.indexFieldDataService = indexFieldDataService;
         this.indexService = indexService;
+        this.clusterService = clusterService;
         this.shardBitsetFilterCache = new ShardBitsetFilterCache(shardId, indexSettings);
         assert clusterService.localNode() != null : "Local node is null lifecycle state is: " + clusterService.lifecycleState();
         this.localNode = clusterService.localNode();
@@ -323,6 +328,10 @@ public class IndexShard extends AbstractIndexShardComponent {
         return this.getService;
     }
 
+    public ClusterService clusterService() {
+        return this.clusterService;
+    }
+
     public ShardTermVectorsService termVectorsService() {
         return termVectorsService;
     }
@@ -601,6 +610,19 @@ public class IndexShard extends AbstractIndexShardComponent {
         indexingService.postDelete(delete);
     }
 
+    /**
+     * Delete the documents matching the query source from this shard only, without deleting the underlying cassandra rows.
+     */
+    public void deleteByQuery(BytesReference source, String... types) {
+        IndexShardState state = this.state; // one time volatile read
+        if (state != IndexShardState.STARTED && state != IndexShardState.RELOCATED) {
+            throw new IllegalIndexShardStateException(shardId, state, "delete by query only allowed when started");
+        }
+        Engine.DeleteByQuery delete = TranslogRecoveryPerformer.prepareDeleteByQuery(queryParserService, mapperService, indexAliasesService, indexCache,
+                source, null, Engine.Operation.Origin.PRIMARY, types);
+        engine().delete(delete);
+    }
+
     public Engine.GetResult get(Engine.Get get) {
         readAllowed();
         return engine().get(get);
@@ -646,6 +668,10 @@ public class IndexShard extends AbstractIndexShardComponent {
         return indexingService.stats(types);
     }
 
+    public SecondaryIndexStats secondaryIndexStats(String... types) {
+        return indexingService.secondaryIndexStats(types);
+    }
+
     public SearchStats searchStats(String... groups) {
         return searchService.stats(groups);
     }
@@ -754,6 +780,17 @@ public class IndexShard extends AbstractIndexShardComponent {
                 forceMerge.onlyExpungeDeletes(), false, false);
     }
 
+    /**
+     * Adds the documents of the index stored in the given directory that are unknown to this shard, see {@link Engine#addIndexes(Directory)}.
+     */
+    public void addIndexes(Directory directory) {
+        verifyStarted();
+        if (logger.isTraceEnabled()) {
+            logger.trace("add indexes from {}", directory);
+        }
+        engine().addIndexes(directory);
+    }
+
     /**
      * Upgrades the shard to the current version of Lucene and returns the minimum segment version
      */
@@ -813,6 +850,13 @@ public class IndexShard extends AbstractIndexShardComponent {
         synchronized (mutex) {
             try {
                 indexSettingsService.removeListener(applyRefreshSettings);
+                if (state == IndexShardState.STARTED) {
+                    try {
+                        shardWarmerService.writeState(shardPath().getShardStatePath(), shardFieldData.loadedFields());
+                    } catch (Throwable t) {
+                        logger.warn("failed to write warmup state", t);
+                    }
+                }
                 if (state != IndexShardState.CLOSED) {
                     FutureUtils.cancel(refreshScheduledFuture);
                     refreshScheduledFuture = null;
@@ -1054,6 +1098,19 @@ public class IndexShard extends AbstractIndexShardComponent {
         this.failedEngineListener.delegates.add(failedEngineListener);
     }
 
+    /** Returns how many bytes the {@code IndexWriter} of this shard buffers in heap, 0 when the engine is closed. */
+    public long indexBufferRAMBytesUsed() {
+        Engine engine = engineUnsafe();
+        if (engine == null) {
+            return 0;
+        }
+        try {
+            return engine.indexWriterRAMBytesUsed();
+        } catch (AlreadyClosedException ex) {
+            return 0;
+        }
+    }
+
     /** Change the indexing and translog buffer sizes.  If {@code IndexWriter} is currently using more than
      *  the new buffering indexing size then we do a refresh to free up the heap. */
     public void updateBufferSize(ByteSizeValue shardIndexingBufferSize, ByteSizeValue shardTranslogBufferSize) {
@@ -19,6 +19,9 @@
 
 package org.elasticsearch.index.warmer;
 
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.metrics.CounterMetric;
 import org.elasticsearch.common.metrics.MeanMetric;
@@ -26,15 +29,57 @@ import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.index.shard.AbstractIndexShardComponent;
 import org.elasticsearch.index.shard.ShardId;
 
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class ShardIndexWarmerService extends AbstractIndexShardComponent {
 
+    /** Record hot search requests and fielddata fields, and replay them when the shard is reopened. */
+    public static final String INDEX_WARMER_RECORD_ENABLED = "index.warmer.record.enabled";
+    /** Number of recorded search requests replayed when the shard is reopened, the most frequent first. */
+    public static final String INDEX_WARMER_RECORD_MAX_QUERIES = "index.warmer.record.max_queries";
+    /** Search request sources larger than this are not recorded. */
+    public static final String INDEX_WARMER_RECORD_MAX_SOURCE_SIZE = "index.warmer.record.max_source_size";
+
     private final CounterMetric current = new CounterMetric();
     private final MeanMetric warmerMetric = new MeanMetric();
 
+    private final boolean recordEnabled;
+    private final int maxQueries;
+    private final int maxSourceSize;
+    // recorded queries by source, more candidates than replayed are kept so that new hot queries can catch up.
+    private final Map<BytesReference, RecordedQuery> recordedQueries = new HashMap<>();
+    private final AtomicBoolean replayed = new AtomicBoolean();
+
     public ShardIndexWarmerService(ShardId shardId, Settings indexSettings) {
         super(shardId, indexSettings);
+        this.recordEnabled = indexSettings.getAsBoolean(INDEX_WARMER_RECORD_ENABLED, true);
+        this.maxQueries = indexSettings.getAsInt(INDEX_WARMER_RECORD_MAX_QUERIES, 32);
+        this.maxSourceSize = indexSettings.getAsInt(INDEX_WARMER_RECORD_MAX_SOURCE_SIZE, 16 * 1024);
+    }
+
+    private static class RecordedQuery {
+        final String[] types;
+        final BytesReference source;
+        final Boolean requestCache;
+        long hits;
+
+        RecordedQuery(String[] types, BytesReference source, Boolean requestCache, long hits) {
+            this.types = types;
+            this.source = source;
+            this.requestCache = requestCache;
+            this.hits = hits;
+        }
     }
 
     public ESLogger logger() {
@@ -53,4 +98,105 @@ public class ShardIndexWarmerService extends AbstractIndexShardComponent {
     public WarmerStats stats() {
         return new WarmerStats(current.count(), warmerMetric.count(), TimeUnit.NANOSECONDS.toMillis(warmerMetric.sum()));
     }
+
+    public boolean recordEnabled() {
+        return recordEnabled;
+    }
+
+    public int maxQueries() {
+        return maxQueries;
+    }
+
+    /**
+     * Record a search request executed on the shard.
+     */
+    public void onQuery(@Nullable String[] types, BytesReference source, @Nullable Boolean requestCache) {
+        if (!recordEnabled || source == null || source.length() == 0 || source.length() > maxSourceSize) {
+            return;
+        }
+        synchronized (recordedQueries) {
+            RecordedQuery recordedQuery = recordedQueries.get(source);
+            if (recordedQuery != null) {
+                recordedQuery.hits++;
+                return;
+            }
+            if (recordedQueries.size() >= 4 * maxQueries) {
+                age();
+            }
+            // copy the source, it may be a slice of a transport buffer.
+            BytesReference copy = source.copyBytesArray();
+            recordedQueries.put(copy, new RecordedQuery(types == null ? Strings.EMPTY_ARRAY : types, copy, requestCache, 1));
+        }
+    }
+
+    /**
+     * Halve the hits of the recorded queries and forget the ones seen only once.
+     */
+    private void age() {
+        for (Iterator<RecordedQuery> it = recordedQueries.values().iterator(); it.hasNext();) {
+            RecordedQuery recordedQuery = it.next();
+            recordedQuery.hits /= 2;
+            if (recordedQuery.hits == 0) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns <tt>true</tt> the first time it is called, the recorded state is replayed only when the shard is opened.
+     */
+    public boolean markReplayed() {
+        return replayed.compareAndSet(false, true);
+    }
+
+    /**
+     * Load the warmup state written when the shard was last closed, and keep recording on top of it.
+     */
+    public ShardWarmupState loadState(Path shardStatePath) throws IOException {
+        if (!recordEnabled) {
+            return ShardWarmupState.EMPTY;
+        }
+        ShardWarmupState state = ShardWarmupState.FORMAT.loadLatestState(logger, shardStatePath);
+        if (state == null) {
+            return ShardWarmupState.EMPTY;
+        }
+        synchronized (recordedQueries) {
+            for (ShardWarmupState.Query query : state.queries) {
+                RecordedQuery recordedQuery = recordedQueries.get(query.source);
+                if (recordedQuery == null) {
+                    recordedQueries.put(query.source, new RecordedQuery(query.types, query.source, query.requestCache, query.hits));
+                } else {
+                    recordedQuery.hits += query.hits;
+                }
+            }
+        }
+        logger.debug("loaded warmup state {}", state);
+        return state;
+    }
+
+    /**
+     * Write the most frequent recorded queries and the given fielddata fields in the shard state directory.
+     */
+    public void writeState(Path shardStatePath, Collection<String> fields) throws IOException {
+        if (!recordEnabled) {
+            return;
+        }
+        List<RecordedQuery> hottest;
+        synchronized (recordedQueries) {
+            hottest = new ArrayList<>(recordedQueries.values());
+        }
+        Collections.sort(hottest, new Comparator<RecordedQuery>() {
+            @Override
+            public int compare(RecordedQuery o1, RecordedQuery o2) {
+                return Long.compare(o2.hits, o1.hits);
+            }
+        });
+        List<ShardWarmupState.Query> queries = new ArrayList<>(Math.min(maxQueries, hottest.size()));
+        for (RecordedQuery recordedQuery : hottest.subList(0, Math.min(maxQueries, hottest.size()))) {
+            queries.add(new ShardWarmupState.Query(recordedQuery.types, recordedQuery.source, recordedQuery.requestCache, recordedQuery.hits));
+        }
+        ShardWarmupState state = new ShardWarmupState(queries, new ArrayList<>(fields));
+        ShardWarmupState.FORMAT.write(state, 0, shardStatePath);
+        logger.debug("wrote warmup state {}", state);
+    }
 }
@@ -0,0 +1,164 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.index.warmer;
+
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.gateway.CorruptStateException;
+import org.elasticsearch.gateway.MetaDataStateFormat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Hot search requests and fielddata fields of a shard, written in the shard state directory when the shard is closed
+ * and replayed by the warmer when the shard is reopened.
+ */
+public final class ShardWarmupState {
+
+    private static final String WARMUP_STATE_FILE_PREFIX = "warmup-";
+    private static final String QUERIES_KEY = "queries";
+    private static final String FIELDS_KEY = "fields";
+    private static final String TYPES_KEY = "types";
+    private static final String SOURCE_KEY = "source";
+    private static final String REQUEST_CACHE_KEY = "request_cache";
+    private static final String HITS_KEY = "hits";
+
+    public final List<Query> queries;
+    public final List<String> fields;
+
+    public ShardWarmupState(List<Query> queries, List<String> fields) {
+        this.queries = queries;
+        this.fields = fields;
+    }
+
+    /**
+     * A recorded search request source and the number of times it was executed on the shard.
+     */
+    public static final class Query {
+        public final String[] types;
+        public final BytesReference source;
+        @Nullable
+        public final Boolean requestCache;
+        public final long hits;
+
+        public Query(String[] types, BytesReference source, @Nullable Boolean requestCache, long hits) {
+            this.types = types;
+            this.source = source;
+            this.requestCache = requestCache;
+            this.hits = hits;
+        }
+    }
+
+    public static final MetaDataStateFormat<ShardWarmupState> FORMAT = new MetaDataStateFormat<ShardWarmupState>(XContentType.SMILE, WARMUP_STATE_FILE_PREFIX) {
+
+        @Override
+        public void toXContent(XContentBuilder builder, ShardWarmupState state) throws IOException {
+            builder.startArray(QUERIES_KEY);
+            for (Query query : state.queries) {
+                builder.startObject();
+                builder.array(TYPES_KEY, query.types);
+                builder.field(SOURCE_KEY, query.source);
+                if (query.requestCache != null) {
+                    builder.field(REQUEST_CACHE_KEY, query.requestCache.booleanValue());
+                }
+                builder.field(HITS_KEY, query.hits);
+                builder.endObject();
+            }
+            builder.endArray();
+            builder.array(FIELDS_KEY, state.fields.toArray(new String[state.fields.size()]));
+        }
+
+        @Override
+        public ShardWarmupState fromXContent(XContentParser parser) throws IOException {
+            XContentParser.Token token = parser.nextToken();
+            if (token == null) {
+                return null;
+            }
+            List<Query> queries = new ArrayList<>();
+            List<String> fields = new ArrayList<>();
+            String currentFieldName = null;
+            while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                if (token == XContentParser.Token.FIELD_NAME) {
+                    currentFieldName = parser.currentName();
+                } else if (token == XContentParser.Token.START_ARRAY) {
+                    if (QUERIES_KEY.equals(currentFieldName)) {
+                        while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+                            queries.add(parseQuery(parser));
+                        }
+                    } else if (FIELDS_KEY.equals(currentFieldName)) {
+                        while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+                            fields.add(parser.text());
+                        }
+                    } else {
+                        throw new CorruptStateException("unexpected field in warmup state [" + currentFieldName + "]");
+                    }
+                } else {
+                    throw new CorruptStateException("unexpected token in warmup state [" + token.name() + "]");
+                }
+            }
+            return new ShardWarmupState(queries, fields);
+        }
+
+        private Query parseQuery(XContentParser parser) throws IOException {
+            List<String> types = new ArrayList<>();
+            BytesReference source = null;
+            Boolean requestCache = null;
+            long hits = 0;
+            String currentFieldName = null;
+            XContentParser.Token token;
+            while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+                if (token == XContentParser.Token.FIELD_NAME) {
+                    currentFieldName = parser.currentName();
+                } else if (token == XContentParser.Token.START_ARRAY && TYPES_KEY.equals(currentFieldName)) {
+                    while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+                        types.add(parser.text());
+                    }
+                } else if (SOURCE_KEY.equals(currentFieldName)) {
+                    source = new BytesArray(parser.binaryValue());
+                } else if (REQUEST_CACHE_KEY.equals(currentFieldName)) {
+                    requestCache = parser.booleanValue();
+                } else if (HITS_KEY.equals(currentFieldName)) {
+                    hits = parser.longValue();
+                } else {
+                    throw new CorruptStateException("unexpected field in warmup query [" + currentFieldName + "]");
+                }
+            }
+            if (source == null) {
+                throw new CorruptStateException("missing value for [source] in warmup query");
+            }
+            return new Query(types.toArray(new String[types.size()]), source, requestCache, hits);
+        }
+    };
+
+    public static final ShardWarmupState EMPTY = new ShardWarmupState(Collections.<Query>emptyList(), Collections.<String>emptyList());
+
+    @Override
+    public String toString() {
+        return "queries [" + queries.size() + "], fields " + Strings.collectionToCommaDelimitedString(fields);
+    }
+}
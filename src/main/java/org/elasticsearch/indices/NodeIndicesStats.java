@@ -38,6 +38,7 @@ import org.elasticsearch.index.fielddata.FieldDataStats;
 import org.elasticsearch.index.flush.FlushStats;
 import org.elasticsearch.index.get.GetStats;
 import org.elasticsearch.index.indexing.IndexingStats;
+import org.elasticsearch.index.indexing.SecondaryIndexStats;
 import org.elasticsearch.index.merge.MergeStats;
 import org.elasticsearch.index.percolator.stats.PercolateStats;
 import org.elasticsearch.index.recovery.RecoveryStats;
@@ -159,6 +160,11 @@ public class NodeIndicesStats implements Streamable, ToXContent {
         return stats.getRecoveryStats();
     }
 
+    @Nullable
+    public SecondaryIndexStats getSecondaryIndex() {
+        return stats.getSecondaryIndex();
+    }
+
     public static NodeIndicesStats readIndicesStats(StreamInput in) throws IOException {
         NodeIndicesStats stats = new NodeIndicesStats();
         stats.readFrom(in);
@@ -0,0 +1,200 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.indices.cache.aggregations;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.Accountable;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.MemorySizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.search.aggregations.SearchContextAggregations;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the serialized aggregation results of a single segment, so that requests running the same aggregations
+ * on immutable segments only collect the segments they have not seen yet. Entries are keyed by the segment core,
+ * its number of deleted documents (deletes only grow for a given core), the source of the aggregations and the
+ * query as it applies to that segment, and are invalidated when the segment core is closed.
+ * <p/>
+ * The cache is opted in on an index level with {@link #INDEX_CACHE_SEGMENT_AGGREGATIONS_ENABLED}, a dynamic setting
+ * defaulting to false, and is only used for aggregations whose per segment results can be partially reduced, see
+ * {@link org.elasticsearch.search.aggregations.AggregatorFactories#isSegmentCacheable()}.
+ */
+public class IndicesSegmentAggregationsCache extends AbstractComponent {
+
+    public static final String INDEX_CACHE_SEGMENT_AGGREGATIONS_ENABLED = "index.aggregations.segment_cache.enable";
+    public static final String INDICES_CACHE_SEGMENT_AGGREGATIONS_SIZE = "indices.aggregations.segment_cache.size";
+    public static final String INDICES_CACHE_SEGMENT_AGGREGATIONS_EXPIRE = "indices.aggregations.segment_cache.expire";
+
+    // scores differ with DFS, and scroll requests only aggregate on the first page
+    private static final Set<SearchType> CACHEABLE_SEARCH_TYPES = EnumSet.of(SearchType.QUERY_THEN_FETCH, SearchType.QUERY_AND_FETCH, SearchType.COUNT);
+
+    // the ram usage of queries is not known, use the same default as the lucene query cache
+    private static final long QUERY_DEFAULT_RAM_BYTES_USED = 1024;
+
+    private final ClusterService clusterService;
+    private final Cache<Key, BytesReference> cache;
+    private final Set<Object> registeredCoreKeys = ConcurrentCollections.newConcurrentSet();
+
+    @Inject
+    public IndicesSegmentAggregationsCache(Settings settings, ClusterService clusterService) {
+        super(settings);
+        this.clusterService = clusterService;
+        String size = settings.get(INDICES_CACHE_SEGMENT_AGGREGATIONS_SIZE, "1%");
+        TimeValue expire = settings.getAsTime(INDICES_CACHE_SEGMENT_AGGREGATIONS_EXPIRE, null);
+        CacheBuilder<Key, BytesReference> cacheBuilder = CacheBuilder.newBuilder()
+                .maximumWeight(MemorySizeValue.parseBytesSizeValueOrHeapRatio(size, INDICES_CACHE_SEGMENT_AGGREGATIONS_SIZE).bytes())
+                .weigher(new Weigher<Key, BytesReference>() {
+                    @Override
+                    public int weigh(Key key, BytesReference value) {
+                        return (int) (key.ramBytesUsed() + value.length());
+                    }
+                });
+        if (expire != null) {
+            cacheBuilder.expireAfterAccess(expire.millis(), TimeUnit.MILLISECONDS);
+        }
+        this.cache = cacheBuilder.build();
+    }
+
+    /**
+     * Can the aggregations of this search context be computed segment by segment through the cache.
+     */
+    public boolean canCache(SearchContext context) {
+        SearchContextAggregations aggregations = context.aggregations();
+        if (aggregations == null || aggregations.source() == null || aggregations.nowInMillisUsed()) {
+            return false;
+        }
+        if (!CACHEABLE_SEARCH_TYPES.contains(context.searchType()) || context.scrollContext() != null) {
+            return false;
+        }
+        // these change the documents that are collected independently of the query
+        if (context.minimumScore() != null || context.terminateAfter() != SearchContext.DEFAULT_TERMINATE_AFTER) {
+            return false;
+        }
+        IndexMetaData index = clusterService.state().getMetaData().index(context.indexShard().shardId().getIndex());
+        if (index == null || !index.getSettings().getAsBoolean(INDEX_CACHE_SEGMENT_AGGREGATIONS_ENABLED, Boolean.FALSE)) {
+            return false;
+        }
+        // scores depend on the statistics of the whole shard, not only on the segment
+        return aggregations.factories().isSegmentCacheable() && !aggregations.factories().needsScores();
+    }
+
+    public Key key(LeafReader reader, BytesReference aggregationsSource, Query leafQuery) {
+        return new Key(reader.getCoreCacheKey(), reader.numDeletedDocs(), aggregationsSource, leafQuery);
+    }
+
+    public BytesReference get(Key key) {
+        return cache.getIfPresent(key);
+    }
+
+    public void put(LeafReader reader, Key key, BytesReference value) {
+        if (registeredCoreKeys.add(key.coreKey)) {
+            reader.addCoreClosedListener(new LeafReader.CoreClosedListener() {
+                @Override
+                public void onClose(Object ownerCoreCacheKey) {
+                    invalidate(ownerCoreCacheKey);
+                }
+            });
+        }
+        cache.put(key, value);
+    }
+
+    private void invalidate(Object coreKey) {
+        registeredCoreKeys.remove(coreKey);
+        for (Iterator<Key> iterator = cache.asMap().keySet().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().coreKey == coreKey) {
+                iterator.remove();
+            }
+        }
+    }
+
+    public void close() {
+        cache.invalidateAll();
+        registeredCoreKeys.clear();
+    }
+
+    public static class Key implements Accountable {
+        public final Object coreKey; // use as identity equality
+        public final int numDeletedDocs;
+        public final BytesReference aggregationsSource;
+        public final Query leafQuery;
+        private final int hashCode;
+
+        Key(Object coreKey, int numDeletedDocs, BytesReference aggregationsSource, Query leafQuery) {
+            this.coreKey = coreKey;
+            this.numDeletedDocs = numDeletedDocs;
+            this.aggregationsSource = aggregationsSource;
+            this.leafQuery = leafQuery;
+            int result = System.identityHashCode(coreKey);
+            result = 31 * result + numDeletedDocs;
+            result = 31 * result + aggregationsSource.hashCode();
+            result = 31 * result + leafQuery.hashCode();
+            this.hashCode = result;
+        }
+
+        @Override
+        public long ramBytesUsed() {
+            return 3 * RamUsageEstimator.NUM_BYTES_OBJECT_REF + 2 * RamUsageEstimator.NUM_BYTES_INT + aggregationsSource.length()
+                    + (leafQuery instanceof Accountable ? ((Accountable) leafQuery).ramBytesUsed() : QUERY_DEFAULT_RAM_BYTES_USED);
+        }
+
+        @Override
+        public Collection<Accountable> getChildResources() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            if (coreKey != key.coreKey) return false;
+            if (numDeletedDocs != key.numDeletedDocs) return false;
+            if (!aggregationsSource.equals(key.aggregationsSource)) return false;
+            if (!leafQuery.equals(key.leafQuery)) return false;
+            return true;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
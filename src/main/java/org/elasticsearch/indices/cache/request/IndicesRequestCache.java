@@ -32,8 +32,14 @@ import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.util.Accountable;
 import org.apache.lucene.util.RamUsageEstimator;
 import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.cassandra.cluster.routing.TokenRangesFingerprint;
+import org.elasticsearch.cluster.ClusterChangedEvent;
 import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.ClusterStateListener;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.cluster.routing.IndexRoutingTable;
+import org.elasticsearch.cluster.routing.IndexShardRoutingTable;
+import org.elasticsearch.cluster.routing.ShardRouting;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.component.AbstractComponent;
 import org.elasticsearch.common.inject.Inject;
@@ -55,6 +61,7 @@ import org.elasticsearch.threadpool.ThreadPool;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.Callable;
@@ -71,18 +78,28 @@ import static org.elasticsearch.common.Strings.hasLength;
  * are no longer used or closed shards.
  * <p/>
  * Currently, the cache is only enabled for {@link SearchType#COUNT}, and can only be opted in on an index
- * level setting that can be dynamically changed and defaults to false.
+ * level setting that can be dynamically changed and defaults to false. Requests with hits (size > 0) go to
+ * a separate cache, opted in with {@link #INDEX_CACHE_REQUEST_HITS_ENABLED}, so that large hit lists do not
+ * evict small aggregation results.
+ * <p/>
+ * The shard token ranges are part of the key as a {@link TokenRangesFingerprint}, so entries remain valid when
+ * a node goes down and comes back with the same ring coverage. When the local token ranges change, only entries
+ * covering ranges no longer served by the local shard are invalidated.
  * <p/>
  * There are still several TODOs left in this class, some easily addressable, some more complex, but the support
  * is functional.
  */
-public class IndicesRequestCache extends AbstractComponent implements RemovalListener<IndicesRequestCache.Key, IndicesRequestCache.Value> {
+public class IndicesRequestCache extends AbstractComponent implements RemovalListener<IndicesRequestCache.Key, IndicesRequestCache.Value>, ClusterStateListener {
 
     /**
      * A setting to enable or disable request caching on an index level. Its dynamic by default
      * since we are checking on the cluster state IndexMetaData always.
      */
     public static final String INDEX_CACHE_REQUEST_ENABLED = "index.requests.cache.enable";
+    /**
+     * A setting to enable or disable caching of requests with hits (size > 0) on an index level, dynamic as well.
+     */
+    public static final String INDEX_CACHE_REQUEST_HITS_ENABLED = "index.requests.cache.hits.enable";
     @Deprecated
     public static final String DEPRECATED_INDEX_CACHE_REQUEST_ENABLED = "index.cache.query.enable";
     public static final String INDICES_CACHE_REQUEST_CLEAN_INTERVAL = "indices.requests.cache.clean_interval";
@@ -90,6 +107,7 @@ public class IndicesRequestCache extends AbstractComponent implements RemovalLis
     public static final String INDICES_CACHE_QUERY_SIZE = "indices.requests.cache.size";
     @Deprecated
     public static final String DEPRECATED_INDICES_CACHE_QUERY_SIZE = "indices.cache.query.size";
+    public static final String INDICES_CACHE_QUERY_HITS_SIZE = "indices.requests.cache.hits.size";
     public static final String INDICES_CACHE_QUERY_EXPIRE = "indices.requests.cache.expire";
     public static final String INDICES_CACHE_QUERY_CONCURRENCY_LEVEL = "indices.requests.cache.concurrency_level";
 
@@ -103,14 +121,18 @@ public class IndicesRequestCache extends AbstractComponent implements RemovalLis
 
     final ConcurrentMap<CleanupKey, Boolean> registeredClosedListeners = ConcurrentCollections.newConcurrentMap();
     final Set<CleanupKey> keysToClean = ConcurrentCollections.newConcurrentSet();
+    // share token ranges between keys, there are only a few distinct ones per index.
+    final ConcurrentMap<TokenRangesFingerprint, TokenRangesFingerprint> tokenRanges = ConcurrentCollections.newConcurrentMap();
 
 
     //TODO make these changes configurable on the cluster level
     private final String size;
+    private final String hitsSize;
     private final TimeValue expire;
     private final int concurrencyLevel;
 
     private volatile Cache<Key, Value> cache;
+    private volatile Cache<Key, Value> hitsCache;
 
     @Inject
     public IndicesRequestCache(Settings settings, ClusterService clusterService, ThreadPool threadPool) {
@@ -132,6 +154,7 @@ public class IndicesRequestCache extends AbstractComponent implements RemovalLis
             size = "1%";
         }
         this.size = size;
+        this.hitsSize = settings.get(INDICES_CACHE_QUERY_HITS_SIZE, "1%");
 
         this.expire = settings.getAsTime(INDICES_CACHE_QUERY_EXPIRE, null);
         // defaults to 4, but this is a busy map for all indices, increase it a bit by default
@@ -143,6 +166,7 @@ public class IndicesRequestCache extends AbstractComponent implements RemovalLis
 
         this.reaper = new Reaper();
         threadPool.schedule(cleanInterval, ThreadPool.Names.SAME, reaper);
+        clusterService.add(this);
     }
 
     private boolean isCacheEnabled(Settings settings, boolean defaultEnable) {
@@ -161,8 +185,11 @@ public class IndicesRequestCache extends AbstractComponent implements RemovalLis
     }
 
     private void buildCache() {
-        long sizeInBytes = MemorySizeValue.parseBytesSizeValueOrHeapRatio(size, INDICES_CACHE_QUERY_SIZE).bytes();
+        cache = buildCache(MemorySizeValue.parseBytesSizeValueOrHeapRatio(size, INDICES_CACHE_QUERY_SIZE).bytes());
+        hitsCache = buildCache(MemorySizeValue.parseBytesSizeValueOrHeapRatio(hitsSize, INDICES_CACHE_QUERY_HITS_SIZE).bytes());
+    }
 
+    private Cache<Key, Value> buildCache(long sizeInBytes) {
         CacheBuilder<Key, Value> cacheBuilder = CacheBuilder.newBuilder()
                 .maximumWeight(sizeInBytes).weigher(new QueryCacheWeigher()).removalListener(this);
         cacheBuilder.concurrencyLevel(concurrencyLevel);
@@ -171,7 +198,7 @@ public class IndicesRequestCache extends AbstractComponent implements RemovalLis
             cacheBuilder.expireAfterAccess(expire.millis(), TimeUnit.MILLISECONDS);
         }
 
-        cache = cacheBuilder.build();
+        return cacheBuilder.build();
     }
 
     private static class QueryCacheWeigher implements Weigher<Key, Value> {
@@ -183,8 +210,10 @@ public class IndicesRequestCache extends AbstractComponent implements RemovalLis
     }
 
     public void close() {
+        clusterService.remove(this);
         reaper.close();
         cache.invalidateAll();
+        hitsCache.invalidateAll();
     }
 
     public void clear(IndexShard shard) {
@@ -213,8 +242,8 @@ public class IndicesRequestCache extends AbstractComponent implements RemovalLis
             return false;
         }
 
-        // for now, only enable it for requests with no hits
-        if (context.size() != 0) {
+        // requests with hits go to the hits cache, but scroll requests cannot be cached
+        if (context.size() != 0 && (request.scroll() != null || context.scrollContext() != null)) {
             return false;
         }
 
@@ -238,6 +267,9 @@ public class IndicesRequestCache extends AbstractComponent implements RemovalLis
         } else if (!request.requestCache()) {
             return false;
         }
+        if (context.size() != 0 && !index.getSettings().getAsBoolean(INDEX_CACHE_REQUEST_HITS_ENABLED, Boolean.FALSE)) {
+            return false;
+        }
         // if the reader is not a directory reader, we can't get the version from it
         if (!(context.searcher().getIndexReader() instanceof DirectoryReader)) {
             return false;
@@ -260,7 +292,7 @@ public class IndicesRequestCache extends AbstractComponent implements RemovalLis
         assert canCache(request, context);
         Key key = buildKey(request, context);
         Loader loader = new Loader(queryPhase, context, key);
-        Value value = cache.get(key, loader);
+        Value value = (context.size() == 0 ? cache : hitsCache).get(key, loader);
         if (loader.isLoaded()) {
             key.shard.requestCache().onMiss();
             // see if its the first time we see this reader, and make sure to register a cleanup key
@@ -346,16 +378,18 @@ public class IndicesRequestCache extends AbstractComponent implements RemovalLis
         public final IndexShard shard; // use as identity equality
         public final long readerVersion; // use the reader version to now keep a reference to a "short" lived reader until its reaped
         public final BytesReference value;
+        public final TokenRangesFingerprint tokenRanges; // shared, its fingerprint is already in the value
 
-        Key(IndexShard shard, long readerVersion, BytesReference value) {
+        Key(IndexShard shard, long readerVersion, BytesReference value, TokenRangesFingerprint tokenRanges) {
             this.shard = shard;
             this.readerVersion = readerVersion;
             this.value = value;
+            this.tokenRanges = tokenRanges;
         }
 
         @Override
         public long ramBytesUsed() {
-            return RamUsageEstimator.NUM_BYTES_OBJECT_REF + RamUsageEstimator.NUM_BYTES_LONG + value.length();
+            return 2 * RamUsageEstimator.NUM_BYTES_OBJECT_REF + RamUsageEstimator.NUM_BYTES_LONG + value.length();
         }
 
         @Override
@@ -473,32 +507,112 @@ public class IndicesRequestCache extends AbstractComponent implements RemovalLis
             }
 
             if (!currentKeysToClean.isEmpty() || !currentFullClean.isEmpty()) {
-                CleanupKey lookupKey = new CleanupKey(null, -1);
-                for (Iterator<Key> iterator = cache.asMap().keySet().iterator(); iterator.hasNext(); ) {
-                    Key key = iterator.next();
-                    if (currentFullClean.contains(key.shard)) {
+                Set<TokenRangesFingerprint> liveTokenRanges = new HashSet<>();
+                reap(cache, liveTokenRanges);
+                reap(hitsCache, liveTokenRanges);
+                tokenRanges.keySet().retainAll(liveTokenRanges);
+            }
+
+            cache.cleanUp();
+            hitsCache.cleanUp();
+            currentKeysToClean.clear();
+            currentFullClean.clear();
+        }
+
+        private void reap(Cache<Key, Value> cache, Set<TokenRangesFingerprint> liveTokenRanges) {
+            CleanupKey lookupKey = new CleanupKey(null, -1);
+            for (Iterator<Key> iterator = cache.asMap().keySet().iterator(); iterator.hasNext(); ) {
+                Key key = iterator.next();
+                if (currentFullClean.contains(key.shard)) {
+                    iterator.remove();
+                } else {
+                    lookupKey.indexShard = key.shard;
+                    lookupKey.readerVersion = key.readerVersion;
+                    if (currentKeysToClean.contains(lookupKey)) {
                         iterator.remove();
                     } else {
-                        lookupKey.indexShard = key.shard;
-                        lookupKey.readerVersion = key.readerVersion;
-                        if (currentKeysToClean.contains(lookupKey)) {
-                            iterator.remove();
-                        }
+                        liveTokenRanges.add(key.tokenRanges);
                     }
                 }
             }
+        }
+    }
 
-            cache.cleanUp();
-            currentKeysToClean.clear();
-            currentFullClean.clear();
+    /**
+     * When the local token ranges of an index change (a node goes down or comes back), invalidate entries
+     * covering token ranges no longer served by the local shard. Entries computed on the same ring coverage
+     * than the new one are kept, and will be hit again when the topology comes back to its previous state.
+     */
+    @Override
+    public void clusterChanged(ClusterChangedEvent event) {
+        if (!event.routingTableChanged()) {
+            return;
+        }
+        final String localNodeId = event.state().nodes().localNodeId();
+        for (IndexRoutingTable indexRoutingTable : event.state().routingTable()) {
+            final String index = indexRoutingTable.index();
+            if (!event.indexRoutingTableChanged(index)) {
+                continue;
+            }
+            IndexRoutingTable previousIndexRoutingTable = event.previousState().routingTable().index(index);
+            if (previousIndexRoutingTable == null) {
+                continue;
+            }
+            TokenRangesFingerprint previous = localTokenRanges(previousIndexRoutingTable, localNodeId);
+            TokenRangesFingerprint current = localTokenRanges(indexRoutingTable, localNodeId);
+            if (previous == null || current == null || previous.equals(current)) {
+                continue;
+            }
+            final TokenRangesFingerprint removed = previous.minus(current);
+            if (removed.isEmpty()) {
+                continue;
+            }
+            logger.debug("[{}] local token ranges changed from {} to {}, invalidating cached requests on removed ranges", index, previous, current);
+            try {
+                threadPool.executor(ThreadPool.Names.GENERIC).execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        invalidate(cache, index, removed);
+                        invalidate(hitsCache, index, removed);
+                    }
+                });
+            } catch (EsRejectedExecutionException ex) {
+                logger.debug("Can not invalidate cached requests of [{}] - execution rejected", ex, index);
+            }
         }
     }
 
-    private static Key buildKey(ShardSearchRequest request, SearchContext context) throws Exception {
+    private static TokenRangesFingerprint localTokenRanges(IndexRoutingTable indexRoutingTable, String localNodeId) {
+        for (IndexShardRoutingTable indexShardRoutingTable : indexRoutingTable) {
+            for (ShardRouting shardRouting : indexShardRoutingTable) {
+                if (shardRouting.primary() && localNodeId.equals(shardRouting.currentNodeId()) && shardRouting.tokenRanges() != null) {
+                    return TokenRangesFingerprint.of(shardRouting.tokenRanges());
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void invalidate(Cache<Key, Value> cache, String index, TokenRangesFingerprint removed) {
+        for (Iterator<Key> iterator = cache.asMap().keySet().iterator(); iterator.hasNext(); ) {
+            Key key = iterator.next();
+            if (index.equals(key.shard.shardId().index().name()) && key.tokenRanges.intersects(removed)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private Key buildKey(ShardSearchRequest request, SearchContext context) throws Exception {
         // TODO: for now, this will create different keys for different JSON order
         // TODO: tricky to get around this, need to parse and order all, which can be expensive
         return new Key(context.indexShard(),
                 ((DirectoryReader) context.searcher().getIndexReader()).getVersion(),
-                request.cacheKey());
+                request.cacheKey(),
+                internTokenRanges(request.tokenRangesFingerprint()));
+    }
+
+    private TokenRangesFingerprint internTokenRanges(TokenRangesFingerprint fingerprint) {
+        TokenRangesFingerprint previous = tokenRanges.putIfAbsent(fingerprint, fingerprint);
+        return previous == null ? fingerprint : previous;
     }
 }
@@ -38,6 +38,7 @@ import org.elasticsearch.index.fielddata.AtomicFieldData;
 import org.elasticsearch.index.fielddata.FieldDataType;
 import org.elasticsearch.index.fielddata.IndexFieldData;
 import org.elasticsearch.index.fielddata.IndexFieldDataCache;
+import org.elasticsearch.index.fielddata.ordinals.IncrementalGlobalOrdinalsBuilder;
 import org.elasticsearch.index.mapper.MappedFieldType;
 import org.elasticsearch.index.shard.ShardId;
 import org.elasticsearch.index.shard.ShardUtils;
@@ -138,6 +139,7 @@ public class IndicesFieldDataCache extends AbstractComponent implements RemovalL
         final FieldDataType fieldDataType;
         private final Cache<Key, Accountable> cache;
         private final Listener[] listeners;
+        private final IncrementalGlobalOrdinalsBuilder incrementalGlobalOrdinalsBuilder;
 
         IndexFieldCache(ESLogger logger,final Cache<Key, Accountable> cache, Index index, MappedFieldType.Names fieldNames, FieldDataType fieldDataType, Listener... listeners) {
             this.logger = logger;
@@ -146,6 +148,7 @@ public class IndicesFieldDataCache extends AbstractComponent implements RemovalL
             this.fieldNames = fieldNames;
             this.fieldDataType = fieldDataType;
             this.cache = cache;
+            this.incrementalGlobalOrdinalsBuilder = IncrementalGlobalOrdinalsBuilder.isIncremental(fieldDataType) ? new IncrementalGlobalOrdinalsBuilder() : null;
         }
 
         @Override
@@ -233,6 +236,9 @@ public class IndicesFieldDataCache extends AbstractComponent implements RemovalL
             // if a user runs it he probably wants to see memory returned as soon as
             // possible
             cache.cleanUp();
+            if (incrementalGlobalOrdinalsBuilder != null) {
+                incrementalGlobalOrdinalsBuilder.clear();
+            }
         }
 
         @Override
@@ -248,6 +254,14 @@ public class IndicesFieldDataCache extends AbstractComponent implements RemovalL
             // rarely and probably means the user wants to see memory returned as
             // soon as possible
             cache.cleanUp();
+            if (incrementalGlobalOrdinalsBuilder != null && (fieldNames.fullName().equals(fieldName) || fieldNames.indexName().equals(fieldName))) {
+                incrementalGlobalOrdinalsBuilder.clear();
+            }
+        }
+
+        @Override
+        public IncrementalGlobalOrdinalsBuilder incrementalGlobalOrdinalsBuilder() {
+            return incrementalGlobalOrdinalsBuilder;
         }
     }
 
@@ -19,13 +19,23 @@
 
 package org.elasticsearch.indices.memory;
 
+import org.apache.cassandra.config.Schema;
+import org.apache.cassandra.db.ColumnFamilyStore;
+import org.apache.cassandra.db.Keyspace;
+import org.apache.cassandra.db.index.SecondaryIndex;
+import org.apache.lucene.util.CollectionUtil;
+import org.elasticsearch.cassandra.ElasticSecondaryIndex;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.component.AbstractLifecycleComponent;
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.metrics.CounterMetric;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.ByteSizeUnit;
 import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.util.concurrent.AbstractRunnable;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
 import org.elasticsearch.common.util.concurrent.FutureUtils;
 import org.elasticsearch.index.IndexService;
 import org.elasticsearch.index.engine.EngineClosedException;
@@ -38,7 +48,13 @@ import org.elasticsearch.threadpool.ThreadPool;
 
 import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledFuture;
 
 public class IndexingMemoryController extends AbstractLifecycleComponent<IndexingMemoryController> {
@@ -79,6 +95,15 @@ public class IndexingMemoryController extends AbstractLifecycleComponent<Indexin
     /** How frequently we check shards to find inactive ones (default: 30 seconds). */
     public static final String SHARD_INACTIVE_INTERVAL_TIME_SETTING = "indices.memory.interval";
 
+    /** How much heap (% or bytes) Cassandra memtables and {@code IndexWriter} buffers share on this node (default: not set, separate budgets). */
+    public static final String SHARED_BUFFER_SIZE_SETTING = "indices.memory.shared_buffer_size";
+
+    /** How frequently we check the heap used by memtables and indexing buffers against the shared budget (default: 1 second). */
+    public static final String SHARED_BUFFER_INTERVAL_TIME_SETTING = "indices.memory.shared_buffer_interval";
+
+    /** Once the shared budget is exceeded, we flush memtables and indexing buffers until they use less than this part of it. */
+    static final double SHARED_BUFFER_LOW_WATERMARK = 0.8;
+
     /** Once a shard becomes inactive, we reduce the {@code IndexWriter} buffer to this value (500 KB) to let active shards use the heap instead. */
     public static final ByteSizeValue INACTIVE_SHARD_INDEXING_BUFFER = ByteSizeValue.parseBytesSizeValue("500kb", "INACTIVE_SHARD_INDEXING_BUFFER");
 
@@ -99,12 +124,23 @@ public class IndexingMemoryController extends AbstractLifecycleComponent<Indexin
     private final TimeValue inactiveTime;
     private final TimeValue interval;
 
+    @Nullable
+    private final ByteSizeValue sharedBuffer;
+    private final TimeValue sharedBufferInterval;
+
     private volatile ScheduledFuture scheduler;
+    private volatile ScheduledFuture sharedBufferScheduler;
 
     private static final EnumSet<IndexShardState> CAN_UPDATE_INDEX_BUFFER_STATES = EnumSet.of(
             IndexShardState.RECOVERING, IndexShardState.POST_RECOVERY, IndexShardState.STARTED, IndexShardState.RELOCATED);
 
     private final ShardsIndicesStatusChecker statusChecker;
+    private final SharedBufferArbiter sharedBufferArbiter;
+
+    private final Map<ColumnFamilyStore, Future<?>> flushingMemtables = ConcurrentCollections.newConcurrentMap();
+    private final Set<IndexShard> flushingIndexBuffers = ConcurrentCollections.newConcurrentSet();
+    private final CounterMetric memtableFlushes = new CounterMetric();
+    private final CounterMetric indexBufferFlushes = new CounterMetric();
 
     @Inject
     public IndexingMemoryController(Settings settings, ThreadPool threadPool, IndicesService indicesService) {
@@ -164,7 +200,19 @@ public class IndexingMemoryController extends AbstractLifecycleComponent<Indexin
         // we need to have this relatively small to move a shard from inactive to active fast (enough)
         this.interval = this.settings.getAsTime(SHARD_INACTIVE_INTERVAL_TIME_SETTING, TimeValue.timeValueSeconds(30));
 
+        String sharedBufferSetting = this.settings.get(SHARED_BUFFER_SIZE_SETTING);
+        if (sharedBufferSetting == null) {
+            this.sharedBuffer = null;
+        } else if (sharedBufferSetting.endsWith("%")) {
+            double percent = Double.parseDouble(sharedBufferSetting.substring(0, sharedBufferSetting.length() - 1));
+            this.sharedBuffer = new ByteSizeValue((long) (((double) jvmMemoryInBytes) * (percent / 100)));
+        } else {
+            this.sharedBuffer = ByteSizeValue.parseBytesSizeValue(sharedBufferSetting, SHARED_BUFFER_SIZE_SETTING);
+        }
+        this.sharedBufferInterval = this.settings.getAsTime(SHARED_BUFFER_INTERVAL_TIME_SETTING, TimeValue.timeValueSeconds(1));
+
         this.statusChecker = new ShardsIndicesStatusChecker();
+        this.sharedBufferArbiter = new SharedBufferArbiter();
 
         logger.debug("using indexing buffer size [{}], with {} [{}], {} [{}], {} [{}], {} [{}]",
                 this.indexingBuffer,
@@ -172,18 +220,27 @@ public class IndexingMemoryController extends AbstractLifecycleComponent<Indexin
                 MAX_SHARD_INDEX_BUFFER_SIZE_SETTING, this.maxShardIndexBufferSize,
                 SHARD_INACTIVE_TIME_SETTING, this.inactiveTime,
                 SHARD_INACTIVE_INTERVAL_TIME_SETTING, this.interval);
+        if (this.sharedBuffer != null) {
+            logger.debug("sharing [{}] between memtables and indexing buffers, checked every [{}]", this.sharedBuffer, this.sharedBufferInterval);
+        }
     }
 
     @Override
     protected void doStart() {
         // it's fine to run it on the scheduler thread, no busy work
         this.scheduler = threadPool.scheduleWithFixedDelay(statusChecker, interval);
+        if (sharedBuffer != null) {
+            // no busy work either, flushes are asynchronous
+            this.sharedBufferScheduler = threadPool.scheduleWithFixedDelay(sharedBufferArbiter, sharedBufferInterval);
+        }
     }
 
     @Override
     protected void doStop() {
         FutureUtils.cancel(scheduler);
         scheduler = null;
+        FutureUtils.cancel(sharedBufferScheduler);
+        sharedBufferScheduler = null;
     }
 
     @Override
@@ -206,6 +263,52 @@ public class IndexingMemoryController extends AbstractLifecycleComponent<Indexin
         return translogBuffer;
     }
 
+    /**
+     * returns the heap shared by memtables and indexing buffers, or null if they have separate budgets
+     */
+    @Nullable
+    public ByteSizeValue sharedBufferSize() {
+        return sharedBuffer;
+    }
+
+    /**
+     * returns the budget of the indexing buffers: when memtables and indexing buffers share the heap, what memtables
+     * currently leave of the shared budget, at most the indexing buffer size
+     */
+    protected long indexingBudget() {
+        if (sharedBuffer == null) {
+            return indexingBuffer.bytes();
+        }
+        return Math.min(indexingBuffer.bytes(), Math.max(0, sharedBuffer.bytes() - memtablesHeapBytes()));
+    }
+
+    /** returns the memtables of the non system keyspaces */
+    protected List<ColumnFamilyStore> memtables() {
+        List<ColumnFamilyStore> memtables = new ArrayList<>();
+        for (String keyspaceName : Schema.instance.getNonSystemKeyspaces()) {
+            memtables.addAll(Keyspace.open(keyspaceName).getColumnFamilyStores());
+        }
+        return memtables;
+    }
+
+    /** returns the heap used by the current memtables of the non system keyspaces */
+    protected long memtablesHeapBytes() {
+        long bytes = 0;
+        for (ColumnFamilyStore cfs : memtables()) {
+            bytes += cfs.metric.memtableOnHeapSize.getValue();
+        }
+        return bytes;
+    }
+
+    public IndexingMemoryStats stats() {
+        long indexBuffersBytes = 0;
+        for (IndexShard shard : availableShards()) {
+            indexBuffersBytes += shard.indexBufferRAMBytesUsed();
+        }
+        return new IndexingMemoryStats(sharedBuffer == null ? -1 : sharedBuffer.bytes(), indexingBudget(), memtablesHeapBytes(),
+                indexBuffersBytes, memtableFlushes.count(), indexBufferFlushes.count());
+    }
+
     protected List<IndexShard> availableShards() {
         List<IndexShard> availableShards = new ArrayList<>();
 
@@ -264,7 +367,8 @@ public class IndexingMemoryController extends AbstractLifecycleComponent<Indexin
                 return;
             }
 
-            ByteSizeValue shardIndexingBufferSize = new ByteSizeValue(indexingBuffer.bytes() / activeShardCount);
+            long indexingBudget = indexingBudget();
+            ByteSizeValue shardIndexingBufferSize = new ByteSizeValue(indexingBudget / activeShardCount);
             if (shardIndexingBufferSize.bytes() < minShardIndexBufferSize.bytes()) {
                 shardIndexingBufferSize = minShardIndexBufferSize;
             }
@@ -280,7 +384,7 @@ public class IndexingMemoryController extends AbstractLifecycleComponent<Indexin
                 shardTranslogBufferSize = maxShardTranslogBufferSize;
             }
 
-            logger.debug("recalculating shard indexing buffer, total is [{}] with [{}] active shards, each shard set to indexing=[{}], translog=[{}]", indexingBuffer, activeShardCount, shardIndexingBufferSize, shardTranslogBufferSize);
+            logger.debug("recalculating shard indexing buffer, total is [{}] with [{}] active shards, each shard set to indexing=[{}], translog=[{}]", new ByteSizeValue(indexingBudget), activeShardCount, shardIndexingBufferSize, shardTranslogBufferSize);
 
             for (IndexShard shard : activeShards) {
                 updateShardBuffers(shard, shardIndexingBufferSize, shardTranslogBufferSize);
@@ -288,6 +392,185 @@ public class IndexingMemoryController extends AbstractLifecycleComponent<Indexin
         }
     }
 
+    /**
+     * Flushes memtables or indexing buffers when together they use more than the shared budget, most freed heap per
+     * written byte first, until they use less than {@link #SHARED_BUFFER_LOW_WATERMARK} of it.
+     */
+    class SharedBufferArbiter implements Runnable {
+        @Override
+        public synchronized void run() {
+            for (Iterator<Future<?>> it = flushingMemtables.values().iterator(); it.hasNext(); ) {
+                if (it.next().isDone()) {
+                    it.remove();
+                }
+            }
+
+            // buffers being refreshed, or flushed along with a memtable, are already being freed: counting them would
+            // flush more on each check until their flush completes. The flushing memtable itself is already switched out.
+            Set<IndexShard> flushingShards = new HashSet<>(flushingIndexBuffers);
+            for (ColumnFamilyStore cfs : flushingMemtables.keySet()) {
+                flushingShards.addAll(coupledShards(cfs));
+            }
+
+            List<FlushCandidate> candidates = new ArrayList<>();
+            Map<IndexShard, Long> bufferBytes = new HashMap<>();
+            long usedBytes = 0;
+            for (IndexShard shard : availableShards()) {
+                long heapBytes = shard.indexBufferRAMBytesUsed();
+                if (heapBytes > 0 && flushingShards.contains(shard) == false) {
+                    usedBytes += heapBytes;
+                    bufferBytes.put(shard, heapBytes);
+                    // a new segment is usually smaller than the buffer, but we can't tell before writing it
+                    candidates.add(new IndexBufferFlushCandidate(shard, heapBytes, heapBytes));
+                }
+            }
+            for (ColumnFamilyStore cfs : memtables()) {
+                long memtableBytes = cfs.metric.memtableOnHeapSize.getValue();
+                usedBytes += memtableBytes;
+                if (memtableBytes > 0 && flushingMemtables.containsKey(cfs) == false) {
+                    // the sstable holds the live data, overwritten and deleted cells are not written
+                    long heapBytes = memtableBytes;
+                    long writtenBytes = cfs.metric.memtableLiveDataSize.getValue();
+                    // flushing an indexed table also flushes the shards of the indices mapping it, see
+                    // ElasticSecondaryIndex#forceBlockingFlush, so their buffers are written and freed too
+                    List<IndexShard> coupledShards = new ArrayList<>();
+                    for (IndexShard shard : coupledShards(cfs)) {
+                        Long shardBytes = bufferBytes.get(shard);
+                        if (shardBytes != null) {
+                            coupledShards.add(shard);
+                            heapBytes += shardBytes;
+                            writtenBytes += shardBytes;
+                        }
+                    }
+                    candidates.add(new MemtableFlushCandidate(cfs, coupledShards, memtableBytes, heapBytes, writtenBytes));
+                }
+            }
+            if (usedBytes <= sharedBuffer.bytes()) {
+                return;
+            }
+
+            long toFree = usedBytes - (long) (sharedBuffer.bytes() * SHARED_BUFFER_LOW_WATERMARK);
+            logger.debug("memtables and indexing buffers use [{}] of the shared budget [{}], flushing [{}]",
+                    new ByteSizeValue(usedBytes), sharedBuffer, new ByteSizeValue(toFree));
+            CollectionUtil.timSort(candidates);
+            // a shard buffer shared by several memtables is freed by the first flush only
+            Set<IndexShard> flushedShards = new HashSet<>();
+            for (FlushCandidate candidate : candidates) {
+                if (toFree <= 0) {
+                    break;
+                }
+                if (candidate instanceof IndexBufferFlushCandidate) {
+                    if (flushedShards.add(((IndexBufferFlushCandidate) candidate).shard) == false) {
+                        // already flushed along with a memtable
+                        continue;
+                    }
+                    toFree -= candidate.heapBytes;
+                } else {
+                    MemtableFlushCandidate memtable = (MemtableFlushCandidate) candidate;
+                    toFree -= memtable.memtableBytes;
+                    for (IndexShard shard : memtable.coupledShards) {
+                        if (flushedShards.add(shard)) {
+                            toFree -= bufferBytes.get(shard);
+                        }
+                    }
+                }
+                candidate.flush();
+            }
+        }
+
+        /** returns the shards flushed along with the memtable of the given table */
+        private List<IndexShard> coupledShards(ColumnFamilyStore cfs) {
+            List<IndexShard> shards = new ArrayList<>();
+            for (SecondaryIndex index : cfs.indexManager.getIndexes()) {
+                if (index instanceof ElasticSecondaryIndex) {
+                    shards.addAll(((ElasticSecondaryIndex) index).mappedShards());
+                }
+            }
+            return shards;
+        }
+    }
+
+    abstract static class FlushCandidate implements Comparable<FlushCandidate> {
+        final long heapBytes;
+        final long writtenBytes;
+
+        FlushCandidate(long heapBytes, long writtenBytes) {
+            this.heapBytes = heapBytes;
+            this.writtenBytes = writtenBytes;
+        }
+
+        double freedPerWrittenByte() {
+            return (double) heapBytes / Math.max(1, writtenBytes);
+        }
+
+        @Override
+        public int compareTo(FlushCandidate other) {
+            int cmp = Double.compare(other.freedPerWrittenByte(), freedPerWrittenByte());
+            return cmp != 0 ? cmp : Long.compare(other.heapBytes, heapBytes);
+        }
+
+        abstract void flush();
+    }
+
+    class MemtableFlushCandidate extends FlushCandidate {
+        final ColumnFamilyStore cfs;
+        final List<IndexShard> coupledShards;
+        final long memtableBytes;
+
+        MemtableFlushCandidate(ColumnFamilyStore cfs, List<IndexShard> coupledShards, long memtableBytes, long heapBytes, long writtenBytes) {
+            super(heapBytes, writtenBytes);
+            this.cfs = cfs;
+            this.coupledShards = coupledShards;
+            this.memtableBytes = memtableBytes;
+        }
+
+        @Override
+        void flush() {
+            logger.debug("flushing memtable {}.{} to free [{}]", cfs.keyspace.getName(), cfs.name, new ByteSizeValue(heapBytes));
+            flushingMemtables.put(cfs, cfs.forceFlush());
+            memtableFlushes.inc();
+        }
+    }
+
+    class IndexBufferFlushCandidate extends FlushCandidate {
+        final IndexShard shard;
+
+        IndexBufferFlushCandidate(IndexShard shard, long heapBytes, long writtenBytes) {
+            super(heapBytes, writtenBytes);
+            this.shard = shard;
+        }
+
+        @Override
+        void flush() {
+            logger.debug("refreshing shard {} to free [{}] of indexing buffer", shard.shardId(), new ByteSizeValue(heapBytes));
+            flushingIndexBuffers.add(shard);
+            indexBufferFlushes.inc();
+            try {
+                threadPool.executor(ThreadPool.Names.REFRESH).execute(new AbstractRunnable() {
+                    @Override
+                    protected void doRun() throws Exception {
+                        shard.refresh("shared_buffer");
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        if (t instanceof EngineClosedException == false) {
+                            logger.warn("failed to refresh shard {} to free indexing buffer", t, shard.shardId());
+                        }
+                    }
+
+                    @Override
+                    public void onAfter() {
+                        flushingIndexBuffers.remove(shard);
+                    }
+                });
+            } catch (EsRejectedExecutionException e) {
+                flushingIndexBuffers.remove(shard);
+                logger.debug("refresh of shard {} rejected, retrying on next check", shard.shardId());
+            }
+        }
+    }
+
     // visible for testing (virtual clock)
     protected long currentTimeInNanos() {
         return System.nanoTime();
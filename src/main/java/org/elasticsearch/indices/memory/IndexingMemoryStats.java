@@ -0,0 +1,147 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.indices.memory;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.io.stream.Streamable;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
+
+import java.io.IOException;
+
+/**
+ * Heap used by the Cassandra memtables and the {@code IndexWriter} buffers of the node, and the flushes triggered by the
+ * shared buffer budget, see {@link IndexingMemoryController}.
+ */
+public class IndexingMemoryStats implements Streamable, ToXContent {
+    private long sharedBufferSize;
+    private long indexBufferSize;
+    private long memtablesSize;
+    private long indexBuffersSize;
+    private long memtableFlushes;
+    private long indexBufferFlushes;
+
+    public IndexingMemoryStats() {
+    }
+
+    public IndexingMemoryStats(long sharedBufferSize, long indexBufferSize, long memtablesSize, long indexBuffersSize,
+                               long memtableFlushes, long indexBufferFlushes) {
+        this.sharedBufferSize = sharedBufferSize;
+        this.indexBufferSize = indexBufferSize;
+        this.memtablesSize = memtablesSize;
+        this.indexBuffersSize = indexBuffersSize;
+        this.memtableFlushes = memtableFlushes;
+        this.indexBufferFlushes = indexBufferFlushes;
+    }
+
+    /**
+     * The heap shared by memtables and indexing buffers, or -1 when they have separate budgets.
+     */
+    public long getSharedBufferSize() {
+        return sharedBufferSize;
+    }
+
+    /**
+     * The current budget of the indexing buffers.
+     */
+    public long getIndexBufferSize() {
+        return indexBufferSize;
+    }
+
+    public long getMemtablesSize() {
+        return memtablesSize;
+    }
+
+    public long getIndexBuffersSize() {
+        return indexBuffersSize;
+    }
+
+    public long getTotalSize() {
+        return memtablesSize + indexBuffersSize;
+    }
+
+    /**
+     * Number of memtable flushes triggered by the shared buffer budget.
+     */
+    public long getMemtableFlushes() {
+        return memtableFlushes;
+    }
+
+    /**
+     * Number of refreshes triggered by the shared buffer budget to write indexing buffers.
+     */
+    public long getIndexBufferFlushes() {
+        return indexBufferFlushes;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        sharedBufferSize = in.readLong();
+        indexBufferSize = in.readVLong();
+        memtablesSize = in.readVLong();
+        indexBuffersSize = in.readVLong();
+        memtableFlushes = in.readVLong();
+        indexBufferFlushes = in.readVLong();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        out.writeLong(sharedBufferSize);
+        out.writeVLong(indexBufferSize);
+        out.writeVLong(memtablesSize);
+        out.writeVLong(indexBuffersSize);
+        out.writeVLong(memtableFlushes);
+        out.writeVLong(indexBufferFlushes);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+        builder.startObject(Fields.INDEXING_MEMORY);
+        if (sharedBufferSize >= 0) {
+            builder.byteSizeField(Fields.SHARED_BUFFER_SIZE_IN_BYTES, Fields.SHARED_BUFFER_SIZE, sharedBufferSize);
+        }
+        builder.byteSizeField(Fields.INDEX_BUFFER_SIZE_IN_BYTES, Fields.INDEX_BUFFER_SIZE, indexBufferSize);
+        builder.byteSizeField(Fields.MEMTABLES_IN_BYTES, Fields.MEMTABLES, memtablesSize);
+        builder.byteSizeField(Fields.INDEX_BUFFERS_IN_BYTES, Fields.INDEX_BUFFERS, indexBuffersSize);
+        builder.byteSizeField(Fields.TOTAL_IN_BYTES, Fields.TOTAL, getTotalSize());
+        builder.field(Fields.MEMTABLE_FLUSHES, memtableFlushes);
+        builder.field(Fields.INDEX_BUFFER_FLUSHES, indexBufferFlushes);
+        builder.endObject();
+        return builder;
+    }
+
+    static final class Fields {
+        static final XContentBuilderString INDEXING_MEMORY = new XContentBuilderString("indexing_memory");
+        static final XContentBuilderString SHARED_BUFFER_SIZE = new XContentBuilderString("shared_buffer_size");
+        static final XContentBuilderString SHARED_BUFFER_SIZE_IN_BYTES = new XContentBuilderString("shared_buffer_size_in_bytes");
+        static final XContentBuilderString INDEX_BUFFER_SIZE = new XContentBuilderString("index_buffer_size");
+        static final XContentBuilderString INDEX_BUFFER_SIZE_IN_BYTES = new XContentBuilderString("index_buffer_size_in_bytes");
+        static final XContentBuilderString MEMTABLES = new XContentBuilderString("memtables");
+        static final XContentBuilderString MEMTABLES_IN_BYTES = new XContentBuilderString("memtables_in_bytes");
+        static final XContentBuilderString INDEX_BUFFERS = new XContentBuilderString("index_buffers");
+        static final XContentBuilderString INDEX_BUFFERS_IN_BYTES = new XContentBuilderString("index_buffers_in_bytes");
+        static final XContentBuilderString TOTAL = new XContentBuilderString("total");
+        static final XContentBuilderString TOTAL_IN_BYTES = new XContentBuilderString("total_in_bytes");
+        static final XContentBuilderString MEMTABLE_FLUSHES = new XContentBuilderString("memtable_flushes");
+        static final XContentBuilderString INDEX_BUFFER_FLUSHES = new XContentBuilderString("index_buffer_flushes");
+    }
+}
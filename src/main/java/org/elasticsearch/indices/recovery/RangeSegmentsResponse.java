@@ -0,0 +1,71 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.indices.recovery;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.transport.TransportResponse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Files of the segments sent in reply to a {@link StartRangeSegmentsRequest}.
+ */
+class RangeSegmentsResponse extends TransportResponse {
+
+    List<String> fileNames = new ArrayList<>();
+    List<Long> fileSizes = new ArrayList<>();
+    long numDocs;
+
+    RangeSegmentsResponse() {
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        int size = in.readVInt();
+        fileNames = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            fileNames.add(in.readString());
+        }
+        size = in.readVInt();
+        fileSizes = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            fileSizes.add(in.readVLong());
+        }
+        numDocs = in.readVLong();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeVInt(fileNames.size());
+        for (String name : fileNames) {
+            out.writeString(name);
+        }
+        out.writeVInt(fileSizes.size());
+        for (Long size : fileSizes) {
+            out.writeVLong(size);
+        }
+        out.writeVLong(numDocs);
+    }
+}
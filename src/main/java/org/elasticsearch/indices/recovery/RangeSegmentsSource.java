@@ -0,0 +1,208 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.indices.recovery;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.CodecReader;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.RateLimiter;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+import org.apache.lucene.util.IOUtils;
+import org.apache.lucene.util.Version;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.lucene.Lucene;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.engine.Engine;
+import org.elasticsearch.index.mapper.internal.TokenFieldMapper;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.index.store.Store;
+import org.elasticsearch.index.store.StoreFileMetaData;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.EmptyTransportResponseHandler;
+import org.elasticsearch.transport.TransportChannel;
+import org.elasticsearch.transport.TransportRequestHandler;
+import org.elasticsearch.transport.TransportRequestOptions;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sends the documents of a local shard belonging to some token ranges to a peer shard, as Lucene segments, so that the
+ * rows streamed by Cassandra for these ranges do not have to be analysed and indexed again by the receiving node.
+ * The matching documents are copied without analysis into a temporary index, which files are sent with the chunks of
+ * a peer recovery.
+ */
+public class RangeSegmentsSource extends AbstractComponent {
+
+    public static class Actions {
+        public static final String START = "internal:index/shard/range_segments/start";
+    }
+
+    private final TransportService transportService;
+    private final IndicesService indicesService;
+    private final RecoverySettings recoverySettings;
+
+    @Inject
+    public RangeSegmentsSource(Settings settings, TransportService transportService, IndicesService indicesService,
+                               RecoverySettings recoverySettings) {
+        super(settings);
+        this.transportService = transportService;
+        this.indicesService = indicesService;
+        this.recoverySettings = recoverySettings;
+
+        transportService.registerRequestHandler(Actions.START, StartRangeSegmentsRequest.class, ThreadPool.Names.GENERIC, new StartRangeSegmentsTransportRequestHandler());
+    }
+
+    private RangeSegmentsResponse send(StartRangeSegmentsRequest request) throws IOException {
+        final IndexShard shard = indicesService.indexServiceSafe(request.shardId().index().name()).shardSafe(request.shardId().id());
+        // rows indexed before the request must be part of the copied segments
+        shard.refresh("range_segments");
+        Path path = shard.shardPath().getDataPath().resolve("range_segments_out." + request.targetNode().id() + "." + request.transferId());
+        RangeSegmentsResponse response = new RangeSegmentsResponse();
+        try {
+            try (Directory directory = FSDirectory.open(path)) {
+                response.numDocs = write(shard, request, directory);
+                if (response.numDocs > 0) {
+                    sendFiles(shard, request, directory, response);
+                }
+            }
+        } finally {
+            IOUtils.rm(path);
+        }
+        logger.debug("{} sent {} documents in {} files to {}", request.shardId(), response.numDocs, response.fileNames.size(), request.targetNode());
+        return response;
+    }
+
+    /**
+     * Copies the matching documents of the shard into a new index, without analysing them again.
+     */
+    private long write(IndexShard shard, StartRangeSegmentsRequest request, Directory directory) throws IOException {
+        IndexWriterConfig config = new IndexWriterConfig(Lucene.STANDARD_ANALYZER);
+        config.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+        config.setCodec(shard.engine().config().getCodec());
+        config.setCommitOnClose(false);
+        try (Engine.Searcher searcher = shard.acquireSearcher("range_segments");
+             IndexWriter writer = new IndexWriter(directory, config)) {
+            List<CodecReader> readers = new ArrayList<>();
+            for (LeafReaderContext context : searcher.reader().leaves()) {
+                FixedBitSet matchingDocs = matchingDocs(context.reader(), request);
+                if (matchingDocs.cardinality() > 0) {
+                    readers.add(Lucene.filterLiveDocs(context.reader(), matchingDocs));
+                }
+            }
+            if (readers.isEmpty()) {
+                return 0;
+            }
+            writer.addIndexes(readers.toArray(new CodecReader[readers.size()]));
+            writer.commit();
+            return writer.numDocs();
+        }
+    }
+
+    /**
+     * Live documents which token belongs to the requested ranges. Nested documents have no token and precede their root
+     * document in the same block, so they follow the decision of the next root document.
+     */
+    static FixedBitSet matchingDocs(LeafReader reader, StartRangeSegmentsRequest request) throws IOException {
+        Bits liveDocs = reader.getLiveDocs();
+        SortedNumericDocValues tokens = DocValues.getSortedNumeric(reader, TokenFieldMapper.NAME);
+        FixedBitSet matchingDocs = new FixedBitSet(reader.maxDoc());
+        boolean match = false;
+        for (int doc = reader.maxDoc() - 1; doc >= 0; doc--) {
+            tokens.setDocument(doc);
+            if (tokens.count() > 0) {
+                match = request.contains(tokens.valueAt(0));
+            }
+            if (match && (liveDocs == null || liveDocs.get(doc))) {
+                matchingDocs.set(doc);
+            }
+        }
+        return matchingDocs;
+    }
+
+    private void sendFiles(IndexShard shard, StartRangeSegmentsRequest request, Directory directory, RangeSegmentsResponse response) throws IOException {
+        final int bufferSize = (int) Math.max(1, recoverySettings.fileChunkSize().bytes()); // at least one!
+        final byte[] buf = new byte[bufferSize];
+        final TransportRequestOptions requestOptions = TransportRequestOptions.options()
+                .withCompress(recoverySettings.compress())
+                .withType(TransportRequestOptions.Type.RECOVERY)
+                .withTimeout(recoverySettings.internalActionTimeout());
+        long bytesSinceLastPause = 0;
+        for (String name : directory.listAll()) {
+            if (IndexWriter.WRITE_LOCK_NAME.equals(name)) {
+                continue;
+            }
+            try (IndexInput indexInput = directory.openInput(name, IOContext.READONCE)) {
+                final long len = indexInput.length();
+                final StoreFileMetaData md = new StoreFileMetaData(name, len, Store.digestToString(CodecUtil.retrieveChecksum(indexInput)), Version.LATEST);
+                indexInput.seek(0);
+                long readCount = 0;
+                while (readCount < len) {
+                    int toRead = readCount + bufferSize > len ? (int) (len - readCount) : bufferSize;
+                    final long position = indexInput.getFilePointer();
+
+                    // Pause using the rate limiter, the transfer competes with the recoveries
+                    RateLimiter rl = recoverySettings.rateLimiter();
+                    long throttleTimeInNanos = 0;
+                    if (rl != null) {
+                        bytesSinceLastPause += toRead;
+                        if (bytesSinceLastPause > rl.getMinPauseCheckBytes()) {
+                            throttleTimeInNanos = rl.pause(bytesSinceLastPause);
+                            shard.recoveryStats().addThrottleTime(throttleTimeInNanos);
+                            bytesSinceLastPause = 0;
+                        }
+                    }
+                    indexInput.readBytes(buf, 0, toRead, false);
+                    readCount += toRead;
+                    final RecoveryFileChunkRequest fileChunkRequest = new RecoveryFileChunkRequest(request.transferId(), request.shardId(), md, position,
+                            new BytesArray(buf, 0, toRead), readCount == len, 0, throttleTimeInNanos);
+                    transportService.submitRequest(request.targetNode(), RangeSegmentsTarget.Actions.FILE_CHUNK,
+                            fileChunkRequest, requestOptions, EmptyTransportResponseHandler.INSTANCE_SAME).txGet();
+                }
+                response.fileNames.add(name);
+                response.fileSizes.add(len);
+            }
+        }
+    }
+
+    class StartRangeSegmentsTransportRequestHandler implements TransportRequestHandler<StartRangeSegmentsRequest> {
+        @Override
+        public void messageReceived(final StartRangeSegmentsRequest request, final TransportChannel channel) throws Exception {
+            RangeSegmentsResponse response = send(request);
+            channel.sendResponse(response);
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.indices.recovery;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IOUtils;
+import org.elasticsearch.action.admin.indices.flush.FlushRequest;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.ConcurrentCollections;
+import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.index.store.Store;
+import org.elasticsearch.indices.IndicesService;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.transport.FutureTransportResponseHandler;
+import org.elasticsearch.transport.TransportChannel;
+import org.elasticsearch.transport.TransportRequestHandler;
+import org.elasticsearch.transport.TransportRequestOptions;
+import org.elasticsearch.transport.TransportResponse;
+import org.elasticsearch.transport.TransportService;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetches from a peer shard the documents belonging to some token ranges as Lucene segments (see {@link RangeSegmentsSource}),
+ * and adds the ones unknown to the local shard with {@link IndexShard#addIndexes}, without analysing them again.
+ */
+public class RangeSegmentsTarget extends AbstractComponent {
+
+    public static class Actions {
+        public static final String FILE_CHUNK = "internal:index/shard/range_segments/file_chunk";
+    }
+
+    private final TransportService transportService;
+    private final IndicesService indicesService;
+    private final RecoverySettings recoverySettings;
+    private final ClusterService clusterService;
+
+    private final AtomicLong transferIdGenerator = new AtomicLong();
+    private final ConcurrentMap<Long, Transfer> onGoingTransfers = ConcurrentCollections.newConcurrentMap();
+
+    @Inject
+    public RangeSegmentsTarget(Settings settings, TransportService transportService, IndicesService indicesService,
+                               RecoverySettings recoverySettings, ClusterService clusterService) {
+        super(settings);
+        this.transportService = transportService;
+        this.indicesService = indicesService;
+        this.recoverySettings = recoverySettings;
+        this.clusterService = clusterService;
+
+        transportService.registerRequestHandler(Actions.FILE_CHUNK, RecoveryFileChunkRequest.class, ThreadPool.Names.GENERIC, new FileChunkTransportRequestHandler());
+    }
+
+    /**
+     * Fetches the documents of the shard belonging to the given token ranges from the source node, and adds the ones
+     * unknown to the local shard. Blocks until the documents are flushed.
+     * @param lefts  exclusive left bounds of the sorted, non wrapping and disjoint token ranges
+     * @param rights inclusive right bounds of the token ranges
+     * @return the number of received documents.
+     */
+    public long fetch(ShardId shardId, DiscoveryNode sourceNode, long[] lefts, long[] rights) throws IOException {
+        final IndexShard shard = indicesService.indexServiceSafe(shardId.index().name()).shardSafe(shardId.id());
+        final long transferId = transferIdGenerator.incrementAndGet();
+        final Path path = shard.shardPath().getDataPath().resolve("range_segments_in." + sourceNode.id() + "." + transferId);
+        try {
+            try (Transfer transfer = new Transfer(FSDirectory.open(path))) {
+                onGoingTransfers.put(transferId, transfer);
+                StartRangeSegmentsRequest request = new StartRangeSegmentsRequest(transferId, shardId, clusterService.localNode(), lefts, rights);
+                RangeSegmentsResponse response = transportService.submitRequest(sourceNode, RangeSegmentsSource.Actions.START, request,
+                        TransportRequestOptions.options().withTimeout(recoverySettings.internalActionLongTimeout()),
+                        new FutureTransportResponseHandler<RangeSegmentsResponse>() {
+                            @Override
+                            public RangeSegmentsResponse newInstance() {
+                                return new RangeSegmentsResponse();
+                            }
+                        }).txGet();
+                if (response.numDocs == 0) {
+                    return 0;
+                }
+                transfer.verify(response);
+                shard.addIndexes(transfer.directory);
+                shard.flush(new FlushRequest().force(true).waitIfOngoing(true));
+                logger.debug("{} added {} documents received from {}", shardId, response.numDocs, sourceNode);
+                return response.numDocs;
+            } finally {
+                onGoingTransfers.remove(transferId);
+            }
+        } finally {
+            IOUtils.rm(path);
+        }
+    }
+
+    /**
+     * Files of an on-going transfer, written in a temporary directory of the shard.
+     */
+    static class Transfer implements Closeable {
+        final Directory directory;
+        final Map<String, IndexOutput> openOutputs = new HashMap<>();
+        final Map<String, Long> receivedFiles = new HashMap<>();
+
+        Transfer(Directory directory) {
+            this.directory = directory;
+        }
+
+        synchronized void writeChunk(RecoveryFileChunkRequest request) throws IOException {
+            IndexOutput output = openOutputs.get(request.name());
+            if (output == null) {
+                if (request.position() != 0) {
+                    throw new IllegalStateException("missing first chunk of file [" + request.name() + "]");
+                }
+                output = directory.createOutput(request.name(), IOContext.DEFAULT);
+                openOutputs.put(request.name(), output);
+            }
+            BytesRef content = request.content().toBytesRef();
+            output.writeBytes(content.bytes, content.offset, content.length);
+            if (request.lastChunk()) {
+                openOutputs.remove(request.name()).close();
+                try (IndexInput input = directory.openInput(request.name(), IOContext.READONCE)) {
+                    String checksum = Store.digestToString(CodecUtil.checksumEntireFile(input));
+                    if (input.length() != request.length() || checksum.equals(request.checksum()) == false) {
+                        throw new CorruptIndexException("checksum failed (expected=" + request.checksum() + " actual=" + checksum
+                                + " length=" + request.length() + " actual length=" + input.length() + ")", input);
+                    }
+                }
+                receivedFiles.put(request.name(), request.length());
+            }
+        }
+
+        synchronized void verify(RangeSegmentsResponse response) {
+            for (int i = 0; i < response.fileNames.size(); i++) {
+                Long length = receivedFiles.get(response.fileNames.get(i));
+                if (length == null || length.longValue() != response.fileSizes.get(i).longValue()) {
+                    throw new IllegalStateException("file [" + response.fileNames.get(i) + "] was not fully received");
+                }
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            try {
+                IOUtils.close(openOutputs.values());
+            } finally {
+                directory.close();
+            }
+        }
+    }
+
+    class FileChunkTransportRequestHandler implements TransportRequestHandler<RecoveryFileChunkRequest> {
+        @Override
+        public void messageReceived(final RecoveryFileChunkRequest request, TransportChannel channel) throws Exception {
+            Transfer transfer = onGoingTransfers.get(request.recoveryId());
+            if (transfer == null) {
+                throw new IllegalStateException("unknown range segments transfer [" + request.recoveryId() + "]");
+            }
+            transfer.writeChunk(request);
+            channel.sendResponse(TransportResponse.Empty.INSTANCE);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.indices.recovery;
+
+import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.transport.TransportRequest;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Asks the source node to send the documents of a shard belonging to some token ranges, as Lucene segments.
+ */
+public class StartRangeSegmentsRequest extends TransportRequest {
+
+    private long transferId;
+
+    private ShardId shardId;
+
+    private DiscoveryNode targetNode;
+
+    private long[] lefts;
+
+    private long[] rights;
+
+    StartRangeSegmentsRequest() {
+    }
+
+    /**
+     * @param lefts  exclusive left bounds of the sorted, non wrapping and disjoint token ranges
+     * @param rights inclusive right bounds of the token ranges
+     */
+    public StartRangeSegmentsRequest(long transferId, ShardId shardId, DiscoveryNode targetNode, long[] lefts, long[] rights) {
+        assert lefts.length == rights.length;
+        this.transferId = transferId;
+        this.shardId = shardId;
+        this.targetNode = targetNode;
+        this.lefts = lefts;
+        this.rights = rights;
+    }
+
+    public long transferId() {
+        return transferId;
+    }
+
+    public ShardId shardId() {
+        return shardId;
+    }
+
+    public DiscoveryNode targetNode() {
+        return targetNode;
+    }
+
+    /**
+     * @return true if the token belongs to one of the requested ranges.
+     */
+    public boolean contains(long token) {
+        int i = Arrays.binarySearch(rights, token);
+        if (i >= 0) {
+            return true;
+        }
+        i = -i - 1;
+        return i < rights.length && lefts[i] < token;
+    }
+
+    @Override
+    public void readFrom(StreamInput in) throws IOException {
+        super.readFrom(in);
+        transferId = in.readLong();
+        shardId = ShardId.readShardId(in);
+        targetNode = DiscoveryNode.readNode(in);
+        lefts = in.readLongArray();
+        rights = in.readLongArray();
+    }
+
+    @Override
+    public void writeTo(StreamOutput out) throws IOException {
+        super.writeTo(out);
+        out.writeLong(transferId);
+        shardId.writeTo(out);
+        targetNode.writeTo(out);
+        out.writeLongArray(lefts);
+        out.writeLongArray(rights);
+    }
+
+    @Override
+    public String toString() {
+        return shardId + ": transfer=" + transferId + ", target=" + targetNode + ", ranges=" + lefts.length;
+    }
+}
@@ -20,31 +20,27 @@
 package org.elasticsearch.indices.ttl;
 
 import org.apache.lucene.index.LeafReaderContext;
-import org.apache.lucene.index.Term;
-import org.apache.lucene.search.Query;
-import org.apache.lucene.search.Scorer;
-import org.apache.lucene.search.SimpleCollector;
-import org.elasticsearch.action.ActionListener;
-import org.elasticsearch.action.bulk.BulkItemResponse;
-import org.elasticsearch.action.bulk.BulkRequest;
-import org.elasticsearch.action.bulk.BulkResponse;
-import org.elasticsearch.action.bulk.TransportBulkAction;
-import org.elasticsearch.action.delete.DeleteRequest;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.NumericUtils;
 import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.cluster.metadata.IndexMetaData;
 import org.elasticsearch.cluster.metadata.MetaData;
 import org.elasticsearch.common.component.AbstractLifecycleComponent;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.inject.Inject;
-import org.elasticsearch.common.lucene.uid.Versions;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.index.engine.Engine;
-import org.elasticsearch.index.fieldvisitor.FieldsVisitor;
 import org.elasticsearch.index.mapper.DocumentMapper;
-import org.elasticsearch.index.mapper.Uid;
 import org.elasticsearch.index.mapper.internal.TTLFieldMapper;
-import org.elasticsearch.index.mapper.internal.UidFieldMapper;
+import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.IndexService;
 import org.elasticsearch.index.shard.IndexShardState;
 import org.elasticsearch.index.shard.IndexShard;
@@ -63,6 +59,8 @@ import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A node level service that delete expired docs on node primary shards.
+ * As cassandra expires the rows, expired documents are deleted from the local shard with a single delete by query
+ * on _ttl, and only when the smallest _ttl of a segment has expired.
  */
 public class IndicesTTLService extends AbstractLifecycleComponent<IndicesTTLService> {
 
@@ -71,19 +69,15 @@ public class IndicesTTLService extends AbstractLifecycleComponent<IndicesTTLServ
 
     private final ClusterService clusterService;
     private final IndicesService indicesService;
-    private final TransportBulkAction bulkAction;
 
-    private final int bulkSize;
     private PurgerThread purgerThread;
 
     @Inject
-    public IndicesTTLService(Settings settings, ClusterService clusterService, IndicesService indicesService, NodeSettingsService nodeSettingsService, TransportBulkAction bulkAction) {
+    public IndicesTTLService(Settings settings, ClusterService clusterService, IndicesService indicesService, NodeSettingsService nodeSettingsService) {
         super(settings);
         this.clusterService = clusterService;
         this.indicesService = indicesService;
         TimeValue interval = this.settings.getAsTime("indices.ttl.interval", TimeValue.timeValueSeconds(60));
-        this.bulkAction = bulkAction;
-        this.bulkSize = this.settings.getAsInt("indices.ttl.bulk_size", 10000);
         this.purgerThread = new PurgerThread(EsExecutors.threadName(settings, "[ttl_expire]"), interval);
 
         nodeSettingsService.addListener(new ApplySettings());
@@ -196,118 +190,52 @@ public class IndicesTTLService extends AbstractLifecycleComponent<IndicesTTLServ
 
     private void purgeShards(List<IndexShard> shardsToPurge) {
         for (IndexShard shardToPurge : shardsToPurge) {
-            Query query = shardToPurge.indexService().mapperService().smartNameFieldType(TTLFieldMapper.NAME).rangeQuery(null, System.currentTimeMillis(), false, true);
-            Engine.Searcher searcher = shardToPurge.acquireSearcher("indices_ttl");
+            final long now = System.currentTimeMillis();
             try {
-                logger.debug("[{}][{}] purging shard", shardToPurge.routingEntry().index(), shardToPurge.routingEntry().id());
-                ExpiredDocsCollector expiredDocsCollector = new ExpiredDocsCollector();
-                searcher.searcher().search(query, expiredDocsCollector);
-                List<DocToPurge> docsToPurge = expiredDocsCollector.getDocsToPurge();
-
-                BulkRequest bulkRequest = new BulkRequest();
-                for (DocToPurge docToPurge : docsToPurge) {
-
-                    bulkRequest.add(new DeleteRequest().index(shardToPurge.routingEntry().index()).type(docToPurge.type).id(docToPurge.id).version(docToPurge.version).routing(docToPurge.routing));
-                    bulkRequest = processBulkIfNeeded(bulkRequest, false);
+                if (!hasExpiredDocs(shardToPurge, now)) {
+                    logger.trace("[{}][{}] no expired document", shardToPurge.routingEntry().index(), shardToPurge.routingEntry().id());
+                    continue;
                 }
-                processBulkIfNeeded(bulkRequest, true);
+                logger.debug("[{}][{}] purging shard", shardToPurge.routingEntry().index(), shardToPurge.routingEntry().id());
+                // expired rows are removed by cassandra, so expired documents are only deleted from the local index.
+                BytesReference source = XContentFactory.jsonBuilder().startObject()
+                        .field("query", QueryBuilders.rangeQuery(TTLFieldMapper.NAME).lte(now))
+                        .endObject().bytes();
+                shardToPurge.deleteByQuery(source);
             } catch (Exception e) {
                 logger.warn("failed to purge", e);
-            } finally {
-                searcher.close();
             }
         }
     }
 
-    private static class DocToPurge {
-        public final String type;
-        public final String id;
-        public final long version;
-        public final String routing;
-
-        public DocToPurge(String type, String id, long version, String routing) {
-            this.type = type;
-            this.id = id;
-            this.version = version;
-            this.routing = routing;
-        }
-    }
-
-    private class ExpiredDocsCollector extends SimpleCollector {
-        private LeafReaderContext context;
-        private List<DocToPurge> docsToPurge = new ArrayList<>();
-
-        public ExpiredDocsCollector() {
-        }
-
-        @Override
-        public void setScorer(Scorer scorer) {
-        }
-
-        @Override
-        public boolean needsScores() {
-            return false;
-        }
-
-        @Override
-        public void collect(int doc) {
-            try {
-                FieldsVisitor fieldsVisitor = new FieldsVisitor(false);
-                context.reader().document(doc, fieldsVisitor);
-                Uid uid = fieldsVisitor.uid();
-                final long version = Versions.loadVersion(context.reader(), new Term(UidFieldMapper.NAME, uid.toBytesRef()));
-                docsToPurge.add(new DocToPurge(uid.type(), uid.id(), version, fieldsVisitor.routing()));
-            } catch (Exception e) {
-                logger.trace("failed to collect doc", e);
-            }
-        }
-
-        @Override
-        public void doSetNextReader(LeafReaderContext context) throws IOException {
-            this.context = context;
-        }
-
-        public List<DocToPurge> getDocsToPurge() {
-            return this.docsToPurge;
-        }
-    }
-
-    private BulkRequest processBulkIfNeeded(BulkRequest bulkRequest, boolean force) {
-        if ((force && bulkRequest.numberOfActions() > 0) || bulkRequest.numberOfActions() >= bulkSize) {
-            try {
-                bulkAction.executeBulk(bulkRequest, new ActionListener<BulkResponse>() {
-                    @Override
-                    public void onResponse(BulkResponse bulkResponse) {
-                        if (bulkResponse.hasFailures()) {
-                            int failedItems = 0;
-                            for (BulkItemResponse response : bulkResponse) {
-                                if (response.isFailed()) failedItems++;
-                            }
-                            if (logger.isTraceEnabled()) {
-                                logger.trace("bulk deletion failures for [{}]/[{}] items, failure message: [{}]", failedItems, bulkResponse.getItems().length, bulkResponse.buildFailureMessage());
-                            } else {
-                                logger.error("bulk deletion failures for [{}]/[{}] items", failedItems, bulkResponse.getItems().length);
-                            }
-                        } else {
-                            logger.trace("bulk deletion took " + bulkResponse.getTookInMillis() + "ms");
-                        }
-                    }
-
-                    @Override
-                    public void onFailure(Throwable e) {
-                        if (logger.isTraceEnabled()) {
-                            logger.trace("failed to execute bulk", e);
-                        } else {
-                            logger.warn("failed to execute bulk: [{}]", e.getMessage());
+    /**
+     * Check the smallest expiration time of each segment, so that the index is not searched when nothing has expired.
+     * In segments with deletions, expired terms are checked against live docs because deleted documents still hold their terms.
+     */
+    private boolean hasExpiredDocs(IndexShard shard, long now) throws IOException {
+        try (Engine.Searcher searcher = shard.acquireSearcher("indices_ttl")) {
+            for (LeafReaderContext context : searcher.reader().leaves()) {
+                Terms terms = context.reader().terms(TTLFieldMapper.NAME);
+                if (terms == null || terms.size() == 0 || NumericUtils.getMinLong(terms) > now) {
+                    continue;
+                }
+                Bits liveDocs = context.reader().getLiveDocs();
+                if (liveDocs == null) {
+                    return true;
+                }
+                TermsEnum termsEnum = NumericUtils.filterPrefixCodedLongs(terms.iterator());
+                PostingsEnum postings = null;
+                for (BytesRef term = termsEnum.next(); term != null && NumericUtils.prefixCodedToLong(term) <= now; term = termsEnum.next()) {
+                    postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                    for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                        if (liveDocs.get(doc)) {
+                            return true;
                         }
                     }
-                });
-            } catch (Exception e) {
-                logger.warn("failed to process bulk", e);
+                }
             }
-            bulkRequest = new BulkRequest();
         }
-        return bulkRequest;
+        return false;
     }
 
     class ApplySettings implements NodeSettingsService.Listener {
@@ -20,6 +20,8 @@
 package org.elasticsearch.repositories;
 
 import org.elasticsearch.action.admin.cluster.snapshots.status.TransportNodesSnapshotsStatus;
+import org.elasticsearch.cassandra.snapshots.CassandraIndexShardRepository;
+import org.elasticsearch.cassandra.snapshots.CassandraRepository;
 import org.elasticsearch.common.inject.AbstractModule;
 import org.elasticsearch.index.snapshots.IndexShardRepository;
 import org.elasticsearch.index.snapshots.blobstore.BlobStoreIndexShardRepository;
@@ -41,6 +43,7 @@ public class RepositoriesModule extends AbstractModule {
     public RepositoriesModule() {
         registerRepository(FsRepository.TYPE, FsRepository.class, BlobStoreIndexShardRepository.class);
         registerRepository(URLRepository.TYPE, URLRepository.class, BlobStoreIndexShardRepository.class);
+        registerRepository(CassandraRepository.TYPE, CassandraRepository.class, CassandraIndexShardRepository.class);
     }
 
     /** Registers a custom repository type to the given {@link Repository} and {@link IndexShardRepository}. */
@@ -27,6 +27,7 @@ import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentType;
 
 import java.io.IOException;
+import java.io.OutputStream;
 
 /**
  * A channel used to construct bytes / builder based outputs, and send responses.
@@ -53,6 +54,19 @@ public abstract class RestChannel {
     }
 
     public XContentBuilder newBuilder(@Nullable BytesReference autoDetectSource, boolean useFiltering) throws IOException {
+        return newBuilder(responseContentType(autoDetectSource), bytesOutput(), useFiltering);
+    }
+
+    /**
+     * Send the response headers and return a builder streaming the response content with a chunked transfer encoding,
+     * see {@link #newChunkedOutput(RestStatus, String)}. The response is complete when the builder is closed.
+     */
+    public XContentBuilder newChunkedBuilder(RestStatus status) throws IOException {
+        XContentType contentType = responseContentType(request.hasContent() ? request.content() : null);
+        return newBuilder(contentType, newChunkedOutput(status, contentType.restContentType()), request.hasParam("filter_path"));
+    }
+
+    private XContentType responseContentType(@Nullable BytesReference autoDetectSource) {
         XContentType contentType = XContentType.fromRestContentType(request.param("format", request.header("Content-Type")));
         if (contentType == null) {
             // try and guess it from the auto detect source
@@ -64,9 +78,12 @@ public abstract class RestChannel {
             // default to JSON
             contentType = XContentType.JSON;
         }
+        return contentType;
+    }
 
+    private XContentBuilder newBuilder(XContentType contentType, OutputStream out, boolean useFiltering) throws IOException {
         String[] filters = useFiltering ? request.paramAsStringArrayOrEmptyIfAll("filter_path") :  null;
-        XContentBuilder builder = new XContentBuilder(XContentFactory.xContent(contentType), bytesOutput(), filters);
+        XContentBuilder builder = new XContentBuilder(XContentFactory.xContent(contentType), out, filters);
         if (request.paramAsBoolean("pretty", false)) {
             builder.prettyPrint().lfAtEnd();
         }
@@ -110,4 +127,33 @@ public abstract class RestChannel {
     }
 
     public abstract void sendResponse(RestResponse response);
+
+    /**
+     * @return true if the response content can be streamed with {@link #newChunkedOutput(RestStatus, String)}.
+     */
+    public boolean supportsChunkedResponse() {
+        return false;
+    }
+
+    /**
+     * Send the response headers with a chunked transfer encoding, and return the response content stream.
+     * Content is written to the channel in bounded chunks as it is produced, and the response is complete when the stream is closed.
+     */
+    public OutputStream newChunkedOutput(RestStatus status, String contentType) throws IOException {
+        throw new UnsupportedOperationException("chunked response not supported by " + getClass().getSimpleName());
+    }
+
+    /**
+     * Run the production of a chunked response on a thread allowed to wait for the channel to be writable.
+     * Runs the task in the calling thread by default.
+     */
+    public void executeChunked(Runnable task) {
+        task.run();
+    }
+
+    /**
+     * Abort a chunked response after a failure, the connection is closed so that the client sees an incomplete response.
+     */
+    public void abortChunkedResponse() {
+    }
 }
\ No newline at end of file
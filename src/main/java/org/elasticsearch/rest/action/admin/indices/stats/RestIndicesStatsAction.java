@@ -80,6 +80,7 @@ public class RestIndicesStatsAction extends BaseRestHandler {
             indicesStatsRequest.suggest(metrics.contains("suggest"));
             indicesStatsRequest.requestCache(metrics.contains("request_cache"));
             indicesStatsRequest.recovery(metrics.contains("recovery"));
+            indicesStatsRequest.secondaryIndex(metrics.contains("secondary_index"));
             indicesStatsRequest.translog(metrics.contains("translog"));
         }
 
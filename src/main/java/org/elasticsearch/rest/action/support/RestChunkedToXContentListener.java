@@ -0,0 +1,71 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.rest.action.support;
+
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.xcontent.StatusToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+
+/**
+ * Streams the response with a chunked transfer encoding when the channel supports it, so that the serialized
+ * response is never held in a single buffer. The response is produced with {@link RestChannel#executeChunked(Runnable)},
+ * as the producer waits for the channel to be writable. Falls back to {@link RestStatusToXContentListener} behavior otherwise.
+ */
+public class RestChunkedToXContentListener<Response extends StatusToXContent> extends RestActionListener<Response> {
+
+    private static final ESLogger logger = Loggers.getLogger(RestChunkedToXContentListener.class);
+
+    public RestChunkedToXContentListener(RestChannel channel) {
+        super(channel);
+    }
+
+    @Override
+    protected void processResponse(final Response response) throws Exception {
+        if (!channel.supportsChunkedResponse()) {
+            XContentBuilder builder = channel.newBuilder();
+            builder.startObject();
+            response.toXContent(builder, channel.request());
+            builder.endObject();
+            channel.sendResponse(new BytesRestResponse(response.status(), builder));
+            return;
+        }
+
+        channel.executeChunked(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    XContentBuilder builder = channel.newChunkedBuilder(response.status());
+                    builder.startObject();
+                    response.toXContent(builder, channel.request());
+                    builder.endObject();
+                    builder.close();
+                    builder.stream().close();
+                } catch (Throwable t) {
+                    // headers may already be sent, the client will see a truncated response.
+                    logger.warn("failed to stream response", t);
+                    channel.abortChunkedResponse();
+                }
+            }
+        });
+    }
+}
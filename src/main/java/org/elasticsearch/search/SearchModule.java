@@ -30,8 +30,11 @@ import org.elasticsearch.search.aggregations.AggregationParseElement;
 import org.elasticsearch.search.aggregations.AggregationPhase;
 import org.elasticsearch.search.aggregations.Aggregator;
 import org.elasticsearch.search.aggregations.AggregatorParsers;
+import org.elasticsearch.search.aggregations.RollupAggregations;
 import org.elasticsearch.search.aggregations.bucket.children.ChildrenParser;
 import org.elasticsearch.search.aggregations.bucket.children.InternalChildren;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeParser;
+import org.elasticsearch.search.aggregations.bucket.composite.InternalComposite;
 import org.elasticsearch.search.aggregations.bucket.filter.FilterParser;
 import org.elasticsearch.search.aggregations.bucket.filter.InternalFilter;
 import org.elasticsearch.search.aggregations.bucket.filters.FiltersParser;
@@ -282,6 +285,7 @@ public class SearchModule extends AbstractModule {
         multibinderAggParser.addBinding().to(FiltersParser.class);
         multibinderAggParser.addBinding().to(SamplerParser.class);
         multibinderAggParser.addBinding().to(TermsParser.class);
+        multibinderAggParser.addBinding().to(CompositeParser.class);
         multibinderAggParser.addBinding().to(SignificantTermsParser.class);
         multibinderAggParser.addBinding().to(RangeParser.class);
         multibinderAggParser.addBinding().to(DateRangeParser.class);
@@ -320,6 +324,7 @@ public class SearchModule extends AbstractModule {
         }
         bind(AggregatorParsers.class).asEagerSingleton();
         bind(AggregationParseElement.class).asEagerSingleton();
+        bind(RollupAggregations.class).asEagerSingleton();
         bind(AggregationPhase.class).asEagerSingleton();
 
         Multibinder<SignificanceHeuristicParser> heuristicParserMultibinder = Multibinder.newSetBinder(binder(), SignificanceHeuristicParser.class);
@@ -382,6 +387,7 @@ public class SearchModule extends AbstractModule {
         UnmappedSignificantTerms.registerStreams();
         InternalGeoHashGrid.registerStreams();
         DoubleTerms.registerStreams();
+        InternalComposite.registerStream();
         UnmappedTerms.registerStreams();
         InternalRange.registerStream();
         InternalDateRange.registerStream();
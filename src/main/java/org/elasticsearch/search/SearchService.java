@@ -68,6 +68,8 @@ import org.elasticsearch.index.query.TemplateQueryParser;
 import org.elasticsearch.index.search.stats.ShardSearchStats;
 import org.elasticsearch.index.search.stats.StatsGroupsParseElement;
 import org.elasticsearch.index.shard.IndexShard;
+import org.elasticsearch.index.warmer.ShardIndexWarmerService;
+import org.elasticsearch.index.warmer.ShardWarmupState;
 import org.elasticsearch.indices.IndicesLifecycle;
 import org.elasticsearch.indices.IndicesService;
 import org.elasticsearch.indices.IndicesWarmer;
@@ -104,7 +106,9 @@ import org.elasticsearch.search.warmer.IndexWarmersMetaData;
 import org.elasticsearch.threadpool.ThreadPool;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
@@ -216,6 +220,7 @@ public class SearchService extends AbstractLifecycleComponent<SearchService> {
         this.indicesWarmer.addListener(new NormsWarmer());
         this.indicesWarmer.addListener(new FieldDataWarmer());
         this.indicesWarmer.addListener(new SearchWarmer());
+        this.indicesWarmer.addListener(new RecordedWarmer());
 
         defaultSearchTimeout = settings.getAsTime(DEFAULT_SEARCH_TIMEOUT, NO_TIMEOUT);
         nodeSettingsService.addListener(new SearchSettingsListener());
@@ -364,6 +369,16 @@ public class SearchService extends AbstractLifecycleComponent<SearchService> {
         }
     }
 
+    /**
+     * Record the request source for the shard warmup, only requests fully described by their source can be replayed.
+     */
+    private void recordQuery(ShardSearchRequest request, SearchContext context) {
+        if (request.scroll() == null && request.extraSource() == null && request.template() == null && request.templateSource() == null
+                && request.filteringAliases() == null) {
+            context.indexShard().warmerService().onQuery(request.types(), request.source(), request.requestCache());
+        }
+    }
+
     public QuerySearchResultProvider executeQueryPhase(ShardSearchRequest request) {
         final SearchContext context = createAndPutContext(request);
         final ShardSearchStats shardSearchStats = context.indexShard().searchService();
@@ -373,6 +388,7 @@ public class SearchService extends AbstractLifecycleComponent<SearchService> {
             contextProcessing(context);
 
             loadOrExecuteQueryPhase(request, context, queryPhase);
+            recordQuery(request, context);
 
             if (context.queryResult().topDocs().scoreDocs.length == 0 && context.scrollContext() == null) {
                 freeContext(context.id());
@@ -465,6 +481,7 @@ public class SearchService extends AbstractLifecycleComponent<SearchService> {
             long time = System.nanoTime();
             try {
                 loadOrExecuteQueryPhase(request, context, queryPhase);
+                recordQuery(request, context);
             } catch (Throwable e) {
                 shardSearchStats.onFailedQueryPhase(context);
                 throw ExceptionsHelper.convertToRuntime(e);
@@ -1188,6 +1205,109 @@ public class SearchService extends AbstractLifecycleComponent<SearchService> {
         }
     }
 
+    /**
+     * Replays the search requests and fielddata fields recorded when the shard was last closed, see {@link ShardWarmupState}.
+     * The first top reader is warmed before the engine exposes its searcher, so the shard is searchable once warm.
+     */
+    class RecordedWarmer extends IndicesWarmer.Listener {
+
+        @Override
+        public TerminationHandle warmNewReaders(IndexShard indexShard, IndexMetaData indexMetaData, WarmerContext context, ThreadPool threadPool) {
+            return TerminationHandle.NO_WAIT;
+        }
+
+        @Override
+        public TerminationHandle warmTopReader(final IndexShard indexShard, final IndexMetaData indexMetaData, final WarmerContext warmerContext, ThreadPool threadPool) {
+            final ShardIndexWarmerService warmerService = indexShard.warmerService();
+            if (!warmerService.recordEnabled() || !warmerService.markReplayed()) {
+                return TerminationHandle.NO_WAIT;
+            }
+            final ShardWarmupState state;
+            try {
+                state = warmerService.loadState(indexShard.shardPath().getShardStatePath());
+            } catch (Throwable t) {
+                warmerService.logger().warn("failed to load warmup state", t);
+                return TerminationHandle.NO_WAIT;
+            }
+            final List<MappedFieldType> fieldTypes = new ArrayList<>();
+            for (String field : state.fields) {
+                MappedFieldType fieldType = indexShard.mapperService().indexName(field);
+                if (fieldType != null && fieldType.fieldDataType() != null) {
+                    fieldTypes.add(fieldType);
+                }
+            }
+            final List<ShardWarmupState.Query> queries = state.queries.subList(0, Math.min(warmerService.maxQueries(), state.queries.size()));
+
+            final IndexFieldDataService indexFieldDataService = indexShard.indexFieldDataService();
+            final Executor executor = threadPool.executor(executor());
+            final CountDownLatch latch = new CountDownLatch(fieldTypes.size() + queries.size());
+            for (final MappedFieldType fieldType : fieldTypes) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            final long start = System.nanoTime();
+                            IndexFieldData<?> ifd = indexFieldDataService.getForField(fieldType);
+                            if (ifd instanceof IndexFieldData.Global) {
+                                ((IndexFieldData.Global<?>) ifd).loadGlobal(warmerContext.getDirectoryReader());
+                            } else {
+                                for (LeafReaderContext ctx : warmerContext.searcher().reader().leaves()) {
+                                    ifd.load(ctx);
+                                }
+                            }
+                            if (warmerService.logger().isTraceEnabled()) {
+                                warmerService.logger().trace("warmed recorded fielddata for [{}], took [{}]", fieldType.names().fullName(), TimeValue.timeValueNanos(System.nanoTime() - start));
+                            }
+                        } catch (Throwable t) {
+                            warmerService.logger().warn("failed to warm-up recorded fielddata for [{}]", t, fieldType.names().fullName());
+                        } finally {
+                            latch.countDown();
+                        }
+                    }
+                });
+            }
+            // queries are submitted from the most to the least frequent.
+            for (final ShardWarmupState.Query query : queries) {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        SearchContext context = null;
+                        try {
+                            long now = System.nanoTime();
+                            ShardSearchRequest request = new ShardSearchLocalRequest(indexShard.shardId(), indexShard.routingEntry(), indexMetaData.getNumberOfShards(),
+                                    SearchType.QUERY_THEN_FETCH, query.source, query.types, query.requestCache);
+                            context = createContext(request, warmerContext.searcher());
+                            if (context.sort() == null) {
+                                context.size(0);
+                            }
+                            loadOrExecuteQueryPhase(request, context, queryPhase);
+                            if (warmerService.logger().isTraceEnabled()) {
+                                warmerService.logger().trace("warmed recorded query with [{}] hits, took [{}]", query.hits, TimeValue.timeValueNanos(System.nanoTime() - now));
+                            }
+                        } catch (Throwable t) {
+                            warmerService.logger().debug("recorded query warmup failed", t);
+                        } finally {
+                            try {
+                                if (context != null) {
+                                    freeContext(context.id());
+                                    cleanContext(context);
+                                }
+                            } finally {
+                                latch.countDown();
+                            }
+                        }
+                    }
+                });
+            }
+            return new TerminationHandle() {
+                @Override
+                public void awaitTermination() throws InterruptedException {
+                    latch.await();
+                }
+            };
+        }
+    }
+
     class Reaper implements Runnable {
         @Override
         public void run() {
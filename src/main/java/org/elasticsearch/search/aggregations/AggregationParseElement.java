@@ -18,7 +18,11 @@
  */
 package org.elasticsearch.search.aggregations;
 
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
 import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.search.SearchParseElement;
 import org.elasticsearch.search.internal.SearchContext;
@@ -57,7 +61,19 @@ public class AggregationParseElement implements SearchParseElement {
 
     @Override
     public void parse(XContentParser parser, SearchContext context) throws Exception {
-        AggregatorFactories factories = aggregatorParsers.parseAggregators(parser, context);
-        context.aggregations(new SearchContextAggregations(factories));
+        // keep the source of the aggregations, it is part of the segment aggregations cache key
+        XContentBuilder builder = XContentFactory.contentBuilder(parser.contentType());
+        builder.copyCurrentStructure(parser);
+        BytesReference source = builder.bytes();
+        boolean nowInMillisUsed = context.resetNowInMillisUsed();
+        try (XContentParser sourceParser = XContentHelper.createParser(source)) {
+            sourceParser.nextToken(); // move to the START_OBJECT
+            AggregatorFactories factories = aggregatorParsers.parseAggregators(sourceParser, context);
+            context.aggregations(new SearchContextAggregations(factories, source, context.nowInMillisUsed()));
+        } finally {
+            if (nowInMillisUsed) {
+                context.nowInMillis();
+            }
+        }
     }
 }
@@ -24,6 +24,7 @@ import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Query;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.lucene.search.Queries;
+import org.elasticsearch.indices.cache.aggregations.IndicesSegmentAggregationsCache;
 import org.elasticsearch.search.SearchParseElement;
 import org.elasticsearch.search.SearchPhase;
 import org.elasticsearch.search.aggregations.bucket.global.GlobalAggregator;
@@ -47,10 +48,17 @@ public class AggregationPhase implements SearchPhase {
 
     private final AggregationBinaryParseElement binaryParseElement;
 
+    private final IndicesSegmentAggregationsCache segmentAggregationsCache;
+
+    private final RollupAggregations rollupAggregations;
+
     @Inject
-    public AggregationPhase(AggregationParseElement parseElement, AggregationBinaryParseElement binaryParseElement) {
+    public AggregationPhase(AggregationParseElement parseElement, AggregationBinaryParseElement binaryParseElement,
+                            IndicesSegmentAggregationsCache segmentAggregationsCache, RollupAggregations rollupAggregations) {
         this.parseElement = parseElement;
         this.binaryParseElement = binaryParseElement;
+        this.segmentAggregationsCache = segmentAggregationsCache;
+        this.rollupAggregations = rollupAggregations;
     }
 
     @Override
@@ -74,8 +82,28 @@ public class AggregationPhase implements SearchPhase {
             List<Aggregator> collectors = new ArrayList<>();
             Aggregator[] aggregators;
             try {
+                InternalAggregations rollupResult = rollupAggregations.aggregate(context);
+                if (rollupResult != null) {
+                    // nothing to collect, the query still runs for the hits
+                    context.aggregations().aggregators(new Aggregator[0]);
+                    context.aggregations().rollupAggregations(rollupResult);
+                    return;
+                }
                 AggregatorFactories factories = context.aggregations().factories();
+                // aggregators resolving now, eg. date_histogram extended bounds, produce results that depend on the time of the request
+                boolean nowInMillisUsed = context.resetNowInMillisUsed();
                 aggregators = factories.createTopLevelAggregators(aggregationContext);
+                boolean aggregatorsUseNow = context.nowInMillisUsed();
+                if (nowInMillisUsed) {
+                    context.nowInMillis();
+                }
+                if (aggregatorsUseNow == false && segmentAggregationsCache.canCache(context)) {
+                    SegmentCachingBucketCollector collector = new SegmentCachingBucketCollector(context, segmentAggregationsCache, aggregators);
+                    context.aggregations().aggregators(aggregators);
+                    context.aggregations().segmentCachingCollector(collector);
+                    context.queryCollectors().put(AggregationPhase.class, collector);
+                    return;
+                }
                 for (int i = 0; i < aggregators.length; i++) {
                     if (aggregators[i] instanceof GlobalAggregator == false) {
                         collectors.add(aggregators[i]);
@@ -105,6 +133,43 @@ public class AggregationPhase implements SearchPhase {
             return;
         }
 
+        SegmentCachingBucketCollector segmentCachingCollector = context.aggregations().segmentCachingCollector();
+        if (context.aggregations().rollupAggregations() != null) {
+            context.queryResult().aggregations(context.aggregations().rollupAggregations());
+        } else if (segmentCachingCollector != null) {
+            try {
+                segmentCachingCollector.postCollection();
+                // results of a timed out collection are incomplete and must not be cached
+                context.queryResult().aggregations(segmentCachingCollector.buildAggregations(context.queryResult().searchTimedOut() == false));
+            } catch (IOException e) {
+                throw new AggregationExecutionException("Failed to build segment cached aggregations", e);
+            }
+        } else {
+            buildAggregations(context);
+        }
+        try {
+            List<PipelineAggregator> pipelineAggregators = context.aggregations().factories().createPipelineAggregators();
+            List<SiblingPipelineAggregator> siblingPipelineAggregators = new ArrayList<>(pipelineAggregators.size());
+            for (PipelineAggregator pipelineAggregator : pipelineAggregators) {
+                if (pipelineAggregator instanceof SiblingPipelineAggregator) {
+                    siblingPipelineAggregators.add((SiblingPipelineAggregator) pipelineAggregator);
+                } else {
+                    throw new AggregationExecutionException("Invalid pipeline aggregation named [" + pipelineAggregator.name()
+                            + "] of type [" + pipelineAggregator.type().name()
+                            + "]. Only sibling pipeline aggregations are allowed at the top level");
+                }
+            }
+            context.queryResult().pipelineAggregators(siblingPipelineAggregators);
+        } catch (IOException e) {
+            throw new AggregationExecutionException("Failed to build top level pipeline aggregators", e);
+        }
+
+        // disable aggregations so that they don't run on next pages in case of scrolling
+        context.aggregations(null);
+        context.queryCollectors().remove(AggregationPhase.class);
+    }
+
+    private void buildAggregations(SearchContext context) {
         Aggregator[] aggregators = context.aggregations().aggregators();
         List<Aggregator> globals = new ArrayList<>();
         for (int i = 0; i < aggregators.length; i++) {
@@ -145,26 +210,6 @@ public class AggregationPhase implements SearchPhase {
             }
         }
         context.queryResult().aggregations(new InternalAggregations(aggregations));
-        try {
-            List<PipelineAggregator> pipelineAggregators = context.aggregations().factories().createPipelineAggregators();
-            List<SiblingPipelineAggregator> siblingPipelineAggregators = new ArrayList<>(pipelineAggregators.size());
-            for (PipelineAggregator pipelineAggregator : pipelineAggregators) {
-                if (pipelineAggregator instanceof SiblingPipelineAggregator) {
-                    siblingPipelineAggregators.add((SiblingPipelineAggregator) pipelineAggregator);
-                } else {
-                    throw new AggregationExecutionException("Invalid pipeline aggregation named [" + pipelineAggregator.name()
-                            + "] of type [" + pipelineAggregator.type().name()
-                            + "]. Only sibling pipeline aggregations are allowed at the top level");
-                }
-            }
-            context.queryResult().pipelineAggregators(siblingPipelineAggregators);
-        } catch (IOException e) {
-            throw new AggregationExecutionException("Failed to build top level pipeline aggregators", e);
-        }
-
-        // disable aggregations so that they don't run on next pages in case of scrolling
-        context.aggregations(null);
-        context.queryCollectors().remove(AggregationPhase.class);
     }
 
 }
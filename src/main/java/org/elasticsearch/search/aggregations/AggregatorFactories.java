@@ -18,11 +18,15 @@
  */
 package org.elasticsearch.search.aggregations;
 
+import com.google.common.collect.ImmutableSet;
+
+import org.elasticsearch.script.SearchScript;
 import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
 import org.elasticsearch.search.aggregations.pipeline.PipelineAggregatorFactory;
 import org.elasticsearch.search.aggregations.support.AggregationContext;
 import org.elasticsearch.search.aggregations.support.AggregationPath;
 import org.elasticsearch.search.aggregations.support.AggregationPath.PathElement;
+import org.elasticsearch.search.aggregations.support.ValuesSourceAggregatorFactory;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -40,6 +44,13 @@ public class AggregatorFactories {
 
     public static final AggregatorFactories EMPTY = new Empty();
 
+    // bucket and metric aggregations that do not truncate or filter their shard level buckets, terms like aggregations,
+    // top_hits, scripted_metric and the ones collecting outside of the query (global, children...) are not.
+    private static final Set<String> SEGMENT_CACHEABLE_TYPES = ImmutableSet.of(
+            "avg", "sum", "min", "max", "stats", "extended_stats", "value_count", "cardinality", "percentiles", "percentile_ranks",
+            "geo_bounds", "geo_centroid", "histogram", "date_histogram", "range", "date_range", "ip_range", "geo_distance",
+            "filter", "filters", "missing");
+
     private AggregatorFactory parent;
     private AggregatorFactory[] factories;
     private List<PipelineAggregatorFactory> pipelineAggregatorFactories;
@@ -89,10 +100,46 @@ public class AggregatorFactories {
         return aggregators;
     }
 
+    AggregatorFactory[] factories() {
+        return factories;
+    }
+
     public int count() {
         return factories.length;
     }
 
+    /**
+     * Returns <code>true</code> if all the aggregators of this tree can be computed segment by segment and their per
+     * segment results partially reduced into the same result than a single collection over the whole shard, see
+     * {@link org.elasticsearch.search.aggregations.InternalAggregation.ReduceContext#isFinalReduce()}.
+     */
+    public boolean isSegmentCacheable() {
+        for (AggregatorFactory factory : factories) {
+            if (!SEGMENT_CACHEABLE_TYPES.contains(factory.type) || !factory.factories.isSegmentCacheable()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns <code>true</code> if any aggregator of this tree computes its values from a script using the score.
+     */
+    public boolean needsScores() {
+        for (AggregatorFactory factory : factories) {
+            if (factory instanceof ValuesSourceAggregatorFactory) {
+                SearchScript script = ((ValuesSourceAggregatorFactory<?>) factory).config().script();
+                if (script != null && script.needsScores()) {
+                    return true;
+                }
+            }
+            if (factory.factories.needsScores()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     void setParent(AggregatorFactory parent) {
         this.parent = parent;
         for (AggregatorFactory factory : factories) {
@@ -96,11 +96,26 @@ public abstract class InternalAggregation implements Aggregation, ToXContent, St
 
         private final BigArrays bigArrays;
         private ScriptService scriptService;
+        private final boolean finalReduce;
 
         public ReduceContext(BigArrays bigArrays, ScriptService scriptService, HasContextAndHeaders headersContext) {
+            this(bigArrays, scriptService, headersContext, true);
+        }
+
+        public ReduceContext(BigArrays bigArrays, ScriptService scriptService, HasContextAndHeaders headersContext, boolean finalReduce) {
             super(headersContext);
             this.bigArrays = bigArrays;
             this.scriptService = scriptService;
+            this.finalReduce = finalReduce;
+        }
+
+        /**
+         * Returns <code>false</code> when only a subset of the shard results is reduced into a partial result that
+         * will be reduced again with the other ones. Pipeline aggregators, size truncation and min doc count
+         * filtering must only be applied on the final reduce.
+         */
+        public boolean isFinalReduce() {
+            return finalReduce;
         }
 
         public BigArrays bigArrays() {
@@ -151,6 +166,9 @@ public abstract class InternalAggregation implements Aggregation, ToXContent, St
      */
     public final InternalAggregation reduce(List<InternalAggregation> aggregations, ReduceContext reduceContext) {
         InternalAggregation aggResult = doReduce(aggregations, reduceContext);
+        if (reduceContext.isFinalReduce() == false) {
+            return aggResult;
+        }
         for (PipelineAggregator pipelineAggregator : pipelineAggregators) {
             aggResult = pipelineAggregator.reduce(aggResult, reduceContext);
         }
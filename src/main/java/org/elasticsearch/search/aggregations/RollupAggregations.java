@@ -0,0 +1,482 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.search.aggregations;
+
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.cassandra.rollup.Rollup;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.cluster.metadata.IndexMetaData;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.component.AbstractComponent;
+import org.elasticsearch.common.inject.Inject;
+import org.elasticsearch.common.lucene.search.Queries;
+import org.elasticsearch.common.rounding.Rounding;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.index.mapper.DocumentMapper;
+import org.elasticsearch.index.mapper.MapperService;
+import org.elasticsearch.search.aggregations.bucket.histogram.HistogramAggregator;
+import org.elasticsearch.search.aggregations.bucket.histogram.InternalHistogram;
+import org.elasticsearch.search.aggregations.bucket.terms.StringTerms;
+import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregatorFactory;
+import org.elasticsearch.search.aggregations.metrics.InternalNumericMetricsAggregation;
+import org.elasticsearch.search.aggregations.metrics.avg.InternalAvg;
+import org.elasticsearch.search.aggregations.metrics.max.InternalMax;
+import org.elasticsearch.search.aggregations.metrics.min.InternalMin;
+import org.elasticsearch.search.aggregations.metrics.stats.InternalStats;
+import org.elasticsearch.search.aggregations.metrics.sum.InternalSum;
+import org.elasticsearch.search.aggregations.metrics.valuecount.InternalValueCount;
+import org.elasticsearch.search.aggregations.support.ValuesSourceAggregatorFactory;
+import org.elasticsearch.search.aggregations.support.ValuesSourceConfig;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Answers the aggregations of a shard from the write-time {@link Rollup} of the searched type instead of collecting
+ * the matching documents, when the index has {@link Rollup#INDEX_ROLLUP_SEARCH_ENABLED} set and the request is eligible:
+ * <ul>
+ * <li>the query is a match_all or only filters on ranges of the rollup timestamp aligned on the rollup interval,</li>
+ * <li>the aggregations are date_histogram on the rollup timestamp whose rounding does not split the rollup buckets,
+ * terms on rollup dimensions and sum, min, max, avg, value_count or stats on rollup metrics.</li>
+ * </ul>
+ * The result is the shard result the aggregators would have built, the rollup rows being selected with the token
+ * ranges of the shard.
+ */
+public class RollupAggregations extends AbstractComponent {
+
+    private final ClusterService clusterService;
+
+    @Inject
+    public RollupAggregations(Settings settings, ClusterService clusterService) {
+        super(settings);
+        this.clusterService = clusterService;
+    }
+
+    /**
+     * @return the aggregations of the shard computed from a rollup, or <code>null</code> if they must be collected.
+     */
+    @Nullable
+    public InternalAggregations aggregate(SearchContext context) throws IOException {
+        // these change the documents that are collected independently of the query
+        if (context.aliasFilter() != null || context.minimumScore() != null || context.terminateAfter() != SearchContext.DEFAULT_TERMINATE_AFTER) {
+            return null;
+        }
+        String index = context.indexShard().shardId().getIndex();
+        IndexMetaData indexMetaData = clusterService.state().getMetaData().index(index);
+        if (indexMetaData == null || !indexMetaData.getSettings().getAsBoolean(Rollup.INDEX_ROLLUP_SEARCH_ENABLED, Boolean.FALSE)) {
+            return null;
+        }
+        String type = searchedType(context);
+        DocumentMapper docMapper = type == null ? null : context.mapperService().documentMapper(type);
+        if (docMapper == null) {
+            return null;
+        }
+        List<Rollup> rollups;
+        try {
+            rollups = Rollup.parse(indexMetaData.getSettings().get(IndexMetaData.SETTING_KEYSPACE_NAME, index), type, index, docMapper.meta());
+        } catch (IllegalArgumentException e) {
+            logger.debug("invalid rollup definition for [{}][{}]", e, index, type);
+            return null;
+        }
+        if (rollups.isEmpty()) {
+            return null;
+        }
+
+        AggregatorFactory[] factories = context.aggregations().factories().factories();
+        Query query = Queries.rewriteStructure(context.parsedQuery().query(), context.searcher().getIndexReader());
+        for (Rollup rollup : rollups) {
+            long[] timeRange = new long[] { Long.MIN_VALUE, Long.MAX_VALUE };
+            if (!timeRange(query, rollup, timeRange) || !canAggregate(factories, rollup)) {
+                continue;
+            }
+            Iterable<Rollup.Row> rows = rollup.rows(context.request().tokenRanges(), timeRange[0], timeRange[1]);
+            List<InternalAggregation> aggregations = new RollupAggregator(context, rollup).aggregate(factories, rows);
+            if (aggregations != null) {
+                logger.trace("aggregations of [{}][{}] computed from rollup [{}]", index, type, rollup.name);
+                return new InternalAggregations(aggregations);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the single type of the search, rollups are defined per type.
+     */
+    private static String searchedType(SearchContext context) {
+        if (context.types().length == 1) {
+            return context.types()[0];
+        } else if (context.types().length > 1) {
+            return null;
+        }
+        String type = null;
+        for (String mappingType : context.mapperService().types()) {
+            if (MapperService.DEFAULT_MAPPING.equals(mappingType)) {
+                continue;
+            }
+            if (type != null) {
+                return null;
+            }
+            type = mappingType;
+        }
+        return type;
+    }
+
+    /**
+     * Intersects the ranges of the query on the rollup timestamp into timeRange, as [from, to).
+     *
+     * @return <code>false</code> if the query has other clauses than match_all and ranges on the rollup timestamp, or
+     * if a range is not aligned on the rollup interval.
+     */
+    static boolean timeRange(Query query, Rollup rollup, long[] timeRange) {
+        if (query instanceof MatchAllDocsQuery) {
+            return true;
+        } else if (query instanceof ConstantScoreQuery) {
+            return timeRange(((ConstantScoreQuery) query).getQuery(), rollup, timeRange);
+        } else if (query instanceof BooleanQuery) {
+            BooleanQuery booleanQuery = (BooleanQuery) query;
+            if (booleanQuery.clauses().isEmpty()) {
+                return false;
+            }
+            for (BooleanClause clause : booleanQuery.clauses()) {
+                if ((clause.getOccur() != BooleanClause.Occur.MUST && clause.getOccur() != BooleanClause.Occur.FILTER)
+                        || !timeRange(clause.getQuery(), rollup, timeRange)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (query instanceof NumericRangeQuery) {
+            NumericRangeQuery<?> rangeQuery = (NumericRangeQuery<?>) query;
+            if (!rollup.timestampField.equals(rangeQuery.getField())
+                    || (rangeQuery.getMin() != null && !(rangeQuery.getMin() instanceof Long))
+                    || (rangeQuery.getMax() != null && !(rangeQuery.getMax() instanceof Long))) {
+                return false;
+            }
+            long from = Long.MIN_VALUE;
+            long to = Long.MAX_VALUE;
+            if ((rangeQuery.getMin() != null && (Long) rangeQuery.getMin() == Long.MAX_VALUE)
+                    || (rangeQuery.getMax() != null && (Long) rangeQuery.getMax() == Long.MAX_VALUE)) {
+                return false;
+            }
+            if (rangeQuery.getMin() != null) {
+                from = (Long) rangeQuery.getMin() + (rangeQuery.includesMin() ? 0 : 1);
+                if (rollup.bucket(from) != from) {
+                    return false;
+                }
+            }
+            if (rangeQuery.getMax() != null) {
+                to = (Long) rangeQuery.getMax() + (rangeQuery.includesMax() ? 1 : 0);
+                if (rollup.bucket(to) != to) {
+                    return false;
+                }
+            }
+            timeRange[0] = Math.max(timeRange[0], from);
+            timeRange[1] = Math.min(timeRange[1], to);
+            return true;
+        }
+        return false;
+    }
+
+    static boolean canAggregate(AggregatorFactory[] factories, Rollup rollup) {
+        for (AggregatorFactory factory : factories) {
+            if (!(factory instanceof ValuesSourceAggregatorFactory)) {
+                return false;
+            }
+            ValuesSourceConfig<?> config = ((ValuesSourceAggregatorFactory<?>) factory).config();
+            if (config.fieldContext() == null || config.script() != null || config.missing() != null) {
+                return false;
+            }
+            String field = config.fieldContext().field();
+            switch (factory.type) {
+            case "date_histogram":
+                if (!field.equals(rollup.timestampField)) {
+                    return false;
+                }
+                break;
+            case "terms":
+                if (rollup.dimension(field) < 0 || ((TermsAggregatorFactory) factory).includeExclude() != null) {
+                    return false;
+                }
+                break;
+            case "sum":
+            case "min":
+            case "max":
+            case "avg":
+            case "value_count":
+            case "stats":
+                if (rollup.metric(field) < 0) {
+                    return false;
+                }
+                break;
+            default:
+                return false;
+            }
+            if (!canAggregate(factory.factories.factories(), rollup)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds the shard aggregations of rollup rows in a single pass on the rows, using empty aggregations built by the
+     * aggregators of the request as prototypes. Only the buckets of the result are kept in memory.
+     */
+    private static class RollupAggregator {
+        private final SearchContext context;
+        private final Rollup rollup;
+        private final Map<AggregatorFactory, InternalAggregation> prototypes = new IdentityHashMap<>();
+
+        RollupAggregator(SearchContext context, Rollup rollup) {
+            this.context = context;
+            this.rollup = rollup;
+        }
+
+        /**
+         * @return the aggregations of the rows, or <code>null</code> if they cannot be computed from the rollup.
+         */
+        List<InternalAggregation> aggregate(AggregatorFactory[] factories, Iterable<Rollup.Row> rows) throws IOException {
+            BucketAccumulator accumulator = bucket(factories);
+            if (accumulator == null) {
+                return null;
+            }
+            for (Rollup.Row row : rows) {
+                if (!accumulator.add(row)) {
+                    return null;
+                }
+            }
+            return accumulator.build();
+        }
+
+        private InternalAggregation prototype(AggregatorFactory factory) throws IOException {
+            InternalAggregation prototype = prototypes.get(factory);
+            if (prototype == null) {
+                // released with the other aggregators of the search phase
+                prototype = factory.create(context.aggregations().aggregationContext(), null, true).buildEmptyAggregation();
+                prototypes.put(factory, prototype);
+            }
+            return prototype;
+        }
+
+        /**
+         * @return an accumulator of the given aggregations, or <code>null</code> if they cannot be computed from the rollup.
+         */
+        private BucketAccumulator bucket(AggregatorFactory[] factories) throws IOException {
+            List<Accumulator> accumulators = new ArrayList<>(factories.length);
+            for (AggregatorFactory factory : factories) {
+                InternalAggregation prototype = prototype(factory);
+                String field = ((ValuesSourceAggregatorFactory<?>) factory).config().fieldContext().field();
+                switch (factory.type) {
+                case "date_histogram":
+                    accumulators.add(new HistogramAccumulator(factory, (InternalHistogram) prototype));
+                    break;
+                case "terms":
+                    if (!(prototype instanceof StringTerms)) {
+                        return null;
+                    }
+                    accumulators.add(new TermsAccumulator(factory, (StringTerms) prototype, rollup.dimension(field)));
+                    break;
+                default:
+                    accumulators.add(new MetricAccumulator(factory.type, (InternalNumericMetricsAggregation) prototype, rollup.metric(field)));
+                }
+            }
+            return new BucketAccumulator(accumulators);
+        }
+
+        private abstract static class Accumulator {
+            /**
+             * @return <code>false</code> if the row cannot be aggregated from the rollup.
+             */
+            abstract boolean add(Rollup.Row row) throws IOException;
+
+            abstract InternalAggregation build() throws IOException;
+        }
+
+        /**
+         * Document count and sub-aggregations of a bucket.
+         */
+        private static class BucketAccumulator {
+            private final List<Accumulator> accumulators;
+            long docCount;
+
+            BucketAccumulator(List<Accumulator> accumulators) {
+                this.accumulators = accumulators;
+            }
+
+            boolean add(Rollup.Row row) throws IOException {
+                docCount += row.docCount;
+                for (Accumulator accumulator : accumulators) {
+                    if (!accumulator.add(row)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            List<InternalAggregation> build() throws IOException {
+                List<InternalAggregation> aggregations = new ArrayList<>(accumulators.size());
+                for (Accumulator accumulator : accumulators) {
+                    aggregations.add(accumulator.build());
+                }
+                return aggregations;
+            }
+        }
+
+        private class HistogramAccumulator extends Accumulator {
+            private final AggregatorFactory factory;
+            private final InternalHistogram histogram;
+            private final Rounding rounding;
+            // histogram buckets are ordered by key at the shard level
+            private final Map<Long, BucketAccumulator> buckets = new TreeMap<>();
+
+            HistogramAccumulator(AggregatorFactory factory, InternalHistogram histogram) {
+                this.factory = factory;
+                this.histogram = histogram;
+                this.rounding = ((HistogramAggregator.Factory) factory).rounding();
+            }
+
+            @Override
+            boolean add(Rollup.Row row) throws IOException {
+                if (row.bucket == Rollup.NO_TIMESTAMP) {
+                    return true;
+                }
+                long key = rounding.round(row.bucket);
+                if (rounding.round(row.bucket + rollup.interval - 1) != key) {
+                    // the rollup bucket spans several histogram buckets
+                    return false;
+                }
+                BucketAccumulator bucket = buckets.get(key);
+                if (bucket == null) {
+                    bucket = bucket(factory.factories.factories());
+                    if (bucket == null) {
+                        return false;
+                    }
+                    buckets.put(key, bucket);
+                }
+                return bucket.add(row);
+            }
+
+            @Override
+            InternalAggregation build() throws IOException {
+                List<InternalHistogram.Bucket> result = new ArrayList<>(buckets.size());
+                for (Map.Entry<Long, BucketAccumulator> bucket : buckets.entrySet()) {
+                    result.add(histogram.createBucket(bucket.getKey(), bucket.getValue().docCount, new InternalAggregations(bucket.getValue().build())));
+                }
+                return histogram.create(result);
+            }
+        }
+
+        private class TermsAccumulator extends Accumulator {
+            private final AggregatorFactory factory;
+            private final StringTerms terms;
+            private final int dimension;
+            private final Map<String, BucketAccumulator> buckets = new LinkedHashMap<>();
+
+            TermsAccumulator(AggregatorFactory factory, StringTerms terms, int dimension) {
+                this.factory = factory;
+                this.terms = terms;
+                this.dimension = dimension;
+            }
+
+            @Override
+            boolean add(Rollup.Row row) throws IOException {
+                String value = row.dimensions[dimension];
+                if (Rollup.NO_VALUE.equals(value)) {
+                    return true;
+                }
+                BucketAccumulator bucket = buckets.get(value);
+                if (bucket == null) {
+                    bucket = bucket(factory.factories.factories());
+                    if (bucket == null) {
+                        return false;
+                    }
+                    buckets.put(value, bucket);
+                }
+                return bucket.add(row);
+            }
+
+            @Override
+            InternalAggregation build() throws IOException {
+                List<StringTerms.Bucket> result = new ArrayList<>(buckets.size());
+                for (Map.Entry<String, BucketAccumulator> bucket : buckets.entrySet()) {
+                    result.add(terms.createBucket(new BytesRef(bucket.getKey()), bucket.getValue().docCount, new InternalAggregations(bucket.getValue().build())));
+                }
+                return terms.createShardResult(result);
+            }
+        }
+
+        private static class MetricAccumulator extends Accumulator {
+            private final String type;
+            private final InternalNumericMetricsAggregation prototype;
+            private final int metric;
+            private long count = 0;
+            private double sum = 0;
+            private double min = Double.POSITIVE_INFINITY;
+            private double max = Double.NEGATIVE_INFINITY;
+
+            MetricAccumulator(String type, InternalNumericMetricsAggregation prototype, int metric) {
+                this.type = type;
+                this.prototype = prototype;
+                this.metric = metric;
+            }
+
+            @Override
+            boolean add(Rollup.Row row) {
+                count += row.counts[metric];
+                sum += row.sums[metric];
+                min = Math.min(min, row.mins[metric]);
+                max = Math.max(max, row.maxs[metric]);
+                return true;
+            }
+
+            @Override
+            InternalAggregation build() {
+                String name = prototype.getName();
+                switch (type) {
+                case "sum":
+                    return new InternalSum(name, sum, prototype.formatter(), prototype.pipelineAggregators(), prototype.getMetaData());
+                case "min":
+                    return new InternalMin(name, min, prototype.formatter(), prototype.pipelineAggregators(), prototype.getMetaData());
+                case "max":
+                    return new InternalMax(name, max, prototype.formatter(), prototype.pipelineAggregators(), prototype.getMetaData());
+                case "avg":
+                    return new InternalAvg(name, sum, count, prototype.formatter(), prototype.pipelineAggregators(), prototype.getMetaData());
+                case "value_count":
+                    return new InternalValueCount(name, count, prototype.formatter(), prototype.pipelineAggregators(), prototype.getMetaData());
+                case "stats":
+                    return new InternalStats(name, count, sum, min, max, prototype.formatter(), prototype.pipelineAggregators(), prototype.getMetaData());
+                default:
+                    throw new IllegalStateException("unexpected rollup aggregation type [" + type + "]");
+                }
+            }
+        }
+    }
+}
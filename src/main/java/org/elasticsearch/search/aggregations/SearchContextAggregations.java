@@ -18,6 +18,8 @@
  */
 package org.elasticsearch.search.aggregations;
 
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.search.aggregations.support.AggregationContext;
 
 /**
@@ -26,20 +28,74 @@ import org.elasticsearch.search.aggregations.support.AggregationContext;
 public class SearchContextAggregations {
 
     private final AggregatorFactories factories;
+    private final BytesReference source;
+    private final boolean nowInMillisUsed;
     private Aggregator[] aggregators;
     private AggregationContext aggregationContext;
+    private SegmentCachingBucketCollector segmentCachingCollector;
+    private InternalAggregations rollupAggregations;
 
     /**
      * Creates a new aggregation context with the parsed aggregator factories
      */
     public SearchContextAggregations(AggregatorFactories factories) {
+        this(factories, null, true);
+    }
+
+    /**
+     * Creates a new aggregation context with the parsed aggregator factories, the source they were parsed from and
+     * whether parsing them depended on now.
+     */
+    public SearchContextAggregations(AggregatorFactories factories, @Nullable BytesReference source, boolean nowInMillisUsed) {
         this.factories = factories;
+        this.source = source;
+        this.nowInMillisUsed = nowInMillisUsed;
     }
 
     public AggregatorFactories factories() {
         return factories;
     }
 
+    /**
+     * The source of the aggregations, <code>null</code> if unknown.
+     */
+    @Nullable
+    public BytesReference source() {
+        return source;
+    }
+
+    /**
+     * Whether the aggregations depend on now, in which case their results cannot be cached.
+     */
+    public boolean nowInMillisUsed() {
+        return nowInMillisUsed;
+    }
+
+    /**
+     * The collector computing the aggregations segment by segment when the segment aggregations cache is used,
+     * <code>null</code> otherwise.
+     */
+    @Nullable
+    public SegmentCachingBucketCollector segmentCachingCollector() {
+        return segmentCachingCollector;
+    }
+
+    public void segmentCachingCollector(SegmentCachingBucketCollector segmentCachingCollector) {
+        this.segmentCachingCollector = segmentCachingCollector;
+    }
+
+    /**
+     * The aggregations computed from a rollup instead of being collected, <code>null</code> otherwise.
+     */
+    @Nullable
+    public InternalAggregations rollupAggregations() {
+        return rollupAggregations;
+    }
+
+    public void rollupAggregations(InternalAggregations rollupAggregations) {
+        this.rollupAggregations = rollupAggregations;
+    }
+
     public Aggregator[] aggregators() {
         return aggregators;
     }
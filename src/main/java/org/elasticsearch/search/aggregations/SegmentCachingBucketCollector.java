@@ -0,0 +1,220 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.elasticsearch.search.aggregations;
+
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.NumericRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.util.NumericUtils;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.lucene.search.Queries;
+import org.elasticsearch.indices.cache.aggregations.IndicesSegmentAggregationsCache;
+import org.elasticsearch.search.aggregations.InternalAggregation.ReduceContext;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Collects the aggregations segment by segment through the {@link IndicesSegmentAggregationsCache}: cached segments
+ * are not collected, and each other segment is collected with its own aggregator tree so that its result can be cached.
+ * The shard result is the partial reduce of all the per segment results, the final reduce still happens on the
+ * coordinating node.
+ */
+public class SegmentCachingBucketCollector extends BucketCollector {
+
+    private final SearchContext context;
+    private final IndicesSegmentAggregationsCache cache;
+    private final BytesReference source;
+    private final boolean needsScores;
+    // created by the aggregation phase, used to collect the first uncached segment
+    private Aggregator[] topLevelAggregators;
+    private Query query;
+
+    private final List<BytesReference> cachedResults = new ArrayList<>();
+    private final List<CollectedSegment> collectedSegments = new ArrayList<>();
+
+    SegmentCachingBucketCollector(SearchContext context, IndicesSegmentAggregationsCache cache, Aggregator[] topLevelAggregators) {
+        this.context = context;
+        this.cache = cache;
+        this.source = context.aggregations().source();
+        this.topLevelAggregators = topLevelAggregators;
+        boolean needsScores = false;
+        for (Aggregator aggregator : topLevelAggregators) {
+            needsScores |= aggregator.needsScores();
+        }
+        this.needsScores = needsScores;
+    }
+
+    @Override
+    public boolean needsScores() {
+        return needsScores;
+    }
+
+    @Override
+    public void preCollection() throws IOException {
+        // aggregators are pre-collected per segment
+    }
+
+    @Override
+    public LeafBucketCollector getLeafCollector(LeafReaderContext ctx) throws IOException {
+        if (query == null) {
+            // ranges must not be rewritten to be recognized by segmentQuery
+            query = Queries.rewriteStructure(context.query(), context.searcher().getIndexReader());
+        }
+        final LeafReader reader = ctx.reader();
+        final IndicesSegmentAggregationsCache.Key key = cache.key(reader, source, segmentQuery(query, reader));
+        final BytesReference cached = cache.get(key);
+        if (cached != null) {
+            cachedResults.add(cached);
+            return LeafBucketCollector.NO_OP_COLLECTOR;
+        }
+        Aggregator[] aggregators = topLevelAggregators;
+        if (aggregators == null) {
+            aggregators = context.aggregations().factories().createTopLevelAggregators(context.aggregations().aggregationContext());
+        }
+        topLevelAggregators = null;
+        BucketCollector collector = BucketCollector.wrap(Arrays.asList(aggregators));
+        collector.preCollection();
+        collectedSegments.add(new CollectedSegment(reader, key, aggregators, collector));
+        return collector.getLeafCollector(ctx);
+    }
+
+    @Override
+    public void postCollection() throws IOException {
+        for (CollectedSegment segment : collectedSegments) {
+            segment.collector.postCollection();
+        }
+    }
+
+    /**
+     * Builds the shard aggregations from the cached and collected segments.
+     *
+     * @param cacheResults whether the results of the collected segments should be cached, they must not be if the
+     *                     collection did not complete
+     */
+    public InternalAggregations buildAggregations(boolean cacheResults) throws IOException {
+        List<InternalAggregations> results = new ArrayList<>(cachedResults.size() + collectedSegments.size());
+        for (BytesReference cached : cachedResults) {
+            results.add(InternalAggregations.readAggregations(StreamInput.wrap(cached)));
+        }
+        for (CollectedSegment segment : collectedSegments) {
+            List<InternalAggregation> aggregations = new ArrayList<>(segment.aggregators.length);
+            for (Aggregator aggregator : segment.aggregators) {
+                aggregations.add(aggregator.buildAggregation(0));
+            }
+            InternalAggregations segmentAggregations = new InternalAggregations(aggregations);
+            if (cacheResults) {
+                BytesStreamOutput out = new BytesStreamOutput();
+                segmentAggregations.writeTo(out);
+                cache.put(segment.reader, segment.key, out.bytes());
+            }
+            results.add(segmentAggregations);
+        }
+        if (results.isEmpty()) {
+            // no segment, the top level aggregators were not used
+            List<InternalAggregation> aggregations = new ArrayList<>(topLevelAggregators.length);
+            for (Aggregator aggregator : topLevelAggregators) {
+                aggregations.add(aggregator.buildEmptyAggregation());
+            }
+            return new InternalAggregations(aggregations);
+        }
+        return InternalAggregations.reduce(results, new ReduceContext(context.bigArrays(), context.scriptService(), context, false));
+    }
+
+    /**
+     * Returns the query as it applies to the given segment: long range clauses matching all the documents of the
+     * segment are replaced with a match all query, so that a moving time range still hits the cached results of the
+     * segments it fully covers.
+     */
+    static Query segmentQuery(Query query, LeafReader reader) throws IOException {
+        if (query instanceof BooleanQuery) {
+            BooleanQuery booleanQuery = (BooleanQuery) query;
+            BooleanQuery.Builder builder = new BooleanQuery.Builder();
+            builder.setDisableCoord(booleanQuery.isCoordDisabled());
+            builder.setMinimumNumberShouldMatch(booleanQuery.getMinimumNumberShouldMatch());
+            boolean changed = false;
+            for (BooleanClause clause : booleanQuery.clauses()) {
+                Query clauseQuery = segmentQuery(clause.getQuery(), reader);
+                changed |= clauseQuery != clause.getQuery();
+                builder.add(clauseQuery, clause.getOccur());
+            }
+            if (!changed) {
+                return query;
+            }
+            Query segmentQuery = builder.build();
+            segmentQuery.setBoost(query.getBoost());
+            return segmentQuery;
+        } else if (query instanceof ConstantScoreQuery) {
+            Query innerQuery = ((ConstantScoreQuery) query).getQuery();
+            Query segmentInnerQuery = segmentQuery(innerQuery, reader);
+            if (segmentInnerQuery == innerQuery) {
+                return query;
+            }
+            Query segmentQuery = new ConstantScoreQuery(segmentInnerQuery);
+            segmentQuery.setBoost(query.getBoost());
+            return segmentQuery;
+        } else if (query instanceof NumericRangeQuery) {
+            NumericRangeQuery<?> rangeQuery = (NumericRangeQuery<?>) query;
+            if ((rangeQuery.getMin() == null || rangeQuery.getMin() instanceof Long) && (rangeQuery.getMax() == null || rangeQuery.getMax() instanceof Long)) {
+                Terms terms = reader.terms(rangeQuery.getField());
+                // every document must have a value for the range to match all of them
+                if (terms != null && terms.getDocCount() == reader.maxDoc()) {
+                    long min = NumericUtils.getMinLong(terms);
+                    long max = NumericUtils.getMaxLong(terms);
+                    Long rangeMin = (Long) rangeQuery.getMin();
+                    Long rangeMax = (Long) rangeQuery.getMax();
+                    boolean coversMin = rangeMin == null || (rangeQuery.includesMin() ? rangeMin <= min : rangeMin < min);
+                    boolean coversMax = rangeMax == null || (rangeQuery.includesMax() ? rangeMax >= max : rangeMax > max);
+                    if (coversMin && coversMax) {
+                        Query segmentQuery = new MatchAllDocsQuery();
+                        segmentQuery.setBoost(query.getBoost());
+                        return segmentQuery;
+                    }
+                }
+            }
+        }
+        return query;
+    }
+
+    private static class CollectedSegment {
+        final LeafReader reader;
+        final IndicesSegmentAggregationsCache.Key key;
+        final Aggregator[] aggregators;
+        final BucketCollector collector;
+
+        CollectedSegment(LeafReader reader, IndicesSegmentAggregationsCache.Key key, Aggregator[] aggregators, BucketCollector collector) {
+            this.reader = reader;
+            this.key = key;
+            this.aggregators = aggregators;
+            this.collector = collector;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.aggregations.bucket.composite;
+
+import org.elasticsearch.search.aggregations.bucket.MultiBucketsAggregation;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A multi bucket aggregation that pages through all the combinations of the values of several sources, in the order
+ * of the sources. Each bucket collects the documents of a combination, and the key of the last bucket of a page is
+ * the <code>after</code> key of the next page.
+ */
+public interface Composite extends MultiBucketsAggregation {
+
+    /**
+     * A bucket of a combination of source values, keyed by source name.
+     */
+    public static interface Bucket extends MultiBucketsAggregation.Bucket {
+
+        @Override
+        Map<String, Object> getKey();
+    }
+
+    @Override
+    List<? extends Bucket> getBuckets();
+
+    /**
+     * @return the key of the last bucket, to get the next page with, or <code>null</code> if there are no buckets.
+     */
+    Map<String, Object> afterKey();
+}
@@ -0,0 +1,126 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.aggregations.bucket.composite;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilderException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builder for the {@link Composite} aggregation.
+ */
+public class CompositeAggregationBuilder extends AggregationBuilder<CompositeAggregationBuilder> {
+
+    private static class Source {
+        final String name;
+        final String type;
+        final String field;
+        final long interval;
+        final boolean asc;
+
+        Source(String name, String type, String field, long interval, boolean asc) {
+            this.name = name;
+            this.type = type;
+            this.field = field;
+            this.interval = interval;
+            this.asc = asc;
+        }
+    }
+
+    private final List<Source> sources = new ArrayList<>();
+    private Integer size;
+    private Map<String, Object> after;
+
+    /**
+     * Sole constructor.
+     */
+    public CompositeAggregationBuilder(String name) {
+        super(name, InternalComposite.TYPE.name());
+    }
+
+    /**
+     * Add a source keyed by the values of the given field, in ascending order.
+     */
+    public CompositeAggregationBuilder terms(String name, String field) {
+        return terms(name, field, true);
+    }
+
+    /**
+     * Add a source keyed by the values of the given field.
+     */
+    public CompositeAggregationBuilder terms(String name, String field, boolean asc) {
+        sources.add(new Source(name, CompositeValuesSource.TERMS, field, -1, asc));
+        return this;
+    }
+
+    /**
+     * Add a source keyed by the histogram buckets of the values of the given numeric field.
+     */
+    public CompositeAggregationBuilder histogram(String name, String field, long interval, boolean asc) {
+        sources.add(new Source(name, CompositeValuesSource.HISTOGRAM, field, interval, asc));
+        return this;
+    }
+
+    /**
+     * Set the number of buckets of a page, defaults to 10.
+     */
+    public CompositeAggregationBuilder size(int size) {
+        this.size = size;
+        return this;
+    }
+
+    /**
+     * Set the key after which the page starts, usually the {@link Composite#afterKey()} of the previous page.
+     */
+    public CompositeAggregationBuilder after(Map<String, Object> after) {
+        this.after = after;
+        return this;
+    }
+
+    @Override
+    protected XContentBuilder internalXContent(XContentBuilder builder, Params params) throws IOException {
+        if (sources.isEmpty()) {
+            throw new SearchSourceBuilderException("At least one source must be set on composite aggregation [" + getName() + "]");
+        }
+        builder.startObject();
+        if (size != null) {
+            builder.field(CompositeParser.SIZE_FIELD.getPreferredName(), size);
+        }
+        builder.startArray(CompositeParser.SOURCES_FIELD.getPreferredName());
+        for (Source source : sources) {
+            builder.startObject().startObject(source.name).startObject(source.type);
+            builder.field("field", source.field);
+            if (source.interval > 0) {
+                builder.field(CompositeParser.INTERVAL_FIELD.getPreferredName(), source.interval);
+            }
+            builder.field(CompositeParser.ORDER_FIELD.getPreferredName(), source.asc ? "asc" : "desc");
+            builder.endObject().endObject().endObject();
+        }
+        builder.endArray();
+        if (after != null) {
+            builder.field(CompositeParser.AFTER_FIELD.getPreferredName(), after);
+        }
+        return builder.endObject();
+    }
+}
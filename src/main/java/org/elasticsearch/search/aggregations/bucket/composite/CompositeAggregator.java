@@ -0,0 +1,278 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.aggregations.bucket.composite;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.RoaringDocIdSet;
+import org.elasticsearch.search.aggregations.AggregationExecutionException;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.AggregatorFactories;
+import org.elasticsearch.search.aggregations.AggregatorFactory;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.LeafBucketCollector;
+import org.elasticsearch.search.aggregations.LeafBucketCollectorBase;
+import org.elasticsearch.search.aggregations.bucket.BucketsAggregator;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+import org.elasticsearch.search.aggregations.support.AggregationContext;
+import org.elasticsearch.search.aggregations.support.ValuesSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Collects the first <code>size</code> combinations of source values that sort after the <code>after</code> key, in a
+ * sorted map bounded to <code>size</code> entries: a combination that sorts after the last entry of a full map is
+ * dropped, and inserting a combination evicts the last entry. Only the ids of documents that had a competitive
+ * combination are recorded, in a compressed doc id set per segment, and sub-aggregations are replayed on these documents
+ * for the combinations that are left once collection is over, so that memory does not depend on the number of combinations.
+ */
+public class CompositeAggregator extends BucketsAggregator {
+
+    private final CompositeValuesSource[] sources;
+    private final ValuesSource[] valuesSources;
+    private final String[] sourceNames;
+    private final int[] reverseMuls;
+    private final int size;
+    private final Comparable[] after;
+    private final TreeMap<Comparable[], Slot> slots;
+    private final List<LeafReaderContext> leaves = new ArrayList<>();
+    private final List<DocIdSet> leafDocs = new ArrayList<>();
+    private RoaringDocIdSet.Builder currentDocs;
+
+    /**
+     * A combination in the page, its bucket ordinal is assigned once collection is over.
+     */
+    private static final class Slot {
+        long ord = -1;
+        long docCount;
+    }
+
+    public CompositeAggregator(String name, AggregatorFactories factories, CompositeValuesSource[] sources, int size,
+                               Map<String, Object> after, AggregationContext aggregationContext, Aggregator parent,
+                               List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData) throws IOException {
+        super(name, factories, aggregationContext, parent, pipelineAggregators, metaData);
+        for (Aggregator subAggregator : subAggregators) {
+            if (subAggregator.needsScores()) {
+                throw new AggregationExecutionException("Sub-aggregation [" + subAggregator.name() + "] of composite aggregation ["
+                        + name + "] cannot use scores");
+            }
+        }
+        this.sources = sources;
+        this.size = size;
+        this.valuesSources = new ValuesSource[sources.length];
+        this.sourceNames = new String[sources.length];
+        this.reverseMuls = new int[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            valuesSources[i] = aggregationContext.valuesSource(sources[i].config, aggregationContext.searchContext());
+            sourceNames[i] = sources[i].name;
+            reverseMuls[i] = sources[i].reverseMul;
+        }
+        if (after == null) {
+            this.after = null;
+        } else {
+            this.after = new Comparable[sources.length];
+            for (int i = 0; i < sources.length; i++) {
+                this.after[i] = sources[i].parseAfter(valuesSources[i], after.get(sources[i].name), aggregationContext.searchContext());
+            }
+        }
+        this.slots = new TreeMap<>(InternalComposite.keyComparator(reverseMuls));
+    }
+
+    @Override
+    public LeafBucketCollector getLeafCollector(LeafReaderContext ctx, final LeafBucketCollector sub) throws IOException {
+        for (ValuesSource valuesSource : valuesSources) {
+            if (valuesSource == null) {
+                // an unmapped source has no values, so there are no combinations
+                return LeafBucketCollector.NO_OP_COLLECTOR;
+            }
+        }
+        finishLeaf();
+        final RoaringDocIdSet.Builder docs = new RoaringDocIdSet.Builder(ctx.reader().maxDoc());
+        leaves.add(ctx);
+        currentDocs = docs;
+        final CompositeValuesSource.LeafValues[] values = leafValues(ctx);
+        final int[] counts = new int[sources.length];
+        final Comparable[] key = new Comparable[sources.length];
+        return new LeafBucketCollectorBase(sub, null) {
+            boolean competitive;
+
+            @Override
+            public void collect(int doc, long bucket) throws IOException {
+                assert bucket == 0;
+                for (int i = 0; i < values.length; i++) {
+                    counts[i] = values[i].setDocument(doc);
+                    if (counts[i] == 0) {
+                        return;
+                    }
+                }
+                competitive = false;
+                collectSource(doc, 0);
+                if (competitive) {
+                    docs.add(doc);
+                }
+            }
+
+            private void collectSource(int doc, int source) throws IOException {
+                for (int i = 0; i < counts[source]; i++) {
+                    key[source] = values[source].keyAt(i);
+                    if (source + 1 < values.length) {
+                        collectSource(doc, source + 1);
+                    } else {
+                        competitive |= collectKey(key);
+                    }
+                }
+            }
+        };
+    }
+
+    private CompositeValuesSource.LeafValues[] leafValues(LeafReaderContext ctx) throws IOException {
+        CompositeValuesSource.LeafValues[] values = new CompositeValuesSource.LeafValues[sources.length];
+        for (int i = 0; i < sources.length; i++) {
+            values[i] = sources[i].leafValues(valuesSources[i], ctx);
+        }
+        return values;
+    }
+
+    private void finishLeaf() {
+        if (currentDocs != null) {
+            leafDocs.add(currentDocs.build());
+            currentDocs = null;
+        }
+    }
+
+    /**
+     * @return true if the combination is in the page, at least for now.
+     */
+    private boolean collectKey(Comparable[] key) {
+        if (slots.size() >= size && slots.comparator().compare(key, slots.lastKey()) > 0) {
+            return false;
+        }
+        Slot slot = slots.get(key);
+        if (slot == null) {
+            if (after != null && slots.comparator().compare(key, after) <= 0) {
+                return false;
+            }
+            Comparable[] copy = new Comparable[key.length];
+            for (int i = 0; i < key.length; i++) {
+                copy[i] = key[i] instanceof BytesRef ? BytesRef.deepCopyOf((BytesRef) key[i]) : key[i];
+            }
+            slot = new Slot();
+            slots.put(copy, slot);
+            if (slots.size() > size) {
+                slots.pollLastEntry();
+            }
+        }
+        // an evicted combination sorts after the page and can never come back, so the counts of the page are exact.
+        slot.docCount++;
+        return true;
+    }
+
+    /**
+     * Replay the recorded documents on sub-aggregations for the combinations of the page.
+     */
+    @Override
+    protected void doPostCollection() throws IOException {
+        finishLeaf();
+        long ord = 0;
+        for (Slot slot : slots.values()) {
+            slot.ord = ord++;
+        }
+        final Comparable[] key = new Comparable[sources.length];
+        final int[] counts = new int[sources.length];
+        for (int l = 0; l < leaves.size(); l++) {
+            DocIdSetIterator docs = leafDocs.get(l).iterator();
+            if (docs == null || slots.isEmpty()) {
+                continue;
+            }
+            LeafReaderContext ctx = leaves.get(l);
+            LeafBucketCollector sub = collectableSubAggregators.getLeafCollector(ctx);
+            CompositeValuesSource.LeafValues[] values = leafValues(ctx);
+            for (int doc = docs.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docs.nextDoc()) {
+                for (int i = 0; i < values.length; i++) {
+                    counts[i] = values[i].setDocument(doc);
+                }
+                replaySource(sub, values, counts, key, doc, 0);
+            }
+        }
+        leaves.clear();
+        leafDocs.clear();
+    }
+
+    private void replaySource(LeafBucketCollector sub, CompositeValuesSource.LeafValues[] values, int[] counts, Comparable[] key,
+                              int doc, int source) throws IOException {
+        for (int i = 0; i < counts[source]; i++) {
+            key[source] = values[source].keyAt(i);
+            if (source + 1 < values.length) {
+                replaySource(sub, values, counts, key, doc, source + 1);
+            } else {
+                Slot slot = slots.get(key);
+                if (slot != null) {
+                    sub.collect(doc, slot.ord);
+                }
+            }
+        }
+    }
+
+    @Override
+    public InternalAggregation buildAggregation(long owningBucketOrdinal) throws IOException {
+        assert owningBucketOrdinal == 0;
+        List<InternalComposite.Bucket> buckets = new ArrayList<>(slots.size());
+        for (Map.Entry<Comparable[], Slot> entry : slots.entrySet()) {
+            buckets.add(new InternalComposite.Bucket(sourceNames, entry.getKey(), entry.getValue().docCount,
+                    bucketAggregations(entry.getValue().ord)));
+        }
+        return new InternalComposite(name, size, sourceNames, reverseMuls, buckets, pipelineAggregators(), metaData());
+    }
+
+    @Override
+    public InternalAggregation buildEmptyAggregation() {
+        return new InternalComposite(name, size, sourceNames, reverseMuls, Collections.<InternalComposite.Bucket>emptyList(),
+                pipelineAggregators(), metaData());
+    }
+
+    public static class Factory extends AggregatorFactory {
+
+        private final CompositeValuesSource[] sources;
+        private final int size;
+        private final Map<String, Object> after;
+
+        public Factory(String name, CompositeValuesSource[] sources, int size, Map<String, Object> after) {
+            super(name, InternalComposite.TYPE.name());
+            this.sources = sources;
+            this.size = size;
+            this.after = after;
+        }
+
+        @Override
+        public Aggregator createInternal(AggregationContext context, Aggregator parent, boolean collectsFromSingleBucket,
+                List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData) throws IOException {
+            if (parent != null) {
+                throw new AggregationExecutionException("Composite aggregation [" + name + "] must be a top level aggregation");
+            }
+            return new CompositeAggregator(name, factories, sources, size, after, context, parent, pipelineAggregators, metaData);
+        }
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.aggregations.bucket.composite;
+
+import org.elasticsearch.common.ParseField;
+import org.elasticsearch.common.rounding.Rounding;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.search.SearchParseException;
+import org.elasticsearch.search.aggregations.Aggregator;
+import org.elasticsearch.search.aggregations.AggregatorFactory;
+import org.elasticsearch.search.aggregations.support.ValueType;
+import org.elasticsearch.search.aggregations.support.ValuesSourceParser;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Parses the composite aggregation request
+ */
+public class CompositeParser implements Aggregator.Parser {
+
+    public static final ParseField SIZE_FIELD = new ParseField("size");
+    public static final ParseField SOURCES_FIELD = new ParseField("sources");
+    public static final ParseField AFTER_FIELD = new ParseField("after");
+    public static final ParseField ORDER_FIELD = new ParseField("order");
+    public static final ParseField INTERVAL_FIELD = new ParseField("interval");
+    public static final ParseField OFFSET_FIELD = new ParseField("offset");
+
+    @Override
+    public String type() {
+        return InternalComposite.TYPE.name();
+    }
+
+    @Override
+    public AggregatorFactory parse(String aggregationName, XContentParser parser, SearchContext context) throws IOException {
+
+        int size = 10;
+        List<CompositeValuesSource> sources = new ArrayList<>();
+        Map<String, Object> after = null;
+
+        XContentParser.Token token;
+        String currentFieldName = null;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (token.isValue()) {
+                if (context.parseFieldMatcher().match(currentFieldName, SIZE_FIELD)) {
+                    size = parser.intValue();
+                } else {
+                    throw new SearchParseException(context, "Unknown key for a " + token + " in [" + aggregationName + "]: ["
+                            + currentFieldName + "].", parser.getTokenLocation());
+                }
+            } else if (token == XContentParser.Token.START_ARRAY) {
+                if (context.parseFieldMatcher().match(currentFieldName, SOURCES_FIELD)) {
+                    while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+                        if (token != XContentParser.Token.START_OBJECT) {
+                            throw new SearchParseException(context, "Expected an object for each source of [" + aggregationName + "] but got "
+                                    + token, parser.getTokenLocation());
+                        }
+                        sources.add(parseSource(aggregationName, parser, context));
+                    }
+                } else {
+                    throw new SearchParseException(context, "Unknown key for a " + token + " in [" + aggregationName + "]: ["
+                            + currentFieldName + "].", parser.getTokenLocation());
+                }
+            } else if (token == XContentParser.Token.START_OBJECT) {
+                if (context.parseFieldMatcher().match(currentFieldName, AFTER_FIELD)) {
+                    after = parser.map();
+                } else {
+                    throw new SearchParseException(context, "Unknown key for a " + token + " in [" + aggregationName + "]: ["
+                            + currentFieldName + "].", parser.getTokenLocation());
+                }
+            } else {
+                throw new SearchParseException(context, "Unknown key for a " + token + " in [" + aggregationName + "]: ["
+                        + currentFieldName + "].", parser.getTokenLocation());
+            }
+        }
+
+        if (sources.isEmpty()) {
+            throw new SearchParseException(context, "Missing required field [sources] for composite aggregation [" + aggregationName + "]",
+                    parser.getTokenLocation());
+        }
+        if (size < 1) {
+            throw new SearchParseException(context, "[size] must be greater than 0 in composite aggregation [" + aggregationName + "]",
+                    parser.getTokenLocation());
+        }
+        Set<String> names = new HashSet<>();
+        for (CompositeValuesSource source : sources) {
+            if (names.add(source.name) == false) {
+                throw new SearchParseException(context, "Duplicate source [" + source.name + "] in composite aggregation ["
+                        + aggregationName + "]", parser.getTokenLocation());
+            }
+        }
+        if (after != null && after.size() != sources.size()) {
+            throw new SearchParseException(context, "[after] must have a value for each source of composite aggregation ["
+                    + aggregationName + "]", parser.getTokenLocation());
+        }
+
+        return new CompositeAggregator.Factory(aggregationName, sources.toArray(new CompositeValuesSource[sources.size()]), size, after);
+    }
+
+    /**
+     * Parses <code>{"name": {"type": {...}}}</code>.
+     */
+    private CompositeValuesSource parseSource(String aggregationName, XContentParser parser, SearchContext context) throws IOException {
+        XContentParser.Token token = parser.nextToken();
+        if (token != XContentParser.Token.FIELD_NAME) {
+            throw new SearchParseException(context, "Expected the name of a source of [" + aggregationName + "] but got " + token,
+                    parser.getTokenLocation());
+        }
+        String name = parser.currentName();
+        if (parser.nextToken() != XContentParser.Token.START_OBJECT || parser.nextToken() != XContentParser.Token.FIELD_NAME) {
+            throw new SearchParseException(context, "Expected the type of source [" + name + "] of [" + aggregationName + "]",
+                    parser.getTokenLocation());
+        }
+        String type = parser.currentName();
+        if (parser.nextToken() != XContentParser.Token.START_OBJECT) {
+            throw new SearchParseException(context, "Expected an object for source [" + name + "] of [" + aggregationName + "]",
+                    parser.getTokenLocation());
+        }
+
+        ValuesSourceParser<?> vsParser;
+        if (CompositeValuesSource.TERMS.equals(type)) {
+            vsParser = ValuesSourceParser.any(aggregationName, InternalComposite.TYPE, context).scriptable(true).formattable(true).build();
+        } else if (CompositeValuesSource.HISTOGRAM.equals(type)) {
+            vsParser = ValuesSourceParser.numeric(aggregationName, InternalComposite.TYPE, context)
+                    .targetValueType(ValueType.NUMERIC)
+                    .formattable(true)
+                    .build();
+        } else {
+            throw new SearchParseException(context, "Unknown type [" + type + "] of source [" + name + "] of [" + aggregationName
+                    + "], expected [" + CompositeValuesSource.TERMS + "] or [" + CompositeValuesSource.HISTOGRAM + "]",
+                    parser.getTokenLocation());
+        }
+
+        boolean asc = true;
+        long interval = -1;
+        long offset = 0;
+        String currentFieldName = null;
+        while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+            if (token == XContentParser.Token.FIELD_NAME) {
+                currentFieldName = parser.currentName();
+            } else if (vsParser.token(currentFieldName, token, parser)) {
+                continue;
+            } else if (token.isValue()) {
+                if (context.parseFieldMatcher().match(currentFieldName, ORDER_FIELD)) {
+                    String dir = parser.text();
+                    asc = "asc".equals(dir);
+                    if (!asc && !"desc".equals(dir)) {
+                        throw new SearchParseException(context, "Unknown order direction [" + dir + "] of source [" + name + "] of ["
+                                + aggregationName + "]. Should be either [asc] or [desc]", parser.getTokenLocation());
+                    }
+                } else if (CompositeValuesSource.HISTOGRAM.equals(type) && context.parseFieldMatcher().match(currentFieldName, INTERVAL_FIELD)) {
+                    interval = parser.longValue();
+                } else if (CompositeValuesSource.HISTOGRAM.equals(type) && context.parseFieldMatcher().match(currentFieldName, OFFSET_FIELD)) {
+                    offset = parser.longValue();
+                } else {
+                    throw new SearchParseException(context, "Unknown key for a " + token + " in source [" + name + "] of ["
+                            + aggregationName + "]: [" + currentFieldName + "].", parser.getTokenLocation());
+                }
+            } else {
+                throw new SearchParseException(context, "Unknown key for a " + token + " in source [" + name + "] of ["
+                        + aggregationName + "]: [" + currentFieldName + "].", parser.getTokenLocation());
+            }
+        }
+        if (parser.nextToken() != XContentParser.Token.END_OBJECT || parser.nextToken() != XContentParser.Token.END_OBJECT) {
+            throw new SearchParseException(context, "Expected a single type for source [" + name + "] of [" + aggregationName + "]",
+                    parser.getTokenLocation());
+        }
+
+        Rounding rounding = null;
+        if (CompositeValuesSource.HISTOGRAM.equals(type)) {
+            if (interval < 1) {
+                throw new SearchParseException(context, "Missing required field [interval] for source [" + name + "] of ["
+                        + aggregationName + "]", parser.getTokenLocation());
+            }
+            rounding = new Rounding.Interval(interval);
+            if (offset != 0) {
+                rounding = new Rounding.OffsetRounding((Rounding.Interval) rounding, offset);
+            }
+        }
+        return new CompositeValuesSource(name, type, vsParser.config(), rounding, asc);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.aggregations.bucket.composite;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.RamUsageEstimator;
+import org.elasticsearch.common.rounding.Rounding;
+import org.elasticsearch.index.fielddata.SortedBinaryDocValues;
+import org.elasticsearch.index.fielddata.SortedNumericDoubleValues;
+import org.elasticsearch.search.SearchParseException;
+import org.elasticsearch.search.aggregations.support.ValuesSource;
+import org.elasticsearch.search.aggregations.support.ValuesSourceConfig;
+import org.elasticsearch.search.aggregations.support.format.ValueParser;
+import org.elasticsearch.search.internal.SearchContext;
+
+import java.io.IOException;
+
+/**
+ * A source of the keys of the {@link Composite} aggregation: the values of a field or script, or their histogram
+ * buckets. Keys are {@link BytesRef}s, {@link Long}s or {@link Double}s.
+ */
+class CompositeValuesSource {
+
+    static final String TERMS = "terms";
+    static final String HISTOGRAM = "histogram";
+
+    final String name;
+    final String type;
+    final ValuesSourceConfig<?> config;
+    final Rounding rounding;
+    final int reverseMul;
+
+    CompositeValuesSource(String name, String type, ValuesSourceConfig<?> config, Rounding rounding, boolean asc) {
+        this.name = name;
+        this.type = type;
+        this.config = config;
+        this.rounding = rounding;
+        this.reverseMul = asc ? 1 : -1;
+    }
+
+    /**
+     * @return the key of the given value of an <code>after</code> key.
+     */
+    Comparable parseAfter(ValuesSource valuesSource, Object value, SearchContext context) {
+        if (value == null) {
+            throw new SearchParseException(context, "Missing value of source [" + name + "] in the [after] key", null);
+        }
+        if (valuesSource instanceof ValuesSource.Numeric) {
+            boolean floatingPoint = HISTOGRAM.equals(type) == false && ((ValuesSource.Numeric) valuesSource).isFloatingPoint();
+            if (value instanceof Number) {
+                return floatingPoint ? (Comparable) ((Number) value).doubleValue() : (Comparable) ((Number) value).longValue();
+            }
+            ValueParser parser = config.parser() == null ? ValueParser.RAW : config.parser();
+            return floatingPoint ? (Comparable) parser.parseDouble(value.toString(), context) : (Comparable) parser.parseLong(value.toString(), context);
+        }
+        return new BytesRef(value.toString());
+    }
+
+    /**
+     * @return the keys of the documents of a segment.
+     */
+    LeafValues leafValues(ValuesSource valuesSource, LeafReaderContext ctx) throws IOException {
+        if (valuesSource instanceof ValuesSource.Numeric) {
+            ValuesSource.Numeric numeric = (ValuesSource.Numeric) valuesSource;
+            if (HISTOGRAM.equals(type)) {
+                return new LongLeafValues(numeric.longValues(ctx), rounding);
+            } else if (numeric.isFloatingPoint()) {
+                return new DoubleLeafValues(numeric.doubleValues(ctx));
+            } else {
+                return new LongLeafValues(numeric.longValues(ctx), null);
+            }
+        }
+        return new BytesLeafValues(valuesSource.bytesValues(ctx));
+    }
+
+    /**
+     * The distinct keys of the current document of a segment, in ascending order.
+     */
+    static abstract class LeafValues {
+
+        /**
+         * Positions to the specified document.
+         *
+         * @return the number of distinct keys of the document.
+         */
+        abstract int setDocument(int doc);
+
+        /**
+         * @return the key at the given index, a {@link BytesRef} key is only valid until the next document.
+         */
+        abstract Comparable keyAt(int index);
+    }
+
+    private static final class LongLeafValues extends LeafValues {
+        private final SortedNumericDocValues values;
+        private final Rounding rounding;
+        private long[] keys = new long[1];
+
+        LongLeafValues(SortedNumericDocValues values, Rounding rounding) {
+            this.values = values;
+            this.rounding = rounding;
+        }
+
+        @Override
+        int setDocument(int doc) {
+            values.setDocument(doc);
+            final int count = values.count();
+            keys = ArrayUtil.grow(keys, count);
+            int distinct = 0;
+            for (int i = 0; i < count; i++) {
+                long key = rounding == null ? values.valueAt(i) : rounding.round(values.valueAt(i));
+                if (distinct == 0 || keys[distinct - 1] != key) {
+                    keys[distinct++] = key;
+                }
+            }
+            return distinct;
+        }
+
+        @Override
+        Comparable keyAt(int index) {
+            return keys[index];
+        }
+    }
+
+    private static final class DoubleLeafValues extends LeafValues {
+        private final SortedNumericDoubleValues values;
+        private double[] keys = new double[1];
+
+        DoubleLeafValues(SortedNumericDoubleValues values) {
+            this.values = values;
+        }
+
+        @Override
+        int setDocument(int doc) {
+            values.setDocument(doc);
+            final int count = values.count();
+            keys = ArrayUtil.grow(keys, count);
+            int distinct = 0;
+            for (int i = 0; i < count; i++) {
+                double key = values.valueAt(i);
+                if (distinct == 0 || keys[distinct - 1] != key) {
+                    keys[distinct++] = key;
+                }
+            }
+            return distinct;
+        }
+
+        @Override
+        Comparable keyAt(int index) {
+            return keys[index];
+        }
+    }
+
+    private static final class BytesLeafValues extends LeafValues {
+        private final SortedBinaryDocValues values;
+        private BytesRefBuilder[] keys = new BytesRefBuilder[0];
+
+        BytesLeafValues(SortedBinaryDocValues values) {
+            this.values = values;
+        }
+
+        @Override
+        int setDocument(int doc) {
+            values.setDocument(doc);
+            final int count = values.count();
+            if (keys.length < count) {
+                keys = new BytesRefBuilder[ArrayUtil.oversize(count, RamUsageEstimator.NUM_BYTES_OBJECT_REF)];
+                for (int i = 0; i < keys.length; i++) {
+                    keys[i] = new BytesRefBuilder();
+                }
+            }
+            int distinct = 0;
+            for (int i = 0; i < count; i++) {
+                // values may be reused across invocations
+                BytesRef key = values.valueAt(i);
+                if (distinct == 0 || keys[distinct - 1].get().equals(key) == false) {
+                    keys[distinct++].copyBytes(key);
+                }
+            }
+            return distinct;
+        }
+
+        @Override
+        Comparable keyAt(int index) {
+            return keys[index].get();
+        }
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.aggregations.bucket.composite;
+
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentBuilderString;
+import org.elasticsearch.search.aggregations.AggregationStreams;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.InternalAggregation;
+import org.elasticsearch.search.aggregations.InternalAggregations;
+import org.elasticsearch.search.aggregations.InternalMultiBucketAggregation;
+import org.elasticsearch.search.aggregations.pipeline.PipelineAggregator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ *
+ */
+public class InternalComposite extends InternalMultiBucketAggregation<InternalComposite, InternalComposite.Bucket> implements Composite {
+
+    public final static Type TYPE = new Type("composite");
+
+    static final XContentBuilderString AFTER_KEY = new XContentBuilderString("after_key");
+
+    private final static AggregationStreams.Stream STREAM = new AggregationStreams.Stream() {
+        @Override
+        public InternalComposite readResult(StreamInput in) throws IOException {
+            InternalComposite composite = new InternalComposite();
+            composite.readFrom(in);
+            return composite;
+        }
+    };
+
+    public static void registerStream() {
+        AggregationStreams.registerStream(STREAM, TYPE.stream());
+    }
+
+    private static final byte BYTES_KEY = 0;
+    private static final byte LONG_KEY = 1;
+    private static final byte DOUBLE_KEY = 2;
+
+    public static class Bucket extends InternalBucket implements Composite.Bucket {
+
+        private final String[] sourceNames;
+        private Comparable[] key;
+        private long docCount;
+        InternalAggregations aggregations;
+
+        private Bucket(String[] sourceNames) {
+            // for serialization
+            this.sourceNames = sourceNames;
+        }
+
+        public Bucket(String[] sourceNames, Comparable[] key, long docCount, InternalAggregations aggregations) {
+            this.sourceNames = sourceNames;
+            this.key = key;
+            this.docCount = docCount;
+            this.aggregations = aggregations;
+        }
+
+        @Override
+        public Map<String, Object> getKey() {
+            return keyAsMap(sourceNames, key);
+        }
+
+        @Override
+        public String getKeyAsString() {
+            return getKey().toString();
+        }
+
+        @Override
+        public long getDocCount() {
+            return docCount;
+        }
+
+        @Override
+        public Aggregations getAggregations() {
+            return aggregations;
+        }
+
+        Bucket reduce(List<Bucket> buckets, ReduceContext context) {
+            long docCount = 0;
+            List<InternalAggregations> aggregationsList = new ArrayList<>(buckets.size());
+            for (Bucket bucket : buckets) {
+                docCount += bucket.docCount;
+                aggregationsList.add(bucket.aggregations);
+            }
+            return new Bucket(sourceNames, key, docCount, InternalAggregations.reduce(aggregationsList, context));
+        }
+
+        @Override
+        public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+            builder.startObject();
+            builder.field(CommonFields.KEY, getKey());
+            builder.field(CommonFields.DOC_COUNT, docCount);
+            aggregations.toXContentInternal(builder, params);
+            builder.endObject();
+            return builder;
+        }
+
+        @Override
+        public void readFrom(StreamInput in) throws IOException {
+            key = readKey(in, sourceNames.length);
+            docCount = in.readVLong();
+            aggregations = InternalAggregations.readAggregations(in);
+        }
+
+        @Override
+        public void writeTo(StreamOutput out) throws IOException {
+            writeKey(out, key);
+            out.writeVLong(docCount);
+            aggregations.writeTo(out);
+        }
+    }
+
+    private int size;
+    private String[] sourceNames;
+    private int[] reverseMuls;
+    private List<Bucket> buckets;
+
+    InternalComposite() {} // for serialization
+
+    public InternalComposite(String name, int size, String[] sourceNames, int[] reverseMuls, List<Bucket> buckets,
+                             List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData) {
+        super(name, pipelineAggregators, metaData);
+        this.size = size;
+        this.sourceNames = sourceNames;
+        this.reverseMuls = reverseMuls;
+        this.buckets = buckets;
+    }
+
+    @Override
+    public Type type() {
+        return TYPE;
+    }
+
+    @Override
+    public InternalComposite create(List<Bucket> buckets) {
+        return new InternalComposite(name, size, sourceNames, reverseMuls, buckets, pipelineAggregators(), metaData);
+    }
+
+    @Override
+    public Bucket createBucket(InternalAggregations aggregations, Bucket prototype) {
+        return new Bucket(sourceNames, prototype.key, prototype.docCount, aggregations);
+    }
+
+    @Override
+    public List<Bucket> getBuckets() {
+        return buckets;
+    }
+
+    @Override
+    public Map<String, Object> afterKey() {
+        if (buckets.isEmpty()) {
+            return null;
+        }
+        return buckets.get(buckets.size() - 1).getKey();
+    }
+
+    @Override
+    public InternalAggregation doReduce(List<InternalAggregation> aggregations, ReduceContext reduceContext) {
+        // every page holds the first keys of its shard, so the first keys over all pages have complete counts
+        TreeMap<Comparable[], List<Bucket>> keys = new TreeMap<>(keyComparator(reverseMuls));
+        for (InternalAggregation aggregation : aggregations) {
+            for (Bucket bucket : ((InternalComposite) aggregation).buckets) {
+                List<Bucket> sameKeyList = keys.get(bucket.key);
+                if (sameKeyList == null) {
+                    if (keys.size() >= size && keys.comparator().compare(bucket.key, keys.lastKey()) > 0) {
+                        continue;
+                    }
+                    sameKeyList = new ArrayList<>(aggregations.size());
+                    keys.put(bucket.key, sameKeyList);
+                    if (keys.size() > size) {
+                        keys.pollLastEntry();
+                    }
+                }
+                sameKeyList.add(bucket);
+            }
+        }
+        List<Bucket> reducedBuckets = new ArrayList<>(keys.size());
+        for (List<Bucket> sameKeyList : keys.values()) {
+            reducedBuckets.add(sameKeyList.get(0).reduce(sameKeyList, reduceContext));
+        }
+        return new InternalComposite(name, size, sourceNames, reverseMuls, reducedBuckets, pipelineAggregators(), getMetaData());
+    }
+
+    @Override
+    protected void doReadFrom(StreamInput in) throws IOException {
+        size = in.readVInt();
+        sourceNames = in.readStringArray();
+        reverseMuls = new int[sourceNames.length];
+        for (int i = 0; i < reverseMuls.length; i++) {
+            reverseMuls[i] = in.readBoolean() ? 1 : -1;
+        }
+        int numBuckets = in.readVInt();
+        List<Bucket> buckets = new ArrayList<>(numBuckets);
+        for (int i = 0; i < numBuckets; i++) {
+            Bucket bucket = new Bucket(sourceNames);
+            bucket.readFrom(in);
+            buckets.add(bucket);
+        }
+        this.buckets = buckets;
+    }
+
+    @Override
+    protected void doWriteTo(StreamOutput out) throws IOException {
+        out.writeVInt(size);
+        out.writeStringArray(sourceNames);
+        for (int reverseMul : reverseMuls) {
+            out.writeBoolean(reverseMul > 0);
+        }
+        out.writeVInt(buckets.size());
+        for (Bucket bucket : buckets) {
+            bucket.writeTo(out);
+        }
+    }
+
+    @Override
+    public XContentBuilder doXContentBody(XContentBuilder builder, Params params) throws IOException {
+        Map<String, Object> afterKey = afterKey();
+        if (afterKey != null) {
+            builder.field(AFTER_KEY, afterKey);
+        }
+        builder.startArray(CommonFields.BUCKETS);
+        for (Bucket bucket : buckets) {
+            bucket.toXContent(builder, params);
+        }
+        builder.endArray();
+        return builder;
+    }
+
+    /**
+     * @return the order of composite keys, source by source.
+     */
+    static Comparator<Comparable[]> keyComparator(final int[] reverseMuls) {
+        return new Comparator<Comparable[]>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public int compare(Comparable[] o1, Comparable[] o2) {
+                for (int i = 0; i < reverseMuls.length; i++) {
+                    int cmp = o1[i].compareTo(o2[i]);
+                    if (cmp != 0) {
+                        return cmp * reverseMuls[i];
+                    }
+                }
+                return 0;
+            }
+        };
+    }
+
+    static Map<String, Object> keyAsMap(String[] sourceNames, Comparable[] key) {
+        Map<String, Object> map = new LinkedHashMap<>(sourceNames.length);
+        for (int i = 0; i < sourceNames.length; i++) {
+            map.put(sourceNames[i], key[i] instanceof BytesRef ? ((BytesRef) key[i]).utf8ToString() : key[i]);
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    private static Comparable[] readKey(StreamInput in, int length) throws IOException {
+        Comparable[] key = new Comparable[length];
+        for (int i = 0; i < length; i++) {
+            byte type = in.readByte();
+            switch (type) {
+            case BYTES_KEY:
+                key[i] = in.readBytesRef();
+                break;
+            case LONG_KEY:
+                key[i] = in.readLong();
+                break;
+            case DOUBLE_KEY:
+                key[i] = in.readDouble();
+                break;
+            default:
+                throw new IOException("Unknown composite key type [" + type + "]");
+            }
+        }
+        return key;
+    }
+
+    private static void writeKey(StreamOutput out, Comparable[] key) throws IOException {
+        for (Comparable value : key) {
+            if (value instanceof BytesRef) {
+                out.writeByte(BYTES_KEY);
+                out.writeBytesRef((BytesRef) value);
+            } else if (value instanceof Long) {
+                out.writeByte(LONG_KEY);
+                out.writeLong((Long) value);
+            } else {
+                out.writeByte(DOUBLE_KEY);
+                out.writeDouble((Double) value);
+            }
+        }
+    }
+}
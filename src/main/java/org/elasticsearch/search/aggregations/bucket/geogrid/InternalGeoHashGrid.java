@@ -219,6 +219,17 @@ public class InternalGeoHashGrid extends InternalMultiBucketAggregation<Internal
             }
         }
 
+        if (reduceContext.isFinalReduce() == false) {
+            // keep every cell, truncation to the required size only happens on the final reduce
+            List<Bucket> reduced = new ArrayList<>((int) buckets.size());
+            for (LongObjectPagedHashMap.Cursor<List<Bucket>> cursor : buckets) {
+                List<Bucket> sameCellBuckets = cursor.value;
+                reduced.add(sameCellBuckets.get(0).reduce(sameCellBuckets, reduceContext));
+            }
+            buckets.close();
+            return new InternalGeoHashGrid(getName(), requiredSize, reduced, pipelineAggregators(), getMetaData());
+        }
+
         final int size = (int) Math.min(requiredSize, buckets.size());
         BucketPriorityQueue ordered = new BucketPriorityQueue(size);
         for (LongObjectPagedHashMap.Cursor<List<Bucket>> cursor : buckets) {
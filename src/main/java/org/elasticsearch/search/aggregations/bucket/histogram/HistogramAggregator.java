@@ -170,6 +170,10 @@ public class HistogramAggregator extends BucketsAggregator {
             return minDocCount;
         }
 
+        public Rounding rounding() {
+            return rounding;
+        }
+
         @Override
         protected Aggregator createUnmapped(AggregationContext aggregationContext, Aggregator parent, List<PipelineAggregator> pipelineAggregators,
                 Map<String, Object> metaData) throws IOException {
@@ -323,6 +323,13 @@ public class InternalHistogram<B extends InternalHistogram.Bucket> extends Inter
         return getFactory().createBucket(aggregations, prototype);
     }
 
+    /**
+     * Creates a bucket with the format of this histogram, for buckets that are not collected by an aggregator.
+     */
+    public B createBucket(long key, long docCount, InternalAggregations aggregations) {
+        return getFactory().createBucket(key, docCount, aggregations, keyed, formatter);
+    }
+
     private static class IteratorAndCurrent<B> {
 
         private final Iterator<B> iterator;
@@ -362,7 +369,7 @@ public class InternalHistogram<B extends InternalHistogram.Bucket> extends Inter
                 if (top.current.key != key) {
                     // the key changes, reduce what we already buffered and reset the buffer for current buckets
                     final B reduced = currentBuckets.get(0).reduce(currentBuckets, reduceContext);
-                    if (reduced.getDocCount() >= minDocCount) {
+                    if (reduced.getDocCount() >= minDocCount || reduceContext.isFinalReduce() == false) {
                         reducedBuckets.add(reduced);
                     }
                     currentBuckets.clear();
@@ -383,7 +390,7 @@ public class InternalHistogram<B extends InternalHistogram.Bucket> extends Inter
 
             if (currentBuckets.isEmpty() == false) {
                 final B reduced = currentBuckets.get(0).reduce(currentBuckets, reduceContext);
-                if (reduced.getDocCount() >= minDocCount) {
+                if (reduced.getDocCount() >= minDocCount || reduceContext.isFinalReduce() == false) {
                     reducedBuckets.add(reduced);
                 }
             }
@@ -452,6 +459,12 @@ public class InternalHistogram<B extends InternalHistogram.Bucket> extends Inter
     public InternalAggregation doReduce(List<InternalAggregation> aggregations, ReduceContext reduceContext) {
         List<B> reducedBuckets = reduceBuckets(aggregations, reduceContext);
 
+        if (reduceContext.isFinalReduce() == false) {
+            // partial results must stay sorted by key, like shard results
+            return getFactory().create(getName(), reducedBuckets, order, minDocCount, emptyBucketInfo, formatter, keyed, pipelineAggregators(),
+                    getMetaData());
+        }
+
         // adding empty buckets if needed
         if (minDocCount == 0) {
             addEmptyBuckets(reducedBuckets);
@@ -186,6 +186,15 @@ public abstract class InternalSignificantTerms<A extends InternalSignificantTerm
             }
         }
 
+        if (reduceContext.isFinalReduce() == false) {
+            // keep every bucket, scoring and truncation need the global sizes of the final reduce
+            List<InternalSignificantTerms.Bucket> reduced = new ArrayList<>(buckets.size());
+            for (List<Bucket> sameTermBuckets : buckets.values()) {
+                reduced.add(sameTermBuckets.get(0).reduce(sameTermBuckets, reduceContext));
+            }
+            return create(globalSubsetSize, globalSupersetSize, reduced, this);
+        }
+
         significanceHeuristic.initialize(reduceContext);
         final int size = Math.min(requiredSize, buckets.size());
         BucketSignificancePriorityQueue ordered = new BucketSignificancePriorityQueue(size);
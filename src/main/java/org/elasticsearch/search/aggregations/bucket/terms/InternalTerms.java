@@ -121,6 +121,9 @@ public abstract class InternalTerms<A extends InternalTerms, B extends InternalT
     protected long docCountError;
     protected boolean showTermDocCountError;
     protected long otherDocCount;
+    // set on the result of a partial reduce, whose doc count errors are already summed over the reduced shard results
+    // and whose buckets are neither truncated nor filtered, never serialized
+    protected boolean partiallyReduced;
 
     protected InternalTerms() {} // for serialization
 
@@ -192,7 +195,17 @@ public abstract class InternalTerms<A extends InternalTerms, B extends InternalT
             }
             otherDocCount += terms.getSumOfOtherDocCounts();
             final long thisAggDocCountError;
-            if (terms.buckets.size() < this.shardSize || this.order == InternalOrder.TERM_ASC || this.order == InternalOrder.TERM_DESC) {
+            if (terms.partiallyReduced) {
+                // buckets already carry the error of the shard results they were reduced from
+                thisAggDocCountError = terms.docCountError;
+                if (sumDocCountError != -1) {
+                    sumDocCountError = thisAggDocCountError == -1 ? -1 : sumDocCountError + thisAggDocCountError;
+                }
+                for (Bucket bucket : terms.buckets) {
+                    buckets.put(bucket.getKey(), bucket);
+                }
+                continue;
+            } else if (terms.buckets.size() < this.shardSize || this.order == InternalOrder.TERM_ASC || this.order == InternalOrder.TERM_DESC) {
                 thisAggDocCountError = 0;
             } else if (InternalOrder.isCountDesc(this.order)) {
                 thisAggDocCountError = terms.buckets.get(terms.buckets.size() - 1).docCount;
@@ -213,6 +226,23 @@ public abstract class InternalTerms<A extends InternalTerms, B extends InternalT
             }
         }
 
+        if (reduceContext.isFinalReduce() == false) {
+            // keep every bucket with the error of the shard results it was seen in, the final reduce will
+            // compute the error for the shard results it was missing from, truncate and filter
+            List<Bucket> reduced = new ArrayList<>(buckets.keySet().size());
+            for (Collection<Bucket> l : buckets.asMap().values()) {
+                List<Bucket> sameTermBuckets = (List<Bucket>) l; // cast is ok according to javadocs
+                Bucket b = sameTermBuckets.get(0).reduce(sameTermBuckets, reduceContext);
+                if (sumDocCountError == -1) {
+                    b.docCountError = -1;
+                }
+                reduced.add(b);
+            }
+            A partial = create(name, reduced, sumDocCountError, otherDocCount, this);
+            partial.partiallyReduced = true;
+            return partial;
+        }
+
         final int size = Math.min(requiredSize, buckets.size());
         BucketPriorityQueue ordered = new BucketPriorityQueue(size, order.comparator(null));
         for (Collection<Bucket> l : buckets.asMap().values()) {
@@ -240,7 +270,7 @@ public abstract class InternalTerms<A extends InternalTerms, B extends InternalT
         if (sumDocCountError == -1) {
             docCountError = -1;
         } else {
-            docCountError = aggregations.size() == 1 ? 0 : sumDocCountError;
+            docCountError = aggregations.size() == 1 && ((InternalTerms) aggregations.get(0)).partiallyReduced == false ? 0 : sumDocCountError;
         }
         return create(name, Arrays.asList(list), docCountError, otherDocCount, this);
     }
@@ -19,6 +19,7 @@
 package org.elasticsearch.search.aggregations.bucket.terms;
 
 import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.CollectionUtil;
 import org.elasticsearch.common.io.stream.StreamInput;
 import org.elasticsearch.common.io.stream.StreamOutput;
 import org.elasticsearch.common.xcontent.XContentBuilder;
@@ -174,6 +175,30 @@ public class StringTerms extends InternalTerms<StringTerms, StringTerms.Bucket>
         return new Bucket(prototype.termBytes, prototype.docCount, aggregations, prototype.showDocCountError, prototype.docCountError);
     }
 
+    /**
+     * Creates a bucket with the settings of this terms, for buckets that are not collected by an aggregator.
+     */
+    public Bucket createBucket(BytesRef term, long docCount, InternalAggregations aggregations) {
+        return new Bucket(term, docCount, aggregations, showTermDocCountError, 0);
+    }
+
+    /**
+     * Creates the shard result of buckets that are not collected by an aggregator: like a terms aggregator, the buckets
+     * are sorted and truncated to the shard size, the doc counts of the truncated buckets being the other doc count.
+     */
+    public StringTerms createShardResult(List<Bucket> buckets) {
+        CollectionUtil.introSort(buckets, order.comparator(null));
+        long otherDocCount = 0;
+        for (int i = shardSize; i < buckets.size(); i++) {
+            otherDocCount += buckets.get(i).docCount;
+        }
+        if (buckets.size() > shardSize) {
+            buckets = new ArrayList<>(buckets.subList(0, shardSize));
+        }
+        return new StringTerms(name, order, requiredSize, shardSize, minDocCount, buckets, showTermDocCountError, 0, otherDocCount,
+                pipelineAggregators(), getMetaData());
+    }
+
     @Override
     protected StringTerms create(String name, List<org.elasticsearch.search.aggregations.bucket.terms.InternalTerms.Bucket> buckets,
             long docCountError, long otherDocCount, InternalTerms prototype) {
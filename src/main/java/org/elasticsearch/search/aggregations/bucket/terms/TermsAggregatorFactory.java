@@ -170,6 +170,10 @@ public class TermsAggregatorFactory extends ValuesSourceAggregatorFactory<Values
         this.showTermDocCountError = showTermDocCountError;
     }
 
+    public IncludeExclude includeExclude() {
+        return includeExclude;
+    }
+
     @Override
     protected Aggregator createUnmapped(AggregationContext aggregationContext, Aggregator parent,
             List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData) throws IOException {
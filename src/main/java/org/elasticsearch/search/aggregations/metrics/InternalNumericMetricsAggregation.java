@@ -31,6 +31,10 @@ public abstract class InternalNumericMetricsAggregation extends InternalMetricsA
 
     protected ValueFormatter valueFormatter;
 
+    public ValueFormatter formatter() {
+        return valueFormatter;
+    }
+
     public static abstract class SingleValue extends InternalNumericMetricsAggregation implements NumericMetricsAggregation.SingleValue {
 
         protected SingleValue() {}
@@ -56,6 +56,8 @@ public class InternalScriptedMetric extends InternalMetricsAggregation implement
 
     private Script reduceScript;
     private Object aggregation;
+    // set on the result of a partial reduce, whose aggregation is the list of the shard aggregations, never serialized
+    private boolean partiallyReduced;
 
     private InternalScriptedMetric() {
     }
@@ -80,9 +82,19 @@ public class InternalScriptedMetric extends InternalMetricsAggregation implement
         List<Object> aggregationObjects = new ArrayList<>();
         for (InternalAggregation aggregation : aggregations) {
             InternalScriptedMetric mapReduceAggregation = (InternalScriptedMetric) aggregation;
-            aggregationObjects.add(mapReduceAggregation.aggregation());
+            if (mapReduceAggregation.partiallyReduced) {
+                aggregationObjects.addAll((List<?>) mapReduceAggregation.aggregation());
+            } else {
+                aggregationObjects.add(mapReduceAggregation.aggregation());
+            }
         }
         InternalScriptedMetric firstAggregation = ((InternalScriptedMetric) aggregations.get(0));
+        if (reduceContext.isFinalReduce() == false) {
+            // the reduce script must see the aggregation of every shard, defer it to the final reduce
+            InternalScriptedMetric partial = new InternalScriptedMetric(firstAggregation.getName(), aggregationObjects, firstAggregation.reduceScript, pipelineAggregators(), getMetaData());
+            partial.partiallyReduced = true;
+            return partial;
+        }
         Object aggregation;
         if (firstAggregation.reduceScript != null) {
             Map<String, Object> vars = new HashMap<>();
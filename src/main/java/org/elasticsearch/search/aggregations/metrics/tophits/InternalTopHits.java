@@ -91,6 +91,9 @@ public class InternalTopHits extends InternalMetricsAggregation implements TopHi
 
         final TopDocs reducedTopDocs;
         final TopDocs[] shardDocs;
+        // a partial reduce keeps the top from + size hits, the offset is only applied on the final reduce
+        final int from = reduceContext.isFinalReduce() ? this.from : 0;
+        final int size = reduceContext.isFinalReduce() ? this.size : this.from + this.size;
 
         try {
             if (topDocs instanceof TopFieldDocs) {
@@ -122,7 +125,7 @@ public class InternalTopHits extends InternalMetricsAggregation implements TopHi
                 } while (shardDocs[scoreDoc.shardIndex].scoreDocs[position] != scoreDoc);
                 hits[i] = (InternalSearchHit) shardHits[scoreDoc.shardIndex].getAt(position);
             }
-            return new InternalTopHits(name, from, size, reducedTopDocs, new InternalSearchHits(hits, reducedTopDocs.totalHits,
+            return new InternalTopHits(name, this.from, this.size, reducedTopDocs, new InternalSearchHits(hits, reducedTopDocs.totalHits,
                     reducedTopDocs.getMaxScore()),
                     pipelineAggregators(), getMetaData());
         } catch (IOException e) {
@@ -54,6 +54,10 @@ public abstract class ValuesSourceAggregatorFactory<VS extends ValuesSource> ext
         this.config = config;
     }
 
+    public ValuesSourceConfig<VS> config() {
+        return config;
+    }
+
     @Override
     public Aggregator createInternal(AggregationContext context, Aggregator parent, boolean collectsFromSingleBucket,
             List<PipelineAggregator> pipelineAggregators, Map<String, Object> metaData) throws IOException {
@@ -87,4 +87,8 @@ public class ValuesSourceConfig<VS extends ValuesSource> {
     public ValueParser parser() {
         return format.parser();
     }
+
+    public Object missing() {
+        return missing;
+    }
 }
@@ -32,6 +32,7 @@ import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.TopFieldDocs;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.common.HasContextAndHeaders;
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.collect.HppcMaps;
 import org.elasticsearch.common.component.AbstractComponent;
 import org.elasticsearch.common.inject.Inject;
@@ -84,9 +85,11 @@ public class SearchPhaseController extends AbstractComponent {
 
     public static final ScoreDoc[] EMPTY_DOCS = new ScoreDoc[0];
     public static final String SEARCH_CONTROLLER_OPTIMIZE_SINGLE_SHARD_KEY = "search.controller.optimize_single_shard";
+    public static final String SEARCH_CONTROLLER_BATCHED_REDUCE_SIZE_KEY = "search.controller.batched_reduce_size";
 
     private final BigArrays bigArrays;
     private final boolean optimizeSingleShard;
+    private final int batchedReduceSize;
 
     private ScriptService scriptService;
 
@@ -96,12 +99,61 @@ public class SearchPhaseController extends AbstractComponent {
         this.bigArrays = bigArrays;
         this.scriptService = scriptService;
         this.optimizeSingleShard = settings.getAsBoolean(SEARCH_CONTROLLER_OPTIMIZE_SINGLE_SHARD_KEY, true);
+        this.batchedReduceSize = settings.getAsInt(SEARCH_CONTROLLER_BATCHED_REDUCE_SIZE_KEY, 32);
     }
 
     public boolean optimizeSingleShard() {
         return optimizeSingleShard;
     }
 
+    /**
+     * Returns a reducer folding shard aggregations into a partial result as query results arrive, or <code>null</code>
+     * when incremental reduce is disabled (a batched reduce size lower than 2).
+     */
+    @Nullable
+    public AggregationsReducer newAggregationsReducer(HasContextAndHeaders headersContext) {
+        if (batchedReduceSize < 2) {
+            return null;
+        }
+        return new AggregationsReducer(headersContext);
+    }
+
+    /**
+     * Reduces the aggregations of the buffered query results each time {@link #SEARCH_CONTROLLER_BATCHED_REDUCE_SIZE_KEY}
+     * of them have been received. The partial result replaces the aggregations of the first buffered result and the
+     * others are released, so the coordinating node holds at most that many aggregation trees at a time. The final
+     * reduce is still done by {@link #merge}.
+     */
+    public class AggregationsReducer {
+
+        private final HasContextAndHeaders headersContext;
+        private final List<QuerySearchResult> buffer = new ArrayList<>();
+
+        AggregationsReducer(HasContextAndHeaders headersContext) {
+            this.headersContext = headersContext;
+        }
+
+        public synchronized void consume(QuerySearchResultProvider resultProvider) {
+            QuerySearchResult result = resultProvider.queryResult();
+            if (result.aggregations() == null) {
+                return;
+            }
+            buffer.add(result);
+            if (buffer.size() < batchedReduceSize) {
+                return;
+            }
+            List<InternalAggregations> aggregationsList = new ArrayList<>(buffer.size());
+            for (QuerySearchResult buffered : buffer) {
+                aggregationsList.add((InternalAggregations) buffered.aggregations());
+                buffered.aggregations(null);
+            }
+            QuerySearchResult first = buffer.get(0);
+            first.aggregations(InternalAggregations.reduce(aggregationsList, new ReduceContext(bigArrays, scriptService, headersContext, false)));
+            buffer.clear();
+            buffer.add(first);
+        }
+    }
+
     public AggregatedDfs aggregateDfs(AtomicArray<DfsSearchResult> results) {
         ObjectObjectHashMap<Term, TermStatistics> termStatistics = HppcMaps.newNoNullKeysMap();
         ObjectObjectHashMap<String, CollectionStatistics> fieldStatistics = HppcMaps.newNoNullKeysMap();
@@ -398,14 +450,17 @@ public class SearchPhaseController extends AbstractComponent {
             suggest = hasSuggestions ? new Suggest(Suggest.Fields.SUGGEST, Suggest.reduce(groupedSuggestions)) : null;
         }
 
-        // merge addAggregation
+        // merge addAggregation, results already folded into a partial result by an AggregationsReducer have none
         InternalAggregations aggregations = null;
         if (!queryResults.isEmpty()) {
-            if (firstResult.aggregations() != null && firstResult.aggregations().asList() != null) {
-                List<InternalAggregations> aggregationsList = new ArrayList<>(queryResults.size());
-                for (AtomicArray.Entry<? extends QuerySearchResultProvider> entry : queryResults) {
-                    aggregationsList.add((InternalAggregations) entry.value.queryResult().aggregations());
+            List<InternalAggregations> aggregationsList = new ArrayList<>(queryResults.size());
+            for (AtomicArray.Entry<? extends QuerySearchResultProvider> entry : queryResults) {
+                InternalAggregations shardAggregations = (InternalAggregations) entry.value.queryResult().aggregations();
+                if (shardAggregations != null && shardAggregations.asList() != null) {
+                    aggregationsList.add(shardAggregations);
                 }
+            }
+            if (!aggregationsList.isEmpty()) {
                 aggregations = InternalAggregations.reduce(aggregationsList, new ReduceContext(bigArrays, scriptService, headersContext));
             }
         }
@@ -26,8 +26,6 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.cassandra.dht.Range;
-import org.apache.cassandra.dht.Token;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.Collector;
@@ -39,6 +37,7 @@ import org.apache.lucene.search.Sort;
 import org.apache.lucene.util.Counter;
 import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.cache.recycler.PageCacheRecycler;
+import org.elasticsearch.cassandra.cluster.routing.TokenRangesFingerprint;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.ParseFieldMatcher;
 import org.elasticsearch.common.lease.Releasables;
@@ -220,18 +219,20 @@ public class DefaultSearchContext extends SearchContext {
         Query tokenRangeQuery = null;
         if (this.request.tokenRanges() != null) {
             Loggers.getLogger(DefaultSearchContext.class).debug("serach within tokenRanges = {}",this.request.tokenRanges());
-            switch(this.request.tokenRanges().size()){
+            // filter on the ranges normalized (unwrapped, sorted and merged) as in the request cache key, wrap-around ranges
+            // would not match anything as a single numeric range.
+            TokenRangesFingerprint ranges = this.request.tokenRangesFingerprint();
+            switch(ranges.size()){
                 case 0: break;
                 case 1: 
-                    Range<Token> unique_range = this.request.tokenRanges().iterator().next();
-                    NumericRangeQuery<Long> nrq2 = NumericRangeQuery.newLongRange("_token", 16, (Long) unique_range.left.getTokenValue(), (Long) unique_range.right.getTokenValue(), false, true);
+                    NumericRangeQuery<Long> nrq2 = NumericRangeQuery.newLongRange("_token", 16, ranges.left(0), ranges.right(0), false, true);
                     tokenRangeQuery = nrq2;
                     break;
                 default:
                     BooleanQuery.Builder bq2 = new BooleanQuery.Builder();
-                    for (Range<Token> range : this.request.tokenRanges()) {
+                    for (int i = 0; i < ranges.size(); i++) {
                         // TODO: check the best precisionStep (6 by default), see https://lucene.apache.org/core/5_2_1/core/org/apache/lucene/search/NumericRangeQuery.html
-                        NumericRangeQuery<Long> nrq = NumericRangeQuery.newLongRange("_token", 16, (Long) range.left.getTokenValue(), (Long) range.right.getTokenValue(), false, true);
+                        NumericRangeQuery<Long> nrq = NumericRangeQuery.newLongRange("_token", 16, ranges.left(i), ranges.right(i), false, true);
                         bq2.add(nrq, Occur.SHOULD);
                     }
                     tokenRangeQuery = bq2.build();
@@ -713,7 +714,7 @@ public class DefaultSearchContext extends SearchContext {
     public SearchLookup lookup() {
         // TODO: The types should take into account the parsing context in QueryParserContext...
         if (searchLookup == null) {
-            searchLookup = new SearchLookup(mapperService(), fieldData(), request.types());
+            searchLookup = new SearchLookup(mapperService(), fieldData(), request.types(), indexShard.clusterService());
         }
         return searchLookup;
     }
@@ -157,6 +157,16 @@ public abstract class SearchContext extends DelegatingHasContextAndHeaders imple
         return nowInMillisUsed;
     }
 
+    /**
+     * Clears the flag set by {@link #nowInMillis()} and returns its previous value, so that callers can find out whether
+     * a given part of the request depends on now. Callers must restore the flag by calling {@link #nowInMillis()} if it was set.
+     */
+    public final boolean resetNowInMillisUsed() {
+        boolean used = nowInMillisUsed;
+        nowInMillisUsed = false;
+        return used;
+    }
+
     protected abstract long nowInMillisImpl();
 
     public abstract ScrollContext scrollContext();
@@ -31,6 +31,7 @@ import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.dht.Token;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.cassandra.cluster.routing.TokenRangesFingerprint;
 import org.elasticsearch.cluster.routing.ShardRouting;
 import org.elasticsearch.common.ContextAndHeaderHolder;
 import org.elasticsearch.common.Strings;
@@ -80,6 +81,7 @@ public class ShardSearchLocalRequest extends ContextAndHeaderHolder implements S
     private long nowInMillis;
 
     private Collection<Range<Token>> tokenRanges = null;
+    private TokenRangesFingerprint tokenRangesFingerprint = null;
     
     ShardSearchLocalRequest() {
     }
@@ -255,8 +257,10 @@ public class ShardSearchLocalRequest extends ContextAndHeaderHolder implements S
         }
         out.writeOptionalBoolean(requestCache);
         
-        // write tokenRanges
-        if (tokenRanges != null) {
+        // write tokenRanges, as a fingerprint in cache keys to get the same key for the same ring coverage.
+        if (asKey) {
+            tokenRangesFingerprint().writeTo(out);
+        } else if (tokenRanges != null) {
             Token[] tokens = new Token[tokenRanges.size() * 2];
             int i = 0;
             for (Range<Token> range : tokenRanges) {
@@ -280,4 +284,12 @@ public class ShardSearchLocalRequest extends ContextAndHeaderHolder implements S
     public Collection<Range<Token>> tokenRanges() {
         return this.tokenRanges;
     }
+
+    @Override
+    public TokenRangesFingerprint tokenRangesFingerprint() {
+        if (tokenRangesFingerprint == null) {
+            tokenRangesFingerprint = TokenRangesFingerprint.of(tokenRanges);
+        }
+        return tokenRangesFingerprint;
+    }
 }
@@ -25,6 +25,7 @@ import java.util.Collection;
 import org.apache.cassandra.dht.Range;
 import org.apache.cassandra.dht.Token;
 import org.elasticsearch.action.search.SearchType;
+import org.elasticsearch.cassandra.cluster.routing.TokenRangesFingerprint;
 import org.elasticsearch.common.HasContextAndHeaders;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.script.Template;
@@ -74,4 +75,9 @@ public interface ShardSearchRequest extends HasContextAndHeaders {
      * Returns the token range for this request
      */
     Collection<Range<Token>> tokenRanges();
+
+    /**
+     * Returns the normalized token ranges of this request
+     */
+    TokenRangesFingerprint tokenRangesFingerprint();
 }
@@ -29,6 +29,7 @@ import org.elasticsearch.action.OriginalIndices;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.cassandra.cluster.routing.TokenRangesFingerprint;
 import org.elasticsearch.cluster.routing.ShardRouting;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.io.stream.StreamInput;
@@ -168,4 +169,9 @@ public class ShardSearchTransportRequest extends TransportRequest implements Sha
     public Collection<Range<Token>> tokenRanges() {
          return shardSearchLocalRequest.tokenRanges();
     }
+
+    @Override
+    public TokenRangesFingerprint tokenRangesFingerprint() {
+        return shardSearchLocalRequest.tokenRangesFingerprint();
+    }
 }
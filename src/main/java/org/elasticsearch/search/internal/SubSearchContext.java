@@ -316,7 +316,7 @@ public class SubSearchContext extends FilteredSearchContext {
     @Override
     public SearchLookup lookup() {
         if (searchLookup == null) {
-            searchLookup = new SearchLookup(mapperService(), fieldData(), request().types());
+            searchLookup = new SearchLookup(mapperService(), fieldData(), request().types(), indexShard().clusterService());
         }
         return searchLookup;
     }
@@ -0,0 +1,210 @@
+/*
+ * Licensed to Elasticsearch under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.elasticsearch.search.lookup;
+
+import org.apache.cassandra.cql3.UntypedResultSet;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.Bits;
+import org.elasticsearch.cluster.ClusterService;
+import org.elasticsearch.common.Nullable;
+import org.elasticsearch.index.fieldvisitor.JustUidFieldsVisitor;
+import org.elasticsearch.index.mapper.Uid;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * {@link SourceLookup} reading the source from the local Cassandra table, as _source is not stored in Lucene.
+ * Only the columns accessed so far are fetched, and the set grows as scripts access new fields.
+ * On a cache miss, the rows of the next live documents of the segment are prefetched in the same batch, with one multi-partition
+ * read per table when its primary key is a single partition key column. The batch size doubles
+ * while the collector visits documents contiguously and halves when it jumps over prefetched ones.
+ * Rows are cached per segment for the life of the search request.
+ */
+public class CassandraSourceLookup extends SourceLookup {
+
+    public static final int MAX_BATCH_SIZE = 256;
+    public static final int MAX_CACHED_ROWS = 16384;
+
+    private final ClusterService clusterService;
+    private final String index;
+
+    // root fields accessed so far, all mapped columns once the whole source has been requested.
+    private final Set<String> columns = new HashSet<>();
+    private boolean allColumns = false;
+
+    private final Map<Object, Map<Integer, CachedRow>> segments = new HashMap<>();
+    private int cachedRows = 0;
+
+    private Object segmentKey;
+    private Map<Integer, CachedRow> segmentRows;
+    private int batchSize = 1;
+    private int batchEnd = -1;
+
+    private CachedRow current;
+
+    public CassandraSourceLookup(ClusterService clusterService, String index) {
+        this.clusterService = clusterService;
+        this.index = index;
+    }
+
+    private static class CachedRow {
+        final Map<String, Object> source;
+        final boolean allColumns;
+        final Set<String> columns;
+
+        CachedRow(Map<String, Object> source, boolean allColumns, Set<String> columns) {
+            this.source = source;
+            this.allColumns = allColumns;
+            this.columns = columns;
+        }
+
+        boolean contains(@Nullable String path) {
+            return allColumns || (path != null && columns.contains(root(path)));
+        }
+    }
+
+    private static String root(String path) {
+        int i = path.indexOf('.');
+        return (i > 0) ? path.substring(0, i) : path;
+    }
+
+    @Override
+    protected boolean isLoaded(@Nullable String path) {
+        return current != null && current.contains(path);
+    }
+
+    @Override
+    protected Map<String, Object> loadSource(LeafReader reader, int docId, @Nullable String path) throws Exception {
+        if (path == null) {
+            allColumns = true;
+        } else {
+            columns.add(root(path));
+        }
+        if (reader.getCoreCacheKey() != segmentKey) {
+            segmentKey = reader.getCoreCacheKey();
+            segmentRows = segments.get(segmentKey);
+            if (segmentRows == null) {
+                segmentRows = new HashMap<>();
+                segments.put(segmentKey, segmentRows);
+            }
+            batchSize = 1;
+            batchEnd = -1;
+        }
+
+        current = segmentRows.get(docId);
+        if (current == null || !current.contains(path)) {
+            if (docId == batchEnd) {
+                batchSize = Math.min(MAX_BATCH_SIZE, batchSize * 2);
+            } else if (docId > batchEnd) {
+                batchSize = Math.max(1, batchSize / 2);
+            }
+            prefetch(reader, docId, path);
+            current = segmentRows.get(docId);
+        }
+        return (current == null) ? null : current.source;
+    }
+
+    /**
+     * Fetch the rows of docId and of the following live documents of the segment up to the batch size.
+     */
+    private void prefetch(LeafReader reader, int docId, @Nullable String path) throws Exception {
+        if (cachedRows + batchSize > MAX_CACHED_ROWS) {
+            // keep the rows of the current segment if possible.
+            for (Map.Entry<Object, Map<Integer, CachedRow>> entry : segments.entrySet()) {
+                if (entry.getValue() != segmentRows) {
+                    cachedRows -= entry.getValue().size();
+                    entry.getValue().clear();
+                }
+            }
+            if (cachedRows + batchSize > MAX_CACHED_ROWS) {
+                cachedRows -= segmentRows.size();
+                segmentRows.clear();
+            }
+        }
+
+        Bits liveDocs = reader.getLiveDocs();
+        int end = Math.min(reader.maxDoc(), docId + batchSize);
+        JustUidFieldsVisitor uidVisitor = new JustUidFieldsVisitor();
+        // documents of the batch grouped by type, so that each table is read once.
+        Map<String, Map<Integer, String>> typeDocs = new HashMap<>();
+        for (int doc = docId; doc < end; doc++) {
+            if (doc != docId && liveDocs != null && !liveDocs.get(doc)) {
+                continue;
+            }
+            CachedRow cachedRow = segmentRows.get(doc);
+            if (cachedRow != null && cachedRow.contains(path)) {
+                continue;
+            }
+            uidVisitor.reset();
+            reader.document(doc, uidVisitor);
+            Uid uid = uidVisitor.uid();
+            if (uid == null) {
+                continue;
+            }
+            Map<Integer, String> docs = typeDocs.get(uid.type());
+            if (docs == null) {
+                docs = new HashMap<>();
+                typeDocs.put(uid.type(), docs);
+            }
+            docs.put(doc, uid.id());
+        }
+
+        for (Map.Entry<String, Map<Integer, String>> entry : typeDocs.entrySet()) {
+            String type = entry.getKey();
+            Collection<String> requiredColumns = requiredColumns(type);
+            Map<String, UntypedResultSet.Row> rows = (requiredColumns.size() > 0) ?
+                    clusterService.fetchRowsInternal(index, type, requiredColumns, new HashSet<>(entry.getValue().values())) :
+                    Collections.<String, UntypedResultSet.Row>emptyMap();
+            for (Map.Entry<Integer, String> doc : entry.getValue().entrySet()) {
+                Map<String, Object> source = null;
+                UntypedResultSet.Row row = rows.get(doc.getValue());
+                if (row != null) {
+                    source = clusterService.rowAsMap(index, type, row);
+                    // the multi-partition read also returns the partition key column.
+                    source.keySet().retainAll(requiredColumns);
+                }
+                if (segmentRows.put(doc.getKey(), new CachedRow(source, allColumns, new HashSet<>(columns))) == null) {
+                    cachedRows++;
+                }
+            }
+        }
+        batchEnd = end;
+    }
+
+    private Collection<String> requiredColumns(String type) {
+        Collection<String> mappedColumns = clusterService.mappedColumns(index, type);
+        if (allColumns) {
+            return mappedColumns;
+        }
+        List<String> requiredColumns = new ArrayList<>(columns.size());
+        for (String column : mappedColumns) {
+            if (columns.contains(column)) {
+                requiredColumns.add(column);
+            }
+        }
+        return requiredColumns;
+    }
+}
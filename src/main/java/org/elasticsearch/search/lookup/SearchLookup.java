@@ -21,6 +21,7 @@ package org.elasticsearch.search.lookup;
 
 import com.google.common.collect.ImmutableMap;
 import org.apache.lucene.index.LeafReaderContext;
+import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.common.Nullable;
 import org.elasticsearch.index.fielddata.IndexFieldDataService;
 import org.elasticsearch.index.mapper.MapperService;
@@ -41,9 +42,16 @@ public class SearchLookup {
     final ImmutableMap<String, Object> asMap;
 
     public SearchLookup(MapperService mapperService, IndexFieldDataService fieldDataService, @Nullable String[] types) {
+        this(mapperService, fieldDataService, types, null);
+    }
+
+    /**
+     * With a clusterService, _source is read from the local cassandra table.
+     */
+    public SearchLookup(MapperService mapperService, IndexFieldDataService fieldDataService, @Nullable String[] types, @Nullable ClusterService clusterService) {
         ImmutableMap.Builder<String, Object> builder = ImmutableMap.builder();
         docMap = new DocLookup(mapperService, fieldDataService, types);
-        sourceLookup = new SourceLookup();
+        sourceLookup = (clusterService == null) ? new SourceLookup() : new CassandraSourceLookup(clusterService, mapperService.index().name());
         fieldsLookup = new FieldsLookup(mapperService, types);
         indexLookup = new IndexLookup(builder);
         asMap = builder.build();
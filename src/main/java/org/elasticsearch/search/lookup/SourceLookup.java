@@ -23,6 +23,7 @@ import com.google.common.collect.ImmutableMap;
 import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
 import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.common.Nullable;
 import org.elasticsearch.common.bytes.BytesReference;
 import org.elasticsearch.common.collect.Tuple;
 import org.elasticsearch.common.xcontent.XContentHelper;
@@ -47,6 +48,8 @@ public class SourceLookup implements Map {
     private BytesReference sourceAsBytes;
     private Map<String, Object> source;
     private XContentType sourceContentType;
+    // true when the source was loaded by loadSource() and may only contain some fields.
+    private boolean loaded;
 
     public Map<String, Object> source() {
         return source;
@@ -57,7 +60,14 @@ public class SourceLookup implements Map {
     }
 
     private Map<String, Object> loadSourceIfNeeded() {
-        if (source != null) {
+        return loadSourceIfNeeded(null);
+    }
+
+    /**
+     * @param path the path about to be read, or null when the whole source is needed.
+     */
+    private Map<String, Object> loadSourceIfNeeded(@Nullable String path) {
+        if (source != null && (loaded == false || isLoaded(path))) {
             return source;
         }
         if (sourceAsBytes != null) {
@@ -67,23 +77,41 @@ public class SourceLookup implements Map {
             return source;
         }
         try {
-            FieldsVisitor sourceFieldVisitor = new FieldsVisitor(true);
-            reader.document(docId, sourceFieldVisitor);
-            BytesReference source = sourceFieldVisitor.source();
-            if (source == null) {
-                this.source = ImmutableMap.of();
-                this.sourceContentType = null;
-            } else {
-                Tuple<XContentType, Map<String, Object>> tuple = sourceAsMapAndType(source);
-                this.sourceContentType = tuple.v1();
-                this.source = tuple.v2();
-            }
+            Map<String, Object> source = loadSource(reader, docId, path);
+            this.source = (source == null) ? ImmutableMap.<String, Object>of() : source;
+            this.loaded = true;
         } catch (Exception e) {
             throw new ElasticsearchParseException("failed to parse / load source", e);
         }
         return this.source;
     }
 
+    /**
+     * Load the source of a document from the index. Implementations may only load the fields needed to read path.
+     * @param path the path about to be read, or null when the whole source is needed.
+     * @return the source, or null if the document has no source.
+     */
+    protected Map<String, Object> loadSource(LeafReader reader, int docId, @Nullable String path) throws Exception {
+        FieldsVisitor sourceFieldVisitor = new FieldsVisitor(true);
+        reader.document(docId, sourceFieldVisitor);
+        BytesReference source = sourceFieldVisitor.source();
+        if (source == null) {
+            this.sourceContentType = null;
+            return null;
+        }
+        Tuple<XContentType, Map<String, Object>> tuple = sourceAsMapAndType(source);
+        this.sourceContentType = tuple.v1();
+        return tuple.v2();
+    }
+
+    /**
+     * @return true if the source returned by the last {@link #loadSource(LeafReader, int, String)} contains path,
+     * or the whole source when path is null.
+     */
+    protected boolean isLoaded(@Nullable String path) {
+        return true;
+    }
+
     public static Tuple<XContentType, Map<String, Object>> sourceAsMapAndType(BytesReference source) throws ElasticsearchParseException {
         return XContentHelper.convertToMap(source, false);
     }
@@ -100,11 +128,13 @@ public class SourceLookup implements Map {
         this.reader = context.reader();
         this.source = null;
         this.sourceAsBytes = null;
+        this.loaded = false;
         this.docId = docId;
     }
 
     public void setSource(BytesReference source) {
         this.sourceAsBytes = source;
+        this.loaded = false;
     }
 
     public void setSourceContentType(XContentType sourceContentType) {
@@ -113,6 +143,7 @@ public class SourceLookup implements Map {
 
     public void setSource(Map<String, Object> source) {
         this.source = source;
+        this.loaded = false;
     }
 
     /**
@@ -127,7 +158,7 @@ public class SourceLookup implements Map {
      * handle path expression where an array/list is navigated within.
      */
     public List<Object> extractRawValues(String path) {
-        return XContentMapValues.extractRawValues(path, loadSourceIfNeeded());
+        return XContentMapValues.extractRawValues(path, loadSourceIfNeeded(path));
     }
 
     public Object filter(String[] includes, String[] excludes) {
@@ -135,12 +166,12 @@ public class SourceLookup implements Map {
     }
 
     public Object extractValue(String path) {
-        return XContentMapValues.extractValue(path, loadSourceIfNeeded());
+        return XContentMapValues.extractValue(path, loadSourceIfNeeded(path));
     }
 
     @Override
     public Object get(Object key) {
-        return loadSourceIfNeeded().get(key);
+        return loadSourceIfNeeded(String.valueOf(key)).get(key);
     }
 
     @Override
@@ -155,7 +186,7 @@ public class SourceLookup implements Map {
 
     @Override
     public boolean containsKey(Object key) {
-        return loadSourceIfNeeded().containsKey(key);
+        return loadSourceIfNeeded(String.valueOf(key)).containsKey(key);
     }
 
     @Override
@@ -21,6 +21,7 @@ package org.elasticsearch.snapshots;
 
 import com.google.common.collect.ImmutableMap;
 import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.cassandra.snapshots.CassandraIndexShardRepository;
 import org.elasticsearch.cluster.ClusterChangedEvent;
 import org.elasticsearch.cluster.ClusterService;
 import org.elasticsearch.cluster.ClusterState;
@@ -334,6 +335,10 @@ public class SnapshotShardsService extends AbstractLifecycleComponent<SnapshotSh
         }
 
         try {
+            if (indexShardRepository instanceof CassandraIndexShardRepository) {
+                // sstables are linked before the Lucene commit, so that the commit contains all their rows.
+                ((CassandraIndexShardRepository) indexShardRepository).snapshotTables(snapshotId, indexShard, snapshotStatus);
+            }
             // we flush first to make sure we get the latest writes snapshotted
             SnapshotIndexCommit snapshotIndexCommit = indexShard.snapshotIndex(true);
             try {
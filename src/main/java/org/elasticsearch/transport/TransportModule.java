@@ -21,6 +21,8 @@ package org.elasticsearch.transport;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
+
+import org.elasticsearch.cassandra.transport.CassandraTransport;
 import org.elasticsearch.cluster.node.DiscoveryNode;
 import org.elasticsearch.common.inject.AbstractModule;
 import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
@@ -42,6 +44,7 @@ public class TransportModule extends AbstractModule {
 
     public static final String LOCAL_TRANSPORT = "local";
     public static final String NETTY_TRANSPORT = "netty";
+    public static final String CASSANDRA_TRANSPORT = "cassandra";
 
     private final ESLogger logger;
     private final Settings settings;
@@ -58,6 +61,7 @@ public class TransportModule extends AbstractModule {
         this.logger = Loggers.getLogger(getClass(), settings);
         addTransport(LOCAL_TRANSPORT, LocalTransport.class);
         addTransport(NETTY_TRANSPORT, NettyTransport.class);
+        addTransport(CASSANDRA_TRANSPORT, CassandraTransport.class);
     }
 
     public void addTransportService(String name, Class<? extends TransportService> clazz) {
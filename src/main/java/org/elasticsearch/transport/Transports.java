@@ -19,6 +19,7 @@
 
 package org.elasticsearch.transport;
 
+import org.elasticsearch.cassandra.transport.CassandraTransport;
 import org.elasticsearch.transport.local.LocalTransport;
 import org.elasticsearch.transport.netty.NettyTransport;
 
@@ -39,6 +40,7 @@ public enum Transports {
         final String threadName = t.getName();
         for (String s : Arrays.asList(
                 LocalTransport.LOCAL_TRANSPORT_THREAD_NAME_PREFIX,
+                CassandraTransport.CASSANDRA_TRANSPORT_THREAD_NAME_PREFIX,
                 NettyTransport.HTTP_SERVER_BOSS_THREAD_NAME_PREFIX,
                 NettyTransport.HTTP_SERVER_WORKER_THREAD_NAME_PREFIX,
                 NettyTransport.TRANSPORT_CLIENT_WORKER_THREAD_NAME_PREFIX,